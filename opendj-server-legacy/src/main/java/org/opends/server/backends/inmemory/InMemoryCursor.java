@@ -0,0 +1,185 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.inmemory;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+
+/**
+ * Cursor over the records of an {@link InMemoryTree} visible from a snapshot. The cursor does not hold any state in
+ * the tree: each move looks up the key following the current one, so that the updates performed by the transaction
+ * owning the cursor are visible to it.
+ */
+final class InMemoryCursor implements Cursor<ByteString, ByteString>
+{
+  /** Deletes the records of the tree on behalf of a write transaction. */
+  interface Deleter
+  {
+    void delete(ByteString key);
+  }
+
+  private final InMemoryTree tree;
+  private final long snapshot;
+  private final Deleter deleter;
+  private ByteString currentKey;
+  private ByteString currentValue;
+  /** The key from which {@link #next()} resumes, {@code null} if the cursor has not been positioned yet. */
+  private ByteString position;
+  private boolean positionInclusive;
+
+  /**
+   * Creates a new cursor.
+   *
+   * @param tree
+   *          the tree to read, or {@code null} if the tree does not exist
+   * @param snapshot
+   *          the sequence number of the last visible transaction
+   * @param deleter
+   *          deletes the records of the tree, or {@code null} if the cursor is read-only
+   */
+  InMemoryCursor(InMemoryTree tree, long snapshot, Deleter deleter)
+  {
+    this.tree = tree;
+    this.snapshot = snapshot;
+    this.deleter = deleter;
+  }
+
+  @Override
+  public boolean next()
+  {
+    return moveTo(position, positionInclusive);
+  }
+
+  @Override
+  public boolean isDefined()
+  {
+    return currentKey != null;
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    throwIfUndefined();
+    return currentKey;
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    throwIfUndefined();
+    return currentValue;
+  }
+
+  @Override
+  public void delete()
+  {
+    throwIfUndefined();
+    if (deleter == null)
+    {
+      throw new UnsupportedOperationException();
+    }
+    deleter.delete(currentKey);
+  }
+
+  @Override
+  public boolean positionToKey(ByteSequence key)
+  {
+    final ByteString keyBytes = key.toByteString();
+    if (moveTo(keyBytes, true) && currentKey.equals(keyBytes))
+    {
+      return true;
+    }
+    clearCurrent();
+    position = keyBytes;
+    positionInclusive = true;
+    return false;
+  }
+
+  @Override
+  public boolean positionToKeyOrNext(ByteSequence key)
+  {
+    return moveTo(key.toByteString(), true);
+  }
+
+  @Override
+  public boolean positionToLastKey()
+  {
+    return setCurrent(tree != null ? tree.previous(null, snapshot) : null);
+  }
+
+  @Override
+  public boolean positionToIndex(int index)
+  {
+    moveTo(null, true);
+    for (int i = 0; i < index && isDefined(); i++)
+    {
+      next();
+    }
+    return isDefined();
+  }
+
+  @Override
+  public void close()
+  {
+    // Nothing to release
+  }
+
+  private boolean moveTo(ByteString key, boolean inclusive)
+  {
+    return setCurrent(tree != null ? tree.next(key, inclusive, snapshot) : null);
+  }
+
+  private boolean setCurrent(Map.Entry<ByteString, ByteString> record)
+  {
+    if (record == null)
+    {
+      clearCurrent();
+      return false;
+    }
+    currentKey = record.getKey();
+    currentValue = record.getValue();
+    position = currentKey;
+    positionInclusive = false;
+    return true;
+  }
+
+  private void clearCurrent()
+  {
+    currentKey = null;
+    currentValue = null;
+  }
+
+  private void throwIfUndefined()
+  {
+    if (!isDefined())
+    {
+      throw new NoSuchElementException();
+    }
+  }
+}
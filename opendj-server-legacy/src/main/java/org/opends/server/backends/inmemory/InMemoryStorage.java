@@ -0,0 +1,1123 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.inmemory;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.util.Reject;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.InMemoryBackendCfg;
+import org.opends.server.api.Backupable;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.DiskSpaceMonitorHandler;
+import org.opends.server.backends.lsm.WriteAheadLog;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * {@link Storage} implementation holding all the records in memory, for read-mostly suffixes fitting in the heap.
+ * <p>
+ * Each tree is a concurrent sorted map from each key to the chain of its versions. Read transactions see the
+ * versions written by the transactions committed before they started, without any locking. Write transactions are
+ * serialized: they apply their updates right away with a new sequence number, which only becomes visible to the
+ * readers when they commit, and remove them if they are rolled back.
+ * <p>
+ * Durability is provided by a {@link WriteAheadLog} of the committed transactions and by snapshot files holding all
+ * the records, written periodically and when the storage is closed. Opening the storage loads the most recent
+ * snapshot file, then replays the transactions logged after it.
+ */
+public final class InMemoryStorage implements Storage, Backupable, ConfigurationChangeListener<InMemoryBackendCfg>,
+  DiskSpaceMonitorHandler
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Types of the operations recorded in the transaction log. */
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte CREATE_TREE = 3;
+  private static final byte DELETE_TREE = 4;
+
+  /** Filter to retrieve the database files to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return SnapshotFile.SNAPSHOT_FILES.accept(file) || WriteAheadLog.LOG_FILES.accept(file);
+    }
+  };
+
+  /** Read-only transaction reading the records visible from a snapshot. */
+  private class ReadableTransactionImpl implements ReadableTransaction
+  {
+    final long snapshot;
+
+    ReadableTransactionImpl(long snapshot)
+    {
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final InMemoryTree tree = trees.get(treeName);
+      return tree != null ? tree.get(key, snapshot) : null;
+    }
+
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return StorageUtils.multiGet(this, treeName, keys);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return new InMemoryCursor(trees.get(treeName), snapshot, null);
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      final InMemoryTree tree = trees.get(treeName);
+      long count = 0;
+      if (tree != null)
+      {
+        for (Map.Entry<ByteString, ByteString> record : tree.records(snapshot))
+        {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  /** A tree created or deleted by a write transaction, to restore if the transaction is rolled back. */
+  private static final class TreeChange
+  {
+    private final TreeName name;
+    /** The tree replaced by the change, {@code null} if there was none. */
+    private final InMemoryTree previous;
+
+    private TreeChange(TreeName name, InMemoryTree previous)
+    {
+      this.name = name;
+      this.previous = previous;
+    }
+  }
+
+  /**
+   * Write transaction applying its updates to the trees with its own sequence number, which is made visible to the
+   * readers when the transaction commits.
+   */
+  private final class WriteableTransactionImpl extends ReadableTransactionImpl implements WriteableTransaction
+  {
+    private final long oldestSnapshot = getOldestSnapshot();
+    private final ByteStringBuilder operations = new ByteStringBuilder();
+    private int operationCount;
+    private final List<InMemoryTree> updatedTrees = new ArrayList<>();
+    private final List<ByteString> updatedKeys = new ArrayList<>();
+    private final Deque<TreeChange> treeChanges = new ArrayDeque<>();
+
+    WriteableTransactionImpl(long seq)
+    {
+      super(seq);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new InMemoryCursor(trees.get(treeName), snapshot, new InMemoryCursor.Deleter()
+      {
+        @Override
+        public void delete(ByteString key)
+        {
+          WriteableTransactionImpl.this.delete(treeName, key);
+        }
+      });
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand && !trees.containsKey(treeName))
+      {
+        checkWriteable();
+        trees.put(treeName, new InMemoryTree(treeName));
+        treeChanges.push(new TreeChange(treeName, null));
+        logOperation(CREATE_TREE, treeName);
+      }
+    }
+
+    @Override
+    public void deleteTree(TreeName treeName)
+    {
+      checkWriteable();
+      final InMemoryTree tree = trees.remove(treeName);
+      if (tree != null)
+      {
+        treeChanges.push(new TreeChange(treeName, tree));
+        logOperation(DELETE_TREE, treeName);
+      }
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      write(treeName, key.toByteString(), value.toByteString());
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      final ByteString oldValue = read(treeName, key);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (newValue == null ? oldValue == null : newValue.equals(oldValue))
+      {
+        return false;
+      }
+      write(treeName, key.toByteString(), newValue != null ? newValue.toByteString() : null);
+      return true;
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      final boolean exists = read(treeName, key) != null;
+      if (exists)
+      {
+        write(treeName, key.toByteString(), null);
+      }
+      return exists;
+    }
+
+    private void write(TreeName treeName, ByteString key, ByteString value)
+    {
+      checkWriteable();
+      final InMemoryTree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        throw new StorageRuntimeException("Tree '" + treeName + "' does not exist");
+      }
+      tree.put(key, snapshot, value, oldestSnapshot);
+      updatedTrees.add(tree);
+      updatedKeys.add(key);
+
+      logOperation(value != null ? PUT : DELETE, treeName);
+      operations.appendCompactUnsigned(key.length());
+      operations.appendBytes(key);
+      if (value != null)
+      {
+        operations.appendCompactUnsigned(value.length());
+        operations.appendBytes(value);
+      }
+    }
+
+    private void logOperation(byte type, TreeName treeName)
+    {
+      final ByteString name = ByteString.valueOfUtf8(treeName.toString());
+      operations.appendByte(type);
+      operations.appendCompactUnsigned(name.length());
+      operations.appendBytes(name);
+      operationCount++;
+    }
+
+    /** Makes the updates of this transaction visible to the new readers, once they have been logged. */
+    private long commit() throws IOException
+    {
+      if (operationCount == 0)
+      {
+        return 0;
+      }
+      final ByteStringBuilder payload = new ByteStringBuilder(operations.length() + 12);
+      payload.appendLong(snapshot);
+      payload.appendInt(operationCount);
+      payload.appendBytes(operations);
+      final long logPosition = wal.append(payload);
+      visibleSeq = snapshot;
+      changesSinceSnapshot.incrementAndGet();
+
+      final long oldest = getOldestSnapshot();
+      for (int i = 0; i < updatedKeys.size(); i++)
+      {
+        updatedTrees.get(i).purge(updatedKeys.get(i), oldest);
+      }
+      return logPosition;
+    }
+
+    private void rollback()
+    {
+      for (int i = updatedKeys.size() - 1; i >= 0; i--)
+      {
+        updatedTrees.get(i).rollback(updatedKeys.get(i), snapshot);
+      }
+      while (!treeChanges.isEmpty())
+      {
+        final TreeChange change = treeChanges.pop();
+        if (change.previous != null)
+        {
+          trees.put(change.name, change.previous);
+        }
+        else
+        {
+          trees.remove(change.name);
+        }
+      }
+    }
+  }
+
+  /** Importer writing directly to the trees, which are only written to disk when the import completes. */
+  private final class ImporterImpl implements Importer
+  {
+    @Override
+    public void clearTree(TreeName treeName)
+    {
+      trees.put(treeName, new InMemoryTree(treeName));
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      InMemoryTree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        final InMemoryTree newTree = new InMemoryTree(treeName);
+        tree = trees.putIfAbsent(treeName, newTree);
+        tree = tree != null ? tree : newTree;
+      }
+      tree.load(key.toByteString(), value.toByteString());
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final InMemoryTree tree = trees.get(treeName);
+      return tree != null ? tree.get(key, Long.MAX_VALUE) : null;
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return new InMemoryCursor(trees.get(treeName), Long.MAX_VALUE, null);
+    }
+
+    @Override
+    public void close()
+    {
+      changesSinceSnapshot.incrementAndGet();
+      InMemoryStorage.this.close();
+    }
+  }
+
+  /** Background thread periodically writing snapshot files. */
+  private final class SnapshotTask implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      for (;;)
+      {
+        synchronized (snapshotTaskLock)
+        {
+          try
+          {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDBSnapshotInterval());
+            long remaining;
+            while (!closing && (remaining = deadline - System.nanoTime()) > 0)
+            {
+              TimeUnit.NANOSECONDS.timedWait(snapshotTaskLock, remaining);
+            }
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+          if (closing)
+          {
+            return;
+          }
+        }
+        try
+        {
+          if (changesSinceSnapshot.get() > 0)
+          {
+            writeSnapshot();
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.error(ERR_IN_MEMORY_SNAPSHOT_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+        }
+      }
+    }
+  }
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private InMemoryBackendCfg config;
+  private AccessMode accessMode;
+  private DiskSpaceMonitor diskMonitor;
+  private StorageStatus storageStatus = StorageStatus.working();
+  private volatile boolean isOpen;
+
+  private final ConcurrentHashMap<TreeName, InMemoryTree> trees = new ConcurrentHashMap<>();
+  /** The transaction log, {@code null} when importing or when the storage is read-only. */
+  private WriteAheadLog wal;
+  /** Sequence number of the last committed transaction, visible to new read transactions. */
+  private volatile long visibleSeq;
+  /** Number of read transactions using each snapshot. */
+  private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+  /** Serializes the write transactions. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final AtomicLong changesSinceSnapshot = new AtomicLong();
+
+  /** Serializes the snapshot writes, and guards the fields below. */
+  private final Object snapshotLock = new Object();
+  private long snapshotGeneration;
+  /** Number of the first transaction log file holding transactions committed after the last snapshot. */
+  private long logStart;
+  /** Number of backups in progress, during which no file may be deleted. */
+  private final AtomicInteger backupsInProgress = new AtomicInteger();
+
+  private final Object snapshotTaskLock = new Object();
+  private Thread snapshotThread;
+  private boolean closing;
+
+  /**
+   * Creates a new in-memory storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  public InMemoryStorage(final InMemoryBackendCfg cfg, ServerContext serverContext)
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    cfg.addInMemoryChangeListener(this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    open0(accessMode, false);
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    open0(AccessMode.READ_WRITE, true);
+    return new ImporterImpl();
+  }
+
+  private void open0(AccessMode accessMode, boolean importMode) throws ConfigException
+  {
+    setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    if (isOpen)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    this.accessMode = accessMode;
+    diskMonitor = serverContext.getDiskSpaceMonitor();
+    closing = false;
+    try
+    {
+      load(importMode);
+    }
+    catch (IOException e)
+    {
+      closeFiles();
+      throw new StorageRuntimeException(e);
+    }
+    catch (RuntimeException e)
+    {
+      closeFiles();
+      throw e;
+    }
+
+    isOpen = true;
+    if (accessMode.isWriteable() && !importMode)
+    {
+      snapshotThread = new DirectoryThread(new SnapshotTask(),
+          "Snapshot thread for in-memory backend " + config.getBackendId());
+      snapshotThread.setDaemon(true);
+      snapshotThread.start();
+    }
+    registerMonitoredDirectory(config);
+  }
+
+  /** Loads the most recent snapshot file, then replays the transaction log written after it. */
+  private void load(boolean importMode) throws IOException
+  {
+    final long start = System.currentTimeMillis();
+    long seq = 0;
+    long recordCount = 0;
+    logStart = 1;
+    snapshotGeneration = 0;
+    final File snapshotFile = SnapshotFile.getLatestFile(backendDirectory);
+    if (snapshotFile != null)
+    {
+      try
+      {
+        final SnapshotFile snapshot = SnapshotFile.read(snapshotFile, trees);
+        seq = snapshot.seq;
+        recordCount = snapshot.recordCount;
+        logStart = snapshot.logStart;
+        snapshotGeneration = snapshot.generation;
+      }
+      catch (DecodeException e)
+      {
+        throw new StorageRuntimeException(ERR_IN_MEMORY_CORRUPTED_SNAPSHOT.get(
+            snapshotFile, config.getBackendId(), e.getMessageObject()).toString(), e);
+      }
+    }
+
+    long nextLogFileNumber = logStart;
+    final List<File> logFiles = new ArrayList<>();
+    for (File logFile : WriteAheadLog.listLogFiles(backendDirectory))
+    {
+      final long number = WriteAheadLog.fileNumber(logFile);
+      if (number >= logStart)
+      {
+        logFiles.add(logFile);
+        nextLogFileNumber = Math.max(nextLogFileNumber, number + 1);
+      }
+    }
+    final AtomicLong lastSeq = new AtomicLong(seq);
+    final long replayed = WriteAheadLog.replay(logFiles, new WriteAheadLog.Replayer()
+    {
+      @Override
+      public void replay(ByteString payload)
+      {
+        lastSeq.set(replayTransaction(payload));
+      }
+    });
+    visibleSeq = lastSeq.get();
+    logger.info(NOTE_IN_MEMORY_LOADED, config.getBackendId(), recordCount, replayed,
+        System.currentTimeMillis() - start);
+
+    if (accessMode.isWriteable())
+    {
+      if (importMode)
+      {
+        // Imported records are only durable once written to a snapshot file
+        logStart = nextLogFileNumber;
+      }
+      else
+      {
+        wal = new WriteAheadLog(backendDirectory, nextLogFileNumber);
+      }
+      if (replayed > 0)
+      {
+        changesSinceSnapshot.incrementAndGet();
+        writeSnapshot();
+      }
+      else
+      {
+        deleteObsoleteFiles();
+      }
+    }
+  }
+
+  /**
+   * Applies a logged transaction to the trees.
+   *
+   * @return the sequence number of the transaction
+   */
+  private long replayTransaction(ByteString payload)
+  {
+    final ByteSequenceReader reader = payload.asReader();
+    final long seq = reader.readLong();
+    final int count = reader.readInt();
+    for (int i = 0; i < count; i++)
+    {
+      final byte type = reader.readByte();
+      final TreeName treeName = TreeName.valueOf(reader.readStringUtf8(reader.readCompactUnsignedInt()));
+      switch (type)
+      {
+      case CREATE_TREE:
+        trees.put(treeName, new InMemoryTree(treeName));
+        break;
+      case DELETE_TREE:
+        trees.remove(treeName);
+        break;
+      default:
+        final ByteString key = reader.readByteString(reader.readCompactUnsignedInt());
+        final ByteString value = type == PUT ? reader.readByteString(reader.readCompactUnsignedInt()) : null;
+        final InMemoryTree tree = trees.get(treeName);
+        if (tree != null)
+        {
+          tree.load(key, value);
+        }
+        break;
+      }
+    }
+    return seq;
+  }
+
+  @Override
+  public void close()
+  {
+    if (isOpen)
+    {
+      stopSnapshotThread();
+      if (accessMode.isWriteable() && changesSinceSnapshot.get() > 0)
+      {
+        try
+        {
+          writeSnapshot();
+        }
+        catch (IOException | RuntimeException e)
+        {
+          logger.traceException(e);
+          logger.error(ERR_IN_MEMORY_SNAPSHOT_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+        }
+      }
+      closeFiles();
+      isOpen = false;
+    }
+    config.removeInMemoryChangeListener(this);
+    if (diskMonitor != null)
+    {
+      diskMonitor.deregisterMonitoredDirectory(getDirectory(), this);
+    }
+  }
+
+  private void stopSnapshotThread()
+  {
+    synchronized (snapshotTaskLock)
+    {
+      closing = true;
+      snapshotTaskLock.notifyAll();
+    }
+    if (snapshotThread != null)
+    {
+      try
+      {
+        snapshotThread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      snapshotThread = null;
+    }
+  }
+
+  private void closeFiles()
+  {
+    trees.clear();
+    changesSinceSnapshot.set(0);
+    if (wal != null)
+    {
+      try
+      {
+        wal.close();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+      }
+      wal = null;
+    }
+  }
+
+  @Override
+  public <T> T read(ReadOperation<T> operation) throws Exception
+  {
+    final long snapshot = acquireSnapshot();
+    try
+    {
+      return operation.run(new ReadableTransactionImpl(snapshot));
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    finally
+    {
+      releaseSnapshot(snapshot);
+    }
+  }
+
+  @Override
+  public void write(WriteOperation operation) throws Exception
+  {
+    final long logPosition;
+    writeLock.lock();
+    try
+    {
+      final WriteableTransactionImpl txn = new WriteableTransactionImpl(visibleSeq + 1);
+      try
+      {
+        operation.run(txn);
+        logPosition = txn.commit();
+      }
+      catch (final StorageRuntimeException e)
+      {
+        txn.rollback();
+        if (e.getCause() != null)
+        {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+      catch (Exception | Error e)
+      {
+        txn.rollback();
+        throw e;
+      }
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+    if (logPosition > 0 && !config.isDBTxnNoSync())
+    {
+      wal.sync(logPosition);
+    }
+  }
+
+  private void checkWriteable()
+  {
+    if (!accessMode.isWriteable())
+    {
+      throw new ReadOnlyStorageException();
+    }
+  }
+
+  private long acquireSnapshot()
+  {
+    synchronized (snapshots)
+    {
+      final long snapshot = visibleSeq;
+      final Integer count = snapshots.get(snapshot);
+      snapshots.put(snapshot, count != null ? count + 1 : 1);
+      return snapshot;
+    }
+  }
+
+  private void releaseSnapshot(long snapshot)
+  {
+    synchronized (snapshots)
+    {
+      final int count = snapshots.get(snapshot);
+      if (count == 1)
+      {
+        snapshots.remove(snapshot);
+      }
+      else
+      {
+        snapshots.put(snapshot, count - 1);
+      }
+    }
+  }
+
+  /** Returns the oldest snapshot which may still be read: older versions of the keys can be discarded. */
+  private long getOldestSnapshot()
+  {
+    synchronized (snapshots)
+    {
+      return snapshots.isEmpty() ? visibleSeq : snapshots.firstKey();
+    }
+  }
+
+  /**
+   * Writes a snapshot file holding all the committed records, then deletes the previous snapshot files and the
+   * transaction log files it makes obsolete.
+   */
+  private void writeSnapshot() throws IOException
+  {
+    synchronized (snapshotLock)
+    {
+      final long seq;
+      final long newLogStart;
+      final List<InMemoryTree> snapshotTrees;
+      final long changes;
+      writeLock.lock();
+      try
+      {
+        seq = acquireSnapshot();
+        newLogStart = wal != null ? wal.rotate() : logStart;
+        snapshotTrees = new ArrayList<>(trees.values());
+        changes = changesSinceSnapshot.getAndSet(0);
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+
+      try
+      {
+        SnapshotFile.write(backendDirectory, snapshotGeneration + 1, seq, newLogStart, snapshotTrees);
+        snapshotGeneration++;
+        logStart = newLogStart;
+      }
+      catch (IOException | RuntimeException e)
+      {
+        changesSinceSnapshot.addAndGet(changes);
+        throw e;
+      }
+      finally
+      {
+        releaseSnapshot(seq);
+      }
+      deleteObsoleteFiles();
+
+      final long oldestSnapshot = getOldestSnapshot();
+      for (InMemoryTree tree : snapshotTrees)
+      {
+        tree.purge(oldestSnapshot);
+      }
+    }
+  }
+
+  /**
+   * Deletes the snapshot files preceding the most recent one, and the transaction log files it holds, unless a
+   * backup is in progress.
+   */
+  private void deleteObsoleteFiles()
+  {
+    synchronized (snapshotLock)
+    {
+      if (backupsInProgress.get() > 0)
+      {
+        return;
+      }
+      final File[] files = backendDirectory.listFiles();
+      if (files == null)
+      {
+        return;
+      }
+      final File latestSnapshot = SnapshotFile.getFile(backendDirectory, snapshotGeneration);
+      for (File file : files)
+      {
+        if ((SnapshotFile.SNAPSHOT_FILES.accept(file) && !file.equals(latestSnapshot))
+            || (WriteAheadLog.LOG_FILES.accept(file) && WriteAheadLog.fileNumber(file) < logStart)
+            || file.getName().endsWith(".tmp"))
+        {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(InMemoryBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    if (!isOpen)
+    {
+      return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+    }
+    synchronized (snapshotLock)
+    {
+      // The latest snapshot file, followed by the transaction log files written after it
+      final List<Path> paths = new ArrayList<>();
+      final File snapshotFile = SnapshotFile.getFile(backendDirectory, snapshotGeneration);
+      if (snapshotFile.exists())
+      {
+        paths.add(snapshotFile.toPath());
+      }
+      for (File logFile : WriteAheadLog.listLogFiles(backendDirectory))
+      {
+        if (WriteAheadLog.fileNumber(logFile) >= logStart)
+        {
+          paths.add(logFile.toPath());
+        }
+      }
+      return paths.listIterator();
+    }
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch (IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    // The files listed for the backup must not be deleted before they are copied
+    backupsInProgress.incrementAndGet();
+    try
+    {
+      new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+    }
+    finally
+    {
+      backupsInProgress.decrementAndGet();
+    }
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(trees.keySet());
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(InMemoryBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @param context the server context
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(InMemoryBackendCfg cfg, List<LocalizableMessage> unacceptableReasons,
+      ServerContext context)
+  {
+    return checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(InMemoryBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(InMemoryBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+
+    try
+    {
+      File newBackendDirectory = getBackendDirectory(cfg);
+
+      // Create the directory if it doesn't exist.
+      if (!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, false);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions())
+          || !cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        setDBDirPermissions(newBackendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      registerMonitoredDirectory(cfg);
+      config = cfg;
+      synchronized (snapshotTaskLock)
+      {
+        // Takes the new snapshot interval into account
+        snapshotTaskLock.notifyAll();
+      }
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  private void registerMonitoredDirectory(InMemoryBackendCfg cfg)
+  {
+    diskMonitor.registerMonitoredDirectory(
+      cfg.getBackendId() + " backend",
+      getDirectory(),
+      cfg.getDiskLowThreshold(),
+      cfg.getDiskFullThreshold(),
+      this);
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storageStatus;
+  }
+
+  @Override
+  public void diskFullThresholdReached(File directory, long thresholdInBytes)
+  {
+    storageStatus = statusWhenDiskSpaceFull(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskLowThresholdReached(File directory, long thresholdInBytes)
+  {
+    storageStatus = statusWhenDiskSpaceLow(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskSpaceRestored(File directory, long lowThresholdInBytes, long fullThresholdInBytes)
+  {
+    storageStatus = StorageStatus.working();
+  }
+}
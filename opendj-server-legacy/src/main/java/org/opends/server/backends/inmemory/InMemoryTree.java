@@ -0,0 +1,303 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.inmemory;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * A tree of an {@link InMemoryStorage}, mapping each key to the chain of its versions, newest first.
+ * <p>
+ * Each version is tagged with the sequence number of the transaction which wrote it: a reader only sees the most
+ * recent version of each key not greater than its snapshot. Versions which can no longer be seen by any reader are
+ * unlinked from the chains as they get replaced. Records loaded from a snapshot file or imported have the sequence
+ * number 0, so that they are visible to all the readers.
+ */
+final class InMemoryTree
+{
+  /** A version of the value of a key. */
+  private static final class Version
+  {
+    private final long seq;
+    /** The value, {@code null} if the key was deleted. */
+    private final ByteString value;
+    private volatile Version older;
+
+    private Version(long seq, ByteString value, Version older)
+    {
+      this.seq = seq;
+      this.value = value;
+      this.older = older;
+    }
+
+    /** Returns the value visible from the provided snapshot, {@code null} if there is none. */
+    private ByteString valueAt(long snapshot)
+    {
+      for (Version v = this; v != null; v = v.older)
+      {
+        if (v.seq <= snapshot)
+        {
+          return v.value;
+        }
+      }
+      return null;
+    }
+
+    /** Unlinks the versions older than the version visible from the oldest snapshot. */
+    private void trim(long oldestSnapshot)
+    {
+      for (Version v = this; v != null; v = v.older)
+      {
+        if (v.seq <= oldestSnapshot)
+        {
+          v.older = null;
+          return;
+        }
+      }
+    }
+  }
+
+  final TreeName name;
+  private final ConcurrentSkipListMap<ByteString, Version> records = new ConcurrentSkipListMap<>();
+
+  InMemoryTree(TreeName name)
+  {
+    this.name = name;
+  }
+
+  ByteString get(ByteSequence key, long snapshot)
+  {
+    final Version version = records.get(key);
+    return version != null ? version.valueAt(snapshot) : null;
+  }
+
+  /**
+   * Returns the first record visible from the snapshot whose key follows the provided key.
+   *
+   * @param key
+   *          the key to start from, or {@code null} to start from the first key of the tree
+   * @param inclusive
+   *          whether the provided key itself may be returned
+   * @param snapshot
+   *          the sequence number of the last visible transaction
+   * @return the record, or {@code null} if there is none
+   */
+  Map.Entry<ByteString, ByteString> next(ByteString key, boolean inclusive, long snapshot)
+  {
+    Map.Entry<ByteString, Version> entry = key == null ? records.firstEntry()
+        : inclusive ? records.ceilingEntry(key) : records.higherEntry(key);
+    while (entry != null)
+    {
+      final ByteString value = entry.getValue().valueAt(snapshot);
+      if (value != null)
+      {
+        return new SimpleImmutableEntry<>(entry.getKey(), value);
+      }
+      entry = records.higherEntry(entry.getKey());
+    }
+    return null;
+  }
+
+  /**
+   * Returns the last record visible from the snapshot whose key precedes the provided bound.
+   *
+   * @param bound
+   *          the exclusive upper bound, or {@code null} to look for the last key of the tree
+   * @param snapshot
+   *          the sequence number of the last visible transaction
+   * @return the record, or {@code null} if there is none
+   */
+  Map.Entry<ByteString, ByteString> previous(ByteString bound, long snapshot)
+  {
+    Map.Entry<ByteString, Version> entry = bound == null ? records.lastEntry() : records.lowerEntry(bound);
+    while (entry != null)
+    {
+      final ByteString value = entry.getValue().valueAt(snapshot);
+      if (value != null)
+      {
+        return new SimpleImmutableEntry<>(entry.getKey(), value);
+      }
+      entry = records.lowerEntry(entry.getKey());
+    }
+    return null;
+  }
+
+  /**
+   * Adds a new version of a key. Callers must serialize the calls to this method and to
+   * {@link #rollback(ByteString, long)}.
+   *
+   * @param key
+   *          the key
+   * @param seq
+   *          the sequence number of the writing transaction
+   * @param value
+   *          the new value, or {@code null} to delete the key
+   * @param oldestSnapshot
+   *          the oldest snapshot which may still be read
+   */
+  void put(ByteString key, long seq, ByteString value, long oldestSnapshot)
+  {
+    Version head = records.get(key);
+    if (head != null && head.seq == seq)
+    {
+      // Updated twice by the same transaction
+      head = head.older;
+    }
+    if (head != null)
+    {
+      head.trim(oldestSnapshot);
+    }
+    records.put(key, new Version(seq, value, head));
+  }
+
+  /** Removes the version of a key written by a transaction which has been rolled back. */
+  void rollback(ByteString key, long seq)
+  {
+    final Version head = records.get(key);
+    if (head != null && head.seq == seq)
+    {
+      if (head.older != null)
+      {
+        records.put(key, head.older);
+      }
+      else
+      {
+        records.remove(key, head);
+      }
+    }
+  }
+
+  /**
+   * Sets the value of a key, visible to all the readers. Only used while no transaction can read this tree, when
+   * loading or importing it.
+   */
+  void load(ByteString key, ByteString value)
+  {
+    if (value != null)
+    {
+      records.put(key, new Version(0, value, null));
+    }
+    else
+    {
+      records.remove(key);
+    }
+  }
+
+  /**
+   * Removes a deleted key once no reader can see its previous versions.
+   *
+   * @param key
+   *          the deleted key
+   * @param oldestSnapshot
+   *          the oldest snapshot which may still be read
+   */
+  void purge(ByteString key, long oldestSnapshot)
+  {
+    final Version head = records.get(key);
+    if (head != null && head.value == null && head.seq <= oldestSnapshot)
+    {
+      // Conditional: a concurrent writer may have added a new version
+      records.remove(key, head);
+    }
+  }
+
+  /**
+   * Unlinks the versions of all the keys which can no longer be seen, and removes the deleted keys.
+   *
+   * @param oldestSnapshot
+   *          the oldest snapshot which may still be read
+   */
+  void purge(long oldestSnapshot)
+  {
+    for (Map.Entry<ByteString, Version> entry : records.entrySet())
+    {
+      final Version head = entry.getValue();
+      head.trim(oldestSnapshot);
+      if (head.value == null && head.seq <= oldestSnapshot)
+      {
+        records.remove(entry.getKey(), head);
+      }
+    }
+  }
+
+  /**
+   * Returns the records visible from the provided snapshot, in key order.
+   *
+   * @param snapshot
+   *          the sequence number of the last visible transaction
+   * @return the visible records, computed while iterating
+   */
+  Iterable<Map.Entry<ByteString, ByteString>> records(final long snapshot)
+  {
+    return new Iterable<Map.Entry<ByteString, ByteString>>()
+    {
+      @Override
+      public Iterator<Map.Entry<ByteString, ByteString>> iterator()
+      {
+        return new Iterator<Map.Entry<ByteString, ByteString>>()
+        {
+          private Map.Entry<ByteString, ByteString> next = InMemoryTree.this.next(null, true, snapshot);
+
+          @Override
+          public boolean hasNext()
+          {
+            return next != null;
+          }
+
+          @Override
+          public Map.Entry<ByteString, ByteString> next()
+          {
+            if (next == null)
+            {
+              throw new NoSuchElementException();
+            }
+            final Map.Entry<ByteString, ByteString> current = next;
+            next = InMemoryTree.this.next(current.getKey(), false, snapshot);
+            return current;
+          }
+
+          @Override
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public String toString()
+  {
+    return name.toString();
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.inmemory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * A snapshot file holds the records of all the trees of an {@link InMemoryStorage} visible from a snapshot, along
+ * with the number of the first transaction log file holding the transactions committed after the snapshot.
+ * <p>
+ * Snapshot files are numbered by generation and never modified once written: they are written to a temporary file
+ * then renamed, so that the most recent snapshot file is always complete.
+ */
+final class SnapshotFile
+{
+  private static final String PREFIX = "snapshot-";
+  private static final int MAGIC = 0x494d5331;
+  private static final int VERSION = 1;
+  private static final int END_OF_TREE = -1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Accepts the snapshot files. */
+  static final FileFilter SNAPSHOT_FILES = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return file.getName().matches(PREFIX + "\\d{10}");
+    }
+  };
+
+  final long generation;
+  /** The sequence number of the last transaction held by this snapshot. */
+  final long seq;
+  /** The number of the first transaction log file to replay after loading this snapshot. */
+  final long logStart;
+  /** The number of records held by this snapshot. */
+  final long recordCount;
+
+  private SnapshotFile(long generation, long seq, long logStart, long recordCount)
+  {
+    this.generation = generation;
+    this.seq = seq;
+    this.logStart = logStart;
+    this.recordCount = recordCount;
+  }
+
+  static File getFile(File directory, long generation)
+  {
+    return new File(directory, PREFIX + String.format("%010d", generation));
+  }
+
+  /** Returns the most recent snapshot file of the provided directory, {@code null} if there is none. */
+  static File getLatestFile(File directory)
+  {
+    final File[] files = directory.listFiles(SNAPSHOT_FILES);
+    if (files == null || files.length == 0)
+    {
+      return null;
+    }
+    Arrays.sort(files);
+    return files[files.length - 1];
+  }
+
+  /**
+   * Loads a snapshot file into the provided trees.
+   *
+   * @param file
+   *          the snapshot file to read
+   * @param trees
+   *          receives the trees of the snapshot
+   * @return the description of the loaded snapshot
+   * @throws IOException
+   *           if the file cannot be read
+   * @throws DecodeException
+   *           if the file is corrupted
+   */
+  static SnapshotFile read(File file, Map<TreeName, InMemoryTree> trees) throws IOException, DecodeException
+  {
+    final String name = file.getName();
+    final long generation = Long.parseLong(name.substring(PREFIX.length()));
+    final CRC32 crc = new CRC32();
+    // The checksum is computed above the buffer, so that it only covers the bytes actually read
+    try (DataInputStream in = new DataInputStream(
+        new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), crc)))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        throw DecodeException.error(LocalizableMessage.raw("not a snapshot file"));
+      }
+      final long seq = in.readLong();
+      final long logStart = in.readLong();
+      final int nbTrees = in.readInt();
+      long recordCount = 0;
+      for (int i = 0; i < nbTrees; i++)
+      {
+        final TreeName treeName = TreeName.valueOf(in.readUTF());
+        final InMemoryTree tree = new InMemoryTree(treeName);
+        int keyLength;
+        while ((keyLength = in.readInt()) != END_OF_TREE)
+        {
+          final ByteString key = readBytes(in, keyLength);
+          tree.load(key, readBytes(in, in.readInt()));
+          recordCount++;
+        }
+        trees.put(treeName, tree);
+      }
+      final long expectedCrc = crc.getValue();
+      if (in.readLong() != expectedCrc)
+      {
+        throw DecodeException.error(LocalizableMessage.raw("checksum mismatch"));
+      }
+      return new SnapshotFile(generation, seq, logStart, recordCount);
+    }
+    catch (EOFException e)
+    {
+      throw DecodeException.error(LocalizableMessage.raw("truncated file"), e);
+    }
+  }
+
+  private static ByteString readBytes(DataInputStream in, int length) throws IOException, DecodeException
+  {
+    if (length < 0)
+    {
+      throw DecodeException.error(LocalizableMessage.raw("invalid length " + length));
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return ByteString.wrap(bytes);
+  }
+
+  /**
+   * Writes a new snapshot file holding the records of the provided trees visible from a snapshot, then syncs it to
+   * disk.
+   *
+   * @param directory
+   *          the directory holding the snapshot files
+   * @param generation
+   *          the generation of the new snapshot file
+   * @param seq
+   *          the snapshot to write
+   * @param logStart
+   *          the number of the first transaction log file holding the transactions committed after the snapshot
+   * @param trees
+   *          the trees to write
+   * @return the written snapshot file
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  static File write(File directory, long generation, long seq, long logStart, Collection<InMemoryTree> trees)
+      throws IOException
+  {
+    final File file = getFile(directory, generation);
+    final File tmpFile = new File(directory, file.getName() + ".tmp");
+    final CRC32 crc = new CRC32();
+    try (FileOutputStream fileOut = new FileOutputStream(tmpFile))
+    {
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), BUFFER_SIZE));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(seq);
+      out.writeLong(logStart);
+      out.writeInt(trees.size());
+      for (InMemoryTree tree : trees)
+      {
+        out.writeUTF(tree.name.toString());
+        for (Map.Entry<ByteString, ByteString> record : tree.records(seq))
+        {
+          writeBytes(out, record.getKey());
+          writeBytes(out, record.getValue());
+        }
+        out.writeInt(END_OF_TREE);
+      }
+      out.flush();
+      // The checksum must not cover itself
+      final long checksum = crc.getValue();
+      out.writeLong(checksum);
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    catch (IOException e)
+    {
+      tmpFile.delete();
+      throw e;
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return file;
+  }
+
+  private static void writeBytes(DataOutputStream out, ByteString bytes) throws IOException
+  {
+    out.writeInt(bytes.length());
+    bytes.copyTo(out);
+  }
+}
@@ -463,6 +463,25 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       }
     }
 
+    @Override
+    public List<ByteString> multiGet(final TreeName treeName, final List<? extends ByteSequence> keys)
+    {
+      com.sleepycat.je.Cursor cursor = null;
+      try
+      {
+        cursor = getOrOpenTree(treeName).openCursor(txn, CursorConfig.READ_COMMITTED);
+        return readSortedKeys(cursor, keys);
+      }
+      catch (DatabaseException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+      finally
+      {
+        closeSilently(cursor);
+      }
+    }
+
     @Override
     public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
     {
@@ -546,6 +565,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       return delegate.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return delegate.multiGet(treeName, keys);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -627,7 +652,7 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
    * @throws ConfigException
    *           if memory cannot be reserved
    */
-  JEStorage(final JEBackendCfg cfg, ServerContext serverContext) throws ConfigException
+  public JEStorage(final JEBackendCfg cfg, ServerContext serverContext) throws ConfigException
   {
     this.serverContext = serverContext;
     backendDirectory = getBackendDirectory(cfg);
@@ -1240,6 +1265,37 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     storageStatus = StorageStatus.working();
   }
 
+  /**
+   * Reads the provided sorted keys with a single cursor. Once positioned, the cursor first tries to step to the next
+   * record, which stays in the current leaf node and very often is the record looked for when keys are dense, like
+   * entry IDs. It only searches the tree from its root when the next record is before the key looked for.
+   */
+  private static List<ByteString> readSortedKeys(final com.sleepycat.je.Cursor cursor,
+      final List<? extends ByteSequence> keys)
+  {
+    final List<ByteString> values = new ArrayList<>(keys.size());
+    final DatabaseEntry dbKey = new DatabaseEntry();
+    final DatabaseEntry dbValue = new DatabaseEntry();
+    ByteString currentKey = null;
+    boolean exhausted = false;
+    for (final ByteSequence key : keys)
+    {
+      if (!exhausted && currentKey != null && currentKey.compareTo(key) < 0)
+      {
+        exhausted = cursor.getNext(dbKey, dbValue, null) != SUCCESS;
+        currentKey = exhausted ? null : ByteString.wrap(dbKey.getData());
+      }
+      if (!exhausted && (currentKey == null || currentKey.compareTo(key) < 0))
+      {
+        setData(dbKey, key);
+        exhausted = cursor.getSearchKeyRange(dbKey, dbValue, null) != SUCCESS;
+        currentKey = exhausted ? null : ByteString.wrap(dbKey.getData());
+      }
+      values.add(!exhausted && currentKey.equals(key) ? ByteString.wrap(dbValue.getData()) : null);
+    }
+    return values;
+  }
+
   private static void setData(final DatabaseEntry dbEntry, final ByteSequence bs)
   {
     dbEntry.setData(bs != null ? bs.toByteArray() : null);
@@ -0,0 +1,179 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of the data blocks read from the segments of a storage.
+ * <p>
+ * Blocks are cached decoded, so that a cached block can be binary searched without further parsing. The cache is
+ * split into independently locked shards in order to limit contention between readers.
+ */
+final class BlockCache
+{
+  private static final int NB_SHARDS = 16;
+
+  /** Identifies a block by the segment holding it and its offset in the segment file. */
+  private static final class BlockKey
+  {
+    private final long segmentId;
+    private final long offset;
+
+    private BlockKey(long segmentId, long offset)
+    {
+      this.segmentId = segmentId;
+      this.offset = offset;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (obj instanceof BlockKey)
+      {
+        final BlockKey other = (BlockKey) obj;
+        return segmentId == other.segmentId && offset == other.offset;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      final long h = segmentId * 31 + offset;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  /** A decoded block along with the memory it uses. */
+  private static final class CachedBlock
+  {
+    private final Record[] records;
+    private final int weight;
+
+    private CachedBlock(Record[] records, int weight)
+    {
+      this.records = records;
+      this.weight = weight;
+    }
+  }
+
+  /** A shard of the cache, guarded by its own monitor. */
+  private static final class Shard extends LinkedHashMap<BlockKey, CachedBlock>
+  {
+    private static final long serialVersionUID = 1L;
+    private long size;
+
+    private Shard()
+    {
+      super(64, 0.75f, true);
+    }
+  }
+
+  private final Shard[] shards = new Shard[NB_SHARDS];
+  private final long shardCapacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  BlockCache(long capacity)
+  {
+    this.shardCapacity = capacity / NB_SHARDS;
+    for (int i = 0; i < shards.length; i++)
+    {
+      shards[i] = new Shard();
+    }
+  }
+
+  Record[] get(long segmentId, long offset)
+  {
+    final BlockKey key = new BlockKey(segmentId, offset);
+    final Shard shard = shardFor(key);
+    final CachedBlock block;
+    synchronized (shard)
+    {
+      block = shard.get(key);
+    }
+    if (block != null)
+    {
+      hits.incrementAndGet();
+      return block.records;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  void put(long segmentId, long offset, Record[] records, int weight)
+  {
+    if (weight > shardCapacity)
+    {
+      return;
+    }
+    final BlockKey key = new BlockKey(segmentId, offset);
+    final Shard shard = shardFor(key);
+    synchronized (shard)
+    {
+      final CachedBlock previous = shard.put(key, new CachedBlock(records, weight));
+      shard.size += weight - (previous != null ? previous.weight : 0);
+      final Iterator<Map.Entry<BlockKey, CachedBlock>> it = shard.entrySet().iterator();
+      while (shard.size > shardCapacity && it.hasNext())
+      {
+        shard.size -= it.next().getValue().weight;
+        it.remove();
+      }
+    }
+  }
+
+  private Shard shardFor(BlockKey key)
+  {
+    final int h = key.hashCode();
+    return shards[(h ^ (h >>> 16)) & (NB_SHARDS - 1)];
+  }
+
+  long getHits()
+  {
+    return hits.get();
+  }
+
+  long getMisses()
+  {
+    return misses.get();
+  }
+
+  long getSize()
+  {
+    long size = 0;
+    for (Shard shard : shards)
+    {
+      synchronized (shard)
+      {
+        size += shard.size;
+      }
+    }
+    return size;
+  }
+}
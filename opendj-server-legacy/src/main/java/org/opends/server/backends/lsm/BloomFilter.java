@@ -0,0 +1,131 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Bloom filter over the keys of a segment, sparing the disk reads of the segments which cannot hold a key.
+ * <p>
+ * With 10 bits per key and 7 hash functions, the false positive rate is below 1%.
+ */
+final class BloomFilter
+{
+  private static final int BITS_PER_KEY = 10;
+  private static final int NB_HASHES = 7;
+
+  private final long[] bits;
+
+  private BloomFilter(long[] bits)
+  {
+    this.bits = bits;
+  }
+
+  /**
+   * Builds a bloom filter holding the provided key hashes.
+   *
+   * @param hashes
+   *          hashes computed with {@link #hash(ByteSequence)}
+   * @param count
+   *          the number of hashes to read from the array
+   */
+  static BloomFilter build(long[] hashes, int count)
+  {
+    final BloomFilter filter = new BloomFilter(new long[Math.max(1, (count * BITS_PER_KEY + 63) / 64)]);
+    for (int i = 0; i < count; i++)
+    {
+      filter.add(hashes[i]);
+    }
+    return filter;
+  }
+
+  static BloomFilter read(ByteSequenceReader reader)
+  {
+    final long[] bits = new long[reader.readInt()];
+    for (int i = 0; i < bits.length; i++)
+    {
+      bits[i] = reader.readLong();
+    }
+    return new BloomFilter(bits);
+  }
+
+  void write(ByteStringBuilder builder)
+  {
+    builder.appendInt(bits.length);
+    for (long word : bits)
+    {
+      builder.appendLong(word);
+    }
+  }
+
+  /** Returns a 64 bits hash of the provided key (FNV-1a followed by the MurmurHash3 finalizer). */
+  static long hash(ByteSequence key)
+  {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      h ^= key.byteAt(i) & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  private void add(long hash)
+  {
+    final long nbBits = bits.length * 64L;
+    final long h2 = (hash >>> 32) | 1;
+    long h = hash;
+    for (int i = 0; i < NB_HASHES; i++)
+    {
+      final long bit = (h & Long.MAX_VALUE) % nbBits;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+      h += h2;
+    }
+  }
+
+  boolean mightContain(ByteSequence key)
+  {
+    final long nbBits = bits.length * 64L;
+    final long hash = hash(key);
+    final long h2 = (hash >>> 32) | 1;
+    long h = hash;
+    for (int i = 0; i < NB_HASHES; i++)
+    {
+      final long bit = (h & Long.MAX_VALUE) % nbBits;
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+      {
+        return false;
+      }
+      h += h2;
+    }
+    return true;
+  }
+}
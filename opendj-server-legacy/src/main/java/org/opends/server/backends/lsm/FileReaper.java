@@ -0,0 +1,84 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+
+/**
+ * Deletes the files which are no longer needed by a storage.
+ * <p>
+ * Deletions are deferred while a backup is in progress, so that the files listed by the backup remain available
+ * until they have been copied.
+ */
+final class FileReaper
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private final List<File> deferredFiles = new ArrayList<>();
+  private int suspendCount;
+
+  synchronized void delete(File file)
+  {
+    if (suspendCount > 0)
+    {
+      deferredFiles.add(file);
+    }
+    else
+    {
+      deleteNow(file);
+    }
+  }
+
+  /** Defers the deletion of files until {@link #resume()} is called. */
+  synchronized void suspend()
+  {
+    suspendCount++;
+  }
+
+  /** Deletes the files whose deletion was deferred, unless another suspension is still in progress. */
+  synchronized void resume()
+  {
+    if (--suspendCount == 0)
+    {
+      for (File file : deferredFiles)
+      {
+        deleteNow(file);
+      }
+      deferredFiles.clear();
+    }
+  }
+
+  private static void deleteNow(File file)
+  {
+    if (!file.delete() && file.exists())
+    {
+      logger.trace("Unable to delete the obsolete file %s", file);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+
+/** Monitoring class for LSM, populating cn=monitor statistics. */
+class LSMMonitor extends MonitorProvider<MonitorProviderCfg>
+{
+  private final String name;
+  private final LSMStorage storage;
+
+  LSMMonitor(String name, LSMStorage storage)
+  {
+    this.name = name;
+    this.storage = storage;
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<Attribute> getMonitorData()
+  {
+    final List<Attribute> monitorAttrs = new ArrayList<>();
+    final BlockCache blockCache = storage.getBlockCache();
+    monitorAttrs.add(Attributes.create("LSMBlockCacheHits", String.valueOf(blockCache.getHits())));
+    monitorAttrs.add(Attributes.create("LSMBlockCacheMisses", String.valueOf(blockCache.getMisses())));
+    monitorAttrs.add(Attributes.create("LSMBlockCacheSize", String.valueOf(blockCache.getSize())));
+    monitorAttrs.add(Attributes.create("LSMMemtablesSize", String.valueOf(storage.getMemtablesSize())));
+    monitorAttrs.add(Attributes.create("LSMFlushCount", String.valueOf(storage.getFlushCount())));
+    monitorAttrs.add(Attributes.create("LSMCompactionCount", String.valueOf(storage.getCompactionCount())));
+    for (LSMTree tree : storage.getTrees())
+    {
+      final TreeVersion version = tree.acquire();
+      if (version == null)
+      {
+        continue;
+      }
+      try
+      {
+        final StringBuilder segments = new StringBuilder();
+        for (List<Segment> level : version.levels)
+        {
+          segments.append(segments.length() == 0 ? "" : "/").append(level.size());
+        }
+        monitorAttrs.add(Attributes.create("LSMTree", tree.name
+            + ", segmentsPerLevel=" + segments
+            + ", segmentsSize=" + version.getSegmentsSize()
+            + ", frozenMemtables=" + version.frozenMemtables.size()));
+      }
+      finally
+      {
+        version.release();
+      }
+    }
+    return monitorAttrs;
+  }
+}
@@ -0,0 +1,1779 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.util.Reject;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.LSMBackendCfg;
+import org.opends.server.api.Backupable;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.DiskSpaceMonitorHandler;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageInUseException;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * Log-structured merge-tree implementation of the {@link Storage} engine.
+ * <p>
+ * Committed transactions are appended to a {@link WriteAheadLog} and applied to the in-memory {@link Memtable} of
+ * each updated tree. Once the memtables reach the configured size, a checkpoint freezes them and writes them as
+ * level 0 {@link Segment}s. A background thread then merges the segments into deeper levels of increasing size,
+ * discarding the versions of the keys which can no longer be read.
+ * <p>
+ * Each record is tagged with the sequence number of the transaction which wrote it. Read transactions see the
+ * records of the transactions committed before they started. Write transactions are serialized: their updates are
+ * buffered until they commit, so that they are applied atomically.
+ */
+public final class LSMStorage implements Storage, Backupable, ConfigurationChangeListener<LSMBackendCfg>,
+  DiskSpaceMonitorHandler
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Value of the pending updates of a write transaction recording a deletion. */
+  static final ByteString TOMBSTONE = ByteString.wrap(new byte[0]);
+
+  private static final int IMPORT_BLOCK_CACHE_SIZE = 16 * MB;
+  /** Number of level 0 segments triggering their compaction into level 1. */
+  private static final int LEVEL0_COMPACTION_TRIGGER = 4;
+  /** Maximum size of level 1, each deeper level being {@value #LEVEL_SIZE_MULTIPLIER} times larger. */
+  private static final long LEVEL1_MAX_SIZE = 64L * MB;
+  private static final int LEVEL_SIZE_MULTIPLIER = 10;
+  /** Size above which the output of a compaction is split into several segments. */
+  private static final long SEGMENT_MAX_SIZE = 16L * MB;
+  /** Interval between two checks of the trees needing a compaction. */
+  private static final long MAINTENANCE_INTERVAL_MS = 1000;
+  private static final String LOCK_FILE_NAME = "lsm.lock";
+
+  /** Filter to retrieve the database files to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return Manifest.MANIFEST_FILES.accept(file) || WriteAheadLog.LOG_FILES.accept(file)
+          || file.getName().matches("\\d{10}\\.seg");
+    }
+  };
+
+  /** Read-only transaction reading the records visible from a snapshot. */
+  private class ReadableTransactionImpl implements ReadableTransaction
+  {
+    final long snapshot;
+
+    ReadableTransactionImpl(long snapshot)
+    {
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      return LSMStorage.this.read(treeName, key, snapshot);
+    }
+
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return StorageUtils.multiGet(this, treeName, keys);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return new SnapshotCursor(acquireVersion(treeName), snapshot);
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      try (Cursor<?, ?> cursor = openCursor(treeName))
+      {
+        long count = 0;
+        while (cursor.next())
+        {
+          count++;
+        }
+        return count;
+      }
+    }
+  }
+
+  /**
+   * Write transaction buffering its updates until it commits. Write transactions are serialized, so that they read
+   * the latest committed records.
+   */
+  private final class WriteableTransactionImpl extends ReadableTransactionImpl implements WriteableTransaction
+  {
+    private final Map<TreeName, NavigableMap<ByteString, ByteString>> updates = new HashMap<>();
+
+    WriteableTransactionImpl()
+    {
+      super(Long.MAX_VALUE);
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final NavigableMap<ByteString, ByteString> treeUpdates = updates.get(treeName);
+      if (treeUpdates != null)
+      {
+        final ByteString value = treeUpdates.get(key);
+        if (value != null)
+        {
+          return value != TOMBSTONE ? value : null;
+        }
+      }
+      return super.read(treeName, key);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      final TransactionCursor.PendingUpdates pendingUpdates = new TransactionCursor.PendingUpdates()
+      {
+        @Override
+        public NavigableMap<ByteString, ByteString> get()
+        {
+          return updates.get(treeName);
+        }
+
+        @Override
+        public void delete(ByteString key)
+        {
+          getUpdates(treeName).put(key, TOMBSTONE);
+        }
+      };
+      return new TransactionCursor(pendingUpdates, new SnapshotCursor(acquireVersion(treeName), snapshot));
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        getOrCreateTree(treeName);
+      }
+    }
+
+    @Override
+    public void deleteTree(TreeName treeName)
+    {
+      updates.remove(treeName);
+      LSMStorage.this.deleteTree(treeName);
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      getUpdates(treeName).put(key.toByteString(), value.toByteString());
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      final ByteString oldValue = read(treeName, key);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (newValue == null ? oldValue == null : newValue.equals(oldValue))
+      {
+        return false;
+      }
+      getUpdates(treeName).put(key.toByteString(), newValue != null ? newValue.toByteString() : TOMBSTONE);
+      return true;
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      final boolean exists = read(treeName, key) != null;
+      if (exists)
+      {
+        getUpdates(treeName).put(key.toByteString(), TOMBSTONE);
+      }
+      return exists;
+    }
+
+    private NavigableMap<ByteString, ByteString> getUpdates(TreeName treeName)
+    {
+      if (!accessMode.isWriteable())
+      {
+        throw new ReadOnlyStorageException();
+      }
+      NavigableMap<ByteString, ByteString> treeUpdates = updates.get(treeName);
+      if (treeUpdates == null)
+      {
+        treeUpdates = new TreeMap<>();
+        updates.put(treeName, treeUpdates);
+      }
+      return treeUpdates;
+    }
+  }
+
+  /** Importer writing directly to the memtables, without write-ahead log nor transactions. */
+  private final class ImporterImpl implements Importer
+  {
+    @Override
+    public void clearTree(TreeName treeName)
+    {
+      deleteTree(treeName);
+      getOrCreateTree(treeName);
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      throttle();
+      final LSMTree tree = getOrCreateTree(treeName);
+      final Record record = new Record(key.toByteString(), lastSeq.incrementAndGet(), value.toByteString());
+      memtableLock.readLock().lock();
+      try
+      {
+        activeMemtableSize.addAndGet(tree.getMemtable().add(record));
+      }
+      finally
+      {
+        memtableLock.readLock().unlock();
+      }
+      requestFlushIfNeeded();
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      return LSMStorage.this.read(treeName, key, Long.MAX_VALUE);
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return new SnapshotCursor(acquireVersion(treeName), Long.MAX_VALUE);
+    }
+
+    @Override
+    public void close()
+    {
+      LSMStorage.this.close();
+    }
+  }
+
+  /** Background thread flushing the memtables and compacting the segments. */
+  private final class MaintenanceTask implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      for (;;)
+      {
+        final boolean flush;
+        synchronized (maintenanceLock)
+        {
+          if (!closing && !flushRequested)
+          {
+            try
+            {
+              maintenanceLock.wait(MAINTENANCE_INTERVAL_MS);
+            }
+            catch (InterruptedException e)
+            {
+              return;
+            }
+          }
+          if (closing)
+          {
+            return;
+          }
+          flush = flushRequested;
+          flushRequested = false;
+        }
+        try
+        {
+          if (flush)
+          {
+            checkpoint();
+          }
+          compactUntilBalanced();
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.error(ERR_LSM_MAINTENANCE_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+          pause();
+        }
+      }
+    }
+
+    private void pause()
+    {
+      synchronized (maintenanceLock)
+      {
+        try
+        {
+          if (!closing)
+          {
+            maintenanceLock.wait(MAINTENANCE_INTERVAL_MS);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private LSMBackendCfg config;
+  private AccessMode accessMode;
+  private DiskSpaceMonitor diskMonitor;
+  private MemoryQuota memQuota;
+  private LSMMonitor monitor;
+  private StorageStatus storageStatus = StorageStatus.working();
+  private volatile boolean isOpen;
+  private FileChannel lockChannel;
+  private FileLock lock;
+
+  private final ConcurrentHashMap<TreeName, LSMTree> trees = new ConcurrentHashMap<>();
+  private BlockCache blockCache;
+  private FileReaper reaper;
+  /** The write-ahead log, {@code null} when importing or when the storage is read-only. */
+  private WriteAheadLog wal;
+  private long memtableSize;
+
+  /** Sequence number of the last transaction (or imported record) applied to the memtables. */
+  private final AtomicLong lastSeq = new AtomicLong();
+  /** Sequence number of the last transaction visible to new read transactions. */
+  private volatile long visibleSeq;
+  /** Number of read transactions using each snapshot. */
+  private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+  private final AtomicLong nextSegmentId = new AtomicLong();
+  private final AtomicLong nextTreeId = new AtomicLong();
+
+  /** Serializes the write transactions. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+  /** Prevents memtables from being frozen while they are being updated. */
+  private final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+  private final AtomicLong activeMemtableSize = new AtomicLong();
+  private final AtomicLong frozenMemtableSize = new AtomicLong();
+
+  /** Guards the manifest generation and the first needed log file number, and serializes the manifest writes. */
+  private final Object manifestLock = new Object();
+  private long manifestGeneration;
+  private long logStart;
+  /** Serializes the checkpoints. */
+  private final Object checkpointLock = new Object();
+
+  private final Object maintenanceLock = new Object();
+  private Thread maintenanceThread;
+  private boolean flushRequested;
+  private boolean closing;
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong compactionCount = new AtomicLong();
+
+  /**
+   * Creates a new LSM storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  public LSMStorage(final LSMBackendCfg cfg, ServerContext serverContext)
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    cfg.addLSMChangeListener(this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    open0(accessMode, false);
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    open0(AccessMode.READ_WRITE, true);
+    return new ImporterImpl();
+  }
+
+  private void open0(AccessMode accessMode, boolean importMode) throws ConfigException
+  {
+    setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    if (isOpen)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    this.accessMode = accessMode;
+    diskMonitor = serverContext.getDiskSpaceMonitor();
+    memQuota = serverContext.getMemoryQuota();
+    final long cacheSize = computeSize(config);
+    memQuota.acquireMemory(cacheSize);
+    memtableSize = config.getDBMemtableSize();
+    blockCache = new BlockCache(importMode ? Math.min(IMPORT_BLOCK_CACHE_SIZE, cacheSize) : cacheSize);
+    reaper = new FileReaper();
+    closing = false;
+    try
+    {
+      lockDirectory();
+      recover(importMode);
+    }
+    catch (IOException e)
+    {
+      closeFiles();
+      memQuota.releaseMemory(cacheSize);
+      throw new StorageRuntimeException(e);
+    }
+    catch (RuntimeException e)
+    {
+      closeFiles();
+      memQuota.releaseMemory(cacheSize);
+      throw e;
+    }
+    logger.info(NOTE_LSM_MEMORY_CFG, config.getBackendId(), cacheSize, memtableSize);
+
+    isOpen = true;
+    if (accessMode.isWriteable())
+    {
+      maintenanceThread = new DirectoryThread(new MaintenanceTask(),
+          "LSM maintenance thread for backend " + config.getBackendId());
+      maintenanceThread.setDaemon(true);
+      maintenanceThread.start();
+    }
+    monitor = new LSMMonitor(config.getBackendId() + " LSM Database", this);
+    DirectoryServer.registerMonitorProvider(monitor);
+    registerMonitoredDirectory(config);
+  }
+
+  private void lockDirectory() throws IOException
+  {
+    lockChannel = FileChannel.open(new File(backendDirectory, LOCK_FILE_NAME).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try
+    {
+      lock = lockChannel.tryLock();
+    }
+    catch (OverlappingFileLockException e)
+    {
+      lock = null;
+    }
+    if (lock == null)
+    {
+      lockChannel.close();
+      lockChannel = null;
+      throw new StorageInUseException(ERR_LSM_DIRECTORY_IN_USE.get(backendDirectory).toString());
+    }
+  }
+
+  /** Loads the trees described by the latest manifest, then replays the write-ahead log. */
+  private void recover(boolean importMode) throws IOException
+  {
+    final Manifest manifest = Manifest.readLatest(backendDirectory);
+    lastSeq.set(manifest.lastSeq);
+    nextSegmentId.set(manifest.nextSegmentId);
+    nextTreeId.set(manifest.nextTreeId);
+    manifestGeneration = manifest.generation;
+    logStart = manifest.logFileNumber;
+
+    final Set<String> liveFiles = new HashSet<>();
+    final Map<Long, LSMTree> treesById = new HashMap<>();
+    for (Manifest.TreeEntry entry : manifest.trees)
+    {
+      final List<List<Segment>> levels = TreeVersion.emptyLevels();
+      for (int i = 0; i < entry.levels.size(); i++)
+      {
+        for (long segmentId : entry.levels.get(i))
+        {
+          levels.get(i).add(Segment.open(backendDirectory, segmentId, blockCache, reaper));
+          liveFiles.add(Segment.fileName(segmentId));
+        }
+      }
+      final LSMTree tree = new LSMTree(entry.id, TreeName.valueOf(entry.name), levels);
+      trees.put(tree.name, tree);
+      treesById.put(tree.id, tree);
+    }
+
+    long nextLogFileNumber = logStart;
+    final List<File> logFiles = new ArrayList<>();
+    for (File logFile : WriteAheadLog.listLogFiles(backendDirectory))
+    {
+      final long number = WriteAheadLog.fileNumber(logFile);
+      if (number >= logStart)
+      {
+        logFiles.add(logFile);
+        nextLogFileNumber = Math.max(nextLogFileNumber, number + 1);
+      }
+    }
+    WriteAheadLog.replay(logFiles, new WriteAheadLog.Replayer()
+    {
+      @Override
+      public void replay(ByteString payload)
+      {
+        final ByteSequenceReader reader = payload.asReader();
+        final long seq = reader.readLong();
+        final int count = reader.readInt();
+        for (int i = 0; i < count; i++)
+        {
+          final LSMTree tree = treesById.get(reader.readLong());
+          final ByteString key = reader.readByteString(reader.readCompactUnsignedInt());
+          final int valueLength = reader.readCompactUnsignedInt();
+          final ByteString value = valueLength > 0 ? reader.readByteString(valueLength - 1) : null;
+          if (tree != null)
+          {
+            activeMemtableSize.addAndGet(tree.getMemtable().add(new Record(key, seq, value)));
+          }
+        }
+        lastSeq.set(Math.max(lastSeq.get(), seq));
+      }
+    });
+    visibleSeq = lastSeq.get();
+
+    if (accessMode.isWriteable())
+    {
+      deleteUnusedFiles(liveFiles, manifest);
+      if (importMode)
+      {
+        // Imported records are only durable once written to segments.
+        logStart = nextLogFileNumber;
+      }
+      else
+      {
+        wal = new WriteAheadLog(backendDirectory, nextLogFileNumber);
+      }
+      if (!logFiles.isEmpty() || manifest.generation == 0)
+      {
+        checkpoint();
+      }
+    }
+  }
+
+  /** Deletes the files left over by an interrupted compaction, checkpoint or manifest write. */
+  private void deleteUnusedFiles(Set<String> liveFiles, Manifest manifest)
+  {
+    final File[] files = backendDirectory.listFiles();
+    if (files == null)
+    {
+      return;
+    }
+    final String manifestFileName = Manifest.fileName(manifest.generation);
+    for (File file : files)
+    {
+      final String name = file.getName();
+      if ((name.endsWith(".seg") && !liveFiles.contains(name))
+          || (Manifest.MANIFEST_FILES.accept(file) && !name.equals(manifestFileName))
+          || name.endsWith(".tmp")
+          || (WriteAheadLog.LOG_FILES.accept(file) && WriteAheadLog.fileNumber(file) < logStart))
+      {
+        reaper.delete(file);
+      }
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (isOpen)
+    {
+      stopMaintenanceThread();
+      if (accessMode.isWriteable())
+      {
+        try
+        {
+          checkpoint();
+        }
+        catch (IOException | RuntimeException e)
+        {
+          logger.traceException(e);
+          logger.error(ERR_LSM_MAINTENANCE_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+        }
+      }
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      monitor = null;
+      closeFiles();
+      memQuota.releaseMemory(computeSize(config));
+      isOpen = false;
+    }
+    config.removeLSMChangeListener(this);
+    if (diskMonitor != null)
+    {
+      diskMonitor.deregisterMonitoredDirectory(getDirectory(), this);
+    }
+  }
+
+  private void stopMaintenanceThread()
+  {
+    synchronized (maintenanceLock)
+    {
+      closing = true;
+      maintenanceLock.notifyAll();
+    }
+    if (maintenanceThread != null)
+    {
+      try
+      {
+        maintenanceThread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      maintenanceThread = null;
+    }
+  }
+
+  private void closeFiles()
+  {
+    for (LSMTree tree : trees.values())
+    {
+      final TreeVersion version = tree.acquire();
+      if (version != null)
+      {
+        for (List<Segment> level : version.levels)
+        {
+          for (Segment segment : level)
+          {
+            segment.close();
+          }
+        }
+        version.release();
+      }
+      tree.close();
+    }
+    trees.clear();
+    activeMemtableSize.set(0);
+    frozenMemtableSize.set(0);
+    if (wal != null)
+    {
+      try
+      {
+        wal.close();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+      }
+      wal = null;
+    }
+    if (lockChannel != null)
+    {
+      try
+      {
+        lock.release();
+        lockChannel.close();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+      }
+      lockChannel = null;
+    }
+  }
+
+  @Override
+  public <T> T read(ReadOperation<T> operation) throws Exception
+  {
+    final long snapshot = acquireSnapshot();
+    try
+    {
+      return operation.run(new ReadableTransactionImpl(snapshot));
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    finally
+    {
+      releaseSnapshot(snapshot);
+    }
+  }
+
+  @Override
+  public void write(WriteOperation operation) throws Exception
+  {
+    throttle();
+    final long logPosition;
+    writeLock.lock();
+    try
+    {
+      final WriteableTransactionImpl txn = new WriteableTransactionImpl();
+      try
+      {
+        operation.run(txn);
+      }
+      catch (final StorageRuntimeException e)
+      {
+        if (e.getCause() != null)
+        {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+      logPosition = commit(txn.updates);
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+    if (logPosition > 0 && !config.isDBTxnNoSync())
+    {
+      wal.sync(logPosition);
+    }
+    requestFlushIfNeeded();
+  }
+
+  /**
+   * Appends the updates of a transaction to the write-ahead log, then applies them to the memtables.
+   *
+   * @return the position of the transaction in the write-ahead log, or 0 if it did not update anything
+   */
+  private long commit(Map<TreeName, NavigableMap<ByteString, ByteString>> updates) throws IOException
+  {
+    final List<LSMTree> updatedTrees = new ArrayList<>(updates.size());
+    final List<NavigableMap<ByteString, ByteString>> treeUpdates = new ArrayList<>(updates.size());
+    int count = 0;
+    for (Map.Entry<TreeName, NavigableMap<ByteString, ByteString>> entry : updates.entrySet())
+    {
+      final LSMTree tree = trees.get(entry.getKey());
+      if (tree != null && !entry.getValue().isEmpty())
+      {
+        updatedTrees.add(tree);
+        treeUpdates.add(entry.getValue());
+        count += entry.getValue().size();
+      }
+    }
+    if (count == 0)
+    {
+      return 0;
+    }
+
+    final long seq = lastSeq.incrementAndGet();
+    final ByteStringBuilder payload = new ByteStringBuilder();
+    payload.appendLong(seq);
+    payload.appendInt(count);
+    for (int i = 0; i < updatedTrees.size(); i++)
+    {
+      for (Map.Entry<ByteString, ByteString> update : treeUpdates.get(i).entrySet())
+      {
+        payload.appendLong(updatedTrees.get(i).id);
+        payload.appendCompactUnsigned(update.getKey().length());
+        payload.appendBytes(update.getKey());
+        if (update.getValue() == TOMBSTONE)
+        {
+          payload.appendCompactUnsigned(0);
+        }
+        else
+        {
+          payload.appendCompactUnsigned(update.getValue().length() + 1L);
+          payload.appendBytes(update.getValue());
+        }
+      }
+    }
+
+    memtableLock.readLock().lock();
+    try
+    {
+      final long logPosition = wal != null ? wal.append(payload) : 0;
+      long size = 0;
+      for (int i = 0; i < updatedTrees.size(); i++)
+      {
+        final Memtable memtable = updatedTrees.get(i).getMemtable();
+        for (Map.Entry<ByteString, ByteString> update : treeUpdates.get(i).entrySet())
+        {
+          final ByteString value = update.getValue() != TOMBSTONE ? update.getValue() : null;
+          size += memtable.add(new Record(update.getKey(), seq, value));
+        }
+      }
+      activeMemtableSize.addAndGet(size);
+      visibleSeq = seq;
+      return logPosition;
+    }
+    finally
+    {
+      memtableLock.readLock().unlock();
+    }
+  }
+
+  private ByteString read(TreeName treeName, ByteSequence key, long snapshot)
+  {
+    final TreeVersion version = acquireVersion(treeName);
+    if (version == null)
+    {
+      return null;
+    }
+    try
+    {
+      final Record record = version.get(key, snapshot);
+      return record != null ? record.value : null;
+    }
+    finally
+    {
+      version.release();
+    }
+  }
+
+  /** Returns the acquired current version of the tree, or {@code null} if it does not exist. */
+  private TreeVersion acquireVersion(TreeName treeName)
+  {
+    final LSMTree tree = trees.get(treeName);
+    return tree != null ? tree.acquire() : null;
+  }
+
+  private long acquireSnapshot()
+  {
+    synchronized (snapshots)
+    {
+      final long snapshot = visibleSeq;
+      final Integer count = snapshots.get(snapshot);
+      snapshots.put(snapshot, count != null ? count + 1 : 1);
+      return snapshot;
+    }
+  }
+
+  private void releaseSnapshot(long snapshot)
+  {
+    synchronized (snapshots)
+    {
+      final int count = snapshots.get(snapshot);
+      if (count == 1)
+      {
+        snapshots.remove(snapshot);
+      }
+      else
+      {
+        snapshots.put(snapshot, count - 1);
+      }
+    }
+  }
+
+  /** Returns the oldest snapshot which may still be read: older versions of the keys can be discarded. */
+  private long getOldestSnapshot()
+  {
+    synchronized (snapshots)
+    {
+      return snapshots.isEmpty() ? visibleSeq : snapshots.firstKey();
+    }
+  }
+
+  private LSMTree getOrCreateTree(TreeName treeName)
+  {
+    final LSMTree tree = trees.get(treeName);
+    if (tree != null)
+    {
+      return tree;
+    }
+    if (!accessMode.isWriteable())
+    {
+      throw new ReadOnlyStorageException();
+    }
+    synchronized (manifestLock)
+    {
+      LSMTree newTree = trees.get(treeName);
+      if (newTree == null)
+      {
+        newTree = new LSMTree(nextTreeId.getAndIncrement(), treeName, TreeVersion.emptyLevels());
+        trees.put(treeName, newTree);
+        writeManifestOrThrow();
+      }
+      return newTree;
+    }
+  }
+
+  private void deleteTree(TreeName treeName)
+  {
+    if (!accessMode.isWriteable())
+    {
+      throw new ReadOnlyStorageException();
+    }
+    synchronized (manifestLock)
+    {
+      final LSMTree tree = trees.remove(treeName);
+      if (tree != null)
+      {
+        tree.delete();
+        writeManifestOrThrow();
+      }
+    }
+  }
+
+  private void writeManifestOrThrow()
+  {
+    try
+    {
+      writeManifest();
+    }
+    catch (IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes a new manifest describing the current trees and deletes the previous manifests.
+   *
+   * @return the manifest file followed by the segment files it references
+   */
+  private List<File> writeManifest() throws IOException
+  {
+    synchronized (manifestLock)
+    {
+      final List<Manifest.TreeEntry> entries = new ArrayList<>();
+      final List<File> files = new ArrayList<>();
+      for (LSMTree tree : trees.values())
+      {
+        final TreeVersion version = tree.acquire();
+        if (version == null)
+        {
+          continue;
+        }
+        try
+        {
+          final List<long[]> levels = new ArrayList<>(version.levels.size());
+          for (List<Segment> level : version.levels)
+          {
+            final long[] segmentIds = new long[level.size()];
+            for (int i = 0; i < segmentIds.length; i++)
+            {
+              segmentIds[i] = level.get(i).id;
+              files.add(level.get(i).getFile());
+            }
+            levels.add(segmentIds);
+          }
+          entries.add(new Manifest.TreeEntry(tree.id, tree.name.toString(), levels));
+        }
+        finally
+        {
+          version.release();
+        }
+      }
+      final Manifest manifest = new Manifest(++manifestGeneration, lastSeq.get(), logStart, nextSegmentId.get(),
+          nextTreeId.get(), entries);
+      manifest.write(backendDirectory);
+      final File manifestFile = manifest.getFile(backendDirectory);
+      for (File file : Manifest.listManifestFiles(backendDirectory))
+      {
+        if (!file.equals(manifestFile))
+        {
+          reaper.delete(file);
+        }
+      }
+      files.add(0, manifestFile);
+      return files;
+    }
+  }
+
+  /** Blocks the writers while the memtables waiting to be flushed use too much memory. */
+  private void throttle()
+  {
+    synchronized (maintenanceLock)
+    {
+      while (maintenanceThread != null && !closing
+          && activeMemtableSize.get() + frozenMemtableSize.get() >= 2 * memtableSize)
+      {
+        flushRequested = true;
+        maintenanceLock.notifyAll();
+        try
+        {
+          maintenanceLock.wait(MAINTENANCE_INTERVAL_MS);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new StorageRuntimeException(e);
+        }
+      }
+    }
+  }
+
+  private void requestFlushIfNeeded()
+  {
+    if (activeMemtableSize.get() >= memtableSize)
+    {
+      synchronized (maintenanceLock)
+      {
+        flushRequested = true;
+        maintenanceLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Freezes the memtables of all the trees and writes them to level 0 segments. The write-ahead log files holding
+   * their records are then deleted.
+   */
+  private void checkpoint() throws IOException
+  {
+    synchronized (checkpointLock)
+    {
+      final long newLogStart;
+      final long frozenSize;
+      memtableLock.writeLock().lock();
+      try
+      {
+        for (LSMTree tree : trees.values())
+        {
+          tree.freeze();
+        }
+        newLogStart = wal != null ? wal.rotate() : logStart;
+        frozenSize = activeMemtableSize.getAndSet(0);
+        frozenMemtableSize.addAndGet(frozenSize);
+      }
+      finally
+      {
+        memtableLock.writeLock().unlock();
+      }
+
+      try
+      {
+        // Also retries the memtables left over by a failed checkpoint
+        for (LSMTree tree : trees.values())
+        {
+          flushFrozenMemtables(tree);
+        }
+        synchronized (manifestLock)
+        {
+          logStart = newLogStart;
+          writeManifest();
+        }
+        for (File logFile : WriteAheadLog.listLogFiles(backendDirectory))
+        {
+          if (WriteAheadLog.fileNumber(logFile) < newLogStart)
+          {
+            reaper.delete(logFile);
+          }
+        }
+        flushCount.incrementAndGet();
+      }
+      finally
+      {
+        frozenMemtableSize.addAndGet(-frozenSize);
+        synchronized (maintenanceLock)
+        {
+          maintenanceLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private void flushFrozenMemtables(LSMTree tree) throws IOException
+  {
+    final TreeVersion version = tree.acquire();
+    if (version == null)
+    {
+      return;
+    }
+    final List<Memtable> frozenMemtables = new ArrayList<>(version.frozenMemtables);
+    version.release();
+
+    // Oldest first, so that the most recent segment ends up first in level 0
+    Collections.reverse(frozenMemtables);
+    for (Memtable frozen : frozenMemtables)
+    {
+      final List<Segment> segments = writeSegments(frozen.records(), Long.MAX_VALUE, Long.MAX_VALUE, false);
+      final Segment segment = segments.isEmpty() ? null : segments.get(0);
+      if (!tree.installFlush(frozen, segment) && segment != null)
+      {
+        segment.discard();
+      }
+    }
+  }
+
+  /**
+   * Writes the provided records to new segments.
+   *
+   * @param records
+   *          the records, in {@link Record#COMPARATOR} order
+   * @param maxSegmentSize
+   *          the size above which a new segment is started
+   * @param oldestSnapshot
+   *          the oldest snapshot which may still be read: for each key, the versions older than the version it sees
+   *          are discarded
+   * @param dropTombstones
+   *          whether the tombstones seen by the oldest snapshot can be discarded, because no older version of their
+   *          key may remain in deeper levels
+   * @return the written segments
+   */
+  private List<Segment> writeSegments(Iterable<Record> records, long maxSegmentSize, long oldestSnapshot,
+      boolean dropTombstones) throws IOException
+  {
+    final List<Segment> segments = new ArrayList<>();
+    SegmentWriter writer = null;
+    long segmentId = 0;
+    boolean success = false;
+    try
+    {
+      Record previous = null;
+      boolean oldestVisibleVersionWritten = false;
+      for (Record record : records)
+      {
+        final boolean sameKey = previous != null && previous.key.equals(record.key);
+        if (sameKey && previous.seq == record.seq)
+        {
+          // The same record may have been both flushed and replayed from the write-ahead log
+          continue;
+        }
+        previous = record;
+        if (!sameKey)
+        {
+          oldestVisibleVersionWritten = false;
+        }
+        else if (oldestVisibleVersionWritten)
+        {
+          continue;
+        }
+        if (record.seq <= oldestSnapshot)
+        {
+          oldestVisibleVersionWritten = true;
+          if (record.isTombstone() && dropTombstones)
+          {
+            continue;
+          }
+        }
+
+        if (writer != null && writer.getFileSize() >= maxSegmentSize
+            && !writer.getLastRecord().key.equals(record.key))
+        {
+          writer.finish();
+          segments.add(Segment.open(backendDirectory, segmentId, blockCache, reaper));
+          writer = null;
+        }
+        if (writer == null)
+        {
+          segmentId = nextSegmentId.getAndIncrement();
+          writer = new SegmentWriter(new File(backendDirectory, Segment.fileName(segmentId)));
+        }
+        writer.add(record);
+      }
+      if (writer != null)
+      {
+        writer.finish();
+        segments.add(Segment.open(backendDirectory, segmentId, blockCache, reaper));
+        writer = null;
+      }
+      success = true;
+      return segments;
+    }
+    finally
+    {
+      if (writer != null)
+      {
+        writer.close();
+      }
+      if (!success)
+      {
+        for (Segment segment : segments)
+        {
+          segment.discard();
+        }
+      }
+    }
+  }
+
+  /** Runs compactions until no tree needs one, or until a checkpoint is requested. */
+  private void compactUntilBalanced() throws IOException
+  {
+    boolean compacted;
+    do
+    {
+      compacted = false;
+      for (LSMTree tree : trees.values())
+      {
+        synchronized (maintenanceLock)
+        {
+          if (closing || flushRequested)
+          {
+            return;
+          }
+        }
+        compacted |= compactOnce(tree);
+      }
+    }
+    while (compacted);
+  }
+
+  private static long getMaxLevelSize(int level)
+  {
+    long size = LEVEL1_MAX_SIZE;
+    for (int i = 1; i < level; i++)
+    {
+      size *= LEVEL_SIZE_MULTIPLIER;
+    }
+    return size;
+  }
+
+  /**
+   * Compacts level 0 into level 1 when it holds too many segments, otherwise compacts a segment of the first level
+   * exceeding its maximum size into the next level.
+   *
+   * @return whether a compaction has been performed
+   */
+  private boolean compactOnce(LSMTree tree) throws IOException
+  {
+    final TreeVersion version = tree.acquire();
+    if (version == null)
+    {
+      return false;
+    }
+    try
+    {
+      final List<Segment> level0 = version.levels.get(0);
+      if (level0.size() >= LEVEL0_COMPACTION_TRIGGER)
+      {
+        compact(tree, version, 0, level0);
+        return true;
+      }
+      for (int level = 1; level < TreeVersion.NB_LEVELS - 1; level++)
+      {
+        final List<Segment> segments = version.levels.get(level);
+        if (TreeVersion.getSize(segments) > getMaxLevelSize(level))
+        {
+          compact(tree, version, level, Collections.singletonList(pickSegment(tree, level, segments)));
+          return true;
+        }
+      }
+      return false;
+    }
+    finally
+    {
+      version.release();
+    }
+  }
+
+  /** Picks the segments of a level to compact in a round-robin fashion over the key space. */
+  private static Segment pickSegment(LSMTree tree, int level, List<Segment> segments)
+  {
+    final ByteString pointer = tree.getCompactionPointer(level);
+    Segment picked = segments.get(0);
+    if (pointer != null)
+    {
+      for (Segment segment : segments)
+      {
+        if (segment.getSmallestKey().compareTo(pointer) > 0)
+        {
+          picked = segment;
+          break;
+        }
+      }
+    }
+    tree.setCompactionPointer(level, picked.getLargestKey());
+    return picked;
+  }
+
+  private void compact(LSMTree tree, TreeVersion version, int level, List<Segment> inputs) throws IOException
+  {
+    ByteString smallest = null;
+    ByteString largest = null;
+    for (Segment input : inputs)
+    {
+      smallest = smallest == null || input.getSmallestKey().compareTo(smallest) < 0 ? input.getSmallestKey() : smallest;
+      largest = largest == null || input.getLargestKey().compareTo(largest) > 0 ? input.getLargestKey() : largest;
+    }
+    final int outputLevel = level + 1;
+    final List<Segment> overlapping = getOverlappingSegments(version.levels.get(outputLevel), smallest, largest);
+    final List<Segment> allInputs = new ArrayList<>(inputs);
+    allInputs.addAll(overlapping);
+
+    if (level > 0 && overlapping.isEmpty())
+    {
+      // Trivial move: the segment is simply handed over to the next level
+      if (tree.installCompaction(inputs, inputs, outputLevel))
+      {
+        writeManifest();
+      }
+      return;
+    }
+
+    for (Segment segment : overlapping)
+    {
+      smallest = segment.getSmallestKey().compareTo(smallest) < 0 ? segment.getSmallestKey() : smallest;
+      largest = segment.getLargestKey().compareTo(largest) > 0 ? segment.getLargestKey() : largest;
+    }
+    boolean bottomLevel = true;
+    for (int i = outputLevel + 1; i < TreeVersion.NB_LEVELS && bottomLevel; i++)
+    {
+      bottomLevel = getOverlappingSegments(version.levels.get(i), smallest, largest).isEmpty();
+    }
+
+    final List<RecordIterator> iterators = new ArrayList<>(allInputs.size());
+    for (Segment input : allInputs)
+    {
+      iterators.add(input.iterator());
+    }
+    final List<Segment> outputs;
+    try (MergingIterator merged = new MergingIterator(iterators))
+    {
+      merged.seek(null);
+      outputs = writeSegments(new MergedRecords(merged), SEGMENT_MAX_SIZE, getOldestSnapshot(), bottomLevel);
+    }
+    if (isClosing())
+    {
+      // Aborted: the outputs may be incomplete
+      discardAll(outputs);
+      return;
+    }
+    if (tree.installCompaction(allInputs, outputs, outputLevel))
+    {
+      writeManifest();
+      compactionCount.incrementAndGet();
+    }
+    else
+    {
+      discardAll(outputs);
+    }
+  }
+
+  private static void discardAll(List<Segment> segments)
+  {
+    for (Segment segment : segments)
+    {
+      segment.discard();
+    }
+  }
+
+  private static List<Segment> getOverlappingSegments(List<Segment> level, ByteString smallest, ByteString largest)
+  {
+    final List<Segment> overlapping = new ArrayList<>();
+    for (Segment segment : level)
+    {
+      if (segment.overlaps(smallest, largest))
+      {
+        overlapping.add(segment);
+      }
+    }
+    return overlapping;
+  }
+
+  private boolean isClosing()
+  {
+    synchronized (maintenanceLock)
+    {
+      return closing;
+    }
+  }
+
+  /** Exposes the records of a merging iterator, stopping early when the storage is being closed. */
+  private final class MergedRecords implements Iterable<Record>
+  {
+    private final RecordIterator iterator;
+
+    private MergedRecords(RecordIterator iterator)
+    {
+      this.iterator = iterator;
+    }
+
+    @Override
+    public java.util.Iterator<Record> iterator()
+    {
+      return new java.util.Iterator<Record>()
+      {
+        private int count;
+
+        @Override
+        public boolean hasNext()
+        {
+          if (++count % 10000 == 0 && isClosing())
+          {
+            return false;
+          }
+          return iterator.isValid();
+        }
+
+        @Override
+        public Record next()
+        {
+          final Record record = iterator.get();
+          iterator.next();
+          return record;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(LSMBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    if (!isOpen)
+    {
+      return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+    }
+    try
+    {
+      final List<Path> paths = new ArrayList<>();
+      synchronized (manifestLock)
+      {
+        for (File file : writeManifest())
+        {
+          paths.add(file.toPath());
+        }
+        for (File logFile : WriteAheadLog.listLogFiles(backendDirectory))
+        {
+          if (WriteAheadLog.fileNumber(logFile) >= logStart)
+          {
+            paths.add(logFile.toPath());
+          }
+        }
+      }
+      return paths.listIterator();
+    }
+    catch (IOException e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_BACKEND_LIST_FILES_TO_BACKUP.get(config.getBackendId(), stackTraceToSingleLineString(e)));
+    }
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch (IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    // The files listed for the backup must not be deleted before they are copied
+    final FileReaper backupReaper = isOpen ? reaper : null;
+    if (backupReaper != null)
+    {
+      backupReaper.suspend();
+    }
+    try
+    {
+      new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+    }
+    finally
+    {
+      if (backupReaper != null)
+      {
+        backupReaper.resume();
+      }
+    }
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(trees.keySet());
+  }
+
+  /** Returns the trees of this storage, for monitoring purposes. */
+  Collection<LSMTree> getTrees()
+  {
+    return trees.values();
+  }
+
+  BlockCache getBlockCache()
+  {
+    return blockCache;
+  }
+
+  long getMemtablesSize()
+  {
+    return activeMemtableSize.get() + frozenMemtableSize.get();
+  }
+
+  long getFlushCount()
+  {
+    return flushCount.get();
+  }
+
+  long getCompactionCount()
+  {
+    return compactionCount.get();
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(LSMBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    long newSize = computeSize(newCfg);
+    long oldSize = computeSize(config);
+    return (newSize <= oldSize || memQuota.isMemoryAvailable(newSize - oldSize))
+        && checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  private long computeSize(LSMBackendCfg cfg)
+  {
+    return cfg.getDBCacheSize() > 0 ? cfg.getDBCacheSize() : memQuota.memPercentToBytes(cfg.getDBCachePercent());
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @param context the server context
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(LSMBackendCfg cfg, List<LocalizableMessage> unacceptableReasons,
+      ServerContext context)
+  {
+    if (context != null)
+    {
+      MemoryQuota memQuota = context.getMemoryQuota();
+      if (cfg.getDBCacheSize() > 0 && !memQuota.isMemoryAvailable(cfg.getDBCacheSize()))
+      {
+        unacceptableReasons.add(ERR_BACKEND_CONFIG_CACHE_SIZE_GREATER_THAN_JVM_HEAP.get(
+            cfg.getDBCacheSize(), memQuota.getAvailableMemory()));
+        return false;
+      }
+      else if (!memQuota.isMemoryAvailable(memQuota.memPercentToBytes(cfg.getDBCachePercent())))
+      {
+        unacceptableReasons.add(ERR_BACKEND_CONFIG_CACHE_PERCENT_GREATER_THAN_JVM_HEAP.get(
+            cfg.getDBCachePercent(), memQuota.memBytesToPercent(memQuota.getAvailableMemory())));
+        return false;
+      }
+    }
+    return checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(LSMBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(LSMBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+
+    try
+    {
+      File newBackendDirectory = getBackendDirectory(cfg);
+
+      // Create the directory if it doesn't exist.
+      if (!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, false);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions())
+          || !cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        setDBDirPermissions(newBackendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      registerMonitoredDirectory(cfg);
+      memtableSize = cfg.getDBMemtableSize();
+      config = cfg;
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  private void registerMonitoredDirectory(LSMBackendCfg cfg)
+  {
+    diskMonitor.registerMonitoredDirectory(
+      cfg.getBackendId() + " backend",
+      getDirectory(),
+      cfg.getDiskLowThreshold(),
+      cfg.getDiskFullThreshold(),
+      this);
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storageStatus;
+  }
+
+  @Override
+  public void diskFullThresholdReached(File directory, long thresholdInBytes)
+  {
+    storageStatus = statusWhenDiskSpaceFull(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskLowThresholdReached(File directory, long thresholdInBytes)
+  {
+    storageStatus = statusWhenDiskSpaceLow(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskSpaceRestored(File directory, long lowThresholdInBytes, long fullThresholdInBytes)
+  {
+    storageStatus = StorageStatus.working();
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * A tree of an {@link LSMStorage}: its current {@link TreeVersion} and the bookkeeping of its compactions.
+ * <p>
+ * Each incarnation of a tree name gets its own identifier, so that the write-ahead log records of a deleted tree are
+ * never replayed into a tree later created with the same name. Versions are replaced while holding the monitor of
+ * the tree.
+ */
+final class LSMTree
+{
+  /** Orders the segments of a sorted level by smallest key. */
+  static final Comparator<Segment> SMALLEST_KEY_ORDER = new Comparator<Segment>()
+  {
+    @Override
+    public int compare(Segment s1, Segment s2)
+    {
+      return s1.getSmallestKey().compareTo(s2.getSmallestKey());
+    }
+  };
+
+  final long id;
+  final TreeName name;
+  private volatile TreeVersion current;
+  private volatile boolean deleted;
+  /** For each level, the largest key of the last segment compacted into the next level. */
+  private final ByteString[] compactionPointers = new ByteString[TreeVersion.NB_LEVELS];
+
+  LSMTree(long id, TreeName name, List<List<Segment>> levels)
+  {
+    this.id = id;
+    this.name = name;
+    this.current = new TreeVersion(new Memtable(), Collections.<Memtable> emptyList(), levels);
+  }
+
+  /**
+   * Acquires the current version of this tree. The returned version must be released after use.
+   *
+   * @return the current version, or {@code null} if this tree has been deleted
+   */
+  TreeVersion acquire()
+  {
+    for (;;)
+    {
+      final TreeVersion version = current;
+      if (version.tryAcquire())
+      {
+        return version;
+      }
+      if (deleted)
+      {
+        return null;
+      }
+    }
+  }
+
+  /** Returns the memtable receiving the updates. Callers must prevent concurrent calls to {@link #freeze()}. */
+  Memtable getMemtable()
+  {
+    return current.memtable;
+  }
+
+  boolean isDeleted()
+  {
+    return deleted;
+  }
+
+  /**
+   * Replaces the memtable of this tree with an empty one.
+   *
+   * @return the frozen memtable, or {@code null} if it was empty
+   */
+  synchronized Memtable freeze()
+  {
+    final TreeVersion version = current;
+    if (deleted || version.memtable.isEmpty())
+    {
+      return null;
+    }
+    final List<Memtable> frozen = new ArrayList<>(version.frozenMemtables.size() + 1);
+    frozen.add(version.memtable);
+    frozen.addAll(version.frozenMemtables);
+    install(new TreeVersion(new Memtable(), frozen, version.levels));
+    return version.memtable;
+  }
+
+  /**
+   * Replaces a frozen memtable with the level 0 segment it has been written to.
+   *
+   * @return {@code false} if the tree has been deleted in the meantime, in which case the segment is not used
+   */
+  synchronized boolean installFlush(Memtable frozen, Segment segment)
+  {
+    if (deleted)
+    {
+      return false;
+    }
+    final TreeVersion version = current;
+    final List<Memtable> frozenMemtables = new ArrayList<>(version.frozenMemtables);
+    frozenMemtables.remove(frozen);
+    final List<List<Segment>> levels = version.copyLevels();
+    if (segment != null)
+    {
+      levels.get(0).add(0, segment);
+    }
+    install(new TreeVersion(version.memtable, frozenMemtables, levels));
+    return true;
+  }
+
+  /**
+   * Replaces the input segments of a compaction with its output segments.
+   *
+   * @return {@code false} if the tree has been deleted in the meantime, in which case the outputs are not used
+   */
+  synchronized boolean installCompaction(Collection<Segment> inputs, List<Segment> outputs, int outputLevel)
+  {
+    if (deleted)
+    {
+      return false;
+    }
+    final TreeVersion version = current;
+    final List<List<Segment>> levels = version.copyLevels();
+    for (List<Segment> level : levels)
+    {
+      level.removeAll(inputs);
+    }
+    final List<Segment> level = levels.get(outputLevel);
+    level.addAll(outputs);
+    Collections.sort(level, SMALLEST_KEY_ORDER);
+    for (Segment input : inputs)
+    {
+      if (!outputs.contains(input))
+      {
+        input.markObsolete();
+      }
+    }
+    install(new TreeVersion(version.memtable, new ArrayList<>(version.frozenMemtables), levels));
+    return true;
+  }
+
+  /** Marks this tree as deleted: its segments are deleted once the versions being read are released. */
+  synchronized void delete()
+  {
+    if (!deleted)
+    {
+      deleted = true;
+      for (List<Segment> level : current.levels)
+      {
+        for (Segment segment : level)
+        {
+          segment.markObsolete();
+        }
+      }
+      current.release();
+    }
+  }
+
+  /** Releases the current version of this tree without deleting its segments, when the storage is closed. */
+  synchronized void close()
+  {
+    if (!deleted)
+    {
+      deleted = true;
+      current.release();
+    }
+  }
+
+  private void install(TreeVersion version)
+  {
+    final TreeVersion previous = current;
+    current = version;
+    previous.release();
+  }
+
+  ByteString getCompactionPointer(int level)
+  {
+    return compactionPointers[level];
+  }
+
+  void setCompactionPointer(int level, ByteString key)
+  {
+    compactionPointers[level] = key;
+  }
+
+  @Override
+  public String toString()
+  {
+    return name.toString();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+
+/** Iterates over the records of a level made of sorted and non overlapping segments, opening them on demand. */
+final class LevelIterator implements RecordIterator
+{
+  private final List<Segment> segments;
+  private int segmentIndex;
+  private RecordIterator current;
+
+  LevelIterator(List<Segment> segments)
+  {
+    this.segments = segments;
+  }
+
+  @Override
+  public void seek(ByteSequence key)
+  {
+    close();
+    segmentIndex = key != null ? TreeVersion.findFirstSegmentEndingAfter(segments, key) : 0;
+    if (segmentIndex < segments.size())
+    {
+      current = segments.get(segmentIndex).iterator();
+      current.seek(key);
+      skipExhaustedSegments();
+    }
+  }
+
+  @Override
+  public boolean isValid()
+  {
+    return current != null && current.isValid();
+  }
+
+  @Override
+  public Record get()
+  {
+    return current.get();
+  }
+
+  @Override
+  public void next()
+  {
+    current.next();
+    skipExhaustedSegments();
+  }
+
+  private void skipExhaustedSegments()
+  {
+    while (!current.isValid() && segmentIndex + 1 < segments.size())
+    {
+      current.close();
+      current = segments.get(++segmentIndex).iterator();
+      current.seek(null);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (current != null)
+    {
+      current.close();
+      current = null;
+    }
+  }
+}
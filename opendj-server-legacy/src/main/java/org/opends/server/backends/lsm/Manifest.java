@@ -0,0 +1,235 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DecodeException;
+
+/**
+ * Describes the persistent state of an {@link LSMStorage}: its trees, the segments of each level of each tree, and
+ * the first write-ahead log file whose records are not yet held by the segments.
+ * <p>
+ * Each change of the state is written to a new manifest file whose name holds an increasing generation number: a
+ * manifest file is never modified once written. When opening the storage, the most recent valid manifest is used.
+ */
+final class Manifest
+{
+  /** The persistent state of a tree. */
+  static final class TreeEntry
+  {
+    final long id;
+    final String name;
+    /** For each level, the identifiers of its segments. */
+    final List<long[]> levels;
+
+    TreeEntry(long id, String name, List<long[]> levels)
+    {
+      this.id = id;
+      this.name = name;
+      this.levels = levels;
+    }
+  }
+
+  private static final String PREFIX = "manifest-";
+  private static final int MAGIC = 0x4c534d4d;
+  private static final int VERSION = 1;
+
+  /** Accepts the manifest files. */
+  static final FileFilter MANIFEST_FILES = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return file.getName().matches(PREFIX + "\\d{10}");
+    }
+  };
+
+  final long generation;
+  final long lastSeq;
+  final long logFileNumber;
+  final long nextSegmentId;
+  final long nextTreeId;
+  final List<TreeEntry> trees;
+
+  Manifest(long generation, long lastSeq, long logFileNumber, long nextSegmentId, long nextTreeId,
+      List<TreeEntry> trees)
+  {
+    this.generation = generation;
+    this.lastSeq = lastSeq;
+    this.logFileNumber = logFileNumber;
+    this.nextSegmentId = nextSegmentId;
+    this.nextTreeId = nextTreeId;
+    this.trees = trees;
+  }
+
+  /** Returns the state of a storage which has never been written to. */
+  static Manifest empty()
+  {
+    return new Manifest(0, 0, 1, 1, 1, new ArrayList<TreeEntry>());
+  }
+
+  static String fileName(long generation)
+  {
+    return PREFIX + String.format("%010d", generation);
+  }
+
+  File getFile(File directory)
+  {
+    return new File(directory, fileName(generation));
+  }
+
+  /** Returns the manifest files of the provided directory, most recent first. */
+  static List<File> listManifestFiles(File directory)
+  {
+    final File[] files = directory.listFiles(MANIFEST_FILES);
+    if (files == null)
+    {
+      return new ArrayList<>();
+    }
+    Arrays.sort(files);
+    final List<File> result = new ArrayList<>(Arrays.asList(files));
+    Collections.reverse(result);
+    return result;
+  }
+
+  /**
+   * Reads the most recent valid manifest of the provided directory.
+   *
+   * @return the most recent manifest, or an empty manifest if there is none
+   */
+  static Manifest readLatest(File directory) throws IOException
+  {
+    for (File file : listManifestFiles(directory))
+    {
+      try
+      {
+        return read(file);
+      }
+      catch (DecodeException e)
+      {
+        // Partially written, try the previous one.
+      }
+    }
+    return empty();
+  }
+
+  private static Manifest read(File file) throws IOException, DecodeException
+  {
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    if (bytes.length < 8)
+    {
+      throw DecodeException.error(LocalizableMessage.raw("Truncated manifest " + file));
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 8);
+    final ByteSequenceReader reader = ByteString.wrap(bytes).asReader();
+    if (reader.readInt() != MAGIC || reader.readInt() != VERSION
+        || ByteString.wrap(bytes, bytes.length - 8, 8).asReader().readLong() != crc.getValue())
+    {
+      throw DecodeException.error(LocalizableMessage.raw("Invalid manifest " + file));
+    }
+    final long generation = reader.readLong();
+    final long lastSeq = reader.readLong();
+    final long logFileNumber = reader.readLong();
+    final long nextSegmentId = reader.readLong();
+    final long nextTreeId = reader.readLong();
+    final int nbTrees = reader.readInt();
+    final List<TreeEntry> trees = new ArrayList<>(nbTrees);
+    for (int i = 0; i < nbTrees; i++)
+    {
+      final long id = reader.readLong();
+      final String name = reader.readStringUtf8(reader.readCompactUnsignedInt());
+      final int nbLevels = reader.readInt();
+      final List<long[]> levels = new ArrayList<>(nbLevels);
+      for (int j = 0; j < nbLevels; j++)
+      {
+        final long[] segments = new long[reader.readInt()];
+        for (int k = 0; k < segments.length; k++)
+        {
+          segments[k] = reader.readLong();
+        }
+        levels.add(segments);
+      }
+      trees.add(new TreeEntry(id, name, levels));
+    }
+    return new Manifest(generation, lastSeq, logFileNumber, nextSegmentId, nextTreeId, trees);
+  }
+
+  /** Writes this manifest to a new file of the provided directory and syncs it to disk. */
+  void write(File directory) throws IOException
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    builder.appendInt(MAGIC);
+    builder.appendInt(VERSION);
+    builder.appendLong(generation);
+    builder.appendLong(lastSeq);
+    builder.appendLong(logFileNumber);
+    builder.appendLong(nextSegmentId);
+    builder.appendLong(nextTreeId);
+    builder.appendInt(trees.size());
+    for (TreeEntry tree : trees)
+    {
+      builder.appendLong(tree.id);
+      final ByteString name = ByteString.valueOfUtf8(tree.name);
+      builder.appendCompactUnsigned(name.length());
+      builder.appendBytes(name);
+      builder.appendInt(tree.levels.size());
+      for (long[] segments : tree.levels)
+      {
+        builder.appendInt(segments.length);
+        for (long segmentId : segments)
+        {
+          builder.appendLong(segmentId);
+        }
+      }
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(builder.getBackingArray(), 0, builder.length());
+    builder.appendLong(crc.getValue());
+
+    final File tmpFile = new File(directory, fileName(generation) + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile))
+    {
+      builder.copyTo(out);
+      out.getFD().sync();
+    }
+    Files.move(tmpFile.toPath(), getFile(directory).toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+}
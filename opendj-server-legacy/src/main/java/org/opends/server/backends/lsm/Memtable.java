@@ -0,0 +1,134 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * In-memory table receiving the most recent records of an LSM tree.
+ * <p>
+ * Records are only ever added: updates and deletions of a key add a new version of it. Once frozen, a memtable is
+ * written to disk as a level 0 segment.
+ */
+final class Memtable
+{
+  private final ConcurrentSkipListSet<Record> records = new ConcurrentSkipListSet<>(Record.COMPARATOR);
+  private final AtomicLong memorySize = new AtomicLong();
+
+  /**
+   * Adds the provided record to this memtable.
+   *
+   * @return the memory used by the added record
+   */
+  int add(Record record)
+  {
+    records.add(record);
+    final int size = record.memorySize();
+    memorySize.addAndGet(size);
+    return size;
+  }
+
+  /** Returns the most recent version of the provided key visible from the provided snapshot, or {@code null}. */
+  Record get(ByteSequence key, long snapshot)
+  {
+    final Record record = records.ceiling(Record.probe(key, snapshot));
+    return record != null && record.key.equals(key) ? record : null;
+  }
+
+  /** Returns the greatest key strictly lower than the provided bound, or {@code null}. */
+  ByteString lastKeyBefore(ByteSequence bound)
+  {
+    final Record record = bound != null ? records.lower(Record.probe(bound, Long.MAX_VALUE))
+                                        : (records.isEmpty() ? null : records.last());
+    return record != null ? record.key : null;
+  }
+
+  boolean isEmpty()
+  {
+    return records.isEmpty();
+  }
+
+  int count()
+  {
+    return records.size();
+  }
+
+  long memorySize()
+  {
+    return memorySize.get();
+  }
+
+  /** Returns all the records of this memtable, in order. */
+  Iterable<Record> records()
+  {
+    return records;
+  }
+
+  RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      private Iterator<Record> iterator;
+      private Record current;
+
+      @Override
+      public void seek(ByteSequence key)
+      {
+        iterator = key != null ? records.tailSet(Record.probe(key, Long.MAX_VALUE)).iterator()
+                               : records.iterator();
+        next();
+      }
+
+      @Override
+      public boolean isValid()
+      {
+        return current != null;
+      }
+
+      @Override
+      public Record get()
+      {
+        return current;
+      }
+
+      @Override
+      public void next()
+      {
+        current = iterator.hasNext() ? iterator.next() : null;
+      }
+
+      @Override
+      public void close()
+      {
+        // Nothing to do.
+      }
+    };
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+
+/**
+ * Merges the records of several iterators in {@link Record#COMPARATOR} order. All the versions of all the keys are
+ * returned: filtering them is the responsibility of the caller.
+ */
+final class MergingIterator implements RecordIterator
+{
+  private static final Comparator<RecordIterator> ITERATOR_COMPARATOR = new Comparator<RecordIterator>()
+  {
+    @Override
+    public int compare(RecordIterator it1, RecordIterator it2)
+    {
+      return Record.COMPARATOR.compare(it1.get(), it2.get());
+    }
+  };
+
+  private final List<RecordIterator> iterators;
+  private final PriorityQueue<RecordIterator> heap;
+
+  MergingIterator(List<RecordIterator> iterators)
+  {
+    this.iterators = iterators;
+    this.heap = new PriorityQueue<>(Math.max(1, iterators.size()), ITERATOR_COMPARATOR);
+  }
+
+  @Override
+  public void seek(ByteSequence key)
+  {
+    heap.clear();
+    for (RecordIterator iterator : iterators)
+    {
+      iterator.seek(key);
+      if (iterator.isValid())
+      {
+        heap.add(iterator);
+      }
+    }
+  }
+
+  @Override
+  public boolean isValid()
+  {
+    return !heap.isEmpty();
+  }
+
+  @Override
+  public Record get()
+  {
+    return heap.peek().get();
+  }
+
+  @Override
+  public void next()
+  {
+    final RecordIterator iterator = heap.poll();
+    iterator.next();
+    if (iterator.isValid())
+    {
+      heap.add(iterator);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    heap.clear();
+    for (RecordIterator iterator : iterators)
+    {
+      iterator.close();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Comparator;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * A version of a key stored in an LSM tree.
+ * <p>
+ * Each update of a key produces a new record tagged with the sequence number of the transaction which performed
+ * it. Deletions are recorded as records without value, known as tombstones. Records are ordered by ascending key,
+ * then by descending sequence number so that the most recent version of a key comes first.
+ */
+final class Record
+{
+  /** Orders records by ascending key, then by descending sequence number. */
+  static final Comparator<Record> COMPARATOR = new Comparator<Record>()
+  {
+    @Override
+    public int compare(Record r1, Record r2)
+    {
+      final int cmp = r1.key.compareTo(r2.key);
+      if (cmp != 0)
+      {
+        return cmp;
+      }
+      return Long.compare(r2.seq, r1.seq);
+    }
+  };
+
+  /** Fixed overhead accounted for each record held in memory. */
+  private static final int MEMORY_OVERHEAD = 96;
+
+  final ByteString key;
+  final long seq;
+  /** The value of this record, or {@code null} if this record is a tombstone. */
+  final ByteString value;
+
+  Record(ByteString key, long seq, ByteString value)
+  {
+    this.key = key;
+    this.seq = seq;
+    this.value = value;
+  }
+
+  /**
+   * Returns a record which sorts before all the versions of the provided key which are visible from the provided
+   * snapshot, and after all the other versions of this key.
+   */
+  static Record probe(ByteSequence key, long snapshot)
+  {
+    return new Record(key.toByteString(), snapshot, null);
+  }
+
+  boolean isTombstone()
+  {
+    return value == null;
+  }
+
+  /** Returns an estimate of the memory used by this record. */
+  int memorySize()
+  {
+    return MEMORY_OVERHEAD + key.length() + (value != null ? value.length() : 0);
+  }
+
+  @Override
+  public String toString()
+  {
+    return key.toHexString() + "@" + seq + (value != null ? "=" + value.toHexString() : " (deleted)");
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.Closeable;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+
+/**
+ * Iterates over the records of a memtable, a segment or a combination of them, in {@link Record#COMPARATOR} order.
+ * Iterators are not positioned when created: {@link #seek(ByteSequence)} must be called first.
+ */
+interface RecordIterator extends Closeable
+{
+  /**
+   * Positions this iterator on the first record whose key is greater than or equal to the provided key.
+   *
+   * @param key
+   *          the key to look for, or {@code null} to position on the first record
+   */
+  void seek(ByteSequence key);
+
+  /**
+   * Returns whether this iterator is positioned on a record.
+   *
+   * @return {@code true} if {@link #get()} can be called
+   */
+  boolean isValid();
+
+  /**
+   * Returns the record this iterator is positioned on.
+   *
+   * @return the current record
+   */
+  Record get();
+
+  /** Moves this iterator to the next record. */
+  void next();
+
+  @Override
+  void close();
+}
@@ -0,0 +1,470 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+
+/**
+ * Immutable sorted file holding records of an LSM tree.
+ * <p>
+ * A segment file is made of:
+ * <ol>
+ * <li>data blocks of about {@value #BLOCK_SIZE} bytes, each record being encoded as its key length, key, sequence
+ * number, value length plus one (zero for tombstones) and value,</li>
+ * <li>the index: the smallest key of the segment, followed by the last key, last sequence number, offset, length and
+ * CRC32 of each data block,</li>
+ * <li>the bloom filter over the keys of the segment,</li>
+ * <li>a fixed size footer locating the index and the bloom filter.</li>
+ * </ol>
+ * The index and the bloom filter are loaded in memory when the segment is opened, data blocks are read on demand
+ * through the {@link BlockCache}.
+ * <p>
+ * Segments are reference counted by the tree versions using them: the file of an obsolete segment is deleted once
+ * no version references it anymore.
+ */
+final class Segment
+{
+  static final int BLOCK_SIZE = 4096;
+  static final int MAGIC = 0x4c534d31;
+  private static final int FOOTER_SIZE = 36;
+  /** Estimated memory used by a decoded record in addition to its bytes. */
+  private static final int DECODED_RECORD_OVERHEAD = 80;
+
+  final long id;
+  private final File file;
+  private final BlockCache cache;
+  private final FileReaper reaper;
+  private volatile FileChannel channel;
+  private final ByteString smallestKey;
+  /** The last record of each block, without its value. */
+  private final Record[] blockLastRecords;
+  private final long[] blockOffsets;
+  private final int[] blockLengths;
+  private final int[] blockChecksums;
+  private final BloomFilter bloomFilter;
+  private final long recordCount;
+  private final long fileSize;
+  private final AtomicInteger references = new AtomicInteger();
+  private volatile boolean obsolete;
+
+  private Segment(long id, File file, BlockCache cache, FileReaper reaper) throws IOException
+  {
+    this.id = id;
+    this.file = file;
+    this.cache = cache;
+    this.reaper = reaper;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try
+    {
+      this.fileSize = channel.size();
+      if (fileSize < FOOTER_SIZE)
+      {
+        throw corrupted("truncated file");
+      }
+      final ByteSequenceReader footer = ByteString.wrap(readBytes(fileSize - FOOTER_SIZE, FOOTER_SIZE)).asReader();
+      final long indexOffset = footer.readLong();
+      final int indexLength = footer.readInt();
+      final long bloomOffset = footer.readLong();
+      final int bloomLength = footer.readInt();
+      this.recordCount = footer.readLong();
+      if (footer.readInt() != MAGIC)
+      {
+        throw corrupted("invalid footer");
+      }
+
+      final ByteSequenceReader index = ByteString.wrap(readBytes(indexOffset, indexLength)).asReader();
+      this.smallestKey = index.readByteString(index.readCompactUnsignedInt());
+      final int nbBlocks = index.readInt();
+      blockLastRecords = new Record[nbBlocks];
+      blockOffsets = new long[nbBlocks];
+      blockLengths = new int[nbBlocks];
+      blockChecksums = new int[nbBlocks];
+      for (int i = 0; i < nbBlocks; i++)
+      {
+        final ByteString lastKey = index.readByteString(index.readCompactUnsignedInt());
+        blockLastRecords[i] = new Record(lastKey, index.readLong(), null);
+        blockOffsets[i] = index.readLong();
+        blockLengths[i] = index.readInt();
+        blockChecksums[i] = index.readInt();
+      }
+      this.bloomFilter = BloomFilter.read(ByteString.wrap(readBytes(bloomOffset, bloomLength)).asReader());
+    }
+    catch (IOException | RuntimeException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens an existing segment file.
+   *
+   * @throws StorageRuntimeException
+   *           if the segment file is corrupted
+   */
+  static Segment open(File directory, long id, BlockCache cache, FileReaper reaper) throws IOException
+  {
+    return new Segment(id, new File(directory, fileName(id)), cache, reaper);
+  }
+
+  static String fileName(long id)
+  {
+    return String.format("%010d.seg", id);
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  long getFileSize()
+  {
+    return fileSize;
+  }
+
+  long getRecordCount()
+  {
+    return recordCount;
+  }
+
+  ByteString getSmallestKey()
+  {
+    return smallestKey;
+  }
+
+  ByteString getLargestKey()
+  {
+    return blockLastRecords.length > 0 ? blockLastRecords[blockLastRecords.length - 1].key : smallestKey;
+  }
+
+  boolean isEmpty()
+  {
+    return blockLastRecords.length == 0;
+  }
+
+  /** Returns whether this segment may hold keys in the provided inclusive range. */
+  boolean overlaps(ByteSequence smallest, ByteSequence largest)
+  {
+    return !isEmpty() && getSmallestKey().compareTo(largest) <= 0 && getLargestKey().compareTo(smallest) >= 0;
+  }
+
+  /** Returns the most recent version of the provided key visible from the provided snapshot, or {@code null}. */
+  Record get(ByteSequence key, long snapshot)
+  {
+    if (!overlaps(key, key) || !bloomFilter.mightContain(key))
+    {
+      return null;
+    }
+    final Record probe = Record.probe(key, snapshot);
+    final int blockIndex = findBlock(probe);
+    if (blockIndex == blockLastRecords.length)
+    {
+      return null;
+    }
+    final Record[] records = readBlock(blockIndex);
+    final int i = lowerBound(records, probe);
+    return i < records.length && records[i].key.equals(key) ? records[i] : null;
+  }
+
+  /** Returns the greatest key strictly lower than the provided bound, or {@code null}. */
+  ByteString lastKeyBefore(ByteSequence bound)
+  {
+    if (isEmpty())
+    {
+      return null;
+    }
+    if (bound == null)
+    {
+      return getLargestKey();
+    }
+    final Record probe = Record.probe(bound, Long.MAX_VALUE);
+    final int blockIndex = findBlock(probe);
+    if (blockIndex == blockLastRecords.length)
+    {
+      return getLargestKey();
+    }
+    final Record[] records = readBlock(blockIndex);
+    final int i = lowerBound(records, probe);
+    if (i > 0)
+    {
+      return records[i - 1].key;
+    }
+    return blockIndex > 0 ? blockLastRecords[blockIndex - 1].key : null;
+  }
+
+  RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      private int blockIndex;
+      private Record[] records;
+      private int position;
+
+      @Override
+      public void seek(ByteSequence key)
+      {
+        if (key == null)
+        {
+          loadBlock(0);
+          return;
+        }
+        final Record probe = Record.probe(key, Long.MAX_VALUE);
+        loadBlock(findBlock(probe));
+        if (records != null)
+        {
+          position = lowerBound(records, probe);
+        }
+      }
+
+      private void loadBlock(int index)
+      {
+        blockIndex = index;
+        position = 0;
+        records = index < blockLastRecords.length ? readBlock(index) : null;
+      }
+
+      @Override
+      public boolean isValid()
+      {
+        return records != null && position < records.length;
+      }
+
+      @Override
+      public Record get()
+      {
+        return records[position];
+      }
+
+      @Override
+      public void next()
+      {
+        if (++position >= records.length)
+        {
+          loadBlock(blockIndex + 1);
+        }
+      }
+
+      @Override
+      public void close()
+      {
+        records = null;
+      }
+    };
+  }
+
+  /** Returns the index of the first block whose last record is greater than or equal to the provided record. */
+  private int findBlock(Record probe)
+  {
+    return lowerBound(blockLastRecords, probe);
+  }
+
+  private static int lowerBound(Record[] records, Record probe)
+  {
+    int low = 0;
+    int high = records.length;
+    while (low < high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (Record.COMPARATOR.compare(records[mid], probe) < 0)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private Record[] readBlock(int blockIndex)
+  {
+    final long offset = blockOffsets[blockIndex];
+    Record[] records = cache.get(id, offset);
+    if (records == null)
+    {
+      try
+      {
+        final byte[] bytes = readBytes(offset, blockLengths[blockIndex]);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        if ((int) crc.getValue() != blockChecksums[blockIndex])
+        {
+          throw corrupted("checksum mismatch in block at offset " + offset);
+        }
+        records = decodeBlock(ByteString.wrap(bytes));
+        cache.put(id, offset, records, bytes.length + records.length * DECODED_RECORD_OVERHEAD);
+      }
+      catch (IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+    return records;
+  }
+
+  private static Record[] decodeBlock(ByteString bytes)
+  {
+    final ByteSequenceReader reader = bytes.asReader();
+    Record[] records = new Record[64];
+    int count = 0;
+    while (reader.remaining() > 0)
+    {
+      final ByteString key = reader.readByteString(reader.readCompactUnsignedInt());
+      final long seq = reader.readLong();
+      final int valueLength = reader.readCompactUnsignedInt();
+      final ByteString value = valueLength > 0 ? reader.readByteString(valueLength - 1) : null;
+      if (count == records.length)
+      {
+        records = Arrays.copyOf(records, count * 2);
+      }
+      records[count++] = new Record(key, seq, value);
+    }
+    return Arrays.copyOf(records, count);
+  }
+
+  private byte[] readBytes(long offset, int length) throws IOException
+  {
+    final byte[] bytes = new byte[length];
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining())
+    {
+      final int n = read(buffer, offset + buffer.position());
+      if (n < 0)
+      {
+        throw corrupted("unexpected end of file at offset " + (offset + buffer.position()));
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads from the segment file. The channel is closed when a reading thread is interrupted: it is then reopened for
+   * the benefit of the other readers.
+   */
+  private int read(ByteBuffer buffer, long position) throws IOException
+  {
+    for (;;)
+    {
+      final FileChannel current = channel;
+      try
+      {
+        return current.read(buffer, position);
+      }
+      catch (ClosedByInterruptException e)
+      {
+        reopen(current);
+        throw e;
+      }
+      catch (ClosedChannelException e)
+      {
+        if (obsolete && references.get() == 0)
+        {
+          throw e;
+        }
+        reopen(current);
+      }
+    }
+  }
+
+  private synchronized void reopen(FileChannel closedChannel) throws IOException
+  {
+    if (channel == closedChannel)
+    {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+  }
+
+  private StorageRuntimeException corrupted(String reason)
+  {
+    return new StorageRuntimeException(ERR_LSM_CORRUPTED_FILE.get(file, reason).toString());
+  }
+
+  void ref()
+  {
+    references.incrementAndGet();
+  }
+
+  /** Releases a reference to this segment, deleting its file if it is obsolete and no longer referenced. */
+  void unref()
+  {
+    if (references.decrementAndGet() == 0 && obsolete)
+    {
+      close();
+      reaper.delete(file);
+    }
+  }
+
+  /**
+   * Marks this segment as replaced by the output of a compaction. It must be called before the tree version which
+   * no longer references it is installed.
+   */
+  void markObsolete()
+  {
+    obsolete = true;
+  }
+
+  /** Closes and deletes a segment which has never been installed in a tree version. */
+  void discard()
+  {
+    obsolete = true;
+    close();
+    reaper.delete(file);
+  }
+
+  void close()
+  {
+    try
+    {
+      channel.close();
+    }
+    catch (IOException ignored)
+    {
+      // Nothing can be done.
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName();
+  }
+}
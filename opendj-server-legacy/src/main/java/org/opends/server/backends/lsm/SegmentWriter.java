@@ -0,0 +1,188 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.server.backends.lsm.Segment.*;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Writes records into a new segment file. Records must be added in {@link Record#COMPARATOR} order.
+ * <p>
+ * See {@link Segment} for a description of the file format.
+ */
+final class SegmentWriter implements Closeable
+{
+  private final File file;
+  private final FileOutputStream fileStream;
+  private final OutputStream out;
+  private final ByteStringBuilder block = new ByteStringBuilder(BLOCK_SIZE + 1024);
+  private final ByteStringBuilder index = new ByteStringBuilder();
+  private final CRC32 crc = new CRC32();
+  private long[] keyHashes = new long[1024];
+  private int nbKeys;
+  private int nbBlocks;
+  private long position;
+  private long recordCount;
+  private ByteString smallestKey;
+  private Record lastRecord;
+  private boolean finished;
+
+  SegmentWriter(File file) throws IOException
+  {
+    this.file = file;
+    this.fileStream = new FileOutputStream(file);
+    this.out = new BufferedOutputStream(fileStream, 64 * 1024);
+  }
+
+  void add(Record record) throws IOException
+  {
+    if (lastRecord == null)
+    {
+      smallestKey = record.key;
+    }
+    if (lastRecord == null || !lastRecord.key.equals(record.key))
+    {
+      if (nbKeys == keyHashes.length)
+      {
+        keyHashes = Arrays.copyOf(keyHashes, nbKeys * 2);
+      }
+      keyHashes[nbKeys++] = BloomFilter.hash(record.key);
+    }
+    block.appendCompactUnsigned(record.key.length());
+    block.appendBytes(record.key);
+    block.appendLong(record.seq);
+    if (record.isTombstone())
+    {
+      block.appendCompactUnsigned(0);
+    }
+    else
+    {
+      block.appendCompactUnsigned(record.value.length() + 1L);
+      block.appendBytes(record.value);
+    }
+    lastRecord = record;
+    recordCount++;
+    if (block.length() >= BLOCK_SIZE)
+    {
+      flushBlock();
+    }
+  }
+
+  /** Returns the last record added to this segment, or {@code null} if it is empty. */
+  Record getLastRecord()
+  {
+    return lastRecord;
+  }
+
+  /** Returns the size of the file written so far. */
+  long getFileSize()
+  {
+    return position + block.length();
+  }
+
+  private void flushBlock() throws IOException
+  {
+    if (block.length() == 0)
+    {
+      return;
+    }
+    crc.reset();
+    crc.update(block.getBackingArray(), 0, block.length());
+
+    index.appendCompactUnsigned(lastRecord.key.length());
+    index.appendBytes(lastRecord.key);
+    index.appendLong(lastRecord.seq);
+    index.appendLong(position);
+    index.appendInt(block.length());
+    index.appendInt((int) crc.getValue());
+    nbBlocks++;
+
+    block.copyTo(out);
+    position += block.length();
+    block.clear();
+  }
+
+  /** Writes the index, the bloom filter and the footer, then syncs the file to disk. */
+  void finish() throws IOException
+  {
+    flushBlock();
+
+    final ByteStringBuilder trailer = new ByteStringBuilder();
+    final long indexOffset = position;
+    trailer.appendCompactUnsigned(smallestKey != null ? smallestKey.length() : 0);
+    if (smallestKey != null)
+    {
+      trailer.appendBytes(smallestKey);
+    }
+    trailer.appendInt(nbBlocks);
+    trailer.appendBytes(index);
+    final int indexLength = trailer.length();
+
+    BloomFilter.build(keyHashes, nbKeys).write(trailer);
+    final int bloomLength = trailer.length() - indexLength;
+
+    trailer.appendLong(indexOffset);
+    trailer.appendInt(indexLength);
+    trailer.appendLong(indexOffset + indexLength);
+    trailer.appendInt(bloomLength);
+    trailer.appendLong(recordCount);
+    trailer.appendInt(MAGIC);
+    trailer.copyTo(out);
+
+    out.flush();
+    fileStream.getFD().sync();
+    out.close();
+    finished = true;
+  }
+
+  /** Closes this writer, deleting the file unless {@link #finish()} completed. */
+  @Override
+  public void close()
+  {
+    if (!finished)
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException ignored)
+      {
+        // The file is deleted anyway.
+      }
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+
+/**
+ * Cursor over the keys of a tree visible from a snapshot: for each key, only the most recent version whose
+ * sequence number is not greater than the snapshot is returned, unless it is a tombstone.
+ * <p>
+ * The cursor owns a reference on the tree version it reads, released when the cursor is closed.
+ */
+final class SnapshotCursor implements Cursor<ByteString, ByteString>
+{
+  private final TreeVersion version;
+  private final long snapshot;
+  private final RecordIterator iterator;
+  private ByteString currentKey;
+  private ByteString currentValue;
+  /** The first key following the key looked for by a failed {@link #positionToKey(ByteSequence)}. */
+  private Record pending;
+  private boolean positioned;
+
+  /**
+   * Creates a new cursor.
+   *
+   * @param version
+   *          an acquired version of the tree, or {@code null} if the tree does not exist
+   * @param snapshot
+   *          the sequence number of the last visible transaction
+   */
+  SnapshotCursor(TreeVersion version, long snapshot)
+  {
+    this.version = version;
+    this.snapshot = snapshot;
+    this.iterator = version != null ? version.iterator()
+                                    : new MergingIterator(Collections.<RecordIterator> emptyList());
+  }
+
+  @Override
+  public boolean next()
+  {
+    if (pending != null)
+    {
+      setCurrent(pending);
+      pending = null;
+      return true;
+    }
+    if (currentKey != null)
+    {
+      skipVersionsOf(currentKey);
+      return findVisible();
+    }
+    if (!positioned)
+    {
+      positioned = true;
+      iterator.seek(null);
+      return findVisible();
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isDefined()
+  {
+    return currentKey != null;
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    throwIfUndefined();
+    return currentKey;
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    throwIfUndefined();
+    return currentValue;
+  }
+
+  @Override
+  public void delete()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean positionToKey(ByteSequence key)
+  {
+    if (positionToKeyOrNext(key) && currentKey.equals(key))
+    {
+      return true;
+    }
+    if (currentKey != null)
+    {
+      pending = new Record(currentKey, 0, currentValue);
+    }
+    clearCurrent();
+    return false;
+  }
+
+  @Override
+  public boolean positionToKeyOrNext(ByteSequence key)
+  {
+    positioned = true;
+    pending = null;
+    iterator.seek(key);
+    return findVisible();
+  }
+
+  @Override
+  public boolean positionToLastKey()
+  {
+    return positionToLastKeyBefore(null);
+  }
+
+  /**
+   * Positions this cursor on the greatest visible key strictly lower than the provided bound.
+   *
+   * @param bound
+   *          the exclusive upper bound, or {@code null} for the last key of the tree
+   * @return {@code true} if such a key exists
+   */
+  boolean positionToLastKeyBefore(ByteSequence bound)
+  {
+    positioned = true;
+    pending = null;
+    if (version != null)
+    {
+      ByteSequence upperBound = bound;
+      ByteString key;
+      while ((key = version.lastKeyBefore(upperBound)) != null)
+      {
+        final Record record = version.get(key, snapshot);
+        if (record != null && !record.isTombstone())
+        {
+          iterator.seek(key);
+          return findVisible();
+        }
+        upperBound = key;
+      }
+    }
+    clearCurrent();
+    return false;
+  }
+
+  @Override
+  public boolean positionToIndex(int index)
+  {
+    positionToKeyOrNext(ByteString.empty());
+    for (int i = 0; i < index && isDefined(); i++)
+    {
+      next();
+    }
+    return isDefined();
+  }
+
+  @Override
+  public void close()
+  {
+    iterator.close();
+    if (version != null)
+    {
+      version.release();
+    }
+  }
+
+  /** Positions on the first visible record at or after the current position of the iterator. */
+  private boolean findVisible()
+  {
+    while (iterator.isValid())
+    {
+      final Record record = iterator.get();
+      if (record.seq > snapshot)
+      {
+        iterator.next();
+      }
+      else if (record.isTombstone())
+      {
+        skipVersionsOf(record.key);
+      }
+      else
+      {
+        setCurrent(record);
+        return true;
+      }
+    }
+    clearCurrent();
+    return false;
+  }
+
+  private void skipVersionsOf(ByteString key)
+  {
+    while (iterator.isValid() && iterator.get().key.equals(key))
+    {
+      iterator.next();
+    }
+  }
+
+  private void setCurrent(Record record)
+  {
+    currentKey = record.key;
+    currentValue = record.value;
+  }
+
+  private void clearCurrent()
+  {
+    currentKey = null;
+    currentValue = null;
+  }
+
+  private void throwIfUndefined()
+  {
+    if (!isDefined())
+    {
+      throw new NoSuchElementException();
+    }
+  }
+}
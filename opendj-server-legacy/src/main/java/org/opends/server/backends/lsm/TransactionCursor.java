@@ -0,0 +1,285 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+
+/**
+ * Cursor of a write transaction, merging the updates not yet committed by the transaction with the committed
+ * content of the tree. Updates performed through the transaction while the cursor is open are visible to it.
+ */
+final class TransactionCursor implements Cursor<ByteString, ByteString>
+{
+  /** Gives access to the pending updates of a transaction on a tree. */
+  interface PendingUpdates
+  {
+    /**
+     * Returns the updates of the transaction, deletions being mapped to {@link LSMStorage#TOMBSTONE}.
+     *
+     * @return the updates, or {@code null} if there are none
+     */
+    NavigableMap<ByteString, ByteString> get();
+
+    void delete(ByteString key);
+  }
+
+  private final PendingUpdates updates;
+  private final SnapshotCursor committed;
+  /** The lower bound used to position the committed cursor, {@code null} if it must be repositioned. */
+  private ByteString committedBound;
+  private boolean committedBoundInclusive;
+  private ByteString currentKey;
+  private ByteString currentValue;
+  /** The last key looked for, from which {@link #next()} resumes. */
+  private ByteString position;
+  private boolean positioned;
+  private boolean exhausted;
+
+  TransactionCursor(PendingUpdates updates, SnapshotCursor committed)
+  {
+    this.updates = updates;
+    this.committed = committed;
+  }
+
+  @Override
+  public boolean next()
+  {
+    if (exhausted)
+    {
+      return false;
+    }
+    if (!positioned)
+    {
+      positioned = true;
+      return moveTo(ByteString.empty(), true);
+    }
+    return moveTo(position, false);
+  }
+
+  @Override
+  public boolean isDefined()
+  {
+    return currentKey != null;
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    throwIfUndefined();
+    return currentKey;
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    throwIfUndefined();
+    return currentValue;
+  }
+
+  @Override
+  public void delete()
+  {
+    throwIfUndefined();
+    updates.delete(currentKey);
+  }
+
+  @Override
+  public boolean positionToKey(ByteSequence key)
+  {
+    final ByteString keyBytes = key.toByteString();
+    positioned = true;
+    if (moveTo(keyBytes, true) && currentKey.equals(keyBytes))
+    {
+      return true;
+    }
+    clearCurrent();
+    position = keyBytes;
+    exhausted = false;
+    return false;
+  }
+
+  @Override
+  public boolean positionToKeyOrNext(ByteSequence key)
+  {
+    positioned = true;
+    return moveTo(key.toByteString(), true);
+  }
+
+  @Override
+  public boolean positionToLastKey()
+  {
+    positioned = true;
+    committedBound = null;
+    ByteString bound = null;
+    for (;;)
+    {
+      final NavigableMap<ByteString, ByteString> pending = updates.get();
+      final Map.Entry<ByteString, ByteString> update = pending == null ? null
+          : (bound == null ? pending.lastEntry() : pending.lowerEntry(bound));
+      final boolean hasCommitted = committed.positionToLastKeyBefore(bound);
+      if (update != null && (!hasCommitted || update.getKey().compareTo(committed.getKey()) >= 0))
+      {
+        if (update.getValue() != LSMStorage.TOMBSTONE)
+        {
+          return setCurrent(update.getKey(), update.getValue());
+        }
+        bound = update.getKey();
+      }
+      else if (hasCommitted)
+      {
+        return setCurrent(committed.getKey(), committed.getValue());
+      }
+      else
+      {
+        return setExhausted();
+      }
+    }
+  }
+
+  @Override
+  public boolean positionToIndex(int index)
+  {
+    positioned = true;
+    moveTo(ByteString.empty(), true);
+    for (int i = 0; i < index && isDefined(); i++)
+    {
+      next();
+    }
+    return isDefined();
+  }
+
+  @Override
+  public void close()
+  {
+    committed.close();
+  }
+
+  /** Positions this cursor on the first visible key greater than (or equal to) the provided key. */
+  private boolean moveTo(ByteString key, boolean inclusive)
+  {
+    ByteString from = key;
+    boolean fromInclusive = inclusive;
+    for (;;)
+    {
+      positionCommitted(from, fromInclusive);
+      final ByteString committedKey = committed.isDefined() ? committed.getKey() : null;
+      final NavigableMap<ByteString, ByteString> pending = updates.get();
+      final Map.Entry<ByteString, ByteString> update = pending == null ? null
+          : (fromInclusive ? pending.ceilingEntry(from) : pending.higherEntry(from));
+
+      if (update != null && (committedKey == null || update.getKey().compareTo(committedKey) <= 0))
+      {
+        if (update.getValue() != LSMStorage.TOMBSTONE)
+        {
+          return setCurrent(update.getKey(), update.getValue());
+        }
+        from = update.getKey();
+        fromInclusive = false;
+      }
+      else if (committedKey != null)
+      {
+        return setCurrent(committedKey, committed.getValue());
+      }
+      else
+      {
+        return setExhausted();
+      }
+    }
+  }
+
+  /**
+   * Positions the committed cursor on the first committed key greater than (or equal to) the provided key, reusing
+   * its current position whenever possible.
+   */
+  private void positionCommitted(ByteString key, boolean inclusive)
+  {
+    if (!isCommittedPositionUsable(key, inclusive))
+    {
+      committed.positionToKeyOrNext(key);
+      committedBound = key;
+      committedBoundInclusive = true;
+    }
+    if (!inclusive && committed.isDefined() && committed.getKey().equals(key))
+    {
+      committed.next();
+      committedBound = key;
+      committedBoundInclusive = false;
+    }
+  }
+
+  /**
+   * The committed cursor is on the first committed key following its bound: this key is also the first key
+   * following the provided key when the provided key lies between the bound and the current key.
+   */
+  private boolean isCommittedPositionUsable(ByteString key, boolean inclusive)
+  {
+    if (committedBound == null)
+    {
+      return false;
+    }
+    final int cmp = committedBound.compareTo(key);
+    if (cmp > 0 || (cmp == 0 && !committedBoundInclusive && inclusive))
+    {
+      return false;
+    }
+    return !committed.isDefined() || committed.getKey().compareTo(key) >= 0;
+  }
+
+  private boolean setCurrent(ByteString key, ByteString value)
+  {
+    currentKey = key;
+    currentValue = value;
+    position = key;
+    exhausted = false;
+    return true;
+  }
+
+  private boolean setExhausted()
+  {
+    clearCurrent();
+    exhausted = true;
+    return false;
+  }
+
+  private void clearCurrent()
+  {
+    currentKey = null;
+    currentValue = null;
+  }
+
+  private void throwIfUndefined()
+  {
+    if (!isDefined())
+    {
+      throw new NoSuchElementException();
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Immutable view of the memtables and segments of an LSM tree.
+ * <p>
+ * Level 0 holds the segments produced by memtable flushes, most recent first, whose key ranges may overlap. Each
+ * deeper level holds segments sorted by key whose key ranges do not overlap. For any key, records found in a
+ * memtable are more recent than records found in segments, and records found in a level are more recent than
+ * records found in deeper levels.
+ * <p>
+ * Versions are reference counted: the tree holds a reference on its current version, and so does each reader
+ * while it uses it. The segments of a version are released when its last reference is released.
+ */
+final class TreeVersion
+{
+  static final int NB_LEVELS = 7;
+
+  final Memtable memtable;
+  /** The frozen memtables waiting to be flushed, most recent first. */
+  final List<Memtable> frozenMemtables;
+  final List<List<Segment>> levels;
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  TreeVersion(Memtable memtable, List<Memtable> frozenMemtables, List<List<Segment>> levels)
+  {
+    this.memtable = memtable;
+    this.frozenMemtables = Collections.unmodifiableList(frozenMemtables);
+    final List<List<Segment>> unmodifiableLevels = new ArrayList<>(NB_LEVELS);
+    for (List<Segment> level : levels)
+    {
+      unmodifiableLevels.add(Collections.unmodifiableList(level));
+      for (Segment segment : level)
+      {
+        segment.ref();
+      }
+    }
+    this.levels = Collections.unmodifiableList(unmodifiableLevels);
+  }
+
+  static List<List<Segment>> emptyLevels()
+  {
+    final List<List<Segment>> levels = new ArrayList<>(NB_LEVELS);
+    for (int i = 0; i < NB_LEVELS; i++)
+    {
+      levels.add(new ArrayList<Segment>());
+    }
+    return levels;
+  }
+
+  /** Returns a modifiable copy of the levels of this version. */
+  List<List<Segment>> copyLevels()
+  {
+    final List<List<Segment>> copy = new ArrayList<>(NB_LEVELS);
+    for (List<Segment> level : levels)
+    {
+      copy.add(new ArrayList<>(level));
+    }
+    return copy;
+  }
+
+  /** Acquires a reference on this version, unless it has already been released by its last user. */
+  boolean tryAcquire()
+  {
+    for (;;)
+    {
+      final int count = references.get();
+      if (count == 0)
+      {
+        return false;
+      }
+      if (references.compareAndSet(count, count + 1))
+      {
+        return true;
+      }
+    }
+  }
+
+  void release()
+  {
+    if (references.decrementAndGet() == 0)
+    {
+      for (List<Segment> level : levels)
+      {
+        for (Segment segment : level)
+        {
+          segment.unref();
+        }
+      }
+    }
+  }
+
+  /** Returns the most recent version of the provided key visible from the provided snapshot, or {@code null}. */
+  Record get(ByteSequence key, long snapshot)
+  {
+    Record record = memtable.get(key, snapshot);
+    if (record != null)
+    {
+      return record;
+    }
+    for (Memtable frozen : frozenMemtables)
+    {
+      record = frozen.get(key, snapshot);
+      if (record != null)
+      {
+        return record;
+      }
+    }
+    for (Segment segment : levels.get(0))
+    {
+      record = segment.get(key, snapshot);
+      if (record != null)
+      {
+        return record;
+      }
+    }
+    for (int i = 1; i < NB_LEVELS; i++)
+    {
+      final Segment segment = findSegment(levels.get(i), key);
+      if (segment != null)
+      {
+        record = segment.get(key, snapshot);
+        if (record != null)
+        {
+          return record;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Returns the segment of a sorted level whose key range contains the provided key, or {@code null}. */
+  static Segment findSegment(List<Segment> level, ByteSequence key)
+  {
+    final int i = findFirstSegmentEndingAfter(level, key);
+    if (i < level.size() && level.get(i).getSmallestKey().compareTo(key) <= 0)
+    {
+      return level.get(i);
+    }
+    return null;
+  }
+
+  /** Returns the index of the first segment of a sorted level whose largest key is not lower than the key. */
+  static int findFirstSegmentEndingAfter(List<Segment> level, ByteSequence key)
+  {
+    int low = 0;
+    int high = level.size();
+    while (low < high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (level.get(mid).getLargestKey().compareTo(key) < 0)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the greatest key strictly lower than the provided bound held by any source of this version, regardless
+   * of its visibility, or {@code null}.
+   */
+  ByteString lastKeyBefore(ByteSequence bound)
+  {
+    ByteString max = max(null, memtable.lastKeyBefore(bound));
+    for (Memtable frozen : frozenMemtables)
+    {
+      max = max(max, frozen.lastKeyBefore(bound));
+    }
+    for (Segment segment : levels.get(0))
+    {
+      max = max(max, segment.lastKeyBefore(bound));
+    }
+    for (int i = 1; i < NB_LEVELS; i++)
+    {
+      final List<Segment> level = levels.get(i);
+      int j = bound != null ? findFirstSegmentEndingAfter(level, bound) : level.size();
+      for (j = Math.min(j, level.size() - 1); j >= 0; j--)
+      {
+        final ByteString key = level.get(j).lastKeyBefore(bound);
+        if (key != null)
+        {
+          max = max(max, key);
+          break;
+        }
+      }
+    }
+    return max;
+  }
+
+  private static ByteString max(ByteString key1, ByteString key2)
+  {
+    if (key1 == null)
+    {
+      return key2;
+    }
+    return key2 != null && key2.compareTo(key1) > 0 ? key2 : key1;
+  }
+
+  /** Returns an iterator merging the records of all the sources of this version. */
+  RecordIterator iterator()
+  {
+    final List<RecordIterator> iterators = new ArrayList<>();
+    iterators.add(memtable.iterator());
+    for (Memtable frozen : frozenMemtables)
+    {
+      iterators.add(frozen.iterator());
+    }
+    for (Segment segment : levels.get(0))
+    {
+      iterators.add(segment.iterator());
+    }
+    for (int i = 1; i < NB_LEVELS; i++)
+    {
+      if (!levels.get(i).isEmpty())
+      {
+        iterators.add(new LevelIterator(levels.get(i)));
+      }
+    }
+    return new MergingIterator(iterators);
+  }
+
+  long getSegmentsSize()
+  {
+    long size = 0;
+    for (List<Segment> level : levels)
+    {
+      size += getSize(level);
+    }
+    return size;
+  }
+
+  static long getSize(List<Segment> segments)
+  {
+    long size = 0;
+    for (Segment segment : segments)
+    {
+      size += segment.getFileSize();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Write-ahead log of the transactions committed to a storage, protecting the content it only holds in memory, like
+ * the memtables of an {@link LSMStorage}.
+ * <p>
+ * The log is a sequence of numbered files. Each checkpoint switches to a new file: the files preceding it can be
+ * deleted once the memtables frozen by the checkpoint have been written to segments. Each log record is made of its
+ * length, its CRC32 and its payload, so that a record partially written when the server stopped is detected and
+ * ignored on recovery.
+ */
+public final class WriteAheadLog implements Closeable
+{
+  /** Receives the payloads of the log records during a recovery. */
+  public interface Replayer
+  {
+    /**
+     * Replays a log record.
+     *
+     * @param payload
+     *          the payload of the log record, as provided to {@link WriteAheadLog#append(ByteStringBuilder)}
+     */
+    void replay(ByteString payload);
+  }
+
+  private static final String SUFFIX = ".wal";
+  private static final int HEADER_SIZE = 8;
+
+  /** Accepts the log files. */
+  public static final FileFilter LOG_FILES = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return file.getName().matches("\\d{10}\\" + SUFFIX);
+    }
+  };
+
+  private final File directory;
+  private final Object syncLock = new Object();
+  private final CRC32 crc = new CRC32();
+  private final ByteStringBuilder header = new ByteStringBuilder(HEADER_SIZE);
+  private FileChannel channel;
+  private long fileNumber;
+  /** Number of bytes written since this log was opened, across all files. */
+  private long writtenPosition;
+  /** Number of bytes known to be synced to disk, guarded by syncLock. */
+  private long syncedPosition;
+
+  /**
+   * Opens a log whose records are appended to the log file with the provided number.
+   *
+   * @param directory
+   *          the directory holding the log files
+   * @param fileNumber
+   *          the number of the first log file to write, which must be greater than the number of the existing files
+   * @throws IOException
+   *           if the log file cannot be created
+   */
+  public WriteAheadLog(File directory, long fileNumber) throws IOException
+  {
+    this.directory = directory;
+    this.fileNumber = fileNumber;
+    this.channel = openLogFile(fileNumber);
+  }
+
+  private FileChannel openLogFile(long number) throws IOException
+  {
+    return FileChannel.open(new File(directory, fileName(number)).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  static String fileName(long number)
+  {
+    return String.format("%010d", number) + SUFFIX;
+  }
+
+  /**
+   * Returns the number of a log file.
+   *
+   * @param file
+   *          a log file accepted by {@link #LOG_FILES}
+   * @return the number of the log file
+   */
+  public static long fileNumber(File file)
+  {
+    final String name = file.getName();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  /**
+   * Returns the log files of the provided directory.
+   *
+   * @param directory
+   *          the directory holding the log files
+   * @return the log files, sorted by number
+   */
+  public static List<File> listLogFiles(File directory)
+  {
+    final File[] files = directory.listFiles(LOG_FILES);
+    if (files == null)
+    {
+      return new ArrayList<>();
+    }
+    Arrays.sort(files);
+    return new ArrayList<>(Arrays.asList(files));
+  }
+
+  /**
+   * Appends a record to the log.
+   *
+   * @param bytes
+   *          the payload of the record
+   * @return the position to provide to {@link #sync(long)} in order to make this record durable
+   * @throws IOException
+   *           if the record cannot be written
+   */
+  public synchronized long append(ByteStringBuilder bytes) throws IOException
+  {
+    crc.reset();
+    crc.update(bytes.getBackingArray(), 0, bytes.length());
+    header.clear().appendInt(bytes.length()).appendInt((int) crc.getValue());
+
+    final ByteBuffer[] buffers = {
+      ByteBuffer.wrap(header.getBackingArray(), 0, HEADER_SIZE),
+      ByteBuffer.wrap(bytes.getBackingArray(), 0, bytes.length())
+    };
+    while (buffers[1].hasRemaining())
+    {
+      channel.write(buffers);
+    }
+    writtenPosition += HEADER_SIZE + bytes.length();
+    return writtenPosition;
+  }
+
+  /**
+   * Forces the records up to the provided position to disk. Concurrent callers share the same disk sync.
+   *
+   * @param position
+   *          the position returned when appending the last record to make durable
+   * @throws IOException
+   *           if the log file cannot be synced
+   */
+  public void sync(long position) throws IOException
+  {
+    synchronized (syncLock)
+    {
+      if (syncedPosition >= position)
+      {
+        return;
+      }
+      final FileChannel toSync;
+      final long target;
+      synchronized (this)
+      {
+        toSync = channel;
+        target = writtenPosition;
+      }
+      toSync.force(false);
+      syncedPosition = target;
+    }
+  }
+
+  /**
+   * Switches to a new log file.
+   *
+   * @return the number of the new log file: the records appended from now on are written to it
+   * @throws IOException
+   *           if the current log file cannot be closed or the new one cannot be created
+   */
+  public long rotate() throws IOException
+  {
+    synchronized (syncLock)
+    {
+      synchronized (this)
+      {
+        channel.force(false);
+        channel.close();
+        channel = openLogFile(++fileNumber);
+        syncedPosition = writtenPosition;
+        return fileNumber;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (syncLock)
+    {
+      synchronized (this)
+      {
+        channel.force(false);
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Replays the records of the provided log files, stopping at the first truncated or corrupted record.
+   *
+   * @param files
+   *          the log files to replay, sorted by number
+   * @param replayer
+   *          receives the replayed records
+   * @return the number of replayed records
+   * @throws IOException
+   *           if a log file cannot be read
+   */
+  public static long replay(List<File> files, Replayer replayer) throws IOException
+  {
+    long count = 0;
+    for (File file : files)
+    {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        final CRC32 crc = new CRC32();
+        long position = 0;
+        for (;;)
+        {
+          header.clear();
+          if (!readFully(channel, header, position))
+          {
+            break;
+          }
+          final int length = header.getInt(0);
+          final int checksum = header.getInt(4);
+          if (length < 0 || position + HEADER_SIZE + length > channel.size())
+          {
+            return count;
+          }
+          final byte[] payload = new byte[length];
+          if (!readFully(channel, ByteBuffer.wrap(payload), position + HEADER_SIZE))
+          {
+            return count;
+          }
+          crc.reset();
+          crc.update(payload, 0, length);
+          if ((int) crc.getValue() != checksum)
+          {
+            return count;
+          }
+          replayer.replay(ByteString.wrap(payload));
+          count++;
+          position += HEADER_SIZE + length;
+        }
+      }
+    }
+    return count;
+  }
+
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+  {
+    while (buffer.hasRemaining())
+    {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -549,6 +549,43 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       }
     }
 
+    @Override
+    public List<ByteString> multiGet(final TreeName treeName, final List<? extends ByteSequence> keys)
+    {
+      try
+      {
+        /*
+         * Walk the tree forward with a single exchange, like a cursor. Once positioned, the exchange first tries to
+         * step to the next record, which very often is the record looked for when keys are dense, like entry IDs. It
+         * only seeks the first record greater than or equal to the key looked for when the next record is before it.
+         */
+        final Exchange ex = getExchangeFromCache(treeName);
+        final List<ByteString> values = new ArrayList<>(keys.size());
+        ByteString currentKey = null;
+        boolean exhausted = false;
+        for (final ByteSequence key : keys)
+        {
+          if (!exhausted && currentKey != null && currentKey.compareTo(key) < 0)
+          {
+            exhausted = !ex.next();
+            currentKey = exhausted ? null : ByteString.wrap(ex.getKey().reset().decodeByteArray());
+          }
+          if (!exhausted && (currentKey == null || currentKey.compareTo(key) < 0))
+          {
+            bytesToKey(ex.getKey(), key);
+            exhausted = !ex.traverse(Key.GTEQ, true);
+            currentKey = exhausted ? null : ByteString.wrap(ex.getKey().reset().decodeByteArray());
+          }
+          values.add(!exhausted && currentKey.compareTo(key) == 0 ? valueToBytes(ex.getValue()) : null);
+        }
+        return values;
+      }
+      catch (final PersistitException | RollbackException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+
     @Override
     public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
     {
@@ -639,6 +676,12 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       return delegate.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return delegate.multiGet(treeName, keys);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
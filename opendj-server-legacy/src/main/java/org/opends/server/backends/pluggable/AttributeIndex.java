@@ -51,6 +51,7 @@ import org.forgerock.opendj.ldap.spi.IndexingOptions;
 import org.opends.server.admin.server.ConfigurationChangeListener;
 import org.opends.server.admin.std.meta.BackendIndexCfgDefn.IndexType;
 import org.opends.server.admin.std.server.BackendIndexCfg;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.backends.pluggable.spi.TreeName;
 import org.opends.server.backends.pluggable.spi.WriteOperation;
@@ -421,6 +422,46 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     }
   }
 
+  /**
+   * Estimates the number of entry IDs returned by the evaluation of a filter against the index of the provided type.
+   * Only the records of the keys of the filter are read, their entry IDs are not decoded. Range lookups are not
+   * estimated since they may read any number of keys.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param indexFilterType
+   *          the type of the index filter
+   * @param filter
+   *          the filter to estimate
+   * @return the estimated number of entry IDs, or {@link IndexQueryEstimator#UNKNOWN} if no estimate is available
+   */
+  long estimateCandidateCount(ReadableTransaction txn, IndexFilterType indexFilterType, SearchFilter filter)
+  {
+    if (!config.getIndexType().contains(indexFilterType.indexType))
+    {
+      return IndexQueryEstimator.UNKNOWN;
+    }
+    switch (indexFilterType)
+    {
+    case EQUALITY:
+    case PRESENCE:
+    case SUBSTRING:
+    case APPROXIMATE:
+      try
+      {
+        return getIndexQuery(new IndexQueryEstimator(txn, this), indexFilterType, filter);
+      }
+      catch (DecodeException e)
+      {
+        logger.traceException(e);
+        return IndexQueryEstimator.UNKNOWN;
+      }
+
+    default:
+      return IndexQueryEstimator.UNKNOWN;
+    }
+  }
+
   /**
    * Update the attribute index for a new entry.
    *
@@ -668,7 +709,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     }
   }
 
-  private static IndexQuery getIndexQuery(IndexQueryFactory<IndexQuery> indexQueryFactory,
+  private static <T> T getIndexQuery(IndexQueryFactory<T> indexQueryFactory,
       IndexFilterType indexFilterType, SearchFilter filter) throws DecodeException
   {
     MatchingRule rule;
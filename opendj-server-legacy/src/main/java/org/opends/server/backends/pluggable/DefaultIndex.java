@@ -61,6 +61,8 @@ class DefaultIndex extends AbstractTree implements Index
   private final EntryContainer entryContainer;
   private int indexEntryLimit;
   private EntryIDSetCodec codec;
+  /** Storage of the keys having too many IDs to fit in a single record, {@code null} if not supported. */
+  private IndexSegments segments;
 
   /**
    * A flag to indicate if this index should be trusted to be consistent with the entries tree.
@@ -101,7 +103,12 @@ class DefaultIndex extends AbstractTree implements Index
   final void afterOpen(WriteableTransaction txn, boolean createOnDemand)
   {
     final EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
-    codec = flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+    codec = selectCodec(flags);
+    if (flags.contains(BITMAP))
+    {
+      segments = new IndexSegments(getName(), codec);
+      txn.openTree(segments.getName(), createOnDemand);
+    }
     trusted = flags.contains(TRUSTED);
     if (!trusted && entryContainer.getHighestEntryID(txn).longValue() == 0)
     {
@@ -111,9 +118,31 @@ class DefaultIndex extends AbstractTree implements Index
     }
   }
 
+  @Override
+  final void beforeDelete(WriteableTransaction txn)
+  {
+    if (segments != null)
+    {
+      txn.deleteTree(segments.getName());
+    }
+  }
+
+  private static EntryIDSetCodec selectCodec(EnumSet<IndexFlag> flags)
+  {
+    if (flags.contains(BITMAP))
+    {
+      return CODEC_V3;
+    }
+    return flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+  }
+
   @Override
   public String valueToString(ByteString value)
   {
+    if (IndexSegments.isDirectory(value))
+    {
+      return IndexSegments.directoryToString(value);
+    }
     StringBuilder sb = new StringBuilder();
     final EntryIDSet eIDSet = decodeValue(ByteString.empty(), value);
     eIDSet.toString(sb);
@@ -129,7 +158,7 @@ class DefaultIndex extends AbstractTree implements Index
   }
 
   @Override
-  public final Cursor<ByteString, EntryIDSet> openCursor(ReadableTransaction txn)
+  public final Cursor<ByteString, EntryIDSet> openCursor(final ReadableTransaction txn)
   {
     checkNotNull(txn, "txn must not be null");
     return CursorTransformer.transformValues(txn.openCursor(getName()),
@@ -138,7 +167,7 @@ class DefaultIndex extends AbstractTree implements Index
           @Override
           public EntryIDSet transform(ByteString key, ByteString value) throws NeverThrowsException
           {
-            return decodeValue(key, value);
+            return decodeValue(txn, key, value, null);
           }
         });
   }
@@ -148,11 +177,54 @@ class DefaultIndex extends AbstractTree implements Index
     return codec.decode(key, value);
   }
 
+  private EntryIDSet decodeValue(ReadableTransaction txn, ByteSequence key, ByteString value, EntryIDSet candidates)
+  {
+    if (segments != null && IndexSegments.isDirectory(value))
+    {
+      return segments.read(txn, key, value, candidates);
+    }
+    return decodeValue(key, value);
+  }
+
   ByteString toValue(EntryIDSet entryIDSet)
   {
     return codec.encode(entryIDSet);
   }
 
+  private ByteString toValue(WriteableTransaction txn, ByteString key, EntryIDSet entryIDSet)
+  {
+    if (segments != null && IndexSegments.needsSegments(entryIDSet))
+    {
+      return segments.write(txn, key, entryIDSet);
+    }
+    return toValue(entryIDSet);
+  }
+
+  /**
+   * Returns the value to import for a key, storing its IDs in segments if it has too many of them. The index and
+   * segments trees must have been cleared before the import.
+   *
+   * @param txn
+   *          a non null transaction writing to the importer
+   * @param key
+   *          the index key
+   * @param value
+   *          the merged value of the key
+   * @return the value to store in the index tree for this key
+   */
+  ByteString toImportedValue(WriteableTransaction txn, ByteString key, ByteString value)
+  {
+    if (segments != null && isBitmapEncoded(value))
+    {
+      final EntryIDSet entryIDSet = decodeValue(key, value);
+      if (IndexSegments.needsSegments(entryIDSet))
+      {
+        return segments.writeNew(txn, key, entryIDSet);
+      }
+    }
+    return value;
+  }
+
   @Override
   public final void update(final WriteableTransaction txn, final ByteString key, final EntryIDSet deletedIDs,
       final EntryIDSet addedIDs) throws StorageRuntimeException
@@ -167,7 +239,8 @@ class DefaultIndex extends AbstractTree implements Index
      * Avoid taking a write lock on a record which has hit all IDs because it is likely to be a
      * point of contention.
      */
-    if (!get(txn, key).isDefined())
+    final ByteString value = txn.read(getName(), key);
+    if (value != null ? !isSegmented(value) && !decodeValue(key, value).isDefined() : !trusted)
     {
       return;
     }
@@ -178,7 +251,13 @@ class DefaultIndex extends AbstractTree implements Index
       @Override
       public ByteSequence computeNewValue(final ByteSequence oldValue)
       {
-        if (oldValue != null)
+        if (oldValue != null && isSegmented(oldValue))
+        {
+          // Only rewrite the segments containing the changed IDs. The segments are written in the same transaction
+          // as the directory, which is read and replaced here under the lock of the index record.
+          return segments.update(txn, key, oldValue.toByteString(), deletedIDs, addedIDs, indexEntryLimit);
+        }
+        else if (oldValue != null)
         {
           EntryIDSet entryIDSet = computeEntryIDSet(key, oldValue.toByteString(), deletedIDs, addedIDs);
           /*
@@ -186,7 +265,7 @@ class DefaultIndex extends AbstractTree implements Index
            * If index is not trusted then this will cause all subsequent reads for this key to
            * return undefined set.
            */
-          return entryIDSet.size() == 0 ? null : toValue(entryIDSet);
+          return entryIDSet.size() == 0 ? null : toValue(txn, key, entryIDSet);
         }
         else if (trusted)
         {
@@ -196,7 +275,7 @@ class DefaultIndex extends AbstractTree implements Index
           }
           if (isNotEmpty(addedIDs))
           {
-            return toValue(addedIDs);
+            return toValue(txn, key, addedIDs);
           }
         }
         return null; // no change.
@@ -204,6 +283,11 @@ class DefaultIndex extends AbstractTree implements Index
     });
   }
 
+  private boolean isSegmented(ByteSequence value)
+  {
+    return segments != null && IndexSegments.isDirectory(value);
+  }
+
   private static boolean isNullOrEmpty(EntryIDSet entryIDSet)
   {
     return entryIDSet == null || entryIDSet.size() == 0;
@@ -256,13 +340,19 @@ class DefaultIndex extends AbstractTree implements Index
 
   @Override
   public final EntryIDSet get(ReadableTransaction txn, ByteSequence key)
+  {
+    return get(txn, key, null);
+  }
+
+  @Override
+  public final EntryIDSet get(ReadableTransaction txn, ByteSequence key, EntryIDSet candidates)
   {
     try
     {
       ByteString value = txn.read(getName(), key);
       if (value != null)
       {
-        return decodeValue(key, value);
+        return decodeValue(txn, key, value, candidates);
       }
       return trusted ? newDefinedSet() : newUndefinedSet();
     }
@@ -273,6 +363,39 @@ class DefaultIndex extends AbstractTree implements Index
     }
   }
 
+  @Override
+  public final long getKeySize(ReadableTransaction txn, ByteSequence key)
+  {
+    if (!trusted)
+    {
+      return IndexQueryEstimator.UNKNOWN;
+    }
+    try
+    {
+      final ByteString value = txn.read(getName(), key);
+      if (value == null)
+      {
+        return 0;
+      }
+      else if (isSegmented(value))
+      {
+        return IndexSegments.getTotalSize(value);
+      }
+      final long size = codec.decodeSize(value);
+      if (size != UNDEFINED_SIZE)
+      {
+        return size;
+      }
+      // The key has hit the index entry limit
+      return indexEntryLimit > 0 ? indexEntryLimit : IndexQueryEstimator.UNKNOWN;
+    }
+    catch (StorageRuntimeException e)
+    {
+      logger.traceException(e);
+      return IndexQueryEstimator.UNKNOWN;
+    }
+  }
+
   @Override
   public final boolean setIndexEntryLimit(int indexEntryLimit)
   {
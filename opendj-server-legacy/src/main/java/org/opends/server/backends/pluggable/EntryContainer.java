@@ -37,16 +37,23 @@ import static org.opends.server.protocols.ldap.LDAPResultCode.*;
 import static org.opends.server.types.AdditionalLogItem.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -125,6 +132,12 @@ public class EntryContainer
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * The number of candidate entries found out of scope after which a search checking the scope of each candidate
+   * entry reads the scope instead.
+   */
+  private static final int MAX_CANDIDATES_OUT_OF_SCOPE = 100;
+
   /** The name of the entry tree. */
   private static final String ID2ENTRY_TREE_NAME = ID2ENTRY_INDEX_NAME;
   /** The name of the DN tree. */
@@ -703,8 +716,8 @@ public class EntryContainer
         @Override
         public Void run(final ReadableTransaction txn) throws Exception
         {
-          DN aBaseDN = searchOperation.getBaseDN();
-          SearchScope searchScope = searchOperation.getScope();
+          final DN aBaseDN = searchOperation.getBaseDN();
+          final SearchScope searchScope = searchOperation.getScope();
 
           PagedResultsControl pageRequest = searchOperation.getRequestControl(PagedResultsControl.DECODER);
           ServerSideSortRequestControl sortRequest =
@@ -782,6 +795,7 @@ public class EntryContainer
 
           EntryIDSet entryIDSet = null;
           boolean candidatesAreInScope = false;
+          ScopeReader scopeReader = null;
           if (sortRequest != null)
           {
             for (VLVIndex vlvIndex : vlvIndexMap.values())
@@ -806,7 +820,7 @@ public class EntryContainer
           // Combining server-side sort with paged result controls
           // requires us to use an entryIDSet where the entryIDs are ordered
           // so further paging can restart where it previously stopped
-          long[] entryIDReorderedSet;
+          SearchCandidates candidates;
           if (entryIDSet == null)
           {
             if (processSearchWithVirtualAttributeRule(searchOperation, true))
@@ -821,13 +835,40 @@ public class EntryContainer
             // Evaluate the filter against the attribute indexes.
             entryIDSet = indexFilter.evaluate();
 
-            if (!isBelowFilterThreshold(entryIDSet))
+            if (isWholeContainer(aBaseDN, searchScope))
             {
-              final int lookThroughLimit = searchOperation.getClientConnection().getLookthroughLimit();
-              final int indexLimit =
-                  config.getIndexEntryLimit() == 0 ? CURSOR_ENTRY_LIMIT : config.getIndexEntryLimit();
-              final int idSetLimit = lookThroughLimit > 0 ? Math.min(indexLimit, lookThroughLimit) : indexLimit;
-
+              // Every entry of this entry container is in scope: no need to read the scope.
+              candidatesAreInScope = true;
+              if (debugBuffer != null)
+              {
+                debugBuffer.append(" scope=").append(searchScope).append("[ALL]");
+              }
+            }
+            else if (isScopeCheckedOnReturn(searchOperation, pageRequest, sortRequest != null || vlvRequest != null,
+                entryIDSet) && isScopeLargerThan(txn, aBaseDN, entryIDSet.size()))
+            {
+              // The search stops after a few entries: check the scope of each entry instead of reading the scope,
+              // unless too many candidates turn out to be out of scope.
+              final EntryIDSet candidateSet = entryIDSet;
+              scopeReader = new ScopeReader()
+              {
+                @Override
+                public boolean retainCandidatesInScope() throws DirectoryException
+                {
+                  final EntryIDSet scopeSet =
+                      getIDSetFromScope(txn, aBaseDN, searchScope, getScopeIDSetLimit(searchOperation));
+                  candidateSet.retainAll(scopeSet);
+                  return scopeSet.isDefined();
+                }
+              };
+              if (debugBuffer != null)
+              {
+                debugBuffer.append(" scope=").append(searchScope).append("[ON-RETURN]");
+              }
+            }
+            else if (!isBelowFilterThreshold(entryIDSet))
+            {
+              final int idSetLimit = getScopeIDSetLimit(searchOperation);
               final EntryIDSet scopeSet = getIDSetFromScope(txn, aBaseDN, searchScope, idSetLimit);
               entryIDSet.retainAll(scopeSet);
               if (debugBuffer != null)
@@ -850,11 +891,11 @@ public class EntryContainer
               try
               {
                 SortOrder sortOrder = sortRequest.getSortOrder();
-                entryIDReorderedSet = sort(txn, entryIDSet, searchOperation, sortOrder, vlvRequest);
+                candidates = SearchCandidates.of(sort(txn, entryIDSet, searchOperation, sortOrder, vlvRequest));
               }
               catch (DirectoryException de)
               {
-                entryIDReorderedSet = entryIDSet.toLongArray();
+                candidates = SearchCandidates.of(entryIDSet);
                 serverSideSortControlError(searchOperation, sortRequest, de);
               }
               try
@@ -882,12 +923,12 @@ public class EntryContainer
             }
             else
             {
-              entryIDReorderedSet = entryIDSet.toLongArray();
+              candidates = SearchCandidates.of(entryIDSet);
             }
           }
           else
           {
-            entryIDReorderedSet = entryIDSet.toLongArray();
+            candidates = SearchCandidates.of(entryIDSet);
           }
 
           // If requested, construct and return a fictitious entry containing
@@ -902,10 +943,10 @@ public class EntryContainer
             return null;
           }
 
-          if (entryIDReorderedSet != null)
+          if (candidates != null)
           {
             rootContainer.getMonitorProvider().incrementIndexedSearchCount();
-            searchIndexed(txn, entryIDReorderedSet, candidatesAreInScope, searchOperation, pageRequest);
+            searchIndexed(txn, candidates, candidatesAreInScope, scopeReader, searchOperation, pageRequest);
           }
           else
           {
@@ -1006,10 +1047,60 @@ public class EntryContainer
     }
   }
 
+  /**
+   * Returns whether the search scope covers all the entries of this entry container, in which case every candidate is
+   * in scope.
+   */
+  private boolean isWholeContainer(DN aBaseDN, SearchScope searchScope)
+  {
+    return searchScope == SearchScope.WHOLE_SUBTREE && aBaseDN.equals(baseDN);
+  }
+
+  /**
+   * Returns whether the search is going to stop after returning fewer entries than there are candidates. In this
+   * case, the scope of each candidate entry is checked while it is returned instead of reading all the IDs in scope
+   * before returning the first entry.
+   * <p>
+   * The lookthrough limit, the server-side sort and the VLV all apply to the candidates in scope: the scope must then
+   * be read before them.
+   */
+  private static boolean isScopeCheckedOnReturn(SearchOperation searchOperation, PagedResultsControl pageRequest,
+      boolean isSorted, EntryIDSet entryIDSet)
+  {
+    if (isSorted || searchOperation.getClientConnection().getLookthroughLimit() > 0)
+    {
+      return false;
+    }
+    final int maxEntries = pageRequest != null ? pageRequest.getSize() : searchOperation.getSizeLimit();
+    return maxEntries > 0 && entryIDSet.isDefined() && entryIDSet.size() > maxEntries;
+  }
+
+  /**
+   * Returns whether the scope of a one level or subtree search is estimated to hold at least the provided number of
+   * entries. The number of children of the base entry is the exact size of a one level scope, and a lower bound of the
+   * size of a subtree scope. When the scope is smaller than the candidates, reading the scope costs less than reading
+   * the candidate entries out of scope.
+   */
+  private boolean isScopeLargerThan(ReadableTransaction txn, DN aBaseDN, long nbCandidates)
+  {
+    final EntryID baseID = dn2id.get(txn, aBaseDN);
+    // Let the scope read report a missing base entry
+    return baseID != null && id2childrenCount.getCount(txn, baseID) >= nbCandidates;
+  }
+
+  /** Returns the maximum number of IDs read from the search scope. */
+  private int getScopeIDSetLimit(SearchOperation searchOperation)
+  {
+    final int lookThroughLimit = searchOperation.getClientConnection().getLookthroughLimit();
+    final int indexLimit = config.getIndexEntryLimit() == 0 ? CURSOR_ENTRY_LIMIT : config.getIndexEntryLimit();
+    return lookThroughLimit > 0 ? Math.min(indexLimit, lookThroughLimit) : indexLimit;
+  }
+
   private static EntryIDSet newIDSetFromCursor(SequentialCursor<?, EntryID> cursor, boolean includeCurrent,
       int idSetLimit)
   {
-    long entryIDs[] = new long[idSetLimit];
+    // Grow the array as needed since the scope usually contains much fewer entries than the limit
+    long entryIDs[] = new long[Math.min(idSetLimit, 1024)];
     int offset = 0;
     if (includeCurrent)
     {
@@ -1018,6 +1109,10 @@ public class EntryContainer
 
     while(offset < idSetLimit && cursor.next())
     {
+      if (offset == entryIDs.length)
+      {
+        entryIDs = Arrays.copyOf(entryIDs, (int) Math.min(idSetLimit, 2L * offset));
+      }
       entryIDs[offset++] = cursor.getValue().longValue();
     }
 
@@ -1025,7 +1120,7 @@ public class EntryContainer
     {
       return EntryIDSet.newUndefinedSet();
     }
-    else if (offset != idSetLimit)
+    else if (offset != entryIDs.length)
     {
       entryIDs = Arrays.copyOf(entryIDs, offset);
     }
@@ -1292,10 +1387,13 @@ public class EntryContainer
    * <li>return entry if it matches the filter
    * </ul>
    *
-   * @param entryIDReorderedSet
+   * @param candidates
    *          The candidate entry IDs.
    * @param candidatesAreInScope
    *          true if it is certain that every candidate entry is in the search scope.
+   * @param scopeReader
+   *          Removes the candidates out of scope when too many of them are found while checking the scope of each
+   *          candidate entry, or null if the scope must not be read.
    * @param searchOperation
    *          The search operation.
    * @param pageRequest
@@ -1303,9 +1401,9 @@ public class EntryContainer
    * @throws DirectoryException
    *           If an error prevented the search from being processed.
    */
-  private void searchIndexed(ReadableTransaction txn, long[] entryIDReorderedSet, boolean candidatesAreInScope,
-      SearchOperation searchOperation, PagedResultsControl pageRequest) throws DirectoryException,
-      CanceledOperationException
+  private void searchIndexed(ReadableTransaction txn, SearchCandidates candidates, boolean candidatesAreInScope,
+      ScopeReader scopeReader, SearchOperation searchOperation, PagedResultsControl pageRequest)
+      throws DirectoryException, CanceledOperationException
   {
     SearchScope searchScope = searchOperation.getScope();
     DN aBaseDN = searchOperation.getBaseDN();
@@ -1313,13 +1411,13 @@ public class EntryContainer
     boolean continueSearch = true;
 
     // Set the starting value.
-    Long beginEntryID = null;
+    EntryID beginEntryID = null;
     if (pageRequest != null && pageRequest.getCookie().length() != 0)
     {
       // The cookie contains the ID of the next entry to be returned.
       try
       {
-        beginEntryID = pageRequest.getCookie().toLong();
+        beginEntryID = new EntryID(pageRequest.getCookie().toLong());
       }
       catch (Exception e)
       {
@@ -1336,7 +1434,7 @@ public class EntryContainer
     // Make sure the candidate list is smaller than the lookthrough limit
     int lookthroughLimit =
       searchOperation.getClientConnection().getLookthroughLimit();
-    if (lookthroughLimit > 0 && entryIDReorderedSet.length > lookthroughLimit)
+    if (lookthroughLimit > 0 && candidates.size() > lookthroughLimit)
     {
       //Lookthrough limit exceeded
       searchOperation.setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
@@ -1348,45 +1446,67 @@ public class EntryContainer
     if (continueSearch)
     {
       final SearchFilter filter = searchOperation.getFilter();
-      for (int i = findStartIndex(beginEntryID, entryIDReorderedSet); i < entryIDReorderedSet.length; i++)
+      CandidateEntries candidateEntries = new CandidateEntries(txn, candidates.iterator(beginEntryID));
+      int nbCandidatesOutOfScope = 0;
+      try
       {
-        EntryID entryID = new EntryID(entryIDReorderedSet[i]);
-        Entry entry;
-        try
-        {
-          entry = getEntry(txn, entryID);
-        }
-        catch (Exception e)
+        while (candidateEntries.next())
         {
-          logger.traceException(e);
-          continue;
-        }
+          EntryID entryID = candidateEntries.getEntryID();
+          Entry entry;
+          try
+          {
+            entry = candidateEntries.getEntry();
+          }
+          catch (Exception e)
+          {
+            logger.traceException(e);
+            continue;
+          }
 
-        // Process the candidate entry.
-        if (entry != null
-              && isInScope(candidatesAreInScope, searchScope, aBaseDN, entry)
-              && (manageDsaIT || entry.getReferralURLs() == null)
-              && filter.matchesEntry(entry))
+          if (entry != null && !isInScope(candidatesAreInScope, searchScope, aBaseDN, entry))
           {
-            if (pageRequest != null
-                && searchOperation.getEntriesSent() == pageRequest.getSize())
+            if (scopeReader != null && ++nbCandidatesOutOfScope > MAX_CANDIDATES_OUT_OF_SCOPE)
             {
-              // The current page is full.
-              // Set the cookie to remember where we were.
-              ByteString cookie = entryID.toByteString();
-              Control control = new PagedResultsControl(pageRequest.isCritical(), 0, cookie);
-              searchOperation.getResponseControls().add(control);
-              return;
+              // Reading the scope is now cheaper than reading more candidates out of scope.
+              // The candidates are returned in ID order, so carry on after the current one.
+              candidatesAreInScope = scopeReader.retainCandidatesInScope();
+              scopeReader = null;
+              candidateEntries.close();
+              candidateEntries = new CandidateEntries(txn, idsAfter(candidates.iterator(entryID), entryID));
             }
+            continue;
+          }
 
-            if (!searchOperation.returnEntry(entry, null))
+          // Process the candidate entry.
+          if (entry != null
+                && (manageDsaIT || entry.getReferralURLs() == null)
+                && filter.matchesEntry(entry))
             {
-              // We have been told to discontinue processing of the
-              // search. This could be due to size limit exceeded or
-              // operation cancelled.
-              break;
+              if (pageRequest != null
+                  && searchOperation.getEntriesSent() == pageRequest.getSize())
+              {
+                // The current page is full.
+                // Set the cookie to remember where we were.
+                ByteString cookie = entryID.toByteString();
+                Control control = new PagedResultsControl(pageRequest.isCritical(), 0, cookie);
+                searchOperation.getResponseControls().add(control);
+                return;
+              }
+
+              if (!searchOperation.returnEntry(entry, null))
+              {
+                // We have been told to discontinue processing of the
+                // search. This could be due to size limit exceeded or
+                // operation cancelled.
+                break;
+              }
             }
-          }
+        }
+      }
+      finally
+      {
+        candidateEntries.close();
       }
       searchOperation.checkIfCanceled(false);
     }
@@ -1412,21 +1532,383 @@ public class EntryContainer
     }
   }
 
-  private int findStartIndex(Long beginEntryID, long[] entryIDReorderedSet)
+  /** Reads the scope of a search which checks the scope of each candidate entry instead. */
+  private interface ScopeReader
+  {
+    /**
+     * Removes the candidates out of the search scope.
+     *
+     * @return {@code true} if all the remaining candidates are in scope, {@code false} if the scope was too large
+     *         to be read and the scope of each candidate entry must still be checked
+     * @throws DirectoryException
+     *           If the scope cannot be read.
+     */
+    boolean retainCandidatesInScope() throws DirectoryException;
+  }
+
+  /** Returns the IDs of the provided iterator which follow the provided ID. */
+  private static Iterator<EntryID> idsAfter(final Iterator<EntryID> ids, final EntryID lastID)
+  {
+    return new Iterator<EntryID>()
+    {
+      private EntryID next = advance();
+
+      private EntryID advance()
+      {
+        while (ids.hasNext())
+        {
+          final EntryID id = ids.next();
+          if (id.longValue() > lastID.longValue())
+          {
+            return id;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext()
+      {
+        return next != null;
+      }
+
+      @Override
+      public EntryID next()
+      {
+        if (next == null)
+        {
+          throw new NoSuchElementException();
+        }
+        final EntryID result = next;
+        next = advance();
+        return result;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** The candidate entries of an indexed search, in the order they must be returned. */
+  private abstract static class SearchCandidates
+  {
+    /**
+     * Returns the candidates of an unsorted search, iterated straight from the ID set.
+     *
+     * @return the candidates, or {@code null} if the ID set is undefined
+     */
+    static SearchCandidates of(final EntryIDSet entryIDSet)
+    {
+      if (!entryIDSet.isDefined())
+      {
+        return null;
+      }
+      return new SearchCandidates()
+      {
+        @Override
+        long size()
+        {
+          return entryIDSet.size();
+        }
+
+        @Override
+        Iterator<EntryID> iterator(EntryID begin)
+        {
+          return entryIDSet.iterator(begin);
+        }
+      };
+    }
+
+    /**
+     * Returns the candidates of a sorted search.
+     *
+     * @return the candidates, or {@code null} if there are no sorted IDs
+     */
+    static SearchCandidates of(final long[] sortedEntryIDs)
+    {
+      if (sortedEntryIDs == null)
+      {
+        return null;
+      }
+      return new SearchCandidates()
+      {
+        @Override
+        long size()
+        {
+          return sortedEntryIDs.length;
+        }
+
+        @Override
+        Iterator<EntryID> iterator(EntryID begin)
+        {
+          final int startIndex = findStartIndex(begin);
+          return new Iterator<EntryID>()
+          {
+            private int index = startIndex;
+
+            @Override
+            public boolean hasNext()
+            {
+              return index < sortedEntryIDs.length;
+            }
+
+            @Override
+            public EntryID next()
+            {
+              if (!hasNext())
+              {
+                throw new NoSuchElementException();
+              }
+              return new EntryID(sortedEntryIDs[index++]);
+            }
+
+            @Override
+            public void remove()
+            {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        private int findStartIndex(EntryID begin)
+        {
+          if (begin != null)
+          {
+            for (int i = 0; i < sortedEntryIDs.length; i++)
+            {
+              if (sortedEntryIDs[i] == begin.longValue())
+              {
+                return i;
+              }
+            }
+          }
+          return 0;
+        }
+      };
+    }
+
+    abstract long size();
+
+    /**
+     * Returns an iterator starting at the provided candidate, or at the first candidate if it is not a candidate.
+     *
+     * @param begin
+     *          the first candidate to return, may be {@code null}
+     * @return an iterator over the candidates
+     */
+    abstract Iterator<EntryID> iterator(EntryID begin);
+  }
+
+  /**
+   * Reads the candidate entries of an indexed search by batches. The entries missing from the entry cache are read
+   * from id2entry in ID order with a single multi-key read. Storages supporting it (JE and PDB) then step forward
+   * through the tree with a single cursor, other storages read the entries one by one.
+   * <p>
+   * Batches start with a single entry and double up to {@link #MAX_BATCH_SIZE}: searches stopped early, for example by
+   * their size limit or by a page of paged results, do not read many entries in advance.
+   * <p>
+   * When the backend has search prefetch threads, they read and decode up to {@link #PREFETCH_WINDOW} batches
+   * following the current one while the search filters and returns its entries. Each prefetched batch is read in its
+   * own read transaction. Batches whose reading has not started yet are cancelled when the search stops early.
+   */
+  private final class CandidateEntries
   {
-    if (beginEntryID == null)
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final int PREFETCH_WINDOW = 4;
+
+    private final ReadableTransaction txn;
+    private final Iterator<EntryID> candidates;
+    private final ExecutorService prefetchExecutor;
+    /** The batches following the current one, read in advance by the prefetch threads. */
+    private final Deque<Batch> nextBatches = new ArrayDeque<>();
+    private Batch batch;
+    private int batchSize = 1;
+    private int position;
+
+    private CandidateEntries(ReadableTransaction txn, Iterator<EntryID> candidates)
     {
-      return 0;
+      this.txn = txn;
+      this.candidates = candidates;
+      this.prefetchExecutor = rootContainer.getSearchPrefetchExecutor();
     }
-    final long begin = beginEntryID.longValue();
-    for (int i = 0; i < entryIDReorderedSet.length; i++)
+
+    /** Moves to the next candidate, returns {@code false} if there are no more candidates. */
+    boolean next()
     {
-      if (entryIDReorderedSet[i] == begin)
+      if (batch != null && ++position < batch.entryIDs.size())
       {
-        return i;
+        return true;
+      }
+      position = 0;
+      batch = nextBatches.isEmpty() ? newBatch() : nextBatches.removeFirst();
+      if (batch == null)
+      {
+        return false;
+      }
+      if (prefetchExecutor != null)
+      {
+        Batch nextBatch;
+        while (nextBatches.size() < PREFETCH_WINDOW && (nextBatch = newBatch()) != null)
+        {
+          nextBatch.prefetch();
+          nextBatches.addLast(nextBatch);
+        }
+      }
+      batch.readEntries(txn);
+      return true;
+    }
+
+    EntryID getEntryID()
+    {
+      return batch.entryIDs.get(position);
+    }
+
+    /** Returns the current candidate entry, or {@code null} if it does not exist anymore. */
+    Entry getEntry() throws DirectoryException
+    {
+      return batch.entries != null ? batch.entries.get(position) : EntryContainer.this.getEntry(txn, getEntryID());
+    }
+
+    /** Cancels the reading of the batches which have not been returned yet. */
+    void close()
+    {
+      for (Batch nextBatch : nextBatches)
+      {
+        // Do not interrupt running reads: storage engines may not recover from interrupted I/Os
+        nextBatch.cancel();
+      }
+      nextBatches.clear();
+    }
+
+    private Batch newBatch()
+    {
+      final List<EntryID> entryIDs = new ArrayList<>(batchSize);
+      while (entryIDs.size() < batchSize && candidates.hasNext())
+      {
+        entryIDs.add(candidates.next());
+      }
+      batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+      return !entryIDs.isEmpty() ? new Batch(entryIDs) : null;
+    }
+
+    /** Candidates of a search read together. */
+    private final class Batch
+    {
+      private final List<EntryID> entryIDs;
+      /** The entries of the batch, or {@code null} if they must be read one by one. */
+      private List<Entry> entries;
+      /** The candidates missing from the entry cache, sorted by ID. */
+      private final List<EntryID> missingIDs = new ArrayList<>();
+      private Future<List<Entry>> prefetchedEntries;
+
+      private Batch(List<EntryID> entryIDs)
+      {
+        this.entryIDs = entryIDs;
+        this.entries = new ArrayList<>(entryIDs.size());
+        final EntryCache<?> entryCache = getEntryCache();
+        for (EntryID entryID : entryIDs)
+        {
+          final Entry cacheEntry = entryCache.getEntry(backendID, entryID.longValue());
+          entries.add(cacheEntry);
+          if (cacheEntry == null)
+          {
+            missingIDs.add(entryID);
+          }
+        }
+        // Sorted searches return candidates in any order
+        Collections.sort(missingIDs);
+      }
+
+      private void prefetch()
+      {
+        if (missingIDs.isEmpty())
+        {
+          return;
+        }
+        try
+        {
+          prefetchedEntries = prefetchExecutor.submit(new Callable<List<Entry>>()
+          {
+            @Override
+            public List<Entry> call() throws Exception
+            {
+              return storage.read(new ReadOperation<List<Entry>>()
+              {
+                @Override
+                public List<Entry> run(ReadableTransaction txn) throws Exception
+                {
+                  return id2entry.get(txn, missingIDs);
+                }
+              });
+            }
+          });
+        }
+        catch (RejectedExecutionException e)
+        {
+          // Prefetch has just been disabled, the search will read the entries itself
+          logger.traceException(e);
+        }
+      }
+
+      private void cancel()
+      {
+        if (prefetchedEntries != null)
+        {
+          prefetchedEntries.cancel(false);
+        }
+      }
+
+      /** Completes the entries of the batch with the entries missing from the entry cache. */
+      private void readEntries(ReadableTransaction searchTxn)
+      {
+        if (missingIDs.isEmpty())
+        {
+          return;
+        }
+
+        final Map<EntryID, Entry> entriesByID = new HashMap<>(missingIDs.size() * 2);
+        try
+        {
+          final List<Entry> values =
+              prefetchedEntries != null ? prefetchedEntries.get() : id2entry.get(searchTxn, missingIDs);
+          for (int i = 0; i < missingIDs.size(); i++)
+          {
+            entriesByID.put(missingIDs.get(i), values.get(i));
+          }
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          logger.traceException(e);
+          entries = null;
+          return;
+        }
+        catch (Exception e)
+        {
+          // Let each entry of the batch report its own error, or be returned if it is not the faulty one
+          logger.traceException(e);
+          entries = null;
+          return;
+        }
+
+        final EntryCache<?> entryCache = getEntryCache();
+        for (int i = 0; i < entryIDs.size(); i++)
+        {
+          final EntryID entryID = entryIDs.get(i);
+          final Entry entry = entriesByID.get(entryID);
+          if (entry != null)
+          {
+            // Put the entry in the cache making sure not to overwrite a newer copy
+            // that may have been inserted since the time we read the cache.
+            entryCache.putEntryIfAbsent(entry, backendID, entryID.longValue());
+            entries.set(i, entry);
+          }
+        }
       }
     }
-    return 0;
   }
 
   private boolean isInScope(boolean candidatesAreInScope, SearchScope searchScope, DN aBaseDN, Entry entry)
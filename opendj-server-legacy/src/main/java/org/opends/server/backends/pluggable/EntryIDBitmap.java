@@ -0,0 +1,1128 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Reject.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compressed bitmap of entry IDs, organized the same way as a Roaring bitmap.
+ * <p>
+ * The 64 bits entry IDs are split in a high part (the 48 most significant bits) used as a container key, and a low
+ * part (the 16 least significant bits) stored in the container. Sparse containers hold their low parts in a sorted
+ * {@code char[]}, dense containers hold them in a fixed size 65536 bits bitmap. Set operations are performed container
+ * by container, so that intersecting or merging large sets never requires to materialize the full list of IDs.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDBitmap implements Iterable<EntryID>
+{
+  /** Maximum cardinality of an array container, above which a bitmap container uses less memory. */
+  static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+  private static final int BITMAP_WORDS = 1 << 10;
+  private static final int LOW_BITS = 16;
+  private static final int LOW_MASK = 0xFFFF;
+
+  private static final long[] EMPTY_KEYS = new long[0];
+  private static final Container[] EMPTY_CONTAINERS = new Container[0];
+
+  /** Sorted high parts of the entry IDs. */
+  private long[] keys;
+  /** Containers holding the low parts of the entry IDs, {@code containers[i]} is associated to {@code keys[i]}. */
+  private Container[] containers;
+  /** Number of containers in use. */
+  private int nbContainers;
+  /** Total number of entry IDs contained in this bitmap. */
+  private long cardinality;
+
+  /** Creates a new empty bitmap. */
+  EntryIDBitmap()
+  {
+    this(EMPTY_KEYS, EMPTY_CONTAINERS, 0);
+  }
+
+  private EntryIDBitmap(long[] keys, Container[] containers, int nbContainers)
+  {
+    this.keys = keys;
+    this.containers = containers;
+    this.nbContainers = nbContainers;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      cardinality += containers[i].cardinality;
+    }
+  }
+
+  /**
+   * Creates a new bitmap from an array of entry IDs.
+   *
+   * @param entryIDs
+   *          entry IDs sorted in ascending order
+   * @return a new bitmap containing the provided entry IDs
+   */
+  static EntryIDBitmap fromSortedArray(long... entryIDs)
+  {
+    checkNotNull(entryIDs, "entryIDs must not be null");
+    final int length = entryIDs.length;
+    final Builder builder = new Builder(
+        length == 0 ? 0 : (int) Math.min(length, highBits(entryIDs[length - 1]) - highBits(entryIDs[0]) + 1));
+    int start = 0;
+    while (start < entryIDs.length)
+    {
+      final long key = highBits(entryIDs[start]);
+      int end = start + 1;
+      while (end < entryIDs.length && highBits(entryIDs[end]) == key)
+      {
+        end++;
+      }
+      final int count = end - start;
+      final Container container;
+      if (count > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        final BitmapContainer bitmap = new BitmapContainer();
+        for (int i = start; i < end; i++)
+        {
+          bitmap.set(lowBits(entryIDs[i]));
+        }
+        container = bitmap;
+      }
+      else
+      {
+        final char[] values = new char[count];
+        for (int i = start; i < end; i++)
+        {
+          values[i - start] = (char) lowBits(entryIDs[i]);
+        }
+        container = new ArrayContainer(values, count);
+      }
+      builder.append(key, container);
+      start = end;
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a deep copy of this bitmap.
+   *
+   * @return a new bitmap containing the same entry IDs than this one
+   */
+  EntryIDBitmap copy()
+  {
+    final Builder builder = new Builder(nbContainers);
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.append(keys[i], containers[i].copy());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the number of entry IDs contained in this bitmap.
+   *
+   * @return the number of entry IDs contained in this bitmap
+   */
+  long size()
+  {
+    return cardinality;
+  }
+
+  /**
+   * Returns the smallest and biggest entry IDs contained in this bitmap.
+   *
+   * @return a two elements array containing the smallest and biggest entry IDs, or {@code null} if this bitmap is empty
+   */
+  long[] getRange()
+  {
+    if (nbContainers == 0)
+    {
+      return null;
+    }
+    final int last = nbContainers - 1;
+    return new long[] { toEntryID(keys[0], containers[0].first()), toEntryID(keys[last], containers[last].last()) };
+  }
+
+  boolean contains(long entryID)
+  {
+    final int idx = Arrays.binarySearch(keys, 0, nbContainers, highBits(entryID));
+    return idx >= 0 && containers[idx].contains(lowBits(entryID));
+  }
+
+  boolean add(long entryID)
+  {
+    final long key = highBits(entryID);
+    final int idx = Arrays.binarySearch(keys, 0, nbContainers, key);
+    if (idx >= 0)
+    {
+      final Container container = containers[idx];
+      final int before = container.cardinality;
+      containers[idx] = container.add(lowBits(entryID));
+      return updateCardinality(containers[idx].cardinality - before);
+    }
+    insertContainerAt(-(idx + 1), key, new ArrayContainer(new char[] { (char) lowBits(entryID) }, 1));
+    cardinality++;
+    return true;
+  }
+
+  boolean remove(long entryID)
+  {
+    final int idx = Arrays.binarySearch(keys, 0, nbContainers, highBits(entryID));
+    if (idx < 0)
+    {
+      return false;
+    }
+    final Container container = containers[idx];
+    final int before = container.cardinality;
+    final Container updated = container.remove(lowBits(entryID));
+    if (updated.cardinality == 0)
+    {
+      removeContainerAt(idx);
+    }
+    else
+    {
+      containers[idx] = updated;
+    }
+    return updateCardinality(updated.cardinality - before);
+  }
+
+  private boolean updateCardinality(int delta)
+  {
+    cardinality += delta;
+    return delta != 0;
+  }
+
+  /**
+   * Returns the entry IDs contained in this bitmap as a sorted array.
+   *
+   * @return a new array containing all the entry IDs of this bitmap in ascending order
+   */
+  long[] toArray()
+  {
+    final long[] entryIDs = new long[(int) cardinality];
+    int pos = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      pos = containers[i].fill(keys[i] << LOW_BITS, entryIDs, pos);
+    }
+    return entryIDs;
+  }
+
+  /**
+   * Computes the intersection of two bitmaps.
+   *
+   * @param a
+   *          the first bitmap
+   * @param b
+   *          the second bitmap
+   * @return a new bitmap containing the entry IDs present in both bitmaps
+   */
+  static EntryIDBitmap and(EntryIDBitmap a, EntryIDBitmap b)
+  {
+    final Builder builder = new Builder(Math.min(a.nbContainers, b.nbContainers));
+    int i = 0, j = 0;
+    while (i < a.nbContainers && j < b.nbContainers)
+    {
+      if (a.keys[i] < b.keys[j])
+      {
+        i++;
+      }
+      else if (a.keys[i] > b.keys[j])
+      {
+        j++;
+      }
+      else
+      {
+        builder.append(a.keys[i], a.containers[i].and(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Computes the union of two bitmaps.
+   *
+   * @param a
+   *          the first bitmap
+   * @param b
+   *          the second bitmap
+   * @return a new bitmap containing the entry IDs present in any of the two bitmaps
+   */
+  static EntryIDBitmap or(EntryIDBitmap a, EntryIDBitmap b)
+  {
+    final Builder builder = new Builder(a.nbContainers + b.nbContainers);
+    int i = 0, j = 0;
+    while (i < a.nbContainers && j < b.nbContainers)
+    {
+      if (a.keys[i] < b.keys[j])
+      {
+        builder.append(a.keys[i], a.containers[i].copy());
+        i++;
+      }
+      else if (a.keys[i] > b.keys[j])
+      {
+        builder.append(b.keys[j], b.containers[j].copy());
+        j++;
+      }
+      else
+      {
+        builder.append(a.keys[i], a.containers[i].or(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    for (; i < a.nbContainers; i++)
+    {
+      builder.append(a.keys[i], a.containers[i].copy());
+    }
+    for (; j < b.nbContainers; j++)
+    {
+      builder.append(b.keys[j], b.containers[j].copy());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Computes the difference of two bitmaps.
+   *
+   * @param a
+   *          the bitmap to remove entry IDs from
+   * @param b
+   *          the entry IDs to remove
+   * @return a new bitmap containing the entry IDs present in {@code a} but not in {@code b}
+   */
+  static EntryIDBitmap andNot(EntryIDBitmap a, EntryIDBitmap b)
+  {
+    final Builder builder = new Builder(a.nbContainers);
+    int i = 0, j = 0;
+    while (i < a.nbContainers)
+    {
+      if (j >= b.nbContainers || a.keys[i] < b.keys[j])
+      {
+        builder.append(a.keys[i], a.containers[i].copy());
+        i++;
+      }
+      else if (a.keys[i] > b.keys[j])
+      {
+        j++;
+      }
+      else
+      {
+        builder.append(a.keys[i], a.containers[i].andNot(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Filters a sorted array of entry IDs, keeping only the ones contained (or not contained) in this bitmap.
+   *
+   * @param entryIDs
+   *          the entry IDs to filter, sorted in ascending order
+   * @param retain
+   *          {@code true} to keep the entry IDs contained in this bitmap, {@code false} to keep the others
+   * @return a new sorted array containing the filtered entry IDs
+   */
+  long[] filter(long[] entryIDs, boolean retain)
+  {
+    final long[] result = new long[entryIDs.length];
+    int count = 0;
+    for (long entryID : entryIDs)
+    {
+      if (contains(entryID) == retain)
+      {
+        result[count++] = entryID;
+      }
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+
+  @Override
+  public Iterator<EntryID> iterator()
+  {
+    return new BitmapIterator(0, 0);
+  }
+
+  /**
+   * Creates an iterator starting at the provided entry ID, or at the beginning if this entry ID is not in the bitmap.
+   *
+   * @param begin
+   *          the first entry ID to return
+   * @return An EntryID iterator.
+   */
+  Iterator<EntryID> iterator(long begin)
+  {
+    final int idx = Arrays.binarySearch(keys, 0, nbContainers, highBits(begin));
+    if (idx >= 0 && containers[idx].contains(lowBits(begin)))
+    {
+      return new BitmapIterator(idx, lowBits(begin));
+    }
+    // Same behavior than the array based implementation.
+    return iterator();
+  }
+
+  /**
+   * Appends the binary representation of this bitmap to the provided builder.
+   *
+   * @param builder
+   *          the builder where to append this bitmap
+   * @return the provided builder
+   */
+  ByteStringBuilder append(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(nbContainers);
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.appendCompactUnsigned(keys[i] - previousKey);
+      previousKey = keys[i];
+      containers[i].append(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Reads the number of entry IDs of a bitmap previously written with {@link #append(ByteStringBuilder)}, without
+   * decoding its containers.
+   *
+   * @param reader
+   *          the reader positioned at the beginning of the bitmap
+   * @return the number of entry IDs of the bitmap
+   */
+  static long readSize(ByteSequenceReader reader)
+  {
+    final int nbContainers = reader.readCompactUnsignedInt();
+    long size = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      reader.readCompactUnsignedLong();
+      final int cardinality = reader.readCompactUnsignedInt();
+      if (cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        reader.skip(BITMAP_WORDS * 8);
+      }
+      else
+      {
+        for (int j = 0; j < cardinality; j++)
+        {
+          reader.readCompactUnsignedInt();
+        }
+      }
+      size += cardinality;
+    }
+    return size;
+  }
+
+  /**
+   * Reads a bitmap previously written with {@link #append(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          the reader positioned at the beginning of the bitmap
+   * @return the decoded bitmap
+   */
+  static EntryIDBitmap read(ByteSequenceReader reader)
+  {
+    final int nbContainers = reader.readCompactUnsignedInt();
+    final Builder builder = new Builder(nbContainers);
+    long key = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      key += reader.readCompactUnsignedLong();
+      builder.append(key, readContainer(reader));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns an estimation of the number of bytes needed to encode this bitmap.
+   *
+   * @return an estimation of the number of bytes needed to encode this bitmap
+   */
+  int getEstimatedSize()
+  {
+    int size = ByteStringBuilder.MAX_COMPACT_SIZE;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      size += 2 * ByteStringBuilder.MAX_COMPACT_SIZE + containers[i].getEstimatedSize();
+    }
+    return size;
+  }
+
+  private static Container readContainer(ByteSequenceReader reader)
+  {
+    final int cardinality = reader.readCompactUnsignedInt();
+    if (cardinality > ARRAY_CONTAINER_MAX_SIZE)
+    {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        bitmap.words[i] = reader.readLong();
+      }
+      bitmap.cardinality = cardinality;
+      return bitmap;
+    }
+    final char[] values = new char[cardinality];
+    int value = 0;
+    for (int i = 0; i < cardinality; i++)
+    {
+      value += reader.readCompactUnsignedInt();
+      values[i] = (char) value;
+    }
+    return new ArrayContainer(values, cardinality);
+  }
+
+  private void insertContainerAt(int idx, long key, Container container)
+  {
+    if (nbContainers == keys.length)
+    {
+      final int newLength = Math.max(4, nbContainers + (nbContainers >> 1));
+      keys = Arrays.copyOf(keys, newLength);
+      containers = Arrays.copyOf(containers, newLength);
+    }
+    System.arraycopy(keys, idx, keys, idx + 1, nbContainers - idx);
+    System.arraycopy(containers, idx, containers, idx + 1, nbContainers - idx);
+    keys[idx] = key;
+    containers[idx] = container;
+    nbContainers++;
+  }
+
+  private void removeContainerAt(int idx)
+  {
+    System.arraycopy(keys, idx + 1, keys, idx, nbContainers - idx - 1);
+    System.arraycopy(containers, idx + 1, containers, idx, nbContainers - idx - 1);
+    nbContainers--;
+    containers[nbContainers] = null;
+  }
+
+  private static long highBits(long entryID)
+  {
+    return entryID >>> LOW_BITS;
+  }
+
+  private static int lowBits(long entryID)
+  {
+    return (int) (entryID & LOW_MASK);
+  }
+
+  private static long toEntryID(long key, int low)
+  {
+    return (key << LOW_BITS) | low;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[COUNT:" + cardinality + "]";
+  }
+
+  /** Accumulates containers in ascending key order, skipping the empty ones. */
+  private static final class Builder
+  {
+    private long[] keys;
+    private Container[] containers;
+    private int size;
+
+    Builder(int expectedSize)
+    {
+      keys = new long[expectedSize];
+      containers = new Container[expectedSize];
+    }
+
+    void append(long key, Container container)
+    {
+      if (container.cardinality == 0)
+      {
+        return;
+      }
+      if (size == keys.length)
+      {
+        final int newLength = Math.max(4, size + (size >> 1));
+        keys = Arrays.copyOf(keys, newLength);
+        containers = Arrays.copyOf(containers, newLength);
+      }
+      keys[size] = key;
+      containers[size] = container;
+      size++;
+    }
+
+    EntryIDBitmap build()
+    {
+      return new EntryIDBitmap(keys, containers, size);
+    }
+  }
+
+  /** Iterator returning the entry IDs in ascending order. */
+  private final class BitmapIterator implements Iterator<EntryID>
+  {
+    private int containerIndex;
+    private int nextLow;
+
+    BitmapIterator(int containerIndex, int fromLow)
+    {
+      this.containerIndex = containerIndex;
+      this.nextLow = containerIndex < nbContainers ? containers[containerIndex].nextValue(fromLow) : -1;
+      skipExhaustedContainers();
+    }
+
+    private void skipExhaustedContainers()
+    {
+      while (nextLow < 0 && ++containerIndex < nbContainers)
+      {
+        nextLow = containers[containerIndex].nextValue(0);
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return containerIndex < nbContainers;
+    }
+
+    @Override
+    public EntryID next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      final EntryID entryID = new EntryID(toEntryID(keys[containerIndex], nextLow));
+      nextLow = containers[containerIndex].nextValue(nextLow + 1);
+      skipExhaustedContainers();
+      return entryID;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Holds the low 16 bits of the entry IDs sharing the same high 48 bits. */
+  private abstract static class Container
+  {
+    int cardinality;
+
+    abstract boolean contains(int low);
+
+    /** Adds a value, returning the container to use from now on (which may have been converted). */
+    abstract Container add(int low);
+
+    /** Removes a value, returning the container to use from now on (which may have been converted). */
+    abstract Container remove(int low);
+
+    abstract int first();
+
+    abstract int last();
+
+    /** Returns the smallest value greater or equal to {@code fromLow}, or -1 if there is none. */
+    abstract int nextValue(int fromLow);
+
+    abstract int fill(long high, long[] dest, int pos);
+
+    abstract Container copy();
+
+    abstract Container and(Container other);
+
+    abstract Container or(Container other);
+
+    abstract Container andNot(Container other);
+
+    abstract void append(ByteStringBuilder builder);
+
+    abstract int getEstimatedSize();
+  }
+
+  /** Sparse container storing its values in a sorted array. */
+  private static final class ArrayContainer extends Container
+  {
+    private char[] values;
+
+    ArrayContainer(char[] values, int cardinality)
+    {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    boolean contains(int low)
+    {
+      return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+    }
+
+    @Override
+    Container add(int low)
+    {
+      int pos = Arrays.binarySearch(values, 0, cardinality, (char) low);
+      if (pos >= 0)
+      {
+        return this;
+      }
+      if (cardinality >= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().add(low);
+      }
+      pos = -(pos + 1);
+      if (cardinality == values.length)
+      {
+        values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX_SIZE, Math.max(4, cardinality * 2)));
+      }
+      System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+      values[pos] = (char) low;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(int low)
+    {
+      final int pos = Arrays.binarySearch(values, 0, cardinality, (char) low);
+      if (pos >= 0)
+      {
+        System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    int first()
+    {
+      return values[0];
+    }
+
+    @Override
+    int last()
+    {
+      return values[cardinality - 1];
+    }
+
+    @Override
+    int nextValue(int fromLow)
+    {
+      if (fromLow > LOW_MASK)
+      {
+        return -1;
+      }
+      int pos = Arrays.binarySearch(values, 0, cardinality, (char) fromLow);
+      if (pos < 0)
+      {
+        pos = -(pos + 1);
+      }
+      return pos < cardinality ? values[pos] : -1;
+    }
+
+    @Override
+    int fill(long high, long[] dest, int pos)
+    {
+      for (int i = 0; i < cardinality; i++)
+      {
+        dest[pos++] = high | values[i];
+      }
+      return pos;
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      if (other instanceof BitmapContainer)
+      {
+        return filter((BitmapContainer) other, true);
+      }
+      final ArrayContainer that = (ArrayContainer) other;
+      final char[] result = new char[Math.min(cardinality, that.cardinality)];
+      int i = 0, j = 0, k = 0;
+      while (i < cardinality && j < that.cardinality)
+      {
+        if (values[i] < that.values[j])
+        {
+          i++;
+        }
+        else if (values[i] > that.values[j])
+        {
+          j++;
+        }
+        else
+        {
+          result[k++] = values[i];
+          i++;
+          j++;
+        }
+      }
+      return new ArrayContainer(result, k);
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      if (other instanceof BitmapContainer)
+      {
+        return other.or(this);
+      }
+      final ArrayContainer that = (ArrayContainer) other;
+      if (cardinality + that.cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().or(that);
+      }
+      final char[] result = new char[cardinality + that.cardinality];
+      int i = 0, j = 0, k = 0;
+      while (i < cardinality && j < that.cardinality)
+      {
+        if (values[i] < that.values[j])
+        {
+          result[k++] = values[i++];
+        }
+        else if (values[i] > that.values[j])
+        {
+          result[k++] = that.values[j++];
+        }
+        else
+        {
+          result[k++] = values[i];
+          i++;
+          j++;
+        }
+      }
+      while (i < cardinality)
+      {
+        result[k++] = values[i++];
+      }
+      while (j < that.cardinality)
+      {
+        result[k++] = that.values[j++];
+      }
+      return new ArrayContainer(result, k);
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      if (other instanceof BitmapContainer)
+      {
+        return filter((BitmapContainer) other, false);
+      }
+      final ArrayContainer that = (ArrayContainer) other;
+      final char[] result = new char[cardinality];
+      int i = 0, j = 0, k = 0;
+      while (i < cardinality)
+      {
+        if (j >= that.cardinality || values[i] < that.values[j])
+        {
+          result[k++] = values[i++];
+        }
+        else if (values[i] > that.values[j])
+        {
+          j++;
+        }
+        else
+        {
+          i++;
+          j++;
+        }
+      }
+      return new ArrayContainer(result, k);
+    }
+
+    private ArrayContainer filter(BitmapContainer bitmap, boolean retain)
+    {
+      final char[] result = new char[cardinality];
+      int k = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        if (bitmap.contains(values[i]) == retain)
+        {
+          result[k++] = values[i];
+        }
+      }
+      return new ArrayContainer(result, k);
+    }
+
+    private BitmapContainer toBitmapContainer()
+    {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < cardinality; i++)
+      {
+        bitmap.set(values[i]);
+      }
+      return bitmap;
+    }
+
+    @Override
+    void append(ByteStringBuilder builder)
+    {
+      builder.appendCompactUnsigned(cardinality);
+      int previous = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        builder.appendCompactUnsigned(values[i] - previous);
+        previous = values[i];
+      }
+    }
+
+    @Override
+    int getEstimatedSize()
+    {
+      return (cardinality + 1) * 3;
+    }
+  }
+
+  /** Dense container storing its values in a 65536 bits bitmap. */
+  private static final class BitmapContainer extends Container
+  {
+    private final long[] words;
+
+    BitmapContainer()
+    {
+      this(new long[BITMAP_WORDS], 0);
+    }
+
+    private BitmapContainer(long[] words, int cardinality)
+    {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    /** Sets the bit without any container conversion, used while building. */
+    void set(int low)
+    {
+      final long previous = words[low >>> 6];
+      words[low >>> 6] = previous | (1L << low);
+      if (previous != words[low >>> 6])
+      {
+        cardinality++;
+      }
+    }
+
+    @Override
+    boolean contains(int low)
+    {
+      return (words[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    Container add(int low)
+    {
+      set(low);
+      return this;
+    }
+
+    @Override
+    Container remove(int low)
+    {
+      final long previous = words[low >>> 6];
+      words[low >>> 6] = previous & ~(1L << low);
+      if (previous != words[low >>> 6])
+      {
+        cardinality--;
+      }
+      return cardinality <= ARRAY_CONTAINER_MAX_SIZE ? toArrayContainer() : this;
+    }
+
+    @Override
+    int first()
+    {
+      return nextValue(0);
+    }
+
+    @Override
+    int last()
+    {
+      for (int i = BITMAP_WORDS - 1; i >= 0; i--)
+      {
+        if (words[i] != 0)
+        {
+          return i * 64 + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    int nextValue(int fromLow)
+    {
+      if (fromLow > LOW_MASK)
+      {
+        return -1;
+      }
+      int i = fromLow >>> 6;
+      long word = words[i] & (-1L << fromLow);
+      while (word == 0)
+      {
+        if (++i == BITMAP_WORDS)
+        {
+          return -1;
+        }
+        word = words[i];
+      }
+      return i * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    int fill(long high, long[] dest, int pos)
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          dest[pos++] = high | (i * 64 + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return pos;
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      if (other instanceof ArrayContainer)
+      {
+        return other.and(this);
+      }
+      final long[] thatWords = ((BitmapContainer) other).words;
+      final long[] result = new long[BITMAP_WORDS];
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        result[i] = words[i] & thatWords[i];
+      }
+      return newContainer(result);
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      if (other instanceof ArrayContainer)
+      {
+        final ArrayContainer that = (ArrayContainer) other;
+        final BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+        for (int i = 0; i < that.cardinality; i++)
+        {
+          result.set(that.values[i]);
+        }
+        return result.cardinality <= ARRAY_CONTAINER_MAX_SIZE ? result.toArrayContainer() : result;
+      }
+      final long[] thatWords = ((BitmapContainer) other).words;
+      final long[] result = new long[BITMAP_WORDS];
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        result[i] = words[i] | thatWords[i];
+      }
+      return newContainer(result);
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      final long[] result = words.clone();
+      if (other instanceof ArrayContainer)
+      {
+        final ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0; i < that.cardinality; i++)
+        {
+          final int low = that.values[i];
+          result[low >>> 6] &= ~(1L << low);
+        }
+      }
+      else
+      {
+        final long[] thatWords = ((BitmapContainer) other).words;
+        for (int i = 0; i < BITMAP_WORDS; i++)
+        {
+          result[i] &= ~thatWords[i];
+        }
+      }
+      return newContainer(result);
+    }
+
+    private static Container newContainer(long[] words)
+    {
+      int cardinality = 0;
+      for (long word : words)
+      {
+        cardinality += Long.bitCount(word);
+      }
+      final BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+      return cardinality <= ARRAY_CONTAINER_MAX_SIZE ? bitmap.toArrayContainer() : bitmap;
+    }
+
+    private ArrayContainer toArrayContainer()
+    {
+      final char[] values = new char[cardinality];
+      int k = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          values[k++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(values, k);
+    }
+
+    @Override
+    void append(ByteStringBuilder builder)
+    {
+      if (cardinality <= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        // The decoder relies on the cardinality to find out the container type.
+        toArrayContainer().append(builder);
+        return;
+      }
+      builder.appendCompactUnsigned(cardinality);
+      for (long word : words)
+      {
+        builder.appendLong(word);
+      }
+    }
+
+    @Override
+    int getEstimatedSize()
+    {
+      return BITMAP_WORDS * 8;
+    }
+  }
+}
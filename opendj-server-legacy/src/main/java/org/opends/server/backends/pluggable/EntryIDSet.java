@@ -50,6 +50,22 @@ final class EntryIDSet implements Iterable<EntryID>
 {
   public static final EntryIDSetCodec CODEC_V1 = new EntryIDSetCodecV1();
   public static final EntryIDSetCodec CODEC_V2 = new EntryIDSetCodecV2();
+  public static final EntryIDSetCodec CODEC_V3 = new EntryIDSetCodecV3();
+
+  /**
+   * Number of IDs above which a defined set is better represented (and encoded) as an {@link EntryIDBitmap} rather
+   * than as an array of longs.
+   */
+  static final int BITMAP_THRESHOLD = EntryIDBitmap.ARRAY_CONTAINER_MAX_SIZE;
+
+  /**
+   * Lead byte of the {@link IndexSegments} directories stored in place of the ID set of the keys having too many IDs.
+   * Like {@link EntryIDSetCodecV3#BITMAP_SET}, it can never be the lead byte of a V2 encoded value.
+   */
+  static final byte SEGMENT_DIRECTORY = (byte) 0xFD;
+
+  /** Size returned by {@link EntryIDSetCodec#decodeSize(ByteString)} for the undefined sets. */
+  static final long UNDEFINED_SIZE = -1;
 
   private static final ByteSequence NO_KEY = ByteString.valueOfUtf8("<none>");
   private static final long[] EMPTY_LONG_ARRAY = new long[0];
@@ -90,6 +106,9 @@ final class EntryIDSet implements Iterable<EntryID>
     ByteString encode(EntryIDSet idSet);
 
     EntryIDSet decode(ByteSequence key, ByteString value);
+
+    /** Returns the number of IDs of an encoded set without decoding them, or {@link #UNDEFINED_SIZE}. */
+    long decodeSize(ByteString value);
   }
 
   /** Concrete implementation representing a set of EntryIDs, sorted in ascending order. */
@@ -287,6 +306,98 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /** Concrete implementation representing a large set of EntryIDs, stored as a compressed bitmap. */
+  private static final class BitmapImpl implements EntryIDSetImplementor
+  {
+    /** \@NotNull */
+    private EntryIDBitmap bitmap;
+
+    BitmapImpl(EntryIDBitmap bitmap)
+    {
+      Reject.ifNull(bitmap, "bitmap must not be null");
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    public long size()
+    {
+      return bitmap.size();
+    }
+
+    @Override
+    public void toString(StringBuilder buffer)
+    {
+      buffer.append("[COUNT:").append(size()).append("]");
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean add(EntryID entryID)
+    {
+      return bitmap.add(entryID.longValue());
+    }
+
+    @Override
+    public boolean remove(EntryID entryID)
+    {
+      return bitmap.remove(entryID.longValue());
+    }
+
+    @Override
+    public boolean contains(EntryID entryID)
+    {
+      return bitmap.contains(entryID.longValue());
+    }
+
+    @Override
+    public void addAll(EntryIDSet that)
+    {
+      if (that.size() != 0)
+      {
+        bitmap = EntryIDBitmap.or(bitmap, that.asBitmap());
+      }
+    }
+
+    @Override
+    public void removeAll(EntryIDSet that)
+    {
+      if (compareForOverlap(getRange(), that.getRange()) == 0)
+      {
+        bitmap = EntryIDBitmap.andNot(bitmap, that.asBitmap());
+      }
+    }
+
+    @Override
+    public Iterator<EntryID> iterator()
+    {
+      return bitmap.iterator();
+    }
+
+    @Override
+    public Iterator<EntryID> iterator(EntryID begin)
+    {
+      return begin == null ? bitmap.iterator() : bitmap.iterator(begin.longValue());
+    }
+
+    @Override
+    public long[] getRange()
+    {
+      final long[] range = bitmap.getRange();
+      return range != null ? range : NO_ENTRY_IDS_RANGE;
+    }
+
+    @Override
+    public long[] getIDs()
+    {
+      return bitmap.toArray();
+    }
+  }
+
   /**
    * Concrete implementation where the EntryIDs are not defined, for example when the index entry
    * limit has been exceeded.
@@ -454,6 +565,16 @@ final class EntryIDSet implements Iterable<EntryID>
       }
     }
 
+    @Override
+    public long decodeSize(ByteString value)
+    {
+      if (value.isEmpty())
+      {
+        return 0;
+      }
+      return (value.byteAt(0) & 0x80) == 0x80 ? UNDEFINED_SIZE : value.length() / LONG_SIZE;
+    }
+
     private static int getEstimatedSize(EntryIDSet idSet)
     {
       return idSet.isDefined() ? idSet.getIDs().length * LONG_SIZE : LONG_SIZE;
@@ -520,6 +641,12 @@ final class EntryIDSet implements Iterable<EntryID>
       return newDefinedSet(decodeRaw(reader, reader.readCompactUnsignedInt()));
     }
 
+    @Override
+    public long decodeSize(ByteString value)
+    {
+      return value.byteAt(0) == UNDEFINED_SET ? UNDEFINED_SIZE : value.asReader().readCompactUnsignedInt();
+    }
+
     private static ByteStringBuilder append(ByteStringBuilder builder, EntryIDSet idSet)
     {
       checkNotNull(idSet, "idSet must not be null");
@@ -565,6 +692,81 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Compressed bitmap EntryIDSet codec implementation. Sets bigger than {@link #BITMAP_THRESHOLD} are stored as an
+   * {@link EntryIDBitmap} prefixed by a marker byte, smaller and undefined sets are stored with the
+   * {@link EntryIDSetCodecV2} format. The marker byte is the lead byte of an 8 bytes compact encoded value, which can
+   * never be the size of a V2 encoded set: this codec is thus able to read values written by the V2 codec, allowing
+   * both formats to coexist in the same index.
+   */
+  private static final class EntryIDSetCodecV3 implements EntryIDSetCodec
+  {
+    private static final byte BITMAP_SET = (byte) 0xFE;
+
+    @Override
+    public ByteString encode(EntryIDSet idSet)
+    {
+      checkNotNull(idSet, "idSet must not be null");
+      if (!idSet.isDefined() || idSet.size() <= BITMAP_THRESHOLD)
+      {
+        return CODEC_V2.encode(idSet);
+      }
+      final EntryIDBitmap bitmap = idSet.asBitmap();
+      final ByteStringBuilder builder = new ByteStringBuilder(bitmap.getEstimatedSize() + 1);
+      builder.appendByte(BITMAP_SET);
+      bitmap.append(builder);
+      return ByteString.wrap(builder.getBackingArray(), 0, builder.length());
+    }
+
+    @Override
+    public EntryIDSet decode(ByteSequence key, ByteString value)
+    {
+      checkNotNull(key, "key must not be null");
+      checkNotNull(value, "value must not be null");
+      if (value.byteAt(0) == SEGMENT_DIRECTORY)
+      {
+        // IDs are not in this value: they must be read through IndexSegments.
+        return newUndefinedSetWithKey(key);
+      }
+      else if (value.byteAt(0) != BITMAP_SET)
+      {
+        return CODEC_V2.decode(key, value);
+      }
+      final ByteSequenceReader reader = value.asReader();
+      reader.skip(1);
+      return newDefinedSet(EntryIDBitmap.read(reader));
+    }
+
+    @Override
+    public long decodeSize(ByteString value)
+    {
+      if (value.byteAt(0) == SEGMENT_DIRECTORY)
+      {
+        return UNDEFINED_SIZE;
+      }
+      else if (value.byteAt(0) != BITMAP_SET)
+      {
+        return CODEC_V2.decodeSize(value);
+      }
+      final ByteSequenceReader reader = value.asReader();
+      reader.skip(1);
+      return EntryIDBitmap.readSize(reader);
+    }
+  }
+
+  /**
+   * Returns whether the provided value holds an {@link EntryIDBitmap} written by {@link #CODEC_V3}. Only such values
+   * may contain more than {@link #BITMAP_THRESHOLD} IDs.
+   *
+   * @param value
+   *          an encoded entry ID set
+   * @return {@code true} if the value is an encoded bitmap
+   */
+  static boolean isBitmapEncoded(ByteSequence value)
+  {
+    return value.length() > 0 && value.byteAt(0) == EntryIDSetCodecV3.BITMAP_SET;
+  }
+
   static EntryIDSet newUndefinedSet()
   {
     return newUndefinedSetWithKey(NO_KEY);
@@ -592,6 +794,21 @@ final class EntryIDSet implements Iterable<EntryID>
     return new EntryIDSet(new DefinedImpl(entryIDs));
   }
 
+  /**
+   * Creates a new defined entry ID set backed by the provided bitmap.
+   *
+   * @param bitmap
+   *          Entry IDs contained in the set. The bitmap is not copied and must not be modified afterward.
+   * @return A new defined {@link EntryIDSet} containing the entry IDs of the bitmap
+   * @throws NullPointerException
+   *           if bitmap is null
+   */
+  static EntryIDSet newDefinedSet(EntryIDBitmap bitmap)
+  {
+    checkNotNull(bitmap, "bitmap must not be null");
+    return new EntryIDSet(new BitmapImpl(bitmap));
+  }
+
   private static long[] intersection(long[] set1, long[] set2)
   {
     long[] target = new long[Math.min(set1.length, set2.length)];
@@ -653,6 +870,19 @@ final class EntryIDSet implements Iterable<EntryID>
       return newUndefinedSet();
     }
 
+    if (count > BITMAP_THRESHOLD || containsBitmapSet(sets))
+    {
+      EntryIDBitmap union = new EntryIDBitmap();
+      for (EntryIDSet l : sets)
+      {
+        if (l.size() != 0)
+        {
+          union = EntryIDBitmap.or(union, l.asBitmap());
+        }
+      }
+      return newDefinedSet(union);
+    }
+
     boolean needSort = false;
     long[] n = new long[count];
     int pos = 0;
@@ -687,6 +917,18 @@ final class EntryIDSet implements Iterable<EntryID>
     return newDefinedSet(Arrays.copyOf(n1, j));
   }
 
+  private static boolean containsBitmapSet(List<EntryIDSet> sets)
+  {
+    for (EntryIDSet set : sets)
+    {
+      if (set.isBitmap())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private EntryIDSetImplementor concreteImpl;
 
   private EntryIDSet(EntryIDSetImplementor concreteImpl)
@@ -742,6 +984,21 @@ final class EntryIDSet implements Iterable<EntryID>
     return Arrays.copyOf(entryIDs, entryIDs.length);
   }
 
+  /**
+   * Returns the lowest and highest IDs of this set.
+   *
+   * @return a two elements array containing the lowest and highest IDs of this set, or {@code null} if this set is
+   *         undefined or empty.
+   */
+  long[] toRange()
+  {
+    if (!isDefined() || size() == 0)
+    {
+      return null;
+    }
+    return concreteImpl.getRange().clone();
+  }
+
   /**
    * Determine whether this set of IDs is defined.
    *
@@ -813,6 +1070,10 @@ final class EntryIDSet implements Iterable<EntryID>
   {
     checkNotNull(that, "that must not be null");
     Reject.ifFalse(that.isDefined(), "that must be defined");
+    if (that.isBitmap() && concreteImpl instanceof DefinedImpl)
+    {
+      concreteImpl = new BitmapImpl(asBitmap());
+    }
     concreteImpl.addAll(that);
   }
 
@@ -829,7 +1090,10 @@ final class EntryIDSet implements Iterable<EntryID>
     checkNotNull(that, "that must not be null");
     if (!concreteImpl.isDefined())
     {
-      if ( that.isDefined() ) {
+      if (that.isBitmap()) {
+        // Bitmaps are modified in place, so they cannot be shared.
+        concreteImpl = new BitmapImpl(((BitmapImpl) that.concreteImpl).bitmap.copy());
+      } else if ( that.isDefined() ) {
         // NOTE: It's ok to share the same array instance here thanks to the copy-on-write
         // performed by the implementation.
         concreteImpl = new DefinedImpl(that.getIDs());
@@ -844,7 +1108,19 @@ final class EntryIDSet implements Iterable<EntryID>
     }
 
     final boolean thatSetOverlap = compareForOverlap(getRange(), that.getRange()) == 0;
-    if (thatSetOverlap)
+    if (thatSetOverlap && isBitmap() && that.isBitmap())
+    {
+      concreteImpl = new BitmapImpl(EntryIDBitmap.and(asBitmap(), that.asBitmap()));
+    }
+    else if (thatSetOverlap && isBitmap())
+    {
+      concreteImpl = new DefinedImpl(asBitmap().filter(that.getIDs(), true));
+    }
+    else if (thatSetOverlap && that.isBitmap())
+    {
+      concreteImpl = new DefinedImpl(that.asBitmap().filter(getIDs(), true));
+    }
+    else if (thatSetOverlap)
     {
       concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), that.getIDs()));
     }
@@ -868,6 +1144,14 @@ final class EntryIDSet implements Iterable<EntryID>
   {
     checkNotNull(that, "that must not be null");
     Reject.ifFalse(that.isDefined(), "that must be defined");
+    if (that.isBitmap() && concreteImpl instanceof DefinedImpl)
+    {
+      if (compareForOverlap(getRange(), that.getRange()) == 0)
+      {
+        concreteImpl = new DefinedImpl(that.asBitmap().filter(getIDs(), false));
+      }
+      return;
+    }
     concreteImpl.removeAll(that);
   }
 
@@ -899,6 +1183,24 @@ final class EntryIDSet implements Iterable<EntryID>
     return concreteImpl.getIDs();
   }
 
+  private boolean isBitmap()
+  {
+    return concreteImpl instanceof BitmapImpl;
+  }
+
+  /**
+   * Returns the IDs of this defined set as a bitmap, without copying it if this set is already backed by a bitmap.
+   * The returned bitmap must therefore not be modified.
+   */
+  private EntryIDBitmap asBitmap()
+  {
+    if (isBitmap())
+    {
+      return ((BitmapImpl) concreteImpl).bitmap;
+    }
+    return EntryIDBitmap.fromSortedArray(concreteImpl.getIDs());
+  }
+
   private long[] getRange()
   {
     return concreteImpl.getRange();
@@ -27,10 +27,18 @@
 package org.opends.server.backends.pluggable;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
@@ -41,9 +49,11 @@ import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.types.DN;
 import org.opends.server.types.Entry;
 import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.util.BinaryEntryFormat;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 
 /** Export a backend to LDIF. */
@@ -57,6 +67,11 @@ class ExportJob
   /** The number of milliseconds between job progress reports. */
   private final long progressInterval = 10000;
 
+  /** The number of id2entry records in each chunk encoded by a worker thread during a binary export. */
+  private static final int BINARY_EXPORT_CHUNK_SIZE = 256;
+
+  private static final String BINARY_EXPORT_THREAD_NAME = "BINARY-EXPORT-%d";
+
   /** The current number of entries exported. */
   private long exportedCount;
 
@@ -181,6 +196,12 @@ class ExportJob
   private void exportContainer(ReadableTransaction txn, EntryContainer entryContainer)
        throws StorageRuntimeException, IOException, LDIFException
   {
+    if (exportConfig.isBinaryEntries())
+    {
+      exportContainerInChunks(txn, entryContainer);
+      return;
+    }
+
     Cursor<ByteString, ByteString> cursor = txn.openCursor(entryContainer.getID2Entry().getName());
     try
     {
@@ -251,6 +272,171 @@ class ExportJob
     }
   }
 
+  /**
+   * Export the entries of a single entry container in the binary format. The
+   * id2entry records are read sequentially and grouped in chunks of consecutive
+   * entry IDs, which are decoded and encoded concurrently by worker threads.
+   * The encoded chunks are written in the order of the entry IDs, so that
+   * parent entries are still exported before their children.
+   */
+  private void exportContainerInChunks(ReadableTransaction txn, EntryContainer entryContainer)
+       throws StorageRuntimeException, IOException, LDIFException
+  {
+    final int nbThreads = Runtime.getRuntime().availableProcessors();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(nbThreads, newThreadFactory(null, BINARY_EXPORT_THREAD_NAME, true));
+    final Deque<Future<EncodedChunk>> pendingChunks = new ArrayDeque<>();
+    final Cursor<ByteString, ByteString> cursor = txn.openCursor(entryContainer.getID2Entry().getName());
+    try
+    {
+      List<ByteString> records = new ArrayList<>(BINARY_EXPORT_CHUNK_SIZE);
+      while (cursor.next() && !exportConfig.isCancelled())
+      {
+        final EntryID entryID = toEntryID(cursor.getKey());
+        if (entryID == null)
+        {
+          skippedCount++;
+          continue;
+        }
+        if (entryID.longValue() == 0)
+        {
+          // This is the stored entry count.
+          continue;
+        }
+
+        records.add(cursor.getValue());
+        if (records.size() == BINARY_EXPORT_CHUNK_SIZE)
+        {
+          pendingChunks.add(executor.submit(new ChunkEncoder(entryContainer, records)));
+          records = new ArrayList<>(BINARY_EXPORT_CHUNK_SIZE);
+          // Bound the number of chunks held in memory
+          if (pendingChunks.size() > 2 * nbThreads)
+          {
+            writeChunk(pendingChunks.removeFirst());
+          }
+        }
+      }
+      if (!records.isEmpty())
+      {
+        pendingChunks.add(executor.submit(new ChunkEncoder(entryContainer, records)));
+      }
+      while (!pendingChunks.isEmpty() && !exportConfig.isCancelled())
+      {
+        writeChunk(pendingChunks.removeFirst());
+      }
+    }
+    finally
+    {
+      cursor.close();
+      executor.shutdownNow();
+    }
+  }
+
+  private EntryID toEntryID(ByteString key)
+  {
+    try
+    {
+      return new EntryID(key);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+      }
+      return null;
+    }
+  }
+
+  private void writeChunk(Future<EncodedChunk> future) throws IOException, LDIFException
+  {
+    final EncodedChunk chunk;
+    try
+    {
+      chunk = future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof LDIFException)
+      {
+        throw (LDIFException) cause;
+      }
+      throw new StorageRuntimeException(cause);
+    }
+
+    final OutputStream output = exportConfig.getOutputStream();
+    for (ByteString encodedEntry : chunk.encodedEntries)
+    {
+      BinaryEntryFormat.writeEncodedEntry(output, encodedEntry);
+    }
+    exportedCount += chunk.encodedEntries.size();
+    skippedCount += chunk.skippedCount;
+  }
+
+  /** The entries of a chunk of id2entry records, encoded in the binary format. */
+  private static final class EncodedChunk
+  {
+    private final List<ByteString> encodedEntries = new ArrayList<>(BINARY_EXPORT_CHUNK_SIZE);
+    private int skippedCount;
+  }
+
+  /** Decodes a chunk of id2entry records and encodes the entries to export in the binary format. */
+  private final class ChunkEncoder implements Callable<EncodedChunk>
+  {
+    private final EntryContainer entryContainer;
+    private final List<ByteString> records;
+
+    private ChunkEncoder(EntryContainer entryContainer, List<ByteString> records)
+    {
+      this.entryContainer = entryContainer;
+      this.records = records;
+    }
+
+    @Override
+    public EncodedChunk call() throws LDIFException
+    {
+      final EncodedChunk chunk = new EncodedChunk();
+      for (ByteString value : records)
+      {
+        Entry entry;
+        try
+        {
+          entry = ID2Entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
+        }
+        catch (Exception e)
+        {
+          if (logger.isTraceEnabled())
+          {
+            logger.traceException(e);
+
+            logger.trace("Malformed id2entry record:%n%s%n", StaticUtils.bytesToHex(value));
+          }
+          chunk.skippedCount++;
+          continue;
+        }
+
+        final ByteString encodedEntry = entry.encodeForExport(exportConfig);
+        if (encodedEntry != null)
+        {
+          chunk.encodedEntries.add(encodedEntry);
+        }
+        else
+        {
+          chunk.skippedCount++;
+        }
+      }
+      return chunk;
+    }
+  }
+
   /** This class reports progress of the export job at fixed intervals. */
   private class ProgressTask extends TimerTask
   {
@@ -34,6 +34,8 @@ import static org.opends.server.backends.pluggable.CursorTransformer.transformKe
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.DataFormatException;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterOutputStream;
@@ -393,6 +395,40 @@ class ID2Entry extends AbstractTree
     }
   }
 
+  /**
+   * Fetch several records from the entry tree with a single multi-key read.
+   *
+   * @param txn a non null transaction
+   * @param entryIDs The desired entry IDs, sorted in ascending order.
+   * @return The requested entries in the same order as the entry IDs, with null elements for missing records.
+   * @throws DirectoryException If a problem occurs while decoding one of the entries.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  List<Entry> get(ReadableTransaction txn, List<EntryID> entryIDs)
+      throws DirectoryException, StorageRuntimeException
+  {
+    final List<ByteString> keys = new ArrayList<>(entryIDs.size());
+    for (EntryID entryID : entryIDs)
+    {
+      keys.add(entryID.toByteString());
+    }
+    final List<ByteString> values = txn.multiGet(getName(), keys);
+    final List<Entry> entries = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++)
+    {
+      try
+      {
+        entries.add(get0(values.get(i)));
+      }
+      catch (Exception e)
+      {
+        throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+            ERR_ENTRY_DATABASE_CORRUPT.get(entryIDs.get(i)));
+      }
+    }
+    return entries;
+  }
+
   Cursor<EntryID, Entry> openCursor(ReadableTransaction txn)
   {
     return transformKeysAndValues(txn.openCursor(getName()), TO_ENTRY_ID, TO_ENTRY);
@@ -38,6 +38,7 @@ import java.util.concurrent.CountDownLatch;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizableMessageBuilder;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.util.Reject;
 import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.types.AttributeBuilder;
@@ -123,6 +124,10 @@ final class ImportLDIFReader extends LDIFReader
   public final EntryInformation readEntry(Map<DN, EntryContainer> suffixesMap) throws IOException, LDIFException
   {
     final boolean checkSchema = importConfig.validateSchema();
+    if (importConfig.isBinaryEntries())
+    {
+      return readBinaryEntry(suffixesMap, checkSchema);
+    }
     while (true)
     {
       LinkedList<StringBuilder> lines;
@@ -201,6 +206,98 @@ final class ImportLDIFReader extends LDIFReader
     }
   }
 
+  /**
+   * Reads the next entry in the binary format. Only the DN is decoded while holding the lock of this reader, so
+   * that the import threads decode the attributes of the entries concurrently. The LDIF lines of an entry are only
+   * produced when it is skipped or rejected.
+   */
+  private EntryInformation readBinaryEntry(Map<DN, EntryContainer> suffixesMap, boolean checkSchema)
+      throws IOException, LDIFException
+  {
+    while (true)
+    {
+      final ByteString encodedEntry;
+      final DN entryDN;
+      final EntryID entryID;
+      final EntryContainer entryContainer;
+      synchronized (this)
+      {
+        encodedEntry = readEncodedEntry();
+        if (encodedEntry == null)
+        {
+          return null;
+        }
+        entriesRead.incrementAndGet();
+
+        try
+        {
+          entryDN = decodeBinaryDN(encodedEntry);
+        }
+        catch (LDIFException e)
+        {
+          logToRejectWriter(new LinkedList<StringBuilder>(), e.getMessageObject());
+          continue;
+        }
+        if (!importConfig.includeEntry(entryDN))
+        {
+          logger.trace("Skipping entry %s because the DN is not one that "
+              + "should be included based on the include and exclude branches.", entryDN);
+          logToSkipWriter(toLines(entryDN), ERR_LDIF_SKIP.get(entryDN));
+          continue;
+        }
+        entryContainer = getEntryContainer(entryDN, suffixesMap);
+        if (entryContainer == null)
+        {
+          logger.trace("Skipping entry %s because the DN is not one that "
+              + "should be included based on a suffix match check.", entryDN);
+          logToSkipWriter(toLines(entryDN), ERR_LDIF_SKIP.get(entryDN));
+          continue;
+        }
+        entryID = rootContainer.getNextEntryID();
+
+        if (!addPending(entryDN))
+        {
+          logger.trace("Skipping entry %s because the DN already exists.", entryDN);
+          logToSkipWriter(toLines(entryDN), ERR_LDIF_SKIP.get(entryDN));
+          continue;
+        }
+      }
+
+      final Entry entry;
+      try
+      {
+        entry = decodeBinaryEntry(encodedEntry);
+      }
+      catch (LDIFException e)
+      {
+        removePending(entryDN);
+        logToRejectWriter(toLines(entryDN), e.getMessageObject());
+        continue;
+      }
+      if (!isIncludedInImport(entry, null)
+          || !invokeImportPlugins(entry, null)
+          || (checkSchema && !isValidAgainstSchema(entry, null)))
+      {
+        removePending(entryDN);
+        continue;
+      }
+      return new EntryInformation(entry, entryID, entryContainer);
+    }
+  }
+
+  private static List<StringBuilder> toLines(DN entryDN)
+  {
+    final List<StringBuilder> lines = new LinkedList<>();
+    lines.add(new StringBuilder("dn: ").append(entryDN));
+    return lines;
+  }
+
+  /** Returns the provided LDIF lines of the entry, or produces them if the entry was read in the binary format. */
+  private static List<StringBuilder> linesOf(Entry entry, List<StringBuilder> entryLines)
+  {
+    return entryLines != null ? entryLines : entry.toLDIF();
+  }
+
   private Entry createEntry(List<StringBuilder> lines, DN entryDN, boolean checkSchema)
   {
     // Read the set of attributes from the entry.
@@ -230,7 +327,7 @@ final class ImportLDIFReader extends LDIFReader
     return entry;
   }
 
-  private boolean isIncludedInImport(Entry entry, LinkedList<StringBuilder> entryLines)
+  private boolean isIncludedInImport(Entry entry, List<StringBuilder> entryLines)
   {
     final DN entryDN = entry.getName();
     try
@@ -239,20 +336,20 @@ final class ImportLDIFReader extends LDIFReader
       {
         logger.trace("Skipping entry %s because the DN is not one that "
             + "should be included based on the include and exclude filters.", entryDN);
-        logToSkipWriter(entryLines, ERR_LDIF_SKIP.get(entryDN));
+        logToSkipWriter(linesOf(entry, entryLines), ERR_LDIF_SKIP.get(entryDN));
         return false;
       }
       return true;
     }
     catch (Exception e)
     {
-      logToSkipWriter(entryLines,
+      logToSkipWriter(linesOf(entry, entryLines),
           ERR_LDIF_COULD_NOT_EVALUATE_FILTERS_FOR_IMPORT.get(entryDN, lastEntryLineNumber, e));
       return false;
     }
   }
 
-  private boolean invokeImportPlugins(final Entry entry, LinkedList<StringBuilder> lines)
+  private boolean invokeImportPlugins(final Entry entry, List<StringBuilder> lines)
   {
     if (importConfig.invokeImportPlugins())
     {
@@ -271,14 +368,14 @@ final class ImportLDIFReader extends LDIFReader
           m = ERR_LDIF_REJECTED_BY_PLUGIN_NOMESSAGE.get(entryDN);
         }
 
-        logToRejectWriter(lines, m);
+        logToRejectWriter(linesOf(entry, lines), m);
         return false;
       }
     }
     return true;
   }
 
-  private boolean isValidAgainstSchema(Entry entry, LinkedList<StringBuilder> lines)
+  private boolean isValidAgainstSchema(Entry entry, List<StringBuilder> lines)
   {
     final DN entryDN = entry.getName();
     addRDNAttributesIfNecessary(entryDN, entry.getUserAttributes(), entry.getOperationalAttributes());
@@ -289,7 +386,7 @@ final class ImportLDIFReader extends LDIFReader
     if (!entry.conformsToSchema(null, false, true, false, invalidReason))
     {
       LocalizableMessage message = ERR_LDIF_SCHEMA_VIOLATION.get(entryDN, lastEntryLineNumber, invalidReason);
-      logToRejectWriter(lines, message);
+      logToRejectWriter(linesOf(entry, lines), message);
       return false;
     }
     return true;
@@ -41,6 +41,21 @@ interface Index extends Tree
 {
   EntryIDSet get(ReadableTransaction txn, ByteSequence key);
 
+  /**
+   * Same as {@link #get(ReadableTransaction, ByteSequence)}, except that the returned set may be restricted to the IDs
+   * also present in the provided candidates, allowing to skip reading the IDs which will be discarded anyway.
+   */
+  EntryIDSet get(ReadableTransaction txn, ByteSequence key, EntryIDSet candidates);
+
+  /**
+   * Returns the number of entry IDs associated with a key of this index. Only the record of the key is read, its entry
+   * IDs are not decoded.
+   *
+   * @return the number of entry IDs of the key, the index entry limit if the key has exceeded it, or
+   *         {@link IndexQueryEstimator#UNKNOWN} if the number cannot be known
+   */
+  long getKeySize(ReadableTransaction txn, ByteSequence key);
+
   int getIndexEntryLimit();
 
   boolean isTrusted();
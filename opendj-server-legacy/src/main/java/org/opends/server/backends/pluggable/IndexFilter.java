@@ -30,7 +30,9 @@ import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
@@ -55,6 +57,13 @@ class IndexFilter
   /** Limit on the number of entry IDs that may be retrieved by cursoring through an index. */
   static final int CURSOR_ENTRY_LIMIT = 100000;
 
+  /**
+   * Checking one candidate entry against the filter is assumed to cost as much as reading this number of entry IDs
+   * from an index. Components of a logical AND filter expected to read more IDs than this ratio times the number of
+   * candidates are not evaluated against the indexes.
+   */
+  private static final int ENTRY_TO_ID_COST_RATIO = 1000;
+
   /** The entry container holding the attribute indexes. */
   private final EntryContainer entryContainer;
   private final ReadableTransaction txn;
@@ -72,6 +81,12 @@ class IndexFilter
   private final StringBuilder buffer;
   private final BackendMonitor monitor;
 
+  /**
+   * The current candidates of the logical AND filter being evaluated, if any. The sets evaluated for its components
+   * only need to contain the IDs also present in this set.
+   */
+  private EntryIDSet candidates;
+
   /**
    * Construct an index filter for a search operation.
    *
@@ -215,11 +230,10 @@ class IndexFilter
       }
     }
 
+    // First, process the fast components then the other (non-range) components,
+    // starting with the ones expected to return the fewest candidates.
     EntryIDSet results = newUndefinedSet();
-    // First, process the fast components.
-    results = applyFiltersUntilThreshold(results, fastComps);
-    // Next, process the other (non-range) components.
-    results = applyFiltersUntilThreshold(results, otherComps);
+    results = applyPlanUntilThreshold(results, planFilters(fastComps, otherComps));
 
     if ( isBelowFilterThreshold(results) || rangeComps.isEmpty() ) {
       return results;
@@ -246,7 +260,7 @@ class IndexFilter
           continue;
         }
 
-        final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
+        final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex, results);
         EntryIDSet set = attributeIndex.evaluateBoundedRange(indexQueryFactory, filter1, filter2, buffer, monitor);
         if(monitor.isFilterUseEnabled() && set.isDefined())
         {
@@ -269,17 +283,148 @@ class IndexFilter
     return applyFiltersUntilThreshold(results, remainComps);
   }
 
+  /**
+   * Orders the components of a logical AND filter by estimated number of candidates. Components without estimate are
+   * evaluated last, in their original order.
+   */
+  private List<PlannedFilter> planFilters(List<SearchFilter> fastComps, List<SearchFilter> otherComps)
+  {
+    final List<PlannedFilter> plan = new ArrayList<>(fastComps.size() + otherComps.size());
+    for (SearchFilter filter : fastComps)
+    {
+      plan.add(new PlannedFilter(filter, estimateCandidateCount(filter)));
+    }
+    for (SearchFilter filter : otherComps)
+    {
+      plan.add(new PlannedFilter(filter, estimateCandidateCount(filter)));
+    }
+    Collections.sort(plan);
+    return plan;
+  }
+
+  private EntryIDSet applyPlanUntilThreshold(EntryIDSet results, List<PlannedFilter> plan)
+  {
+    for (PlannedFilter planned : plan)
+    {
+      if (isBelowFilterThreshold(results))
+      {
+        return results;
+      }
+      if (isCheaperToCheckCandidates(results, planned.estimate))
+      {
+        if (buffer != null)
+        {
+          planned.filter.toString(buffer);
+          planned.appendEstimate(buffer);
+          buffer.append("[PRUNED]");
+        }
+        continue;
+      }
+      results.retainAll(evaluateFilterWithCandidates(planned.filter, results));
+      if (buffer != null)
+      {
+        planned.appendEstimate(buffer);
+      }
+    }
+    return results;
+  }
+
+  private static boolean isCheaperToCheckCandidates(EntryIDSet results, long estimate)
+  {
+    return results.isDefined() && estimate != IndexQueryEstimator.UNKNOWN
+        && estimate > results.size() * ENTRY_TO_ID_COST_RATIO;
+  }
+
+  /**
+   * Estimates the number of candidates a filter is going to return from the records of its keys, without decoding
+   * their entry IDs.
+   *
+   * @param filter
+   *          the filter to evaluate
+   * @return the estimated number of candidates, or {@link IndexQueryEstimator#UNKNOWN} if no estimate is available
+   */
+  private long estimateCandidateCount(SearchFilter filter)
+  {
+    switch (filter.getFilterType())
+    {
+    case AND:
+      long min = IndexQueryEstimator.UNKNOWN;
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        final long estimate = estimateCandidateCount(component);
+        if (estimate != IndexQueryEstimator.UNKNOWN && (min == IndexQueryEstimator.UNKNOWN || estimate < min))
+        {
+          min = estimate;
+        }
+      }
+      return min;
+
+    case OR:
+      long sum = 0;
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        final long estimate = estimateCandidateCount(component);
+        if (estimate == IndexQueryEstimator.UNKNOWN)
+        {
+          return IndexQueryEstimator.UNKNOWN;
+        }
+        sum += estimate;
+      }
+      return sum;
+
+    case EQUALITY:
+      return estimateCandidateCount(IndexFilterType.EQUALITY, filter);
+
+    case PRESENT:
+      return estimateCandidateCount(IndexFilterType.PRESENCE, filter);
+
+    case APPROXIMATE_MATCH:
+      return estimateCandidateCount(IndexFilterType.APPROXIMATE, filter);
+
+    case SUBSTRING:
+      return estimateCandidateCount(IndexFilterType.SUBSTRING, filter);
+
+    default:
+      return IndexQueryEstimator.UNKNOWN;
+    }
+  }
+
+  private long estimateCandidateCount(IndexFilterType indexFilterType, SearchFilter filter)
+  {
+    final AttributeIndex attributeIndex = entryContainer.getAttributeIndex(filter.getAttributeType());
+    return attributeIndex != null
+        ? attributeIndex.estimateCandidateCount(txn, indexFilterType, filter) : IndexQueryEstimator.UNKNOWN;
+  }
+
   private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters)
   {
     for(SearchFilter filter : filters) {
       if (isBelowFilterThreshold(results)) {
         return results;
       }
-      results.retainAll(evaluateFilter(filter));
+      results.retainAll(evaluateFilterWithCandidates(filter, results));
     }
     return results;
   }
 
+  /** Evaluates a filter whose result will be intersected with the provided candidates. */
+  private EntryIDSet evaluateFilterWithCandidates(SearchFilter filter, EntryIDSet results)
+  {
+    final EntryIDSet previousCandidates = candidates;
+    if (results.isDefined())
+    {
+      candidates = results;
+    }
+    try
+    {
+      return evaluateFilter(filter);
+    }
+    finally
+    {
+      candidates = previousCandidates;
+    }
+  }
+
   static boolean isBelowFilterThreshold(EntryIDSet set)
   {
     return set.isDefined() && set.size() <= FILTER_CANDIDATE_THRESHOLD;
@@ -322,7 +467,7 @@ class IndexFilter
     AttributeIndex attributeIndex = entryContainer.getAttributeIndex(filter.getAttributeType());
     if (attributeIndex != null)
     {
-      final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
+      final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex, candidates);
       return attributeIndex.evaluateFilter(indexQueryFactory, indexFilterType, filter, buffer, monitor);
     }
 
@@ -353,7 +498,7 @@ class IndexFilter
     AttributeIndex attributeIndex = entryContainer.getAttributeIndex(extensibleFilter.getAttributeType());
     if (attributeIndex != null)
     {
-      final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
+      final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex, candidates);
       return attributeIndex.evaluateExtensibleFilter(indexQueryFactory, extensibleFilter, buffer, monitor);
     }
     return IndexQueryFactoryImpl.createNullIndexQuery().evaluate(null, null);
@@ -366,4 +511,35 @@ class IndexFilter
       buffer.append(content);
     }
   }
+
+  /** A component of a logical AND filter with its estimated number of candidates. */
+  private static final class PlannedFilter implements Comparable<PlannedFilter>
+  {
+    private final SearchFilter filter;
+    private final long estimate;
+
+    private PlannedFilter(SearchFilter filter, long estimate)
+    {
+      this.filter = filter;
+      this.estimate = estimate;
+    }
+
+    private long rank()
+    {
+      return estimate != IndexQueryEstimator.UNKNOWN ? estimate : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int compareTo(PlannedFilter o)
+    {
+      return Long.compare(rank(), o.rank());
+    }
+
+    private void appendEstimate(StringBuilder buffer)
+    {
+      buffer.append("[ESTIMATE:");
+      buffer.append(estimate != IndexQueryEstimator.UNKNOWN ? Long.toString(estimate) : "?");
+      buffer.append("]");
+    }
+  }
 }
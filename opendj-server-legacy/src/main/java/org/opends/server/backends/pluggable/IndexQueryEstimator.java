@@ -0,0 +1,110 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Collection;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+
+/**
+ * Implementation of IndexQueryFactory estimating the number of entry IDs an index query is going to return, used to
+ * plan the evaluation of search filters. The estimate of an exact match is the number of entry IDs of its key, read
+ * from its record without decoding the entry IDs.
+ */
+final class IndexQueryEstimator implements IndexQueryFactory<Long>
+{
+  /** Value returned when no estimate is available. */
+  static final long UNKNOWN = -1;
+
+  private static final String PRESENCE_INDEX_KEY = "presence";
+
+  private final ReadableTransaction txn;
+  private final AttributeIndex attributeIndex;
+
+  IndexQueryEstimator(ReadableTransaction txn, AttributeIndex attributeIndex)
+  {
+    this.txn = txn;
+    this.attributeIndex = attributeIndex;
+  }
+
+  @Override
+  public Long createExactMatchQuery(String indexID, ByteSequence key)
+  {
+    final Index index = attributeIndex.getNameToIndexes().get(indexID);
+    return index != null ? index.getKeySize(txn, key) : createMatchAllQuery();
+  }
+
+  @Override
+  public Long createRangeMatchQuery(String indexID, ByteSequence lowerBound, ByteSequence upperBound,
+      boolean includeLowerBound, boolean includeUpperBound)
+  {
+    return UNKNOWN;
+  }
+
+  @Override
+  public Long createIntersectionQuery(Collection<Long> subqueries)
+  {
+    long min = UNKNOWN;
+    for (long estimate : subqueries)
+    {
+      if (estimate != UNKNOWN && (min == UNKNOWN || estimate < min))
+      {
+        min = estimate;
+      }
+    }
+    return min;
+  }
+
+  @Override
+  public Long createUnionQuery(Collection<Long> subqueries)
+  {
+    long sum = 0;
+    for (long estimate : subqueries)
+    {
+      if (estimate == UNKNOWN)
+      {
+        return UNKNOWN;
+      }
+      sum += estimate;
+    }
+    return sum;
+  }
+
+  @Override
+  public Long createMatchAllQuery()
+  {
+    final Index index = attributeIndex.getNameToIndexes().get(PRESENCE_INDEX_KEY);
+    return index != null ? index.getKeySize(txn, AttributeIndex.PRESENCE_KEY) : UNKNOWN;
+  }
+
+  @Override
+  public IndexingOptions getIndexingOptions()
+  {
+    return attributeIndex.getIndexingOptions();
+  }
+}
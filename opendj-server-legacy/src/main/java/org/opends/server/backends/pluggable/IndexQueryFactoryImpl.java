@@ -159,6 +159,8 @@ final class IndexQueryFactoryImpl implements IndexQueryFactory<IndexQuery>
   private final ReadableTransaction txn;
   /** The Map containing the string type identifier and the corresponding index. */
   private final AttributeIndex attributeIndex;
+  /** The IDs which the evaluated queries will be intersected with, may be {@code null}. */
+  private final EntryIDSet candidates;
 
   /**
    * Creates a new IndexQueryFactoryImpl object.
@@ -169,9 +171,26 @@ final class IndexQueryFactoryImpl implements IndexQueryFactory<IndexQuery>
    *          The targeted attribute index
    */
   IndexQueryFactoryImpl(ReadableTransaction txn, AttributeIndex attributeIndex)
+  {
+    this(txn, attributeIndex, null);
+  }
+
+  /**
+   * Creates a new IndexQueryFactoryImpl object whose queries results will be intersected with the provided candidates.
+   * Knowing them allows to skip reading the parts of large ID sets which cannot intersect the candidates.
+   *
+   * @param txn
+   *          The readable storage
+   * @param attributeIndex
+   *          The targeted attribute index
+   * @param candidates
+   *          The IDs which the evaluated queries will be intersected with, or {@code null} if unknown
+   */
+  IndexQueryFactoryImpl(ReadableTransaction txn, AttributeIndex attributeIndex, EntryIDSet candidates)
   {
     this.txn = txn;
     this.attributeIndex = attributeIndex;
+    this.candidates = candidates;
   }
 
   @Override
@@ -191,7 +210,7 @@ final class IndexQueryFactoryImpl implements IndexQueryFactory<IndexQuery>
             return createMatchAllQuery().evaluate(debugMessage, indexNameOut);
           }
 
-          final EntryIDSet entrySet = index.get(txn, key);
+          final EntryIDSet entrySet = index.get(txn, key, candidates);
           updateStatsForUndefinedResults(debugMessage, entrySet, index);
           return entrySet;
         }
@@ -360,7 +379,7 @@ final class IndexQueryFactoryImpl implements IndexQueryFactory<IndexQuery>
             return newUndefinedSet();
           }
 
-          final EntryIDSet entrySet = index.get(txn, AttributeIndex.PRESENCE_KEY);
+          final EntryIDSet entrySet = index.get(txn, AttributeIndex.PRESENCE_KEY, candidates);
           updateStatsForUndefinedResults(debugMessage, entrySet, index);
           if (indexNameOut != null)
           {
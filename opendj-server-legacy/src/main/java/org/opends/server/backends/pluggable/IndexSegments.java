@@ -0,0 +1,456 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.backends.pluggable.EntryIDSet.EntryIDSetCodec;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+
+/**
+ * Stores the entry IDs of the index keys having too many IDs to be efficiently kept in a single record.
+ * <p>
+ * The IDs of such a key are split by entry ID ranges into segments of roughly {@link #SEGMENT_SIZE} IDs, each one
+ * stored in its own record of a companion tree of the index. The record of the key in the index tree itself only
+ * contains a directory listing the lower bound and the size of each segment. This allows:
+ * <ul>
+ * <li>updates to only rewrite the few segments containing the added or deleted IDs,</li>
+ * <li>searches to only read the segments which may intersect the current candidate entry IDs.</li>
+ * </ul>
+ * Segment records are keyed by the index key (prefixed by its length) followed by the segment lower bound, so that
+ * the segments of a key are contiguous and ordered in the companion tree.
+ */
+final class IndexSegments
+{
+  /** Target number of entry IDs per segment. */
+  static final int SEGMENT_SIZE = 32768;
+
+  /** Name of the companion tree is the name of the index followed by this suffix. */
+  private static final String SEGMENTS_TREE_SUFFIX = ".segments";
+
+  /** Name of the companion tree holding the segments. */
+  private final TreeName treeName;
+  /** Codec used for the segments values. */
+  private final EntryIDSetCodec codec;
+
+  IndexSegments(TreeName indexTreeName, EntryIDSetCodec codec)
+  {
+    this.treeName = new TreeName(indexTreeName.getBaseDN(), indexTreeName.getIndexId() + SEGMENTS_TREE_SUFFIX);
+    this.codec = codec;
+  }
+
+  TreeName getName()
+  {
+    return treeName;
+  }
+
+  /**
+   * Returns whether the provided index value is a segment directory.
+   *
+   * @param value
+   *          a value read from the index tree
+   * @return {@code true} if the IDs of the key are stored in segments
+   */
+  static boolean isDirectory(ByteSequence value)
+  {
+    return value.length() > 0 && value.byteAt(0) == SEGMENT_DIRECTORY;
+  }
+
+  /**
+   * Returns whether an ID set is big enough to be stored in segments.
+   *
+   * @param entryIDSet
+   *          the ID set to store
+   * @return {@code true} if the ID set should be stored in segments
+   */
+  static boolean needsSegments(EntryIDSet entryIDSet)
+  {
+    return entryIDSet.isDefined() && entryIDSet.size() > 2 * SEGMENT_SIZE;
+  }
+
+  /**
+   * Reads the IDs of a segmented key.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param key
+   *          the index key
+   * @param directoryValue
+   *          the segment directory read from the index tree for this key
+   * @param candidates
+   *          if not {@code null} and defined, only the IDs also present in this set are returned and segments which
+   *          cannot intersect it are not read at all
+   * @return the IDs of the key, possibly restricted to the candidates
+   */
+  EntryIDSet read(ReadableTransaction txn, ByteSequence key, ByteString directoryValue, EntryIDSet candidates)
+  {
+    final Directory directory = Directory.decode(directoryValue);
+    final boolean restrict = candidates != null && candidates.isDefined();
+    final long[] range = restrict ? candidates.toRange() : null;
+    final List<EntryIDSet> segments = new ArrayList<>(directory.count);
+    for (int i = 0; i < directory.count; i++)
+    {
+      if (restrict && (range == null || !directory.overlaps(i, range[0], range[1])))
+      {
+        continue;
+      }
+      final EntryIDSet segment = readSegment(txn, key, directory.lowerBounds[i]);
+      if (restrict)
+      {
+        segment.retainAll(candidates);
+      }
+      segments.add(segment);
+    }
+    return newSetFromUnion(segments);
+  }
+
+  /**
+   * Applies changes to a segmented key.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param key
+   *          the index key
+   * @param directoryValue
+   *          the segment directory read from the index tree for this key
+   * @param deletedIDs
+   *          the IDs to delete, may be {@code null}
+   * @param addedIDs
+   *          the IDs to add, may be {@code null}
+   * @param indexEntryLimit
+   *          the index entry limit, 0 if unlimited
+   * @return the new value of the key in the index tree, or {@code null} if the key should be removed
+   */
+  ByteString update(WriteableTransaction txn, ByteString key, ByteString directoryValue, EntryIDSet deletedIDs,
+      EntryIDSet addedIDs, int indexEntryLimit)
+  {
+    final Directory directory = Directory.decode(directoryValue);
+    final EntryIDSet[] modified = new EntryIDSet[directory.count];
+    applyChanges(txn, key, directory, modified, addedIDs, true);
+    applyChanges(txn, key, directory, modified, deletedIDs, false);
+
+    final long totalSize = directory.totalSize();
+    if (indexEntryLimit > 0 && totalSize >= indexEntryLimit)
+    {
+      deleteSegments(txn, key, directory);
+      return codec.encode(newUndefinedSetWithKey(key));
+    }
+    if (totalSize < SEGMENT_SIZE)
+    {
+      // Not worth keeping segments anymore, go back to a single record.
+      final List<EntryIDSet> sets = new ArrayList<>(directory.count);
+      for (int i = 0; i < directory.count; i++)
+      {
+        sets.add(modified[i] != null ? modified[i] : readSegment(txn, key, directory.lowerBounds[i]));
+      }
+      deleteSegments(txn, key, directory);
+      return totalSize == 0 ? null : codec.encode(newSetFromUnion(sets));
+    }
+
+    final Directory newDirectory = new Directory(directory.count);
+    for (int i = 0; i < directory.count; i++)
+    {
+      final long lowerBound = directory.lowerBounds[i];
+      final EntryIDSet segment = modified[i];
+      if (segment == null)
+      {
+        newDirectory.add(lowerBound, directory.sizes[i]);
+      }
+      else if (segment.size() == 0 && i > 0)
+      {
+        // Previous segment now covers the range of this one.
+        txn.delete(treeName, segmentKey(key, lowerBound));
+      }
+      else if (segment.size() > 2 * SEGMENT_SIZE)
+      {
+        txn.delete(treeName, segmentKey(key, lowerBound));
+        writeSegments(txn, key, segment, lowerBound, newDirectory);
+      }
+      else
+      {
+        txn.put(treeName, segmentKey(key, lowerBound), codec.encode(segment));
+        newDirectory.add(lowerBound, segment.size());
+      }
+    }
+    return newDirectory.encode();
+  }
+
+  /**
+   * Stores an ID set in segments, removing any existing segment of the key.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param key
+   *          the index key
+   * @param entryIDSet
+   *          the defined ID set to store
+   * @return the segment directory to store in the index tree for this key
+   */
+  ByteString write(WriteableTransaction txn, ByteSequence key, EntryIDSet entryIDSet)
+  {
+    deleteSegments(txn, key, null);
+    return writeNew(txn, key, entryIDSet);
+  }
+
+  /**
+   * Stores an ID set in segments during an import, the companion tree having been cleared with the index tree.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param key
+   *          the index key
+   * @param entryIDSet
+   *          the defined ID set to store
+   * @return the segment directory to store in the index tree for this key
+   */
+  ByteString writeNew(WriteableTransaction txn, ByteSequence key, EntryIDSet entryIDSet)
+  {
+    final Directory directory = new Directory((int) (entryIDSet.size() / SEGMENT_SIZE) + 1);
+    writeSegments(txn, key, entryIDSet, 0, directory);
+    return directory.encode();
+  }
+
+  /**
+   * Splits an ID set in segments of {@link #SEGMENT_SIZE} IDs and writes them.
+   *
+   * @param firstLowerBound
+   *          the lower bound of the first segment, which must be kept to still cover the same ID range
+   */
+  private void writeSegments(WriteableTransaction txn, ByteSequence key, EntryIDSet entryIDSet, long firstLowerBound,
+      Directory directory)
+  {
+    final long[] ids = entryIDSet.toLongArray();
+    for (int start = 0; start < ids.length; start += SEGMENT_SIZE)
+    {
+      final int end = Math.min(ids.length, start + SEGMENT_SIZE);
+      final long lowerBound = start == 0 ? firstLowerBound : ids[start];
+      txn.put(treeName, segmentKey(key, lowerBound), codec.encode(newDefinedSet(Arrays.copyOfRange(ids, start, end))));
+      directory.add(lowerBound, end - start);
+    }
+  }
+
+  private void applyChanges(WriteableTransaction txn, ByteSequence key, Directory directory, EntryIDSet[] modified,
+      EntryIDSet changes, boolean add)
+  {
+    if (changes == null)
+    {
+      return;
+    }
+    final Iterator<EntryID> it = changes.iterator();
+    while (it.hasNext())
+    {
+      final EntryID entryID = it.next();
+      final int idx = directory.indexOf(entryID.longValue());
+      if (modified[idx] == null)
+      {
+        modified[idx] = readSegment(txn, key, directory.lowerBounds[idx]);
+      }
+      final boolean changed = add ? modified[idx].add(entryID) : modified[idx].remove(entryID);
+      if (changed)
+      {
+        directory.sizes[idx] += add ? 1 : -1;
+      }
+    }
+  }
+
+  private EntryIDSet readSegment(ReadableTransaction txn, ByteSequence key, long lowerBound)
+  {
+    final ByteString value = txn.read(treeName, segmentKey(key, lowerBound));
+    return value != null ? codec.decode(key, value) : newDefinedSet();
+  }
+
+  /**
+   * Deletes the segments of a key.
+   *
+   * @param directory
+   *          the directory of the key, or {@code null} to look for all the existing segments of the key
+   */
+  private void deleteSegments(WriteableTransaction txn, ByteSequence key, Directory directory)
+  {
+    if (directory != null)
+    {
+      for (int i = 0; i < directory.count; i++)
+      {
+        txn.delete(treeName, segmentKey(key, directory.lowerBounds[i]));
+      }
+      return;
+    }
+
+    // Left-over segments may exist if the index tree was cleared without its companion tree (e.g: import)
+    final ByteString prefix = segmentKeyPrefix(key).toByteString();
+    final List<ByteString> keysToDelete = new ArrayList<>();
+    final Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName);
+    try
+    {
+      boolean found = cursor.positionToKeyOrNext(prefix);
+      while (found && hasPrefix(cursor.getKey(), prefix))
+      {
+        keysToDelete.add(cursor.getKey());
+        found = cursor.next();
+      }
+    }
+    finally
+    {
+      cursor.close();
+    }
+    for (ByteString keyToDelete : keysToDelete)
+    {
+      txn.delete(treeName, keyToDelete);
+    }
+  }
+
+  private static boolean hasPrefix(ByteString key, ByteString prefix)
+  {
+    return key.length() >= prefix.length() && key.subSequence(0, prefix.length()).equals(prefix);
+  }
+
+  private static ByteStringBuilder segmentKeyPrefix(ByteSequence key)
+  {
+    return new ByteStringBuilder(key.length() + 2 * ByteStringBuilder.MAX_COMPACT_SIZE)
+        .appendCompactUnsigned(key.length())
+        .appendBytes(key);
+  }
+
+  private static ByteString segmentKey(ByteSequence key, long lowerBound)
+  {
+    return segmentKeyPrefix(key).appendLong(lowerBound).toByteString();
+  }
+
+  /**
+   * Returns a short description of a segment directory to aid with debugging.
+   *
+   * @param directoryValue
+   *          the segment directory read from the index tree
+   * @return a short description of the segment directory
+   */
+  static String directoryToString(ByteString directoryValue)
+  {
+    final Directory directory = Directory.decode(directoryValue);
+    return "[SEGMENTS:" + directory.count + ",COUNT:" + directory.totalSize() + "]";
+  }
+
+  /**
+   * Returns the number of IDs of a segmented key without reading its segments.
+   *
+   * @param directoryValue
+   *          the segment directory read from the index tree
+   * @return the number of IDs of the key
+   */
+  static long getTotalSize(ByteString directoryValue)
+  {
+    return Directory.decode(directoryValue).totalSize();
+  }
+
+  /** Lower bounds and sizes of the segments of a key. The lower bound of the first segment is always 0. */
+  private static final class Directory
+  {
+    private long[] lowerBounds;
+    private long[] sizes;
+    private int count;
+
+    Directory(int capacity)
+    {
+      lowerBounds = new long[Math.max(1, capacity)];
+      sizes = new long[lowerBounds.length];
+    }
+
+    void add(long lowerBound, long size)
+    {
+      if (count == lowerBounds.length)
+      {
+        lowerBounds = Arrays.copyOf(lowerBounds, count * 2);
+        sizes = Arrays.copyOf(sizes, count * 2);
+      }
+      lowerBounds[count] = lowerBound;
+      sizes[count] = size;
+      count++;
+    }
+
+    /** Returns the index of the segment whose range contains the provided entry ID. */
+    int indexOf(long entryID)
+    {
+      final int pos = Arrays.binarySearch(lowerBounds, 0, count, entryID);
+      return pos >= 0 ? pos : Math.max(0, -(pos + 1) - 1);
+    }
+
+    boolean overlaps(int idx, long lowest, long highest)
+    {
+      final boolean isLast = idx == count - 1;
+      return lowerBounds[idx] <= highest && (isLast || lowest < lowerBounds[idx + 1]);
+    }
+
+    long totalSize()
+    {
+      long total = 0;
+      for (int i = 0; i < count; i++)
+      {
+        total += sizes[i];
+      }
+      return total;
+    }
+
+    ByteString encode()
+    {
+      final ByteStringBuilder builder = new ByteStringBuilder(1 + (2 * count + 1) * ByteStringBuilder.MAX_COMPACT_SIZE);
+      builder.appendByte(SEGMENT_DIRECTORY);
+      builder.appendCompactUnsigned(count);
+      long previous = 0;
+      for (int i = 0; i < count; i++)
+      {
+        builder.appendCompactUnsigned(lowerBounds[i] - previous);
+        builder.appendCompactUnsigned(sizes[i]);
+        previous = lowerBounds[i];
+      }
+      return builder.toByteString();
+    }
+
+    static Directory decode(ByteSequence value)
+    {
+      final ByteSequenceReader reader = value.asReader();
+      reader.skip(1);
+      final int count = reader.readCompactUnsignedInt();
+      final Directory directory = new Directory(count);
+      long lowerBound = 0;
+      for (int i = 0; i < count; i++)
+      {
+        lowerBound += reader.readCompactUnsignedLong();
+        directory.add(lowerBound, reader.readCompactUnsignedLong());
+      }
+      return directory;
+    }
+  }
+}
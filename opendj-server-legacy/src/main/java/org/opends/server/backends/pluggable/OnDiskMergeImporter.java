@@ -110,6 +110,7 @@ import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
 import org.opends.server.backends.pluggable.spi.TreeName;
 import org.opends.server.backends.pluggable.spi.UpdateFunction;
 import org.opends.server.backends.pluggable.spi.WriteOperation;
@@ -967,9 +968,11 @@ final class OnDiskMergeImporter
 
     final void clearEntryContainerTrees(EntryContainer entryContainer)
     {
+      // Deleting the trees rather than clearing them also clears their companion trees (e.g: index segments)
+      final WriteableTransaction txn = asWriteableTransaction(importer);
       for(Tree tree : entryContainer.listTrees())
       {
-        importer.clearTree(tree.getName());
+        tree.delete(txn);
       }
     }
 
@@ -982,7 +985,8 @@ final class OnDiskMergeImporter
     final Callable<Void> newChunkCopierTask(TreeName treeName, final Chunk source,
         PhaseTwoProgressReporter progressReporter)
     {
-      return new ChunkCopierTask(progressReporter, source, treeName, importer);
+      final DefaultIndex index = getIndex(entryContainers.get(treeName.getBaseDN()), treeName);
+      return new ChunkCopierTask(progressReporter, source, treeName, importer, index);
     }
 
     final Callable<Void> newDN2IDImporterTask(TreeName treeName, final Chunk source,
@@ -1146,6 +1150,12 @@ final class OnDiskMergeImporter
       return importer.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return StorageUtils.multiGet(this, treeName, keys);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -1311,6 +1321,12 @@ final class OnDiskMergeImporter
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
     {
@@ -2204,20 +2220,27 @@ final class OnDiskMergeImporter
     return new ImporterToChunkAdapter(treeName, importer);
   }
 
-  /** Task to copy one {@link Chunk} into a database tree through an {@link Importer}. */
+  /**
+   * Task to copy one {@link Chunk} into a database tree through an {@link Importer}. The keys of an index having too
+   * many IDs are stored in segments.
+   */
   private static final class ChunkCopierTask implements Callable<Void>
   {
     private final PhaseTwoProgressReporter reporter;
     private final TreeName treeName;
     private final Importer destination;
     private final Chunk source;
+    /** Index stored in the destination tree, {@code null} if it is not an index tree. */
+    private final DefaultIndex index;
 
-    ChunkCopierTask(PhaseTwoProgressReporter reporter, Chunk source, TreeName treeName, Importer destination)
+    ChunkCopierTask(PhaseTwoProgressReporter reporter, Chunk source, TreeName treeName, Importer destination,
+        DefaultIndex index)
     {
       this.source = source;
       this.treeName = treeName;
       this.destination = destination;
       this.reporter = reporter;
+      this.index = index;
     }
 
     @Override
@@ -2225,12 +2248,52 @@ final class OnDiskMergeImporter
     {
       try (final SequentialCursor<ByteString, ByteString> sourceCursor = trackCursorProgress(reporter, source.flip()))
       {
-        copyIntoChunk(sourceCursor, asChunk(treeName, destination));
+        final Chunk chunk = asChunk(treeName, destination);
+        copyIntoChunk(sourceCursor, index != null ? new IndexSegmentsChunk(chunk, index, destination) : chunk);
       }
       return null;
     }
   }
 
+  /** Stores the keys having too many IDs in the segments of the index before putting them into a {@link Chunk}. */
+  private static final class IndexSegmentsChunk implements Chunk
+  {
+    private final Chunk delegate;
+    private final DefaultIndex index;
+    private final WriteableTransaction txn;
+
+    IndexSegmentsChunk(Chunk delegate, DefaultIndex index, Importer importer)
+    {
+      this.delegate = delegate;
+      this.index = index;
+      this.txn = asWriteableTransaction(importer);
+    }
+
+    @Override
+    public boolean put(ByteSequence key, ByteSequence value)
+    {
+      return delegate.put(key, index.toImportedValue(txn, key.toByteString(), value.toByteString()));
+    }
+
+    @Override
+    public MeteredCursor<ByteString, ByteString> flip()
+    {
+      return delegate.flip();
+    }
+
+    @Override
+    public long size()
+    {
+      return delegate.size();
+    }
+
+    @Override
+    public void delete()
+    {
+      delegate.delete();
+    }
+  }
+
   /** Task to copy VLV's counter chunks into a database tree. */
   private static final class VLVIndexImporterTask implements Callable<Void>
   {
@@ -3249,7 +3312,8 @@ final class OnDiskMergeImporter
     EntryIDSetsCollector(DefaultIndex index)
     {
       this.index = index;
-      this.indexLimit = index.getIndexEntryLimit();
+      // Keys of unlimited indexes having too many IDs are stored in segments when copied into the index tree
+      this.indexLimit = index.getIndexEntryLimit() > 0 ? index.getIndexEntryLimit() : Integer.MAX_VALUE;
     }
 
     @Override
@@ -3290,27 +3354,20 @@ final class OnDiskMergeImporter
 
     private EntryIDSet buildEntryIDSet(Collection<ByteString> encodedIDSets)
     {
-      final long[] entryIDs = new long[indexLimit];
-
-      // accumulate in array
-      int i = 0;
+      final List<EntryIDSet> entryIDSets = new ArrayList<>(encodedIDSets.size());
+      long size = 0;
       for (ByteString encodedIDSet : encodedIDSets)
       {
         final EntryIDSet entryIDSet = index.decodeValue(ByteString.empty(), encodedIDSet);
-        if (!entryIDSet.isDefined() || i + entryIDSet.size() >= indexLimit)
+        size += entryIDSet.size();
+        if (!entryIDSet.isDefined() || size >= indexLimit)
         {
           // above index entry limit
           return EntryIDSet.newUndefinedSet();
         }
-
-        for (EntryID entryID : entryIDSet)
-        {
-          entryIDs[i++] = entryID.longValue();
-        }
+        entryIDSets.add(entryIDSet);
       }
-
-      Arrays.sort(entryIDs, 0, i);
-      return EntryIDSet.newDefinedSet(Arrays.copyOf(entryIDs, i));
+      return EntryIDSet.newSetFromUnion(entryIDSets);
     }
   }
 
@@ -3716,6 +3773,12 @@ final class OnDiskMergeImporter
       return importer.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return StorageUtils.multiGet(this, treeName, keys);
+    }
+
     @Override
     public void put(TreeName treeName, ByteSequence key, ByteSequence value)
     {
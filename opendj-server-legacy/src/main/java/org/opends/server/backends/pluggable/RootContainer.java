@@ -26,6 +26,7 @@
  */
 package org.opends.server.backends.pluggable;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.util.StaticUtils.*;
 
@@ -36,6 +37,10 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -89,6 +94,9 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   /** The compressed schema manager for this backend. */
   private PersistentCompressedSchema compressedSchema;
 
+  /** The threads reading entries in advance for indexed searches, {@code null} if searches do not prefetch. */
+  private volatile ThreadPoolExecutor searchPrefetchExecutor;
+
   /**
    * Creates a new RootContainer object representing a storage.
    *
@@ -106,6 +114,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
+    setSearchPrefetchThreads(config.getSearchPrefetchThreads());
 
     config.addPluggableChangeListener(this);
   }
@@ -337,12 +346,52 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
       }
     }
     config.removePluggableChangeListener(this);
+    setSearchPrefetchThreads(0);
     if (storage != null)
     {
       storage.close();
     }
   }
 
+  /**
+   * Returns the executor reading entries in advance for indexed searches.
+   *
+   * @return the executor, or {@code null} if indexed searches must read their entries themselves
+   */
+  ExecutorService getSearchPrefetchExecutor()
+  {
+    return searchPrefetchExecutor;
+  }
+
+  private synchronized void setSearchPrefetchThreads(int nbThreads)
+  {
+    final ThreadPoolExecutor executor = searchPrefetchExecutor;
+    if (nbThreads == 0)
+    {
+      searchPrefetchExecutor = null;
+      if (executor != null)
+      {
+        // Running reads complete, the searches waiting for pending ones read the entries themselves
+        executor.shutdown();
+      }
+    }
+    else if (executor == null)
+    {
+      searchPrefetchExecutor = new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), newThreadFactory(null, "Search prefetch " + backendId + " %d", true));
+    }
+    else if (nbThreads > executor.getMaximumPoolSize())
+    {
+      executor.setMaximumPoolSize(nbThreads);
+      executor.setCorePoolSize(nbThreads);
+    }
+    else
+    {
+      executor.setCorePoolSize(nbThreads);
+      executor.setMaximumPoolSize(nbThreads);
+    }
+  }
+
   /**
    * Return all the entry containers in this root container.
    *
@@ -455,6 +504,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   {
     getMonitorProvider().enableFilterUseStats(configuration.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(configuration.getIndexFilterAnalyzerMaxFilters());
+    setSearchPrefetchThreads(configuration.getSearchPrefetchThreads());
 
     return new ConfigChangeResult();
   }
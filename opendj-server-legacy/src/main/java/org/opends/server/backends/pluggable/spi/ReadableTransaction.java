@@ -25,6 +25,8 @@
  */
 package org.opends.server.backends.pluggable.spi;
 
+import java.util.List;
+
 import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
 
@@ -44,6 +46,22 @@ public interface ReadableTransaction
    */
   ByteString read(TreeName treeName, ByteSequence key);
 
+  /**
+   * Reads the values associated to the provided keys, in the tree whose name is provided.
+   * <p>
+   * The keys must be sorted in ascending order: this allows implementations to walk the tree once, reusing the
+   * position reached by the previous key instead of descending from the root for every key. Implementations without
+   * such an optimization can rely on {@link StorageUtils#multiGet(ReadableTransaction, TreeName, List)}.
+   *
+   * @param treeName
+   *          the tree name
+   * @param keys
+   *          the records' keys, sorted in ascending order
+   * @return the records' values in the same order as the keys, with {@code null} elements for the keys which do
+   *         not exist
+   */
+  List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys);
+
   /**
    * Opens a cursor on the tree whose name is provided.
    *
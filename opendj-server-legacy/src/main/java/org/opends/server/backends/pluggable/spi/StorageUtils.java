@@ -29,10 +29,14 @@ import static org.opends.messages.ConfigMessages.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.config.server.ConfigChangeResult;
 import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.types.DN;
 import org.opends.server.types.FilePermission;
@@ -247,4 +251,24 @@ public final class StorageUtils
     return StorageStatus.lockedDown(WARN_DISK_SPACE_LOW_THRESHOLD_CROSSED.get(
         directory.getFreeSpace(), directory.getAbsolutePath(), thresholdInBytes, backendId));
   }
+
+  /**
+   * Reads the values associated to the provided keys by reading each key in turn. This is the implementation of
+   * {@link ReadableTransaction#multiGet(TreeName, List)} for the storages which cannot do better.
+   *
+   * @param txn the transaction used to read each key
+   * @param treeName the tree name
+   * @param keys the records' keys, sorted in ascending order
+   * @return the records' values in the same order as the keys, with {@code null} elements for missing keys
+   */
+  public static List<ByteString> multiGet(ReadableTransaction txn, TreeName treeName,
+      List<? extends ByteSequence> keys)
+  {
+    final List<ByteString> values = new ArrayList<>(keys.size());
+    for (ByteSequence key : keys)
+    {
+      values.add(txn.read(treeName, key));
+    }
+    return values;
+  }
 }
@@ -4047,6 +4047,13 @@ public final class ConfigConstants
   public static final String ATTR_TASK_INITIALIZE_DONE =
        NAME_PREFIX_TASK + "processed-entry-count";
 
+  /**
+   * The name of the attribute in an initialize task definition that specifies
+   * the average number of entries processed per second since the task started.
+   */
+  public static final String ATTR_TASK_INITIALIZE_RATE =
+       NAME_PREFIX_TASK + "processed-entry-rate";
+
 
   /**
    * The name of the objectclass that will be used for a Directory Server
@@ -0,0 +1,962 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.util.Utils;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.ConcurrentEntryCacheCfg;
+import org.opends.server.admin.std.server.EntryCacheCfg;
+import org.opends.server.api.EntryCache;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache designed for highly
+ * concurrent access.
+ * <BR><BR>
+ * Entries are indexed by DN and by backend ID / entry ID in concurrent maps, so
+ * that reading from the cache never requires any lock. The eviction policy
+ * state is split into a fixed number of independent stripes selected by entry
+ * DN: adding or removing an entry only locks the stripe of that entry and
+ * never blocks readers.
+ * <BR><BR>
+ * Each stripe implements a W-TinyLFU policy: new entries are first stored in a
+ * small FIFO admission window. An entry leaving the window is only admitted
+ * into the main area, managed as a CLOCK, if it has been accessed more
+ * frequently than the entry the CLOCK would evict. Access frequencies are
+ * estimated with a compact count-min sketch which is periodically aged. Readers
+ * only record accesses when the stripe lock is immediately available, which
+ * keeps reads lock-free at the cost of a slightly less accurate estimation.
+ * <BR><BR>
+ * As for the FIFO entry cache, cache sizing is based on a maximum number of
+ * entries and on the percentage of memory used within the JVM, and a set of
+ * filters may be used to define criteria for determining which entries are
+ * stored in the cache.
+ */
+public class ConcurrentEntryCache
+       extends EntryCache<ConcurrentEntryCacheCfg>
+       implements ConfigurationChangeListener<ConcurrentEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The reference to the Java runtime used to determine the amount of memory
+   * currently in use.
+   */
+  private static final Runtime runtime = Runtime.getRuntime();
+
+  /** The minimum number of entries a stripe should be able to hold. */
+  private static final int MIN_STRIPE_SIZE = 64;
+
+  /** The percentage of the capacity of a stripe used by its admission window. */
+  private static final int WINDOW_PERCENT = 1;
+
+  /** The mapping between DNs and cached entries. */
+  private final ConcurrentMap<DN, Node> dnMap = new ConcurrentHashMap<>();
+
+  /** The mapping between entry backends/IDs and cached entries. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Node>> idMap = new ConcurrentHashMap<>();
+
+  /**
+   * The stripes holding the eviction policy state. Their number is a power of
+   * two which is computed when the cache is initialized.
+   */
+  private volatile Stripe[] stripes;
+
+  /**
+   * The maximum amount of memory in bytes that the JVM will be allowed to use
+   * before we need to start purging entries.
+   */
+  private volatile long maxAllowedMemory;
+
+  /** The maximum number of entries that may be held in the cache. */
+  private volatile long maxEntries;
+
+  /** Currently registered configuration object. */
+  private ConcurrentEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this concurrent entry cache. */
+  public ConcurrentEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeEntryCache(ConcurrentEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addConcurrentChangeListener(this);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_CONCURRENTCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+
+    // The number of stripes is fixed for the lifetime of the cache: use
+    // enough of them to make contention unlikely, but keep them large enough
+    // for the admission policy to be meaningful.
+    final int wanted = ceilingPowerOfTwo(4 * runtime.availableProcessors());
+    final long affordable = Long.highestOneBit(Math.max(1, maxEntries / MIN_STRIPE_SIZE));
+    final Stripe[] newStripes = new Stripe[(int) Math.min(wanted, affordable)];
+    for (int i = 0; i < newStripes.length; i++)
+    {
+      newStripes[i] = new Stripe();
+    }
+    stripes = newStripes;
+    setStripeCapacities(maxEntries);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeConcurrentChangeListener(this);
+
+    // Release all memory currently in use by this cache.
+    clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    if (entryDN == null) {
+      return false;
+    }
+
+    Node node = dnMap.get(entryDN);
+    return node != null && node.entry != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    // Lookups are recorded whether they hit or miss, so that entries which
+    // are frequently requested get admitted when they are eventually cached.
+    final int hash = spread(entryDN.hashCode());
+    final Node node = dnMap.get(entryDN);
+    final Entry entry = node != null ? node.entry : null;
+    getStripe(hash).recordAccess(hash);
+    if (entry == null) {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    if (!node.referenced) {
+      node.referenced = true;
+    }
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    Node node = dnMap.get(entryDN);
+    return node != null && node.entry != null ? node.entryID : -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    // Locate specific backend map and return the entry DN by ID.
+    Map<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap != null) {
+      Node node = backendMap.get(entryID);
+      if (node != null && node.entry != null) {
+        return node.dn;
+      }
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(entry, backendID, entryID, true);
+  }
+
+  /**
+   * Adds the provided entry to the cache, or replaces the entry which is
+   * already cached for the same DN.
+   *
+   * @param  entry      The entry to be stored in the cache.
+   * @param  backendID  The backend ID for the entry.
+   * @param  entryID    The entry ID within the provided backend.
+   * @param  ifAbsent   Whether the entry should not replace an entry which is
+   *                    already cached for the same DN.
+   * @return  <CODE>false</CODE> if an existing entry is present in the cache
+   *          and {@code ifAbsent} is set, or <CODE>true</CODE> otherwise.
+   */
+  private boolean put(Entry entry, String backendID, long entryID, boolean ifAbsent)
+  {
+    final DN entryDN = entry.getName();
+    final int hash = spread(entryDN.hashCode());
+    final Stripe stripe = getStripe(hash);
+
+    // Writers only contend with writers of the same stripe and never with
+    // readers, so blocking here is cheap and no entry gets silently dropped.
+    stripe.lock.lock();
+    try
+    {
+      final Node existing = dnMap.get(entryDN);
+      if (ifAbsent && existing != null && existing.entry != null)
+      {
+        return false;
+      }
+
+      // See if the current memory usage is within acceptable constraints.  If
+      // so, then add the entry to the cache (or replace it if it is already
+      // present).  If not, then remove an existing entry and don't add the new
+      // entry.
+      long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+      if (usedMemory > maxAllowedMemory)
+      {
+        if (existing == null || !invalidate(existing))
+        {
+          stripe.evictOne();
+        }
+        return true;
+      }
+
+      final Node node = new Node(entryDN, backendID, entryID, hash, entry);
+      final Node replaced = dnMap.put(entryDN, node);
+      if (replaced != null)
+      {
+        invalidate(replaced);
+      }
+
+      ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+      if (backendMap == null)
+      {
+        backendMap = new ConcurrentHashMap<>();
+        final ConcurrentMap<Long, Node> previousMap = idMap.putIfAbsent(backendID, backendMap);
+        if (previousMap != null)
+        {
+          backendMap = previousMap;
+        }
+      }
+      final Node previous = backendMap.put(entryID, node);
+      if (previous != null && previous != replaced)
+      {
+        // The entry ID was cached under another DN: the entry has been renamed.
+        invalidate(previous);
+      }
+      if (node.entry == null)
+      {
+        // The entry was concurrently removed before it was fully indexed.
+        backendMap.remove(entryID, node);
+      }
+
+      stripe.add(node);
+      return true;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return true;
+    }
+    finally
+    {
+      stripe.lock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    // The node is only unlinked from the maps: its stripe will discard it when
+    // it next comes across it.
+    Node node = dnMap.get(entryDN);
+    if (node != null)
+    {
+      invalidate(node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear()
+  {
+    for (Stripe stripe : stripes)
+    {
+      stripe.lock.lock();
+      try
+      {
+        stripe.clear();
+      }
+      finally
+      {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearBackend(String backendID)
+  {
+    // Remove all references to entries for this backend from the ID cache.
+    Map<Long, Node> map = idMap.remove(backendID);
+    if (map == null)
+    {
+      // No entries were in the cache for this backend, so we can return
+      // without doing anything.
+      return;
+    }
+
+    for (Node node : map.values())
+    {
+      invalidate(node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    // The DN map spans all the backends, including the subordinate backends of
+    // the one holding the base DN, so a single pass over it is enough.
+    for (Node node : dnMap.values())
+    {
+      if (node.dn.isDescendantOf(baseDN))
+      {
+        invalidate(node);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void handleLowMemory()
+  {
+    // See how many entries are in the cache.  If there are less than 1000,
+    // then we'll dump all of them.  Otherwise, we'll dump 10% of the entries
+    // of each stripe.
+    if (dnMap.size() < 1000)
+    {
+      clear();
+      return;
+    }
+
+    for (Stripe stripe : stripes)
+    {
+      stripe.lock.lock();
+      try
+      {
+        for (int numToDrop = stripe.size() / 10; numToDrop > 0; numToDrop--)
+        {
+          stripe.evictOne();
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+
+        // This shouldn't happen, but there's not much that we can do if it does.
+      }
+      finally
+      {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    ConcurrentEntryCacheCfg config = (ConcurrentEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      ConcurrentEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ConcurrentEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      ConcurrentEntryCacheCfg             configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxEntries  = configuration.getMaxEntries();
+
+    // Maximum memory the cache can use.
+    int newMaxMemoryPercent  = configuration.getMaxMemoryPercent();
+    long maxJvmHeapSize      = Runtime.getRuntime().maxMemory();
+    long newMaxAllowedMemory = (maxJvmHeapSize / 100) * newMaxMemoryPercent;
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      maxEntries       = newMaxEntries;
+      maxAllowedMemory = newMaxAllowedMemory;
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+      if (stripes != null)
+      {
+        setStripeCapacities(newMaxEntries);
+      }
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /**
+   * Spreads the provided maximum number of entries over the stripes, evicting
+   * entries from the stripes which hold too many of them.
+   *
+   * @param capacity  The maximum number of entries held by the whole cache.
+   */
+  private void setStripeCapacities(long capacity)
+  {
+    final Stripe[] currentStripes = stripes;
+    final long perStripe = capacity / currentStripes.length;
+    final long remainder = capacity % currentStripes.length;
+    for (int i = 0; i < currentStripes.length; i++)
+    {
+      final Stripe stripe = currentStripes[i];
+      stripe.lock.lock();
+      try
+      {
+        stripe.setCapacity(perStripe + (i < remainder ? 1 : 0));
+      }
+      finally
+      {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Attribute> getMonitorData()
+  {
+    try {
+      return EntryCacheCommon.getGenericMonitorData(
+        Long.valueOf(cacheHits.longValue()),
+        // If cache misses is maintained by default cache
+        // get it from there and if not point to itself.
+        DirectoryServer.getEntryCache().getCacheMisses(),
+        null,
+        Long.valueOf(maxAllowedMemory),
+        Long.valueOf(dnMap.size()),
+        Long.valueOf(
+            (maxEntries != Integer.MAX_VALUE && maxEntries != Long.MAX_VALUE) ? maxEntries : 0)
+        );
+    } catch (Exception e) {
+      logger.traceException(e);
+      return Collections.emptyList();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    // The maps are concurrent, so they can be examined without stopping
+    // writers: the result is a weakly consistent view of the cache.
+    for (Map.Entry<DN, Node> mapEntry : dnMap.entrySet()) {
+      final Node node = mapEntry.getValue();
+      sb.append(mapEntry.getKey());
+      sb.append(":");
+      sb.append(node.entryID);
+      sb.append(":");
+      sb.append(node.backendID);
+      sb.append(ServerConstants.EOL);
+    }
+
+    // See if there is anything on idMap that is not reflected on dnMap.
+    for (Map.Entry<String, ConcurrentMap<Long, Node>> backendCache : idMap.entrySet()) {
+      final String backendID = backendCache.getKey();
+      for (Map.Entry<Long, Node> mapEntry : backendCache.getValue().entrySet()) {
+        final Node node = mapEntry.getValue();
+        if (dnMap.get(node.dn) != node) {
+          sb.append(node.dn);
+          sb.append(":");
+          sb.append(mapEntry.getKey());
+          sb.append(":");
+          sb.append(backendID);
+          sb.append(ServerConstants.EOL);
+        }
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+
+  /**
+   * Removes the provided node from the cache maps. The node remains referenced
+   * by its stripe until the stripe discards it.
+   *
+   * @param node  The node to remove from the cache.
+   * @return  {@code true} if this call removed the node, or {@code false} if it
+   *          had already been removed.
+   */
+  private boolean invalidate(Node node)
+  {
+    if (!node.invalidate())
+    {
+      return false;
+    }
+    dnMap.remove(node.dn, node);
+    final Map<Long, Node> backendMap = idMap.get(node.backendID);
+    if (backendMap != null)
+    {
+      backendMap.remove(node.entryID, node);
+    }
+    return true;
+  }
+
+  private Stripe getStripe(int hash)
+  {
+    final Stripe[] currentStripes = stripes;
+    return currentStripes[hash & (currentStripes.length - 1)];
+  }
+
+  /**
+   * Applies a supplementary hash function to the provided hash code, so that
+   * both its low and high bits can be used to select a stripe and a counter.
+   */
+  private static int spread(int hashCode)
+  {
+    int h = hashCode;
+    h = ((h >>> 16) ^ h) * 0x45d9f3b;
+    h = ((h >>> 16) ^ h) * 0x45d9f3b;
+    return (h >>> 16) ^ h;
+  }
+
+  private static int ceilingPowerOfTwo(int value)
+  {
+    return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+  }
+
+  /** A cached entry, as referenced by the cache maps and by its stripe. */
+  private static final class Node
+  {
+    private static final AtomicReferenceFieldUpdater<Node, Entry> ENTRY_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Entry.class, "entry");
+
+    private final DN dn;
+    private final String backendID;
+    private final long entryID;
+    private final int hash;
+    /** The cached entry, or {@code null} once this node has been removed from the cache. */
+    private volatile Entry entry;
+    /** Whether the entry has been read since the CLOCK hand last passed it. */
+    private volatile boolean referenced;
+
+    private Node(DN dn, String backendID, long entryID, int hash, Entry entry)
+    {
+      this.dn = dn;
+      this.backendID = backendID;
+      this.entryID = entryID;
+      this.hash = hash;
+      this.entry = entry;
+    }
+
+    private boolean invalidate()
+    {
+      final Entry current = entry;
+      return current != null && ENTRY_UPDATER.compareAndSet(this, current, null);
+    }
+
+    private boolean isInvalidated()
+    {
+      return entry == null;
+    }
+  }
+
+  /**
+   * A stripe of the eviction policy. All the methods, except
+   * {@link #recordAccess(int)}, must be called while holding the stripe lock.
+   * <p>
+   * The window and main queues may still contain nodes which have been
+   * invalidated: such nodes still count against the stripe capacity until they
+   * are discarded, which happens as soon as room is needed.
+   */
+  private final class Stripe
+  {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch = new FrequencySketch();
+    /** The admission window, in insertion order. */
+    private final ArrayDeque<Node> window = new ArrayDeque<>();
+    /** The main area, in CLOCK order: the head is the next eviction candidate. */
+    private final ArrayDeque<Node> main = new ArrayDeque<>();
+    private long windowCapacity;
+    private long mainCapacity;
+
+    /**
+     * Records an access to the entry having the provided hash. The access is
+     * not recorded if the stripe is being modified: the frequency sketch is only
+     * a sample and readers must not wait for writers.
+     */
+    private void recordAccess(int hash)
+    {
+      if (lock.tryLock())
+      {
+        try
+        {
+          sketch.increment(hash);
+        }
+        finally
+        {
+          lock.unlock();
+        }
+      }
+    }
+
+    private int size()
+    {
+      return window.size() + main.size();
+    }
+
+    private void setCapacity(long capacity)
+    {
+      windowCapacity = capacity > 0 ? Math.max(1, capacity * WINDOW_PERCENT / 100) : 0;
+      mainCapacity = capacity - windowCapacity;
+      while (main.size() > mainCapacity)
+      {
+        invalidate(main.pollFirst());
+      }
+      drainWindow();
+    }
+
+    private void add(Node node)
+    {
+      sketch.increment(node.hash);
+      window.addLast(node);
+      drainWindow();
+      sketch.ensureCapacity(size());
+    }
+
+    /** Moves the oldest entries of the window to the main area, or evicts them. */
+    private void drainWindow()
+    {
+      while (window.size() > windowCapacity)
+      {
+        final Node candidate = window.pollFirst();
+        if (!candidate.isInvalidated())
+        {
+          admit(candidate);
+        }
+      }
+    }
+
+    /**
+     * Admits the provided candidate into the main area if there is room for it,
+     * or if it is more frequently accessed than the CLOCK victim.
+     */
+    private void admit(Node candidate)
+    {
+      // Bound the second chances given in case readers keep setting the flags.
+      int secondChances = main.size();
+      while (main.size() >= mainCapacity)
+      {
+        final Node victim = main.peekFirst();
+        if (victim == null)
+        {
+          invalidate(candidate);
+          return;
+        }
+        else if (victim.isInvalidated())
+        {
+          main.pollFirst();
+        }
+        else if (victim.referenced && secondChances-- > 0)
+        {
+          victim.referenced = false;
+          main.addLast(main.pollFirst());
+        }
+        else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash))
+        {
+          invalidate(main.pollFirst());
+        }
+        else
+        {
+          invalidate(candidate);
+          return;
+        }
+      }
+      main.addLast(candidate);
+    }
+
+    /** Evicts the next entry of this stripe, ignoring the access frequencies. */
+    private void evictOne()
+    {
+      Node node;
+      do
+      {
+        node = !main.isEmpty() ? main.pollFirst() : window.pollFirst();
+      }
+      while (node != null && !invalidate(node));
+    }
+
+    private void clear()
+    {
+      for (Node node : window)
+      {
+        invalidate(node);
+      }
+      for (Node node : main)
+      {
+        invalidate(node);
+      }
+      window.clear();
+      main.clear();
+      sketch.clear();
+    }
+  }
+
+  /**
+   * A count-min sketch estimating the access frequency of entries with 4-bit
+   * counters. Each long holds 16 counters: an entry uses one counter in each of
+   * four longs chosen by independent hash functions. All the counters are
+   * halved once enough accesses have been recorded, so that the sketch favours
+   * recent accesses. The sketch grows with the number of entries held by its
+   * stripe and is not thread-safe.
+   */
+  private static final class FrequencySketch
+  {
+    private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MIN_TABLE_SIZE = 16;
+
+    private long[] table = new long[MIN_TABLE_SIZE];
+    private int sampleSize = 10 * MIN_TABLE_SIZE;
+    private int additions;
+
+    private void ensureCapacity(int expectedSize)
+    {
+      if (expectedSize > table.length && table.length < (1 << 30))
+      {
+        table = new long[ceilingPowerOfTwo(expectedSize)];
+        sampleSize = table.length < (1 << 27) ? 10 * table.length : Integer.MAX_VALUE;
+        additions = 0;
+      }
+    }
+
+    private int frequency(int hash)
+    {
+      final int start = (hash >>> 30) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++)
+      {
+        final int offset = (start + i) << 2;
+        final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    private void increment(int hash)
+    {
+      final int start = (hash >>> 30) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++)
+      {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++additions == sampleSize)
+      {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+      final int offset = counter << 2;
+      final long mask = 0xfL << offset;
+      if ((table[index] & mask) != mask)
+      {
+        table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private int indexOf(int hash, int i)
+    {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return ((int) h) & (table.length - 1);
+    }
+
+    /** Halves all the counters, accounting for the truncated odd counters. */
+    private void reset()
+    {
+      int odd = 0;
+      for (int i = 0; i < table.length; i++)
+      {
+        odd += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions = (additions - (odd >>> 2)) >>> 1;
+    }
+
+    private void clear()
+    {
+      Arrays.fill(table, 0L);
+      additions = 0;
+    }
+  }
+}
@@ -0,0 +1,596 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.ElasticWorkQueueCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.ElasticWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+import org.opends.server.util.Platform;
+
+/**
+ * A work queue which processes each operation on a thread of its own.
+ * <p>
+ * Rather than a fixed pool of worker threads polling a queue, threads are
+ * created on demand and retired once they have been idle for a while. A
+ * semaphore limits the number of operations processed concurrently: operations
+ * submitted while the limit is reached are queued, and are picked up by the
+ * threads completing their current operation. This suits workloads where
+ * operations spend most of their time blocked, which need a high concurrency
+ * limit, without keeping hundreds of idle threads around.
+ */
+public class ElasticWorkQueue extends WorkQueue<ElasticWorkQueueCfg>
+    implements ConfigurationChangeListener<ElasticWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** How long a thread may stay idle before it exits. */
+  private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+  /** A semaphore whose number of permits can be changed. */
+  private static final class ResizableSemaphore extends Semaphore
+  {
+    private static final long serialVersionUID = 3487218592465337641L;
+    private int size;
+
+    private ResizableSemaphore(int size)
+    {
+      super(size);
+      this.size = size;
+    }
+
+    private synchronized void resize(int newSize)
+    {
+      final int delta = newSize - size;
+      if (delta > 0)
+      {
+        release(delta);
+      }
+      else if (delta < 0)
+      {
+        reducePermits(-delta);
+      }
+      size = newSize;
+    }
+  }
+
+  /** Processes operations until there is none left which it may pick up. */
+  private final class Worker implements Runnable
+  {
+    private Operation operation;
+
+    private Worker(Operation operation)
+    {
+      this.operation = operation;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        while (operation != null)
+        {
+          process(operation);
+          // Keep the permit to process the next queued operation, unless the
+          // concurrency limit has been lowered in the meantime.
+          operation = concurrencyPermits.availablePermits() >= 0 ? pollPendingOperation() : null;
+        }
+      }
+      finally
+      {
+        runningWorkers.decrementAndGet();
+        concurrencyPermits.release();
+      }
+      // Operations may have been queued after the last poll.
+      startPendingOperations();
+    }
+  }
+
+  /** The threads processing the operations. */
+  private ThreadPoolExecutor threads;
+
+  /** Limits the number of operations processed concurrently. */
+  private ResizableSemaphore concurrencyPermits;
+
+  /** Limits the number of queued operations. */
+  private ResizableSemaphore queueSlots;
+
+  /** The operations waiting for a permit to be processed. */
+  private final Queue<Operation> pendingOperations = new ConcurrentLinkedQueue<>();
+
+  /** The operations being processed. */
+  private final Set<Operation> activeOperations =
+      Collections.newSetFromMap(new ConcurrentHashMap<Operation, Boolean>());
+
+  /** The number of workers which have been started and not finished yet. */
+  private final AtomicInteger runningWorkers = new AtomicInteger();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The maximum number of operations processed concurrently. */
+  private volatile int maxConcurrentOperations;
+
+  /** The maximum number of queued operations. */
+  private volatile int maxCapacity;
+
+
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public ElasticWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeWorkQueue(ElasticWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    configuration.addElasticChangeListener(this);
+
+    maxConcurrentOperations = computeMaxConcurrentOperations(configuration.getMaxConcurrentOperations());
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    concurrencyPermits = new ResizableSemaphore(maxConcurrentOperations);
+    queueSlots = new ResizableSemaphore(maxCapacity);
+    threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new DirectoryThread.Factory("Worker Thread"));
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      ElasticWorkQueueMonitor monitor = new ElasticWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, ElasticWorkQueueMonitor.class, e);
+    }
+  }
+
+
+
+  private int computeMaxConcurrentOperations(Integer configuredMaxConcurrentOperations)
+  {
+    if (configuredMaxConcurrentOperations != null)
+    {
+      return configuredMaxConcurrentOperations;
+    }
+    // Threads are only created when needed: allow far more concurrent
+    // operations than the fixed size pools would.
+    int value = Platform.computeNumberOfThreads(64, 8.0f);
+    logger.debug(INFO_ERGONOMIC_SIZING_OF_WORKER_THREAD_POOL, value);
+    return value;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    // Send responses to any operations in the pending queue to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    Operation o;
+    while ((o = pollPendingOperation()) != null)
+    {
+      try
+      {
+        // The operation has no chance of responding to the cancel
+        // request so avoid waiting for a cancel response.
+        if (o.getCancelResult() == null)
+        {
+          o.abort(cancelRequest);
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+      }
+    }
+
+    // Cancel the operations in progress, and let the threads exit once done.
+    threads.shutdown();
+    CancelRequest shutdownRequest = new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get());
+    for (Operation operation : activeOperations)
+    {
+      try
+      {
+        operation.cancel(shutdownRequest);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean trySubmitOperation(Operation operation)
+      throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+
+
+  private void submitOperation(Operation operation,
+      boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+
+    // Only bypass the queue when no operation is waiting, to preserve ordering.
+    if (pendingOperations.isEmpty() && concurrencyPermits.tryAcquire())
+    {
+      opsSubmitted.incrementAndGet();
+      if (!startWorker(operation))
+      {
+        throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+      }
+      return;
+    }
+
+    if (blockEnqueuingWhenFull)
+    {
+      try
+      {
+        while (!queueSlots.tryAcquire(1, TimeUnit.SECONDS))
+        {
+          if (shutdownRequested)
+          {
+            throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // We cannot handle the interruption here. Reject the request and
+        // re-interrupt this thread.
+        Thread.currentThread().interrupt();
+        queueFullRejects.incrementAndGet();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+      }
+    }
+    else if (!queueSlots.tryAcquire())
+    {
+      queueFullRejects.incrementAndGet();
+      throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+    }
+
+    pendingOperations.add(operation);
+    opsSubmitted.incrementAndGet();
+
+    // Workers may have completed since the permit could not be acquired.
+    startPendingOperations();
+  }
+
+
+
+  /**
+   * Starts processing queued operations while there are permits available.
+   */
+  private void startPendingOperations()
+  {
+    while (!pendingOperations.isEmpty() && concurrencyPermits.tryAcquire())
+    {
+      final Operation operation = pollPendingOperation();
+      if (operation == null)
+      {
+        concurrencyPermits.release();
+      }
+      else if (!startWorker(operation))
+      {
+        operation.abort(new CancelRequest(true, WARN_OP_REJECTED_BY_SHUTDOWN.get()));
+      }
+    }
+  }
+
+
+
+  private Operation pollPendingOperation()
+  {
+    final Operation operation = pendingOperations.poll();
+    if (operation != null)
+    {
+      queueSlots.release();
+    }
+    return operation;
+  }
+
+
+
+  /**
+   * Starts processing the provided operation on a thread of its own. The
+   * caller must have acquired a concurrency permit, which is released once the
+   * worker has finished.
+   *
+   * @return {@code true} if the worker was started, or {@code false} if the
+   *         server is shutting down.
+   */
+  private boolean startWorker(Operation operation)
+  {
+    runningWorkers.incrementAndGet();
+    try
+    {
+      threads.execute(new Worker(operation));
+      return true;
+    }
+    catch (RejectedExecutionException e)
+    {
+      logger.traceException(e);
+      runningWorkers.decrementAndGet();
+      concurrencyPermits.release();
+      return false;
+    }
+  }
+
+
+
+  private void process(Operation operation)
+  {
+    activeOperations.add(operation);
+    try
+    {
+      operation.run();
+      operation.operationCompleted();
+    }
+    catch (Throwable t)
+    {
+      logger.traceException(t);
+      LocalizableMessage message = ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(
+          Thread.currentThread().getName(), operation, stackTraceToSingleLineString(t));
+      try
+      {
+        logger.error(message);
+
+        // Ensure that the client receives some kind of result so that it does
+        // not hang.
+        operation.setResultCode(DirectoryServer.getServerErrorResultCode());
+        operation.appendErrorMessage(message);
+        operation.getClientConnection().sendResponse(operation);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+
+      try
+      {
+        operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+    }
+    finally
+    {
+      activeOperations.remove(operation);
+    }
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.get();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.get();
+  }
+
+
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing. Note that this method is not a constant-time
+   * operation and can be relatively inefficient, so it should be used
+   * sparingly.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    return pendingOperations.size();
+  }
+
+
+
+  /**
+   * Retrieves the number of operations currently being processed.
+   *
+   * @return The number of operations currently being processed.
+   */
+  public int getActiveOperations()
+  {
+    return activeOperations.size();
+  }
+
+
+
+  /**
+   * Retrieves the number of threads currently alive, whether they are
+   * processing an operation or idle.
+   *
+   * @return The number of threads currently alive.
+   */
+  public int getNumLiveThreads()
+  {
+    return threads.getPoolSize();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      ElasticWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(
+      ElasticWorkQueueCfg configuration)
+  {
+    int newMaxConcurrentOperations = computeMaxConcurrentOperations(configuration.getMaxConcurrentOperations());
+    int newMaxCapacity = configuration.getMaxWorkQueueCapacity();
+
+    concurrencyPermits.resize(newMaxConcurrentOperations);
+    maxConcurrentOperations = newMaxConcurrentOperations;
+    queueSlots.resize(newMaxCapacity);
+    maxCapacity = newMaxCapacity;
+
+    // Take advantage of any additional permits straight away.
+    startPendingOperations();
+    return new ConfigChangeResult();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isIdle()
+  {
+    return pendingOperations.isEmpty() && runningWorkers.get() == 0;
+  }
+
+
+
+  /**
+   * Returns the maximum number of operations processed concurrently, which is
+   * the maximum number of threads processing operations.
+   *
+   * @return the maximum number of operations processed concurrently
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return maxConcurrentOperations;
+  }
+}
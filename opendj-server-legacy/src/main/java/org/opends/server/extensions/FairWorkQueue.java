@@ -0,0 +1,804 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.FairWorkQueueCfg;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.monitors.FairWorkQueueMonitor;
+import org.opends.server.types.AuthenticationInfo;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DN;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * A work queue sharing its worker threads fairly between clients, and between
+ * cheap and expensive operations.
+ * <p>
+ * Operations are queued in lanes according to their cost and to the client
+ * which submitted them, identified by its bind DN once authenticated, or by
+ * its connection otherwise. Within each class of operations, the lanes are
+ * served in round-robin, so that a client with a large backlog only gets its
+ * share of the worker threads. Cheap operations are favored over expensive
+ * ones, and some worker threads can be reserved to them: short operations thus
+ * keep being processed promptly while other worker threads are tied up in long
+ * running searches.
+ */
+public class FairWorkQueue extends WorkQueue<FairWorkQueueCfg>
+    implements ConfigurationChangeListener<FairWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The number of cheap operations picked by the non reserved worker threads
+   * for each expensive operation, when both kinds are waiting.
+   */
+  private static final int CHEAP_OPERATIONS_WEIGHT = 4;
+
+  /** The operations queued by a single client, in submission order. */
+  private static final class Lane
+  {
+    private final Object clientKey;
+    private final ArrayDeque<Operation> operations = new ArrayDeque<>();
+
+    private Lane(Object clientKey)
+    {
+      this.clientKey = clientKey;
+    }
+  }
+
+  /** The lanes of a class of operations, served in round-robin. */
+  private static final class LaneGroup
+  {
+    /** The non empty lanes, indexed by client. */
+    private final Map<Object, Lane> lanes = new HashMap<>();
+    /** The non empty lanes, in the order they will be served. */
+    private final ArrayDeque<Lane> schedule = new ArrayDeque<>();
+    private int size;
+
+    private int size(Object clientKey)
+    {
+      final Lane lane = lanes.get(clientKey);
+      return lane != null ? lane.operations.size() : 0;
+    }
+
+    private void add(Object clientKey, Operation operation)
+    {
+      Lane lane = lanes.get(clientKey);
+      if (lane == null)
+      {
+        lane = new Lane(clientKey);
+        lanes.put(clientKey, lane);
+        schedule.addLast(lane);
+      }
+      lane.operations.addLast(operation);
+      size++;
+    }
+
+    private Operation poll()
+    {
+      final Lane lane = schedule.pollFirst();
+      if (lane == null)
+      {
+        return null;
+      }
+      final Operation operation = lane.operations.pollFirst();
+      if (lane.operations.isEmpty())
+      {
+        lanes.remove(lane.clientKey);
+      }
+      else
+      {
+        schedule.addLast(lane);
+      }
+      size--;
+      return operation;
+    }
+  }
+
+  /** A thread processing the operations of this work queue. */
+  private final class FairWorkerThread extends DirectoryThread
+  {
+    /** Whether this thread only processes cheap operations. */
+    private boolean reserved;
+    /** Whether this thread must exit once done with its current operation. */
+    private boolean stopped;
+    /** The operation being processed, if any. */
+    private volatile Operation operation;
+
+    private FairWorkerThread(int threadID)
+    {
+      super("Worker Thread " + threadID);
+    }
+
+    @Override
+    public void run()
+    {
+      while ((operation = nextOperation(this)) != null)
+      {
+        process(operation);
+        operation = null;
+      }
+    }
+
+    private void process(Operation operation)
+    {
+      try
+      {
+        operation.run();
+        operation.operationCompleted();
+      }
+      catch (Throwable t)
+      {
+        logger.traceException(t);
+        LocalizableMessage message = ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(
+            getName(), operation, stackTraceToSingleLineString(t));
+        try
+        {
+          logger.error(message);
+
+          // Ensure that the client receives some kind of result so that it does
+          // not hang.
+          operation.setResultCode(DirectoryServer.getServerErrorResultCode());
+          operation.appendErrorMessage(message);
+          operation.getClientConnection().sendResponse(operation);
+        }
+        catch (Throwable t2)
+        {
+          logger.traceException(t2);
+        }
+
+        try
+        {
+          operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+        }
+        catch (Throwable t2)
+        {
+          logger.traceException(t2);
+        }
+      }
+    }
+  }
+
+  /** Guards the queued operations and the worker threads. */
+  private final ReentrantLock lock = new ReentrantLock();
+  /** Signaled when a cheap operation has been queued. */
+  private final Condition cheapOperationQueued = lock.newCondition();
+  /** Signaled when any operation has been queued. */
+  private final Condition operationQueued = lock.newCondition();
+  /** Signaled when an operation has been removed from the queue. */
+  private final Condition operationDequeued = lock.newCondition();
+
+  /** The queued cheap operations. */
+  private final LaneGroup cheapOperations = new LaneGroup();
+  /** The queued expensive operations. */
+  private final LaneGroup expensiveOperations = new LaneGroup();
+  /** The number of cheap operations picked since the last expensive one. */
+  private int cheapOperationsInARow;
+
+  /** The worker threads, the reserved ones first. */
+  private final List<FairWorkerThread> workerThreads = new ArrayList<>();
+  /** The identifier of the last worker thread created. */
+  private int lastThreadID;
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the lane of the client is already at its maximum capacity.
+   */
+  private final AtomicLong clientQueueFullRejects = new AtomicLong();
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The number of worker threads. */
+  private volatile int numWorkerThreads;
+
+  /** The number of worker threads only processing cheap operations. */
+  private volatile int numReservedWorkerThreads;
+
+  /** The maximum number of queued operations. */
+  private int maxCapacity;
+
+  /** The maximum number of queued operations per lane, or 0 for no limit. */
+  private int maxClientCapacity;
+
+
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public FairWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeWorkQueue(FairWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    configuration.addFairChangeListener(this);
+
+    lock.lock();
+    try
+    {
+      applyConfiguration(configuration);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      FairWorkQueueMonitor monitor = new FairWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, FairWorkQueueMonitor.class, e);
+    }
+  }
+
+
+
+  /**
+   * Applies the provided configuration, creating or stopping worker threads as
+   * needed. The caller must hold the lock.
+   */
+  private void applyConfiguration(FairWorkQueueCfg configuration)
+  {
+    final int newNumWorkerThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+    final Integer configuredReserved = configuration.getNumReservedWorkerThreads();
+    final int reserved = configuredReserved != null
+        ? configuredReserved
+        : Math.max(1, newNumWorkerThreads / 8);
+    // Always leave a worker thread for the expensive operations.
+    final int newNumReserved = Math.min(reserved, newNumWorkerThreads - 1);
+    final Integer configuredClientCapacity = configuration.getMaxClientQueueCapacity();
+
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    maxClientCapacity = configuredClientCapacity != null ? configuredClientCapacity : 0;
+
+    while (workerThreads.size() < newNumWorkerThreads)
+    {
+      FairWorkerThread thread = new FairWorkerThread(lastThreadID++);
+      workerThreads.add(thread);
+      thread.start();
+    }
+    while (workerThreads.size() > newNumWorkerThreads)
+    {
+      FairWorkerThread thread = workerThreads.remove(workerThreads.size() - 1);
+      thread.stopped = true;
+      logger.debug(INFO_WORKER_STOPPED_BY_REDUCED_THREADNUMBER, thread.getName());
+    }
+    for (int i = 0; i < workerThreads.size(); i++)
+    {
+      workerThreads.get(i).reserved = i < newNumReserved;
+    }
+    numWorkerThreads = newNumWorkerThreads;
+    numReservedWorkerThreads = newNumReserved;
+
+    // Let the threads notice their new role, and the blocked submitters the new capacity.
+    cheapOperationQueued.signalAll();
+    operationQueued.signalAll();
+    operationDequeued.signalAll();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    final List<Operation> pendingOperations = new ArrayList<>();
+    final List<FairWorkerThread> threads;
+    lock.lock();
+    try
+    {
+      shutdownRequested = true;
+      Operation o;
+      while ((o = cheapOperations.poll()) != null)
+      {
+        pendingOperations.add(o);
+      }
+      while ((o = expensiveOperations.poll()) != null)
+      {
+        pendingOperations.add(o);
+      }
+      threads = new ArrayList<>(workerThreads);
+      cheapOperationQueued.signalAll();
+      operationQueued.signalAll();
+      operationDequeued.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    // Send responses to any operations in the pending queue to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    for (Operation o : pendingOperations)
+    {
+      try
+      {
+        // The operation has no chance of responding to the cancel
+        // request so avoid waiting for a cancel response.
+        if (o.getCancelResult() == null)
+        {
+          o.abort(cancelRequest);
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+      }
+    }
+
+    // Cancel the operations in progress, and let the threads exit once done.
+    CancelRequest shutdownRequest = new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get());
+    for (FairWorkerThread thread : threads)
+    {
+      final Operation operation = thread.operation;
+      if (operation != null)
+      {
+        try
+        {
+          operation.cancel(shutdownRequest);
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+        }
+      }
+    }
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean trySubmitOperation(Operation operation)
+      throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+
+
+  private void submitOperation(Operation operation,
+      boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    final boolean cheap = isCheap(operation);
+    final LaneGroup laneGroup = cheap ? cheapOperations : expensiveOperations;
+    final Object clientKey = getClientKey(operation);
+
+    lock.lock();
+    try
+    {
+      if (shutdownRequested)
+      {
+        throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+      }
+
+      // Blocking here would also hold up the other clients sharing the
+      // connection handler: reject the operation instead.
+      if (maxClientCapacity > 0 && laneGroup.size(clientKey) >= maxClientCapacity)
+      {
+        clientQueueFullRejects.incrementAndGet();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxClientCapacity));
+      }
+
+      while (size() >= maxCapacity)
+      {
+        if (!blockEnqueuingWhenFull)
+        {
+          queueFullRejects.incrementAndGet();
+          throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+        }
+        try
+        {
+          operationDequeued.await(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+          // We cannot handle the interruption here. Reject the request and
+          // re-interrupt this thread.
+          Thread.currentThread().interrupt();
+          queueFullRejects.incrementAndGet();
+          throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+        }
+        if (shutdownRequested)
+        {
+          throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+        }
+      }
+
+      laneGroup.add(clientKey, operation);
+      opsSubmitted.incrementAndGet();
+      if (cheap)
+      {
+        cheapOperationQueued.signal();
+      }
+      operationQueued.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /**
+   * Indicates whether the provided operation is cheap to process, which is the
+   * case of operations targeting a single entry.
+   */
+  private static boolean isCheap(Operation operation)
+  {
+    switch (operation.getOperationType())
+    {
+    case ABANDON:
+    case BIND:
+    case COMPARE:
+    case UNBIND:
+      return true;
+    case SEARCH:
+      return ((SearchOperation) operation).getScope() == SearchScope.BASE_OBJECT;
+    default:
+      return false;
+    }
+  }
+
+
+
+  /**
+   * Returns the key identifying the client which submitted the provided
+   * operation: its bind DN when authenticated, so that all the connections of
+   * an application share the same lane, or its connection ID otherwise.
+   */
+  private static Object getClientKey(Operation operation)
+  {
+    final ClientConnection clientConnection = operation.getClientConnection();
+    if (clientConnection != null)
+    {
+      final AuthenticationInfo authInfo = clientConnection.getAuthenticationInfo();
+      if (authInfo != null && authInfo.isAuthenticated())
+      {
+        final DN bindDN = authInfo.getAuthenticationDN();
+        if (bindDN != null)
+        {
+          return bindDN;
+        }
+      }
+    }
+    return operation.getConnectionID();
+  }
+
+
+
+  /**
+   * Retrieves the next operation that the provided worker thread should
+   * process, waiting for one if necessary.
+   *
+   * @return The next operation to process, or {@code null} if the worker thread
+   *         must exit.
+   */
+  private Operation nextOperation(FairWorkerThread workerThread)
+  {
+    lock.lock();
+    try
+    {
+      while (!shutdownRequested && !workerThread.stopped)
+      {
+        final Operation operation = workerThread.reserved ? cheapOperations.poll() : pollWeighted();
+        if (operation != null)
+        {
+          operationDequeued.signal();
+          return operation;
+        }
+        (workerThread.reserved ? cheapOperationQueued : operationQueued).awaitUninterruptibly();
+      }
+      return null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /**
+   * Picks the next operation for a non reserved worker thread, favoring cheap
+   * operations without starving expensive ones.
+   */
+  private Operation pollWeighted()
+  {
+    if (cheapOperations.size > 0
+        && (expensiveOperations.size == 0 || cheapOperationsInARow < CHEAP_OPERATIONS_WEIGHT))
+    {
+      cheapOperationsInARow++;
+      return cheapOperations.poll();
+    }
+    cheapOperationsInARow = 0;
+    return expensiveOperations.poll();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.get();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.get();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the client which submitted them already had the maximum number of
+   * operations queued.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         lane of the client was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToClientQueueFull()
+  {
+    return clientQueueFullRejects.get();
+  }
+
+
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    lock.lock();
+    try
+    {
+      return cheapOperations.size + expensiveOperations.size;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /**
+   * Retrieves the number of pending cheap operations in the queue that have not
+   * yet been picked up for processing.
+   *
+   * @return The number of pending cheap operations in the queue.
+   */
+  public int getCheapOperationsBacklog()
+  {
+    lock.lock();
+    try
+    {
+      return cheapOperations.size;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /**
+   * Retrieves the number of lanes holding pending operations, which is roughly
+   * the number of clients waiting for the worker threads.
+   *
+   * @return The number of lanes holding pending operations.
+   */
+  public int getNumActiveLanes()
+  {
+    lock.lock();
+    try
+    {
+      return cheapOperations.lanes.size() + expensiveOperations.lanes.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /**
+   * Retrieves the number of worker threads only processing cheap operations.
+   *
+   * @return The number of worker threads only processing cheap operations.
+   */
+  public int getNumReservedWorkerThreads()
+  {
+    return numReservedWorkerThreads;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      FairWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(
+      FairWorkQueueCfg configuration)
+  {
+    lock.lock();
+    try
+    {
+      if (!shutdownRequested)
+      {
+        applyConfiguration(configuration);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    return new ConfigChangeResult();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isIdle()
+  {
+    lock.lock();
+    try
+    {
+      if (cheapOperations.size > 0 || expensiveOperations.size > 0)
+      {
+        return false;
+      }
+      for (FairWorkerThread thread : workerThreads)
+      {
+        if (thread.operation != null)
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return numWorkerThreads;
+  }
+}
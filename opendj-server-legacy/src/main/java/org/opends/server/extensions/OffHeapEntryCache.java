@@ -0,0 +1,957 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.util.Utils;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.EntryCacheCfg;
+import org.opends.server.admin.std.server.OffHeapEntryCacheCfg;
+import org.opends.server.api.EntryCache;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which stores entries in
+ * their compact encoded form outside of the JVM heap, so that caching a large
+ * number of entries does not increase the old generation nor the garbage
+ * collection time.
+ * <BR><BR>
+ * Entries are encoded with the server's compressed schema and appended to
+ * direct memory slabs. Only a small location record is kept on the heap for
+ * each entry, indexed both by backend ID / entry ID and by the hash code of
+ * the entry DN. Entries are decoded each time they are read from the cache.
+ * <BR><BR>
+ * Slabs are allocated on demand until the configured amount of memory is
+ * reached. From then on, the slabs are reused in a circular fashion: when the
+ * current slab is full, all the entries of the oldest slab are evicted at once
+ * and the slab is reused. Replaced or removed entries keep using slab space
+ * until their slab is evicted.
+ * <BR><BR>
+ * Reading an entry only takes the read lock of its slab, which is exclusively
+ * locked while the slab is being evicted. Changes to the cache are serialized.
+ */
+public class OffHeapEntryCache
+       extends EntryCache<OffHeapEntryCacheCfg>
+       implements ConfigurationChangeListener<OffHeapEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The location records of the entries, indexed by DN hash code. */
+  private final ConcurrentMap<Integer, Location[]> dnMap = new ConcurrentHashMap<>();
+
+  /** The location records of the entries, indexed by backend and entry ID. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Location>> idMap = new ConcurrentHashMap<>();
+
+  /**
+   * The lock used to provide threadsafe access when changing the contents of
+   * the cache.
+   */
+  private final ReentrantLock cacheLock = new ReentrantLock();
+
+  /** The allocated slabs, in allocation order. */
+  private final List<Slab> slabs = new ArrayList<>();
+
+  /** The index of the slab entries are currently appended to, or -1 if none. */
+  private int currentSlab = -1;
+
+  /**
+   * Whether allocating a slab has failed: no more slab will be allocated until
+   * the configuration changes.
+   */
+  private boolean slabAllocationFailed;
+
+  /** The number of bytes currently used in the slabs. */
+  private volatile long usedMemory;
+
+  /** The maximum amount of direct memory in bytes used by the cache. */
+  private volatile long maxMemorySize;
+
+  /** The size in bytes of each slab. */
+  private volatile int slabSize;
+
+  /** The configuration used to encode the entries stored in the cache. */
+  private EntryEncodeConfig encodeConfig;
+
+  /** Currently registered configuration object. */
+  private OffHeapEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this off heap entry cache. */
+  public OffHeapEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeEntryCache(OffHeapEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addOffHeapChangeListener(this);
+
+    // The DN is stored alongside the encoded entry, so it can be read
+    // without decoding the whole entry.
+    encodeConfig = new EntryEncodeConfig(true, true, true, DirectoryServer.getDefaultCompressedSchema());
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_OFFHEAPCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeEntryCache()
+  {
+    cacheLock.lock();
+    try {
+      registeredConfiguration.removeOffHeapChangeListener(this);
+
+      // Release all memory currently in use by this cache.
+      releaseSlabs(0);
+    } finally {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && find(entryDN) != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Location location = find(entryDN);
+    final byte[] record = location != null ? location.read() : null;
+    if (record != null)
+    {
+      try
+      {
+        final ByteSequenceReader reader = ByteString.wrap(record).asReader();
+        reader.skip(reader.readInt());
+        reader.skip(reader.readInt());
+        final Entry entry = Entry.decode(reader, encodeConfig.getCompressedSchema());
+        entry.setDN(entryDN);
+
+        // Indicate cache hit.
+        cacheHits.getAndIncrement();
+        return entry;
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+    // Indicate cache miss.
+    cacheMisses.getAndIncrement();
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Location location = find(entryDN);
+    return location != null ? location.entryID : -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    // Locate specific backend map and return the entry DN by ID.
+    Map<Long, Location> backendMap = idMap.get(backendID);
+    if (backendMap != null) {
+      Location location = backendMap.get(entryID);
+      if (location != null) {
+        return location.readDN();
+      }
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(entry, backendID, entryID, true);
+  }
+
+  /**
+   * Stores the provided entry in the cache, replacing the entry which is
+   * already cached for the same DN.
+   *
+   * @param  entry      The entry to be stored in the cache.
+   * @param  backendID  The backend ID for the entry.
+   * @param  entryID    The entry ID within the provided backend.
+   * @param  ifAbsent   Whether the entry should not replace an entry which is
+   *                    already cached for the same DN.
+   * @return  <CODE>false</CODE> if an existing entry is present in the cache
+   *          and {@code ifAbsent} is set, or <CODE>true</CODE> otherwise.
+   */
+  private boolean put(Entry entry, String backendID, long entryID, boolean ifAbsent)
+  {
+    final DN entryDN = entry.getName();
+    final ByteString normalizedDN = entryDN.toNormalizedByteString();
+
+    // Encode the entry before locking the cache. The record starts with the
+    // normalized DN, used to resolve DN hash code collisions, and with the DN.
+    final ByteStringBuilder record = new ByteStringBuilder();
+    try
+    {
+      final byte[] dnBytes = getBytes(entryDN.toString());
+      record.appendInt(normalizedDN.length());
+      record.append(normalizedDN);
+      record.appendInt(dnBytes.length);
+      record.appendBytes(dnBytes);
+      entry.encode(record, encodeConfig);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return true;
+    }
+
+    cacheLock.lock();
+    try
+    {
+      final Location existing = find(entryDN.hashCode(), normalizedDN);
+      if (ifAbsent && existing != null)
+      {
+        return false;
+      }
+      if (existing != null)
+      {
+        unindex(existing);
+      }
+
+      final Location location = store(record, entryDN.hashCode(), backendID, entryID);
+      if (location != null)
+      {
+        index(location);
+      }
+      return true;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return true;
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    cacheLock.lock();
+    try
+    {
+      final Location location = find(entryDN);
+      if (location != null)
+      {
+        unindex(location);
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear()
+  {
+    cacheLock.lock();
+    try
+    {
+      for (Slab slab : slabs)
+      {
+        evict(slab);
+      }
+      currentSlab = slabs.isEmpty() ? -1 : 0;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // This shouldn't happen, but there's not much that we can do if it does.
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearBackend(String backendID)
+  {
+    cacheLock.lock();
+    try
+    {
+      // Remove all references to entries for this backend from the ID cache.
+      // Their slab space will be reclaimed when their slabs get evicted.
+      Map<Long, Location> map = idMap.remove(backendID);
+      if (map != null)
+      {
+        for (Location location : map.values())
+        {
+          unindex(location);
+        }
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    cacheLock.lock();
+    try
+    {
+      // The DN of each entry has to be read from its slab, but the entries do
+      // not need to be decoded.
+      for (Map<Long, Location> map : idMap.values())
+      {
+        for (Location location : map.values())
+        {
+          final DN entryDN = location.readDN();
+          if (entryDN == null || entryDN.isDescendantOf(baseDN))
+          {
+            unindex(location);
+          }
+        }
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void handleLowMemory()
+  {
+    // The entries are not stored on the heap, but their location records are.
+    // If there are less than 1000 entries, then we'll dump all of them.
+    // Otherwise, we'll evict 10% of the slabs, starting with the oldest.
+    if (getCacheCount() < 1000)
+    {
+      clear();
+      return;
+    }
+
+    cacheLock.lock();
+    try
+    {
+      final int numSlabs = slabs.size();
+      for (int i = 1; i <= numSlabs / 10 || (i == 1 && numSlabs > 0); i++)
+      {
+        evict(slabs.get((currentSlab + i) % numSlabs));
+      }
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // This shouldn't happen, but there's not much that we can do if it does.
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    OffHeapEntryCacheCfg config = (OffHeapEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      OffHeapEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(OffHeapEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      OffHeapEntryCacheCfg                configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+    int newSlabSize = (int) Math.min(configuration.getSlabSize(), newMaxMemorySize);
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      cacheLock.lock();
+      try
+      {
+        // Existing slabs cannot be resized: changing the slab size empties the
+        // cache, while reducing the memory size only releases the extra slabs.
+        if (newSlabSize != slabSize)
+        {
+          releaseSlabs(0);
+        }
+        else
+        {
+          releaseSlabs((int) (newMaxMemorySize / newSlabSize));
+        }
+        maxMemorySize = newMaxMemorySize;
+        slabSize = newSlabSize;
+        slabAllocationFailed = false;
+      }
+      finally
+      {
+        cacheLock.unlock();
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Attribute> getMonitorData()
+  {
+    try {
+      return EntryCacheCommon.getGenericMonitorData(
+        Long.valueOf(cacheHits.longValue()),
+        // If cache misses is maintained by default cache
+        // get it from there and if not point to itself.
+        DirectoryServer.getEntryCache().getCacheMisses(),
+        Long.valueOf(usedMemory),
+        Long.valueOf(maxMemorySize),
+        getCacheCount(),
+        null
+        );
+    } catch (Exception e) {
+      logger.traceException(e);
+      return Collections.emptyList();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Long getCacheCount()
+  {
+    long count = 0;
+    for (Map<Long, Location> map : idMap.values())
+    {
+      count += map.size();
+    }
+    return count;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (Map.Entry<String, ConcurrentMap<Long, Location>> backendCache : idMap.entrySet()) {
+      final String backendID = backendCache.getKey();
+      for (Map.Entry<Long, Location> mapEntry : backendCache.getValue().entrySet()) {
+        sb.append(mapEntry.getValue().readDN());
+        sb.append(":");
+        sb.append(mapEntry.getKey());
+        sb.append(":");
+        sb.append(backendID);
+        sb.append(ServerConstants.EOL);
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+
+  private Location find(DN entryDN)
+  {
+    return find(entryDN.hashCode(), entryDN.toNormalizedByteString());
+  }
+
+  private Location find(int dnHash, ByteString normalizedDN)
+  {
+    final Location[] locations = dnMap.get(dnHash);
+    if (locations != null)
+    {
+      for (Location location : locations)
+      {
+        if (location.hasDN(normalizedDN))
+        {
+          return location;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds the provided location to the DN and ID maps. The caller must hold the
+   * cache lock.
+   */
+  private void index(Location location)
+  {
+    final Location[] locations = dnMap.get(location.dnHash);
+    if (locations == null)
+    {
+      dnMap.put(location.dnHash, new Location[] { location });
+    }
+    else
+    {
+      final Location[] newLocations = new Location[locations.length + 1];
+      System.arraycopy(locations, 0, newLocations, 0, locations.length);
+      newLocations[locations.length] = location;
+      dnMap.put(location.dnHash, newLocations);
+    }
+
+    ConcurrentMap<Long, Location> backendMap = idMap.get(location.backendID);
+    if (backendMap == null)
+    {
+      backendMap = new ConcurrentHashMap<>();
+      idMap.put(location.backendID, backendMap);
+    }
+    final Location previous = backendMap.put(location.entryID, location);
+    if (previous != null)
+    {
+      // The entry ID was cached under another DN: the entry has been renamed.
+      unindex(previous);
+    }
+  }
+
+  /**
+   * Removes the provided location from the DN and ID maps, if it is still
+   * present. The caller must hold the cache lock.
+   */
+  private void unindex(Location location)
+  {
+    final Location[] locations = dnMap.get(location.dnHash);
+    if (locations != null)
+    {
+      for (int i = 0; i < locations.length; i++)
+      {
+        if (locations[i] == location)
+        {
+          if (locations.length == 1)
+          {
+            dnMap.remove(location.dnHash);
+          }
+          else
+          {
+            final Location[] newLocations = new Location[locations.length - 1];
+            System.arraycopy(locations, 0, newLocations, 0, i);
+            System.arraycopy(locations, i + 1, newLocations, i, newLocations.length - i);
+            dnMap.put(location.dnHash, newLocations);
+          }
+          break;
+        }
+      }
+    }
+
+    final Map<Long, Location> backendMap = idMap.get(location.backendID);
+    if (backendMap != null)
+    {
+      backendMap.remove(location.entryID, location);
+    }
+  }
+
+  /**
+   * Copies the provided record to a slab, evicting the oldest slab if needed.
+   * The caller must hold the cache lock.
+   *
+   * @return  The location of the stored record, or {@code null} if the record
+   *          could not be stored.
+   */
+  private Location store(ByteStringBuilder record, int dnHash, String backendID, long entryID)
+  {
+    final int length = record.length();
+    if (length > slabSize)
+    {
+      return null;
+    }
+    Slab slab = currentSlab >= 0 ? slabs.get(currentSlab) : null;
+    if (slab == null || slab.position + length > slab.buffer.capacity())
+    {
+      slab = nextSlab();
+      if (slab == null)
+      {
+        return null;
+      }
+    }
+
+    final ByteBuffer buffer = slab.buffer.duplicate();
+    buffer.position(slab.position);
+    record.copyTo(buffer);
+    final Location location = new Location(slab, slab.position, length, dnHash, backendID, entryID);
+    slab.position += length;
+    slab.locations.add(location);
+    usedMemory += length;
+    return location;
+  }
+
+  /**
+   * Makes the next slab current, either by allocating a new one or by evicting
+   * the oldest one. The caller must hold the cache lock.
+   *
+   * @return  The new current slab, or {@code null} if no slab is available.
+   */
+  private Slab nextSlab()
+  {
+    if (!slabAllocationFailed && slabs.size() < maxMemorySize / slabSize)
+    {
+      try
+      {
+        slabs.add(new Slab(slabSize));
+        currentSlab = slabs.size() - 1;
+        return slabs.get(currentSlab);
+      }
+      catch (OutOfMemoryError e)
+      {
+        // The JVM is not allowed to allocate that much direct memory: do with
+        // the slabs allocated so far.
+        slabAllocationFailed = true;
+        logger.warn(WARN_OFFHEAPCACHE_CANNOT_ALLOCATE_SLAB, slabSize, (long) slabs.size() * slabSize,
+            stackTraceToSingleLineString(e));
+      }
+    }
+    if (slabs.isEmpty())
+    {
+      return null;
+    }
+    currentSlab = (currentSlab + 1) % slabs.size();
+    final Slab slab = slabs.get(currentSlab);
+    evict(slab);
+    return slab;
+  }
+
+  /**
+   * Evicts all the entries of the provided slab so that it can be reused. The
+   * caller must hold the cache lock.
+   */
+  private void evict(Slab slab)
+  {
+    slab.invalidate();
+    for (Location location : slab.locations)
+    {
+      unindex(location);
+    }
+    slab.locations.clear();
+    usedMemory -= slab.position;
+    slab.position = 0;
+  }
+
+  /**
+   * Evicts the entries of the slabs beyond the provided number of slabs, and
+   * releases these slabs. The caller must hold the cache lock.
+   */
+  private void releaseSlabs(int numSlabs)
+  {
+    while (slabs.size() > numSlabs)
+    {
+      evict(slabs.remove(slabs.size() - 1));
+    }
+    if (currentSlab >= slabs.size())
+    {
+      currentSlab = slabs.size() - 1;
+    }
+  }
+
+  /**
+   * A direct memory slab, where records are appended until it is full. Its
+   * records can be read concurrently, while holding its read lock.
+   */
+  private static final class Slab
+  {
+    private final ByteBuffer buffer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Incremented each time the slab is evicted, guarded by the slab lock. */
+    private int generation;
+    /** The offset where the next record will be appended, guarded by the cache lock. */
+    private int position;
+    /** The records appended to this slab, guarded by the cache lock. */
+    private final List<Location> locations = new ArrayList<>();
+
+    private Slab(int size)
+    {
+      buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    private void invalidate()
+    {
+      lock.writeLock().lock();
+      try
+      {
+        generation++;
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /** The heap resident location of an entry stored in a slab. */
+  private static final class Location
+  {
+    private final Slab slab;
+    private final int generation;
+    private final int offset;
+    private final int length;
+    private final int dnHash;
+    private final String backendID;
+    private final long entryID;
+
+    private Location(Slab slab, int offset, int length, int dnHash, String backendID, long entryID)
+    {
+      this.slab = slab;
+      this.generation = slab.generation;
+      this.offset = offset;
+      this.length = length;
+      this.dnHash = dnHash;
+      this.backendID = backendID;
+      this.entryID = entryID;
+    }
+
+    /**
+     * Returns a copy of the record, or {@code null} if the slab has been
+     * evicted since the record was stored.
+     */
+    private byte[] read()
+    {
+      slab.lock.readLock().lock();
+      try
+      {
+        if (slab.generation != generation)
+        {
+          return null;
+        }
+        final ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(offset);
+        final byte[] record = new byte[length];
+        buffer.get(record);
+        return record;
+      }
+      finally
+      {
+        slab.lock.readLock().unlock();
+      }
+    }
+
+    /** Returns whether this record holds the entry having the provided normalized DN. */
+    private boolean hasDN(ByteString normalizedDN)
+    {
+      slab.lock.readLock().lock();
+      try
+      {
+        if (slab.generation != generation || slab.buffer.getInt(offset) != normalizedDN.length())
+        {
+          return false;
+        }
+        final int start = offset + 4;
+        for (int i = 0; i < normalizedDN.length(); i++)
+        {
+          if (slab.buffer.get(start + i) != normalizedDN.byteAt(i))
+          {
+            return false;
+          }
+        }
+        return true;
+      }
+      finally
+      {
+        slab.lock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Returns the DN of the entry held by this record, or {@code null} if the
+     * slab has been evicted since the record was stored.
+     */
+    private DN readDN()
+    {
+      slab.lock.readLock().lock();
+      try
+      {
+        if (slab.generation != generation)
+        {
+          return null;
+        }
+        final int dnOffset = offset + 4 + slab.buffer.getInt(offset);
+        final ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(dnOffset + 4);
+        final byte[] dnBytes = new byte[slab.buffer.getInt(dnOffset)];
+        buffer.get(dnBytes);
+        return DN.decode(ByteString.wrap(dnBytes));
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        return null;
+      }
+      finally
+      {
+        slab.lock.readLock().unlock();
+      }
+    }
+  }
+}
@@ -182,9 +182,9 @@ public final class LDAPClientConnection extends ClientConnection implements
       {
         int bytesToWrite = byteBuffer.remaining();
         int bytesWritten = clientChannel.write(byteBuffer);
-        if (bytesWritten > 0 && keepStats)
+        if (keepStats)
         {
-          statTracker.updateBytesWritten(bytesWritten);
+          statTracker.updateSocketWrite(bytesWritten);
         }
         if (!byteBuffer.hasRemaining())
         {
@@ -217,9 +217,9 @@ public final class LDAPClientConnection extends ClientConnection implements
               // The client connection has been closed.
               throw new ClosedChannelException();
             }
-            if (bytesWritten > 0 && keepStats)
+            if (keepStats)
             {
-              statTracker.updateBytesWritten(bytesWritten);
+              statTracker.updateSocketWrite(bytesWritten);
             }
           }
 
@@ -264,9 +264,9 @@ public final class LDAPClientConnection extends ClientConnection implements
                   // The client connection has been closed.
                   throw new ClosedChannelException();
                 }
-                if (bytesWritten > 0 && keepStats)
+                if (keepStats)
                 {
-                  statTracker.updateBytesWritten(bytesWritten);
+                  statTracker.updateSocketWrite(bytesWritten);
                 }
 
                 iterator.remove();
@@ -443,6 +443,12 @@ public final class LDAPClientConnection extends ClientConnection implements
   private final int bufferSize;
   private final RedirectingByteChannel saslChannel;
   private final RedirectingByteChannel tlsChannel;
+  private final LDAPResponseWriter responseWriter;
+  /**
+   * The request handler reading the requests of this connection, which
+   * schedules the writes of the deferred responses.
+   */
+  private volatile LDAPRequestHandler requestHandler;
   private volatile ConnectionSecurityProvider saslActiveProvider;
   private volatile ConnectionSecurityProvider tlsActiveProvider;
   private volatile ConnectionSecurityProvider saslPendingProvider;
@@ -499,6 +505,16 @@ public final class LDAPClientConnection extends ClientConnection implements
             timeoutClientChannel);
     saslChannel =
         RedirectingByteChannel.getRedirectingByteChannel(tlsChannel);
+    responseWriter = new LDAPResponseWriter(saslChannel, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        // No response is deferred before the connection is registered with
+        // its request handler, since no request has been read yet.
+        requestHandler.scheduleDeferredFlush(LDAPClientConnection.this);
+      }
+    });
     this.asn1Reader = new ASN1ByteChannelReader(saslChannel, bufferSize, connectionHandler.getMaxRequestSize());
 
     if (connectionHandler.useSSL())
@@ -720,7 +736,7 @@ public final class LDAPClientConnection extends ClientConnection implements
     // if operation processing encounters a run-time exception after sending the
     // response: the worker thread exception handling code will attempt to send
     // an error result to the client indicating that a problem occurred.
-    if (removeOperationInProgress(operation.getMessageID()))
+    if (removeOperation(operation.getMessageID()))
     {
       LDAPMessage message = operationToResponseLDAPMessage(operation);
       if (message != null)
@@ -883,11 +899,45 @@ public final class LDAPClientConnection extends ClientConnection implements
   public void sendSearchEntry(SearchOperation searchOperation,
       SearchResultEntry searchEntry)
   {
-    SearchResultEntryProtocolOp protocolOp =
-        new SearchResultEntryProtocolOp(searchEntry, ldapVersion);
+    if (ldapVersion == 2 || logger.isTraceEnabled())
+    {
+      // LDAPv2 entries need their attributes converted, and tracing
+      // needs the message itself.
+      SearchResultEntryProtocolOp protocolOp =
+          new SearchResultEntryProtocolOp(searchEntry, ldapVersion);
 
-    sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchEntry.getControls()));
+      sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
+          protocolOp, searchEntry.getControls()), isPersistentSearch(searchOperation));
+      return;
+    }
+
+    // Encode the entry straight from its attributes, without building
+    // a protocol op and an LDAP message for each entry.
+    final int messageID = searchOperation.getMessageID();
+    final ASN1WriterHolder holder = getASN1Writer();
+    try
+    {
+      final ASN1Writer writer = holder.writer;
+      writer.writeStartSequence();
+      writer.writeInteger(messageID);
+      SearchResultEntryProtocolOp.write(writer, searchEntry);
+      LDAPMessage.writeControls(writer, searchEntry.getControls());
+      writer.writeEndSequence();
+      responseWriter.write(holder.buffer, isPersistentSearch(searchOperation));
+
+      if (keepStats)
+      {
+        statTracker.updateMessageWritten(OP_TYPE_SEARCH_RESULT_ENTRY, messageID);
+      }
+    }
+    catch (Exception e)
+    {
+      handleWriteError(e);
+    }
+    finally
+    {
+      close(holder);
+    }
   }
 
 
@@ -924,7 +974,7 @@ public final class LDAPClientConnection extends ClientConnection implements
         new SearchResultReferenceProtocolOp(searchReference);
 
     sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchReference.getControls()));
+        protocolOp, searchReference.getControls()), isPersistentSearch(searchOperation));
     return true;
   }
 
@@ -967,13 +1017,28 @@ public final class LDAPClientConnection extends ClientConnection implements
    *          The LDAP message to send to the client.
    */
   private void sendLDAPMessage(LDAPMessage message)
+  {
+    sendLDAPMessage(message, mustFlush(message));
+  }
+
+
+
+  /**
+   * Sends the provided LDAP message to the client.
+   *
+   * @param message
+   *          The LDAP message to send to the client.
+   * @param flush
+   *          {@code true} if the message must be written without delay.
+   */
+  private void sendLDAPMessage(LDAPMessage message, boolean flush)
   {
     // Use a thread local writer.
     final ASN1WriterHolder holder = getASN1Writer();
     try
     {
       message.write(holder.writer);
-      holder.buffer.copyTo(saslChannel);
+      responseWriter.write(holder.buffer, flush);
 
       if (logger.isTraceEnabled())
       {
@@ -985,19 +1050,9 @@ public final class LDAPClientConnection extends ClientConnection implements
         statTracker.updateMessageWritten(message);
       }
     }
-    catch (ClosedChannelException e)
-    {
-      logger.traceException(e);
-      disconnect(DisconnectReason.IO_ERROR, false,
-          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
-      return;
-    }
     catch (Exception e)
     {
-      logger.traceException(e);
-      disconnect(DisconnectReason.SERVER_ERROR, false,
-          ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
-      return;
+      handleWriteError(e);
     }
     finally
     {
@@ -1010,6 +1065,89 @@ public final class LDAPClientConnection extends ClientConnection implements
 
 
 
+  /**
+   * Indicates whether the provided message must be written without delay.
+   * Search result entries and references are followed by at least the search
+   * result done message, so they can be batched with the next messages.
+   *
+   * @param message
+   *          The message to be written.
+   * @return {@code true} if the message must be written without delay.
+   */
+  private static boolean mustFlush(LDAPMessage message)
+  {
+    final byte type = message.getProtocolOp().getType();
+    return type != OP_TYPE_SEARCH_RESULT_ENTRY
+        && type != OP_TYPE_SEARCH_RESULT_REFERENCE;
+  }
+
+
+
+  /**
+   * Indicates whether the provided search operation is a persistent search.
+   * The entries it returns for the changes are not followed by a search result
+   * done message, so they must be written without delay.
+   *
+   * @param searchOperation
+   *          The search operation returning an entry or a reference.
+   * @return {@code true} if the search operation is a persistent search.
+   */
+  private boolean isPersistentSearch(SearchOperation searchOperation)
+  {
+    for (PersistentSearch persistentSearch : getPersistentSearches())
+    {
+      if (persistentSearch.getSearchOperation() == searchOperation)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+
+  /**
+   * Disconnects the client after a failure to write a message to it.
+   *
+   * @param e
+   *          The exception raised while writing.
+   */
+  private void handleWriteError(Exception e)
+  {
+    logger.traceException(e);
+    responseWriter.clear();
+    if (e instanceof ClosedChannelException)
+    {
+      disconnect(DisconnectReason.IO_ERROR, false,
+          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+    else
+    {
+      disconnect(DisconnectReason.SERVER_ERROR, false,
+          ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+  }
+
+
+
+  /**
+   * Writes the responses still queued on this connection, so that they are
+   * sent through the current security layer before it gets replaced.
+   */
+  private void flushResponses()
+  {
+    try
+    {
+      responseWriter.flush();
+    }
+    catch (IOException e)
+    {
+      handleWriteError(e);
+    }
+  }
+
+
+
   /**
    * Closes the connection to the client, optionally sending it a
    * message indicating the reason for the closure. Note that the
@@ -1287,6 +1425,70 @@ public final class LDAPClientConnection extends ClientConnection implements
    */
   @Override
   public boolean removeOperationInProgress(int messageID)
+  {
+    final boolean removed = removeOperation(messageID);
+    // Write the search result entries left by an operation which completed
+    // without a final response, for instance because it was abandoned.
+    try
+    {
+      responseWriter.flushDeferred();
+    }
+    catch (IOException e)
+    {
+      handleWriteError(e);
+    }
+    return removed;
+  }
+
+
+
+  /**
+   * Sets the request handler reading the requests of this connection.
+   *
+   * @param requestHandler
+   *          The request handler with which this connection is registered.
+   */
+  void setRequestHandler(LDAPRequestHandler requestHandler)
+  {
+    this.requestHandler = requestHandler;
+  }
+
+
+
+  /**
+   * Writes the deferred responses if they have waited for the batch delay.
+   * This is called by the request handler of this connection.
+   *
+   * @return {@code true} if responses are still deferred and this method must
+   *         be called again later.
+   */
+  boolean flushDeferredResponsesIfDue()
+  {
+    try
+    {
+      return responseWriter.flushDeferredIfDue();
+    }
+    catch (IOException e)
+    {
+      handleWriteError(e);
+      return false;
+    }
+  }
+
+
+
+  /**
+   * Removes the provided operation from the set of operations in progress,
+   * without writing the messages deferred by the connection.
+   *
+   * @param messageID
+   *          The message ID of the operation to remove from the set of
+   *          operations in progress.
+   * @return <CODE>true</CODE> if the operation was found and removed
+   *         from the set of operations in progress, or
+   *         <CODE>false</CODE> if not.
+   */
+  private boolean removeOperation(int messageID)
   {
     Operation operation = operationsInProgress.remove(messageID);
     if (operation == null)
@@ -2609,6 +2811,7 @@ public final class LDAPClientConnection extends ClientConnection implements
   {
     if (this.saslPendingProvider != null)
     {
+      flushResponses();
       enableSASL();
     }
 
@@ -2623,6 +2826,7 @@ public final class LDAPClientConnection extends ClientConnection implements
   {
     if(this.tlsPendingProvider != null)
     {
+      flushResponses();
       enableTLS();
     }
 
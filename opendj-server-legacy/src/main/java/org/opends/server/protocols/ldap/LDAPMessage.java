@@ -527,7 +527,23 @@ public class LDAPMessage
     stream.writeStartSequence();
     stream.writeInteger(messageID);
     protocolOp.write(stream);
+    writeControls(stream, controls);
+    stream.writeEndSequence();
+  }
+
 
+
+  /**
+   * Writes the provided controls as the control sequence of an LDAP message.
+   * Nothing is written if there are no controls.
+   *
+   * @param stream The ASN.1 output stream to write to.
+   * @param controls The controls to write, may be {@code null}.
+   * @throws IOException If a problem occurs while writing to the stream.
+   */
+  static void writeControls(ASN1Writer stream, List<Control> controls)
+      throws IOException
+  {
     if(controls != null && !controls.isEmpty())
     {
       stream.writeStartSequence(TYPE_CONTROL_SEQUENCE);
@@ -537,8 +553,6 @@ public class LDAPMessage
       }
       stream.writeEndSequence();
     }
-
-    stream.writeEndSequence();
   }
 
 
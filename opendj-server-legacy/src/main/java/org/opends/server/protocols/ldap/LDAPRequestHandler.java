@@ -41,6 +41,9 @@ import java.util.Iterator;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.forgerock.i18n.LocalizableMessage;
 import org.opends.server.api.DirectoryThread;
 import org.opends.server.api.ServerShutdownListener;
@@ -84,6 +87,12 @@ public class LDAPRequestHandler
   /** The list of connections ready for request processing. */
   private LinkedList<LDAPClientConnection> readyConnections = new LinkedList<>();
 
+  /**
+   * The connections whose deferred responses must be written once the batch
+   * delay has elapsed.
+   */
+  private final Queue<LDAPClientConnection> deferredFlushes = new ConcurrentLinkedQueue<>();
+
   /** The selector that will be used to monitor the client connections. */
   private final Selector selector;
 
@@ -256,8 +265,10 @@ public class LDAPRequestHandler
       int selectedKeys = 0;
       try
       {
-        // We timeout every second so that we can refresh the key list.
-        selectedKeys = selector.select(1000);
+        // We timeout every second so that we can refresh the key list, or
+        // after the batch delay when deferred responses must be written.
+        final long timeout = deferredFlushes.isEmpty() ? 1000 : LDAPResponseWriter.MAX_BATCH_DELAY_MILLIS;
+        selectedKeys = selector.select(timeout);
       }
       catch (Exception e)
       {
@@ -348,6 +359,8 @@ public class LDAPRequestHandler
           }
         }
       }
+
+      flushDeferredResponses();
     }
 
     // Disconnect all active connections.
@@ -434,6 +447,7 @@ public class LDAPRequestHandler
     // Try to add the new connection to the queue.  If it succeeds, then wake
     // up the selector so it will be picked up right away.  Otherwise,
     // disconnect the client.
+    clientConnection.setRequestHandler(this);
     synchronized (pendingConnectionsLock)
     {
       pendingConnections.add(clientConnection);
@@ -445,6 +459,39 @@ public class LDAPRequestHandler
 
 
 
+  /**
+   * Schedules a one-shot write of the deferred responses of the provided
+   * client connection once the batch delay has elapsed.
+   *
+   * @param clientConnection
+   *          The client connection whose responses are deferred.
+   */
+  void scheduleDeferredFlush(LDAPClientConnection clientConnection)
+  {
+    deferredFlushes.add(clientConnection);
+    selector.wakeup();
+  }
+
+
+
+  /**
+   * Writes the deferred responses which have waited for the batch delay. The
+   * connections whose responses are still deferred are scheduled again.
+   */
+  private void flushDeferredResponses()
+  {
+    for (int i = deferredFlushes.size(); i > 0; i--)
+    {
+      final LDAPClientConnection c = deferredFlushes.poll();
+      if (c != null && c.flushDeferredResponsesIfDue())
+      {
+        deferredFlushes.add(c);
+      }
+    }
+  }
+
+
+
   /**
    * Retrieves the set of all client connections that are currently registered
    * with this request handler.
@@ -0,0 +1,414 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.protocols.ldap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Writes encoded LDAP messages to a client connection.
+ * <p>
+ * Messages are copied into a pooled direct buffer which is handed to the
+ * channel in a single write. Messages which do not end an operation, such as
+ * search result entries, may be held in the buffer for a short while so that
+ * they leave together with the following ones: the buffer is written once it
+ * is full, once a message which must be flushed is added, once a message is
+ * added more than {@link #MAX_BATCH_DELAY_MILLIS} after the first deferred
+ * one, or when {@link #flushDeferred()} is called. When TLS is in use, this
+ * lets the TLS layer send full-size records.
+ * <p>
+ * The writes normally happen on the threads sending the messages, so a client
+ * which does not read its responses only slows down the threads serving it.
+ * The connection calls {@link #flushDeferred()} once an operation is
+ * complete, so that no deferred message waits for a later operation. When
+ * messages are deferred, the writer also asks the connection to schedule a
+ * one-shot call to {@link #flushDeferredIfDue()}, which bounds their delay
+ * while the sending thread is busy looking for the next messages.
+ * <p>
+ * When several threads send responses on the same connection at the same
+ * time, only one of them writes: the others queue their encoded message and
+ * return, and the writing thread drains the queue into the same buffer.
+ * Messages sent by a single thread are always written in the order in which
+ * they were sent, because the thread holding the write lock drains the queue
+ * before writing its own message.
+ */
+final class LDAPResponseWriter
+{
+  /**
+   * The size of the pooled direct buffers used for writing. This is also the
+   * maximum number of bytes batched before they are written.
+   */
+  static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The maximum number of bytes which may be queued waiting for the writing
+   * thread. Beyond this, senders block on the write lock, which throttles
+   * producers when the client does not read fast enough.
+   */
+  static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+  /** The maximum time deferred messages may wait for the next ones in the write buffer. */
+  static final long MAX_BATCH_DELAY_MILLIS = 1;
+  private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS);
+
+  /**
+   * The maximum number of direct buffers kept for reuse. The buffers released
+   * beyond this are left to the garbage collector.
+   */
+  static final int MAX_POOLED_BUFFERS = 256;
+
+  /** Direct buffers available for writing, shared by all connections. */
+  private static final Queue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  /** An encoded message queued by a thread which could not get the write lock. */
+  private static final class PendingMessage
+  {
+    private final ByteString bytes;
+    private final boolean flush;
+
+    private PendingMessage(ByteString bytes, boolean flush)
+    {
+      this.bytes = bytes;
+      this.flush = flush;
+    }
+  }
+
+  /** The channel to write to. */
+  private final WritableByteChannel channel;
+  /** Serializes the writes to the channel. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+  /** Encoded messages waiting for the thread holding the write lock. */
+  private final Queue<PendingMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+  /** The number of bytes in the pending messages. */
+  private final AtomicInteger pendingBytes = new AtomicInteger();
+
+  /**
+   * The buffer holding the messages not written yet, or {@code null}. Guarded
+   * by the write lock.
+   */
+  private ByteBuffer batch;
+  /** When the oldest message in the batch was added. Guarded by the write lock. */
+  private long batchStartNanos;
+
+  /** Schedules a call to {@link #flushDeferredIfDue()}. */
+  private final Runnable deferredFlushScheduler;
+  /**
+   * Whether a call to {@link #flushDeferredIfDue()} is scheduled. Guarded by
+   * the write lock.
+   */
+  private boolean deferredFlushScheduled;
+
+  /**
+   * Creates a new response writer which only writes the deferred messages
+   * along with the following ones, or when {@link #flushDeferred()} is called.
+   *
+   * @param channel
+   *          The channel to write to.
+   */
+  LDAPResponseWriter(WritableByteChannel channel)
+  {
+    this(channel, null);
+  }
+
+  /**
+   * Creates a new response writer.
+   *
+   * @param channel
+   *          The channel to write to.
+   * @param deferredFlushScheduler
+   *          Schedules a call to {@link #flushDeferredIfDue()} once the batch
+   *          delay has elapsed, or {@code null} if deferred messages must only
+   *          be written along with the following ones.
+   */
+  LDAPResponseWriter(WritableByteChannel channel, Runnable deferredFlushScheduler)
+  {
+    this.channel = channel;
+    this.deferredFlushScheduler = deferredFlushScheduler;
+  }
+
+  /**
+   * Writes the provided encoded message. This method may return before the
+   * message has been written if another thread is currently writing to the
+   * channel: that thread will write the message on behalf of the caller.
+   *
+   * @param message
+   *          The encoded message.
+   * @param flush
+   *          {@code true} if the message must be written without delay, for
+   *          instance because it ends an operation, or {@code false} if it may
+   *          wait for the following messages for a short while.
+   * @throws IOException
+   *           If an error occurred while writing to the channel.
+   */
+  void write(ByteSequence message, boolean flush) throws IOException
+  {
+    if (!writeLock.tryLock())
+    {
+      if (pendingBytes.get() >= MAX_QUEUED_BYTES)
+      {
+        writeLock.lock();
+      }
+      else
+      {
+        pendingBytes.addAndGet(message.length());
+        pendingMessages.add(new PendingMessage(message.toByteString(), flush));
+        if (!writeLock.tryLock())
+        {
+          // The thread holding the lock will write the message.
+          return;
+        }
+        message = null;
+        flush = false;
+      }
+    }
+
+    try
+    {
+      writeLocked(message, flush);
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+    drainPendingMessages();
+  }
+
+  /**
+   * Writes all the messages waiting to be written, blocking until they have
+   * been handed to the channel. This must be called before changing the
+   * security layer of the channel so that earlier responses are not written
+   * through the new layer.
+   *
+   * @throws IOException
+   *           If an error occurred while writing to the channel.
+   */
+  void flush() throws IOException
+  {
+    writeLock.lock();
+    try
+    {
+      writeLocked(null, true);
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Writes the deferred messages, for instance once the operation which sent
+   * them is complete. Like {@link #write(ByteSequence, boolean)}, this method
+   * returns without waiting if another thread is currently writing to the
+   * channel: that thread will write the deferred messages.
+   *
+   * @throws IOException
+   *           If an error occurred while writing to the channel.
+   */
+  void flushDeferred() throws IOException
+  {
+    write(ByteString.empty(), true);
+  }
+
+  /**
+   * Writes the deferred messages if they have waited for the batch delay. This
+   * is called by the scheduled one-shot flush. It never waits for the write
+   * lock: if another thread is currently writing to the channel, the deferred
+   * messages are left to it.
+   *
+   * @return {@code true} if messages are still deferred, in which case the
+   *         caller must call this method again once the batch delay has
+   *         elapsed, or {@code false} if no call is scheduled anymore.
+   * @throws IOException
+   *           If an error occurred while writing to the channel.
+   */
+  boolean flushDeferredIfDue() throws IOException
+  {
+    if (!writeLock.tryLock())
+    {
+      return true;
+    }
+    try
+    {
+      writeLocked(null, false);
+      deferredFlushScheduled = batch != null;
+      return deferredFlushScheduled;
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Discards the messages waiting to be written, typically because the
+   * connection is being closed.
+   */
+  void clear()
+  {
+    pendingMessages.clear();
+    pendingBytes.set(0);
+    if (writeLock.tryLock())
+    {
+      try
+      {
+        releaseBatch();
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes the messages queued after the last writer had released the lock but
+   * before anyone else acquired it.
+   */
+  private void drainPendingMessages() throws IOException
+  {
+    while (!pendingMessages.isEmpty() && writeLock.tryLock())
+    {
+      try
+      {
+        writeLocked(null, false);
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  private void writeLocked(ByteSequence message, boolean flush) throws IOException
+  {
+    try
+    {
+      flush |= appendPendingMessages();
+      if (message != null)
+      {
+        append(message);
+        flush |= appendPendingMessages();
+      }
+
+      if (batch == null)
+      {
+        return;
+      }
+      if (flush || System.nanoTime() - batchStartNanos >= MAX_BATCH_DELAY_NANOS)
+      {
+        writeBatch();
+        releaseBatch();
+      }
+      else if (!deferredFlushScheduled && deferredFlushScheduler != null)
+      {
+        deferredFlushScheduled = true;
+        deferredFlushScheduler.run();
+      }
+    }
+    catch (IOException e)
+    {
+      releaseBatch();
+      throw e;
+    }
+  }
+
+  /**
+   * Appends the queued messages to the batch.
+   *
+   * @return {@code true} if one of them must be flushed.
+   */
+  private boolean appendPendingMessages() throws IOException
+  {
+    boolean flush = false;
+    PendingMessage pending;
+    while ((pending = pendingMessages.poll()) != null)
+    {
+      pendingBytes.addAndGet(-pending.bytes.length());
+      append(pending.bytes);
+      flush |= pending.flush;
+    }
+    return flush;
+  }
+
+  private void append(ByteSequence message) throws IOException
+  {
+    final int length = message.length();
+    int offset = 0;
+    while (offset < length)
+    {
+      if (batch == null)
+      {
+        batch = acquireBuffer();
+      }
+      else if (!batch.hasRemaining())
+      {
+        writeBatch();
+      }
+      if (batch.position() == 0)
+      {
+        batchStartNanos = System.nanoTime();
+      }
+      final int end = Math.min(length, offset + batch.remaining());
+      message.subSequence(offset, end).copyTo(batch);
+      offset = end;
+    }
+  }
+
+  private void writeBatch() throws IOException
+  {
+    batch.flip();
+    while (batch.hasRemaining())
+    {
+      channel.write(batch);
+    }
+    batch.clear();
+  }
+
+  private void releaseBatch()
+  {
+    if (batch != null)
+    {
+      batch.clear();
+      BUFFER_POOL.offer(batch);
+      batch = null;
+    }
+  }
+
+  private static ByteBuffer acquireBuffer()
+  {
+    final ByteBuffer buffer = BUFFER_POOL.poll();
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+  }
+}
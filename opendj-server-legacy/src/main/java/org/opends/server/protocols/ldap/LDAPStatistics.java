@@ -61,6 +61,9 @@ import org.opends.server.types.OperationType;
  * broken down by message type.</LI>
  * <LI>The total number of bytes read from LDAP clients.</LI>
  * <LI>The total number of bytes written to LDAP clients.</LI>
+ * <LI>The total number of socket writes performed for LDAP clients, and
+ * the average number of bytes and socket writes per completed
+ * operation.</LI>
  * </UL>
  * <BR>
  * <BR>
@@ -98,6 +101,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
   private AtomicLong operationsCompleted = new AtomicLong(0);
   private AtomicLong operationsInitiated = new AtomicLong(0);
   private AtomicLong searchRequests = new AtomicLong(0);
+  private AtomicLong socketWrites = new AtomicLong(0);
   private AtomicLong searchOneRequests = new AtomicLong(0);
   private AtomicLong searchSubRequests = new AtomicLong(0);
   private AtomicLong searchResultEntries = new AtomicLong(0);
@@ -222,6 +226,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       long tmpOperationsCompleted = operationsCompleted.get();
       long tmpOperationsInitiated = operationsInitiated.get();
       long tmpSearchRequests = searchRequests.get();
+      long tmpSocketWrites = socketWrites.get();
       long tmpSearchOneRequests = searchOneRequests.get();
       long tmpSearchSubRequests = searchSubRequests.get();
       long tmpSearchEntries = searchResultEntries.get();
@@ -259,6 +264,9 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
     attrs.add(createAttribute("connectionsClosed", tmpConnectionsClosed));
     attrs.add(createAttribute("bytesRead", tmpBytesRead));
     attrs.add(createAttribute("bytesWritten", tmpBytesWritten));
+    attrs.add(createAttribute("socketWrites", tmpSocketWrites));
+    attrs.add(createAttribute("bytesWrittenPerOperation", perOperation(tmpBytesWritten, tmpOperationsCompleted)));
+    attrs.add(createAttribute("socketWritesPerOperation", perOperation(tmpSocketWrites, tmpOperationsCompleted)));
     attrs.add(createAttribute("ldapMessagesRead", tmpMessagesRead));
     attrs.add(createAttribute("ldapMessagesWritten", tmpMessagesWritten));
     attrs.add(createAttribute("operationsAbandoned", tmpOperationsAbandoned));
@@ -361,6 +369,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       operationsCompleted.set(0);
       operationsInitiated.set(0);
       searchRequests.set(0);
+      socketWrites.set(0);
       searchOneRequests.set(0);
       searchSubRequests.set(0);
       searchResultEntries.set(0);
@@ -443,6 +452,24 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 
 
 
+  /**
+   * Updates the appropriate set of counters to indicate that a write
+   * has been performed on the socket of a client.
+   *
+   * @param bytesWritten
+   *          The number of bytes written by the socket write.
+   */
+  public void updateSocketWrite(int bytesWritten)
+  {
+     socketWrites.getAndIncrement();
+     if (bytesWritten > 0)
+     {
+       this.bytesWritten.getAndAdd(bytesWritten);
+     }
+  }
+
+
+
   /**
    * Updates the appropriate set of counters based on the provided
    * message that has been read from the client.
@@ -517,10 +544,28 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    *          The message that was written to the client.
    */
   public void updateMessageWritten(LDAPMessage message)
+  {
+      updateMessageWritten(message.getProtocolOp().getType(),
+          message.getMessageID());
+  }
+
+
+
+  /**
+   * Updates the appropriate set of counters based on the type of a
+   * message that has been written to the client. This is used when the
+   * message was encoded without creating an {@link LDAPMessage}.
+   *
+   * @param opType
+   *          The BER type of the protocol op that was written.
+   * @param messageID
+   *          The message ID of the message that was written.
+   */
+  public void updateMessageWritten(byte opType, int messageID)
   {
       messagesWritten.getAndIncrement();
 
-      switch (message.getProtocolOp().getType())
+      switch (opType)
       {
       case OP_TYPE_ADD_RESPONSE:
         addResponses.getAndIncrement();
@@ -543,7 +588,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 
         // We don't want to include unsolicited notifications as
         // "completed" operations.
-        if (message.getMessageID() > 0)
+        if (messageID > 0)
         {
           operationsCompleted.getAndIncrement();
         }
@@ -582,6 +627,14 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 
 
 
+  /** Returns the average of the provided total per operation, rounded up. */
+  private static long perOperation(long total, long operations)
+  {
+    return operations > 0 ? (total + operations - 1) / operations : 0;
+  }
+
+
+
   /**
    * Constructs an attribute using the provided information. It will
    * use the server's schema definitions.
@@ -300,36 +300,66 @@ public class SearchResultEntryProtocolOp
   @Override
   public void write(ASN1Writer stream) throws IOException
   {
+    SearchResultEntry tmp = entry;
+    if (ldapVersion == 3 && tmp != null)
+    {
+      write(stream, dn, tmp);
+      return;
+    }
+
     stream.writeStartSequence(OP_TYPE_SEARCH_RESULT_ENTRY);
     stream.writeOctetString(dn.toString());
 
     stream.writeStartSequence();
-    SearchResultEntry tmp = entry;
-    if (ldapVersion == 3 && tmp != null)
+    for (LDAPAttribute attr : getAttributes())
     {
-      for (List<Attribute> attrList : tmp.getUserAttributes()
-          .values())
-      {
-        for (Attribute a : attrList)
-        {
-          writeAttribute(stream, a);
-        }
-      }
+      attr.write(stream);
+    }
+    stream.writeEndSequence();
+
+    stream.writeEndSequence();
+  }
+
+
 
-      for (List<Attribute> attrList : tmp.getOperationalAttributes()
-          .values())
+  /**
+   * Writes the provided search result entry as an LDAPv3 search result entry
+   * protocol op, streaming the attribute values straight from the entry.
+   * This avoids creating a protocol op per entry on the search hot path.
+   *
+   * @param stream The ASN.1 output stream to write to.
+   * @param searchEntry The search result entry to write.
+   * @throws IOException If a problem occurs while writing to the stream.
+   */
+  static void write(ASN1Writer stream, SearchResultEntry searchEntry)
+      throws IOException
+  {
+    write(stream, searchEntry.getName(), searchEntry);
+  }
+
+
+
+  private static void write(ASN1Writer stream, DN dn,
+      SearchResultEntry searchEntry) throws IOException
+  {
+    stream.writeStartSequence(OP_TYPE_SEARCH_RESULT_ENTRY);
+    stream.writeOctetString(dn.toString());
+
+    stream.writeStartSequence();
+    for (List<Attribute> attrList : searchEntry.getUserAttributes().values())
+    {
+      for (Attribute a : attrList)
       {
-        for (Attribute a : attrList)
-        {
-          writeAttribute(stream, a);
-        }
+        writeAttribute(stream, a);
       }
     }
-    else
+
+    for (List<Attribute> attrList : searchEntry.getOperationalAttributes()
+        .values())
     {
-      for (LDAPAttribute attr : getAttributes())
+      for (Attribute a : attrList)
       {
-        attr.write(stream);
+        writeAttribute(stream, a);
       }
     }
     stream.writeEndSequence();
@@ -618,7 +648,7 @@ public class SearchResultEntryProtocolOp
 
 
   /** Write an attribute without converting to an LDAPAttribute. */
-  private void writeAttribute(ASN1Writer stream, Attribute a)
+  private static void writeAttribute(ASN1Writer stream, Attribute a)
       throws IOException
   {
     stream.writeStartSequence();
@@ -0,0 +1,485 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeBuilder;
+import org.opends.server.types.AttributeDescription;
+import org.opends.server.types.AttributeType;
+
+/**
+ * This class encodes and decodes the compact form of the historical
+ * information of an entry.
+ * <p>
+ * The legacy form stores one string value per historical value, repeating
+ * the attribute description and the hexadecimal CSN each time (see
+ * {@link HistoricalAttributeValue}). The compact form stores instead:
+ * <ul>
+ * <li>a single payload value {@code #hist:<csn>:<binary data>}, where the
+ * binary data starts with a dictionary of the CSNs used by the entry
+ * historical, followed by one section per attribute description. The
+ * historical values of a section refer to their CSN by its index in the
+ * dictionary, which lets each section be decoded separately, only when
+ * needed;</li>
+ * <li>for each server id found in the dictionary, the oldest and the newest
+ * CSNs of this server as {@code #csn:<csn>} values, except the CSN already held
+ * by the payload value.</li>
+ * </ul>
+ * As every value still starts with a name followed by a CSN, the
+ * historicalCsnOrderingMatch matching rule, its index and the searches relying
+ * on them see the same oldest and newest CSNs as with the legacy form.
+ */
+final class CompactHistorical
+{
+  /** The prefix of the payload value. */
+  private static final String PAYLOAD_PREFIX = "#hist:";
+  /** The prefix of the values holding the oldest and newest CSNs of each server. */
+  private static final String CSN_PREFIX = "#csn:";
+  /** The length of the string representation of a CSN. */
+  private static final int CSN_STRING_LENGTH = 28;
+  /** The version of the binary data of the payload value. */
+  private static final byte VERSION = 1;
+
+  /** A historical value of an attribute. */
+  static final class Record
+  {
+    private final HistAttrModificationKey key;
+    private final CSN csn;
+    private final ByteString value;
+
+    /**
+     * Creates a new record.
+     *
+     * @param key
+     *          the type of modification
+     * @param csn
+     *          the CSN of the modification
+     * @param value
+     *          the attribute value, or null if there is none
+     */
+    Record(HistAttrModificationKey key, CSN csn, ByteString value)
+    {
+      this.key = key;
+      this.csn = csn;
+      this.value = value;
+    }
+
+    HistAttrModificationKey getKey()
+    {
+      return key;
+    }
+
+    CSN getCSN()
+    {
+      return csn;
+    }
+
+    ByteString getValue()
+    {
+      return value;
+    }
+  }
+
+  /** The historical of an attribute description, still encoded. */
+  static final class EncodedAttribute
+  {
+    private final CSN[] csns;
+    private final ByteString bytes;
+    private final CSN oldestCSN;
+
+    private EncodedAttribute(CSN[] csns, ByteString bytes, CSN oldestCSN)
+    {
+      this.csns = csns;
+      this.bytes = bytes;
+      this.oldestCSN = oldestCSN;
+    }
+
+    /**
+     * Returns the oldest CSN of the historical values of this attribute.
+     *
+     * @return the oldest CSN of the historical values of this attribute
+     */
+    CSN getOldestCSN()
+    {
+      return oldestCSN;
+    }
+
+    /**
+     * Decodes the historical values of this attribute.
+     *
+     * @return the historical values of this attribute
+     */
+    List<Record> decode()
+    {
+      final ByteSequenceReader reader = bytes.asReader();
+      final int nbRecords = reader.readBERLength();
+      final List<Record> records = new ArrayList<>(nbRecords);
+      for (int i = 0; i < nbRecords; i++)
+      {
+        final byte code = reader.readByte();
+        final HistAttrModificationKey key = HistAttrModificationKey.decodeCode(code);
+        if (key == null)
+        {
+          throw new IllegalArgumentException("Unknown historical modification code: " + code);
+        }
+        final CSN csn = csns[reader.readBERLength()];
+        final int valueLength = reader.readBERLength();
+        final ByteString value = valueLength > 0 ? reader.readByteString(valueLength - 1) : null;
+        records.add(new Record(key, csn, value));
+      }
+      return records;
+    }
+  }
+
+  /** The historical information read from a payload value. */
+  static final class Payload
+  {
+    private CSN entryADDDate;
+    private CSN entryMODDNDate;
+    private CSN[] csns;
+    private final Map<AttributeDescription, EncodedAttribute> attributes = new LinkedHashMap<>();
+
+    /**
+     * Returns the date when the entry was added.
+     *
+     * @return the date when the entry was added, or null if it is unknown
+     */
+    CSN getEntryADDDate()
+    {
+      return entryADDDate;
+    }
+
+    /**
+     * Returns the date when the entry was last renamed.
+     *
+     * @return the date when the entry was last renamed, or null if it is unknown
+     */
+    CSN getEntryMODDNDate()
+    {
+      return entryMODDNDate;
+    }
+
+    /**
+     * Returns all the CSNs referenced by this historical information.
+     *
+     * @return all the CSNs referenced by this historical information
+     */
+    CSN[] getCSNs()
+    {
+      return csns;
+    }
+
+    /**
+     * Returns the still encoded historical of each attribute description.
+     *
+     * @return the still encoded historical of each attribute description
+     */
+    Map<AttributeDescription, EncodedAttribute> getAttributes()
+    {
+      return attributes;
+    }
+  }
+
+  private CompactHistorical()
+  {
+    // Utility class
+  }
+
+  /**
+   * Returns whether the provided value of the historical attribute is in the
+   * compact form.
+   *
+   * @param value
+   *          the value of the historical attribute
+   * @return true if the value is in the compact form
+   */
+  static boolean isCompact(ByteString value)
+  {
+    return value.length() > 0 && value.byteAt(0) == '#';
+  }
+
+  /**
+   * Returns whether the provided value of the historical attribute is the
+   * payload value of the compact form.
+   *
+   * @param value
+   *          the value of the historical attribute
+   * @return true if the value is the payload value of the compact form
+   */
+  static boolean isPayload(ByteString value)
+  {
+    if (value.length() < PAYLOAD_PREFIX.length())
+    {
+      return false;
+    }
+    for (int i = 0; i < PAYLOAD_PREFIX.length(); i++)
+    {
+      if (value.byteAt(i) != PAYLOAD_PREFIX.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the CSN of the provided value of the historical attribute, in the
+   * legacy or the compact form.
+   *
+   * @param value
+   *          the value of the historical attribute
+   * @return the CSN of the value, or null if the value is malformed
+   */
+  static CSN getCSN(ByteString value)
+  {
+    int colon = 0;
+    while (colon < value.length() && value.byteAt(colon) != ':')
+    {
+      colon++;
+    }
+    final int csnEnd = colon + 1 + CSN_STRING_LENGTH;
+    if (csnEnd > value.length())
+    {
+      return null;
+    }
+    try
+    {
+      return new CSN(value.subSequence(colon + 1, csnEnd).toString());
+    }
+    catch (IllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Decodes the provided payload value, without decoding the historical of the
+   * attributes.
+   *
+   * @param value
+   *          the payload value
+   * @return the decoded payload
+   */
+  static Payload decodePayload(ByteString value)
+  {
+    final ByteSequenceReader reader = value.asReader();
+    reader.skip(PAYLOAD_PREFIX.length() + CSN_STRING_LENGTH + 1);
+    final byte version = reader.readByte();
+    if (version != VERSION)
+    {
+      throw new IllegalArgumentException("Unsupported version of historical information: " + version);
+    }
+
+    final Payload payload = new Payload();
+    final CSN[] csns = new CSN[reader.readBERLength()];
+    for (int i = 0; i < csns.length; i++)
+    {
+      csns[i] = CSN.valueOf(reader.readByteSequence(CSN.BYTE_ENCODING_LENGTH));
+    }
+    payload.csns = csns;
+    payload.entryADDDate = readOptionalCSN(reader, csns);
+    payload.entryMODDNDate = readOptionalCSN(reader, csns);
+
+    final int nbAttributes = reader.readBERLength();
+    for (int i = 0; i < nbAttributes; i++)
+    {
+      final AttributeDescription attrDesc = toAttributeDescription(reader.readStringUtf8(reader.readBERLength()));
+      final CSN oldestCSN = csns[reader.readBERLength()];
+      final ByteString bytes = reader.readByteString(reader.readBERLength());
+      payload.attributes.put(attrDesc, new EncodedAttribute(csns, bytes, oldestCSN));
+    }
+    return payload;
+  }
+
+  private static CSN readOptionalCSN(ByteSequenceReader reader, CSN[] csns)
+  {
+    final int index = reader.readBERLength();
+    return index > 0 ? csns[index - 1] : null;
+  }
+
+  private static AttributeDescription toAttributeDescription(String attrDescString)
+  {
+    final String[] tokens = attrDescString.split(";");
+    final AttributeType attrType = DirectoryServer.getAttributeTypeOrDefault(toLowerCase(tokens[0]));
+    if (tokens.length == 1)
+    {
+      return AttributeDescription.create(attrType, Collections.<String> emptySet());
+    }
+    final Set<String> options = new LinkedHashSet<>();
+    for (int i = 1; i < tokens.length; i++)
+    {
+      options.add(tokens[i]);
+    }
+    return AttributeDescription.create(attrType, options);
+  }
+
+  /**
+   * Encodes the provided historical information in the compact form.
+   *
+   * @param entryADDDate
+   *          the date when the entry was added, or null if it is unknown
+   * @param entryMODDNDate
+   *          the date when the entry was last renamed, or null if it is unknown
+   * @param attributes
+   *          the historical values of each attribute description
+   * @return the historical attribute, which is empty if there is no historical
+   *         information
+   */
+  static Attribute encode(CSN entryADDDate, CSN entryMODDNDate, Map<AttributeDescription, List<Record>> attributes)
+  {
+    final AttributeType historicalAttrType =
+        DirectoryServer.getAttributeTypeOrNull(EntryHistorical.HISTORICAL_ATTRIBUTE_NAME);
+    final AttributeBuilder builder = new AttributeBuilder(historicalAttrType);
+
+    // Sort the attributes so that the same historical is always encoded the same way
+    final Map<String, List<Record>> sortedAttributes = new TreeMap<>();
+    for (Map.Entry<AttributeDescription, List<Record>> mapEntry : attributes.entrySet())
+    {
+      if (!mapEntry.getValue().isEmpty())
+      {
+        sortedAttributes.put(mapEntry.getKey().toString(), mapEntry.getValue());
+      }
+    }
+
+    // Build the dictionary of the CSNs
+    final Map<CSN, Integer> csnIndexes = new LinkedHashMap<>();
+    addToDictionary(csnIndexes, entryADDDate);
+    addToDictionary(csnIndexes, entryMODDNDate);
+    for (List<Record> records : sortedAttributes.values())
+    {
+      for (Record record : records)
+      {
+        addToDictionary(csnIndexes, record.csn);
+      }
+    }
+    if (csnIndexes.isEmpty())
+    {
+      return builder.toAttribute();
+    }
+
+    final ByteStringBuilder bytes = new ByteStringBuilder();
+    bytes.appendByte(VERSION);
+    bytes.appendBERLength(csnIndexes.size());
+    for (CSN csn : csnIndexes.keySet())
+    {
+      csn.toByteString(bytes);
+    }
+    bytes.appendBERLength(entryADDDate != null ? csnIndexes.get(entryADDDate) + 1 : 0);
+    bytes.appendBERLength(entryMODDNDate != null ? csnIndexes.get(entryMODDNDate) + 1 : 0);
+
+    bytes.appendBERLength(sortedAttributes.size());
+    final ByteStringBuilder section = new ByteStringBuilder();
+    for (Map.Entry<String, List<Record>> mapEntry : sortedAttributes.entrySet())
+    {
+      final List<Record> records = mapEntry.getValue();
+      section.clear();
+      section.appendBERLength(records.size());
+      CSN oldestCSN = null;
+      for (Record record : records)
+      {
+        section.appendByte(record.key.getCode());
+        section.appendBERLength(csnIndexes.get(record.csn));
+        if (record.value != null)
+        {
+          section.appendBERLength(record.value.length() + 1);
+          section.appendBytes(record.value);
+        }
+        else
+        {
+          section.appendBERLength(0);
+        }
+        if (oldestCSN == null || record.csn.isOlderThan(oldestCSN))
+        {
+          oldestCSN = record.csn;
+        }
+      }
+
+      final ByteString attrDesc = ByteString.valueOfUtf8(mapEntry.getKey());
+      bytes.appendBERLength(attrDesc.length());
+      bytes.appendBytes(attrDesc);
+      bytes.appendBERLength(csnIndexes.get(oldestCSN));
+      bytes.appendBERLength(section.length());
+      bytes.appendBytes(section);
+    }
+
+    // Keep the oldest and newest CSNs of each server visible to the ordering index
+    final Map<Integer, CSN> oldestCSNs = new TreeMap<>();
+    final Map<Integer, CSN> newestCSNs = new TreeMap<>();
+    for (CSN csn : csnIndexes.keySet())
+    {
+      final CSN oldest = oldestCSNs.get(csn.getServerId());
+      if (oldest == null || csn.isOlderThan(oldest))
+      {
+        oldestCSNs.put(csn.getServerId(), csn);
+      }
+      final CSN newest = newestCSNs.get(csn.getServerId());
+      if (newest == null || csn.isNewerThan(newest))
+      {
+        newestCSNs.put(csn.getServerId(), csn);
+      }
+    }
+    final Set<CSN> boundaryCSNs = new LinkedHashSet<>(newestCSNs.values());
+    boundaryCSNs.addAll(oldestCSNs.values());
+    // The payload value holds one of these CSNs itself
+    final Iterator<CSN> it = boundaryCSNs.iterator();
+    final CSN payloadCSN = it.next();
+    while (it.hasNext())
+    {
+      builder.add(CSN_PREFIX + it.next());
+    }
+
+    final ByteStringBuilder payload = new ByteStringBuilder();
+    payload.appendUtf8(PAYLOAD_PREFIX + payloadCSN + ":");
+    payload.appendBytes(bytes);
+    builder.add(payload.toByteString());
+    return builder.toAttribute();
+  }
+
+  private static void addToDictionary(Map<CSN, Integer> csnIndexes, CSN csn)
+  {
+    if (csn != null && !csnIndexes.containsKey(csn))
+    {
+      csnIndexes.put(csn, csnIndexes.size());
+    }
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.AttributeType;
+import org.opends.server.types.Modification;
+import org.opends.server.util.TimeThread;
+
+/**
+ * Probabilistic record of the attributes changed on the entries of a
+ * replication domain during the last conflict window.
+ * <p>
+ * Each change applied on the domain, local or replicated, records the
+ * (entryUUID, attribute type, serverId of the change) keys it touches in a
+ * Bloom filter. A modify DN records a key covering the whole entry. Before
+ * replaying a modify operation, the domain can then check whether another
+ * server changed the same attributes of the same entry recently. When none
+ * did, no concurrent change is possible and the full conflict resolution
+ * against the historical information can be skipped. Only the modifications
+ * made of replace operations can skip it, since the resolution of the add and
+ * delete operations also makes the changes sent again idempotent.
+ * <p>
+ * This relies on every change reaching every server within the conflict
+ * window: a replicated modify is only considered conflict free when it was
+ * made less than one window ago, and when no other server changed the same
+ * attributes less than one window before it. The filter therefore keeps the
+ * keys for at least two windows, in two generations which rotate every two
+ * windows.
+ * <p>
+ * A Bloom filter never forgets a key it recorded but may report keys it never
+ * recorded: false positives only cost a full conflict resolution.
+ */
+final class ConflictFilter
+{
+  /** Number of hash functions, optimal for {@link #BITS_PER_KEY}. */
+  private static final int NB_HASHES = 7;
+  /** Gives about 1% of false positives when the expected number of keys is recorded. */
+  private static final int BITS_PER_KEY = 10;
+  /** Attribute key recorded for the changes touching the whole entry. */
+  private static final String ENTRY_KEY = "";
+
+  private final long windowMillis;
+  private final int nbBits;
+  /** The server ids which recorded changes in this filter. */
+  private final Set<Integer> serverIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+  /** Generation of the filter receiving the new keys. */
+  private volatile AtomicLongArray current;
+  /** Previous generation of the filter, still queried. */
+  private volatile AtomicLongArray previous;
+  /** The time when the current generation is retired. */
+  private volatile long rotationTime;
+  /** The time from which all the changes applied on the domain have been recorded. */
+  private volatile long recordingSince;
+
+  /**
+   * Creates a new filter. The new filter only reports possible conflicts until
+   * it has recorded two conflict windows of changes, or until
+   * {@link #setRecordingSince(long)} says otherwise.
+   *
+   * @param expectedKeys
+   *          the expected number of keys recorded during two conflict windows
+   * @param windowMillis
+   *          the conflict window in milliseconds
+   */
+  ConflictFilter(int expectedKeys, long windowMillis)
+  {
+    this.windowMillis = windowMillis;
+    this.nbBits = (int) Math.min((long) Math.max(expectedKeys, 1) * BITS_PER_KEY, Integer.MAX_VALUE - 63);
+    this.current = newGeneration();
+    this.previous = newGeneration();
+    final long now = TimeThread.getTime();
+    this.rotationTime = now + 2 * windowMillis;
+    this.recordingSince = now;
+  }
+
+  private AtomicLongArray newGeneration()
+  {
+    return new AtomicLongArray((nbBits + 63) >>> 6);
+  }
+
+  /**
+   * Returns the conflict window of this filter.
+   *
+   * @return the conflict window in milliseconds
+   */
+  long getWindowMillis()
+  {
+    return windowMillis;
+  }
+
+  /**
+   * Sets the time from which all the changes applied on the domain have been
+   * recorded, for instance after recording the recent changes read from the
+   * historical information of the entries.
+   *
+   * @param time
+   *          the time from which this filter is complete
+   */
+  void setRecordingSince(long time)
+  {
+    this.recordingSince = time;
+  }
+
+  /**
+   * Records the attributes changed by a modify operation.
+   *
+   * @param entryUUID
+   *          the entryUUID of the modified entry
+   * @param csn
+   *          the CSN of the modify operation
+   * @param mods
+   *          the modifications of the operation
+   */
+  void recordModify(String entryUUID, CSN csn, Iterable<Modification> mods)
+  {
+    for (Modification mod : mods)
+    {
+      record(entryUUID, mod.getAttribute().getAttributeType(), csn.getServerId());
+    }
+  }
+
+  /**
+   * Records a change touching the whole entry, such as a modify DN.
+   *
+   * @param entryUUID
+   *          the entryUUID of the changed entry
+   * @param csn
+   *          the CSN of the change
+   */
+  void recordEntryChange(String entryUUID, CSN csn)
+  {
+    record(entryUUID, ENTRY_KEY, csn.getServerId());
+  }
+
+  /**
+   * Records a change of an attribute of an entry.
+   *
+   * @param entryUUID
+   *          the entryUUID of the changed entry
+   * @param attributeType
+   *          the attribute type which changed, or {@code null} if the whole
+   *          entry changed
+   * @param serverId
+   *          the serverId of the server which made the change
+   */
+  void record(String entryUUID, AttributeType attributeType, int serverId)
+  {
+    record(entryUUID, attributeType != null ? attributeType.getOID() : ENTRY_KEY, serverId);
+  }
+
+  private void record(String entryUUID, String attributeKey, int serverId)
+  {
+    rotateIfNeeded(TimeThread.getTime());
+    serverIds.add(serverId);
+    final AtomicLongArray bits = current;
+    final long hash = hash(entryUUID, attributeKey, serverId);
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < NB_HASHES; i++)
+    {
+      setBit(bits, bitIndex(h1, h2, i));
+    }
+  }
+
+  /**
+   * Returns whether the provided replicated modify operation may conflict with
+   * another change.
+   *
+   * @param entryUUID
+   *          the entryUUID of the modified entry
+   * @param csn
+   *          the CSN of the modify operation
+   * @param mods
+   *          the modifications of the operation
+   * @return {@code false} if the operation cannot conflict with any other
+   *         change, {@code true} if it may
+   */
+  boolean mayConflict(String entryUUID, CSN csn, Iterable<Modification> mods)
+  {
+    final long now = TimeThread.getTime();
+    rotateIfNeeded(now);
+    if (now - 2 * windowMillis < recordingSince || now - csn.getTime() > windowMillis)
+    {
+      // this filter may miss concurrent changes
+      return true;
+    }
+
+    for (Integer serverId : serverIds)
+    {
+      if (serverId == csn.getServerId())
+      {
+        // the changes of the originating server are not concurrent
+        continue;
+      }
+      if (mayContain(entryUUID, ENTRY_KEY, serverId))
+      {
+        return true;
+      }
+      for (Modification mod : mods)
+      {
+        if (mayContain(entryUUID, mod.getAttribute().getAttributeType().getOID(), serverId))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean mayContain(String entryUUID, String attributeKey, int serverId)
+  {
+    final long hash = hash(entryUUID, attributeKey, serverId);
+    return mayContain(current, hash) || mayContain(previous, hash);
+  }
+
+  private boolean mayContain(AtomicLongArray bits, long hash)
+  {
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < NB_HASHES; i++)
+    {
+      final int bitIndex = bitIndex(h1, h2, i);
+      if ((bits.get(bitIndex >>> 6) & (1L << bitIndex)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rotateIfNeeded(long now)
+  {
+    if (now >= rotationTime)
+    {
+      synchronized (this)
+      {
+        if (now >= rotationTime)
+        {
+          previous = current;
+          current = newGeneration();
+          rotationTime = now + 2 * windowMillis;
+        }
+      }
+    }
+  }
+
+  private int bitIndex(int h1, int h2, int i)
+  {
+    // Kirsch-Mitzenmacher double hashing
+    final int combined = h1 + i * h2;
+    return (combined & Integer.MAX_VALUE) % nbBits;
+  }
+
+  private static void setBit(AtomicLongArray bits, int bitIndex)
+  {
+    final int index = bitIndex >>> 6;
+    final long mask = 1L << bitIndex;
+    long word;
+    do
+    {
+      word = bits.get(index);
+      if ((word & mask) != 0)
+      {
+        return;
+      }
+    }
+    while (!bits.compareAndSet(index, word, word | mask));
+  }
+
+  private static long hash(String entryUUID, String attributeKey, int serverId)
+  {
+    long h = entryUUID.hashCode();
+    h = h * 0x9E3779B97F4A7C15L + attributeKey.hashCode();
+    h = h * 0x9E3779B97F4A7C15L + serverId;
+    // murmur3 finalizer
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
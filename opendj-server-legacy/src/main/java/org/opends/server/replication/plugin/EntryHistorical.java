@@ -28,6 +28,7 @@ package org.opends.server.replication.plugin;
 
 import static org.opends.messages.ReplicationMessages.*;
 import static org.opends.server.replication.plugin.HistAttrModificationKey.*;
+import static org.opends.server.util.CollectionUtils.*;
 
 import java.util.*;
 
@@ -86,6 +87,13 @@ public class EntryHistorical
    */
   private long purgeDelayInMillisec = -1;
 
+  /**
+   * Whether the historical information is written in the compact form rather
+   * than in the legacy form, which is the default since older servers cannot
+   * read the compact form.
+   */
+  private boolean compactForm;
+
   /**
    * The oldest CSN stored in this entry historical attribute.
    * null when this historical object has been created from
@@ -107,6 +115,13 @@ public class EntryHistorical
 
   /** Contains Historical information for each attribute description. */
   private final Map<AttributeDescription, AttrHistorical> attributesHistorical = new HashMap<>();
+  /**
+   * Contains the Historical information read in the compact form and not
+   * decoded yet, for each attribute description. The historical information
+   * of an attribute is only decoded when an operation needs it.
+   */
+  private final Map<AttributeDescription, CompactHistorical.EncodedAttribute> encodedAttributesHistorical =
+      new HashMap<>();
 
   @Override
   public String toString()
@@ -147,6 +162,32 @@ public class EntryHistorical
     return bConflict;
   }
 
+  /**
+   * Process a replicated modify operation which cannot conflict with any other
+   * change, as reported by the {@link ConflictFilter} of the domain: the
+   * historical information is updated as for a local operation, without
+   * checking it for conflicts.
+   * <p>
+   * This is only valid for modifications made of replace operations: the add
+   * and delete operations need the conflict resolution of
+   * {@link #replayOperation(PreOperationModifyOperation, Entry)} to drop the
+   * values already added or already deleted.
+   *
+   * @param modifyOperation the operation to be processed
+   */
+  public void replayNonConflictingOperation(PreOperationModifyOperation modifyOperation)
+  {
+    CSN modOpCSN = OperationContext.getCSN(modifyOperation);
+    for (Modification m : modifyOperation.getModifications())
+    {
+      AttrHistorical attrHist = getOrCreateAttrHistorical(m);
+      if (attrHist != null)
+      {
+        attrHist.processLocalOrNonConflictModification(modOpCSN, m);
+      }
+    }
+  }
+
   /**
    * Update the historical information for the provided operation.
    * <p>
@@ -196,7 +237,7 @@ public class EntryHistorical
     //
     // - add the modification of the ds-sync-hist attribute,
     // to the current modifications of the MOD operation
-    Attribute attr = encodeAndPurge();
+    Attribute attr = encodeStoredFormAndPurge();
     mods.add(new Modification(ModificationType.REPLACE, attr));
     // - update the already modified entry
     modifiedEntry.replaceAttribute(attr);
@@ -221,7 +262,7 @@ public class EntryHistorical
     Entry modifiedEntry = modifyDNOperation.getUpdatedEntry();
     List<Modification> mods = modifyDNOperation.getModifications();
 
-    Attribute attr = encodeAndPurge();
+    Attribute attr = encodeStoredFormAndPurge();
 
     // Now do the 2 updates required by the core to be consistent:
     //
@@ -253,13 +294,23 @@ public class EntryHistorical
    *   required here or before(in the HandleConflictResolution phase)
    *
    * @param addOperation The Operation to which the historical attribute will be added.
+   * @param compactForm Whether the historical attribute is written in the compact form.
    */
-  public static void setHistoricalAttrToOperation(PreOperationAddOperation addOperation)
+  public static void setHistoricalAttrToOperation(PreOperationAddOperation addOperation, boolean compactForm)
   {
-    AttributeType attrType = DirectoryServer.getAttributeTypeOrNull(HISTORICAL_ATTRIBUTE_NAME);
-    String attrValue = encodeHistorical(OperationContext.getCSN(addOperation), "add");
-    List<Attribute> attrs = Attributes.createAsList(attrType, attrValue);
-    addOperation.setAttribute(attrType, attrs);
+    final CSN csn = OperationContext.getCSN(addOperation);
+    final Attribute attr;
+    if (compactForm)
+    {
+      attr = CompactHistorical.encode(csn, null,
+          Collections.<AttributeDescription, List<CompactHistorical.Record>> emptyMap());
+    }
+    else
+    {
+      attr = Attributes.create(DirectoryServer.getAttributeTypeOrNull(HISTORICAL_ATTRIBUTE_NAME),
+          encodeHistorical(csn, "add"));
+    }
+    addOperation.setAttribute(attr.getAttributeType(), newArrayList(attr));
   }
 
   /**
@@ -306,6 +357,10 @@ public class EntryHistorical
     AttributeDescription attrDesc = AttributeDescription.create(modAttr);
     AttrHistorical attrHist = attributesHistorical.get(attrDesc);
     if (attrHist == null)
+    {
+      attrHist = decodeAttrHistorical(attrDesc);
+    }
+    if (attrHist == null)
     {
       attrHist = AttrHistorical.createAttributeHistorical(modAttr.getAttributeType());
       attributesHistorical.put(attrDesc, attrHist);
@@ -313,6 +368,38 @@ public class EntryHistorical
     return attrHist;
   }
 
+  /**
+   * Decodes the historical information of the provided attribute description
+   * read in the compact form, if any.
+   *
+   * @param attrDesc the attribute description
+   * @return the decoded attribute historical, or null if there is none to decode
+   */
+  private AttrHistorical decodeAttrHistorical(AttributeDescription attrDesc)
+  {
+    CompactHistorical.EncodedAttribute encodedAttr = encodedAttributesHistorical.remove(attrDesc);
+    if (encodedAttr == null)
+    {
+      return null;
+    }
+    AttrHistorical attrHist = AttrHistorical.createAttributeHistorical(attrDesc.getAttributeType());
+    for (CompactHistorical.Record record : encodedAttr.decode())
+    {
+      attrHist.assign(record.getKey(), record.getValue(), record.getCSN());
+    }
+    attributesHistorical.put(attrDesc, attrHist);
+    return attrHist;
+  }
+
+  /** Decodes all the historical information read in the compact form. */
+  private void decodeAllAttrHistorical()
+  {
+    for (AttributeDescription attrDesc : new ArrayList<>(encodedAttributesHistorical.keySet()))
+    {
+      decodeAttrHistorical(attrDesc);
+    }
+  }
+
   /**
    * For stats/monitoring purpose, returns the number of historical values
    * purged the last time a purge has been applied on this entry historical.
@@ -326,93 +413,36 @@ public class EntryHistorical
 
   /**
    * Encode this historical information object in an operational attribute and
-   * purge it from the values older than the purge delay.
+   * purge it from the values older than the purge delay. The historical
+   * information is encoded in the legacy, human readable, form.
    *
    * @return The historical information encoded in an operational attribute.
    * @see HistoricalAttributeValue#HistoricalAttributeValue(String) the decode
    *      operation in HistoricalAttributeValue
+   * @see #encodeCompactAndPurge()
    */
   public Attribute encodeAndPurge()
   {
-    long purgeDate = 0;
-
-    // Set the stats counter to 0 and compute the purgeDate to now minus
-    // the potentially set purge delay.
-    this.lastPurgedValuesCount = 0;
-    if (purgeDelayInMillisec>0)
-    {
-      purgeDate = TimeThread.getTime() - purgeDelayInMillisec;
-    }
+    long purgeDate = startPurge();
+    decodeAllAttrHistorical();
 
     AttributeType historicalAttrType = DirectoryServer.getAttributeTypeOrNull(HISTORICAL_ATTRIBUTE_NAME);
     AttributeBuilder builder = new AttributeBuilder(historicalAttrType);
 
     for (Map.Entry<AttributeDescription, AttrHistorical> mapEntry : attributesHistorical.entrySet())
     {
-      AttributeDescription attrDesc = mapEntry.getKey();
-      String options = attrDesc.toString();
-      AttrHistorical attrHist = mapEntry.getValue();
-
-      CSN deleteTime = attrHist.getDeleteTime();
-      /* generate the historical information for deleted attributes */
-      boolean attrDel = deleteTime != null;
-
-      for (AttrValueHistorical attrValHist : attrHist.getValuesHistorical())
+      String options = mapEntry.getKey().toString();
+      for (CompactHistorical.Record record : toRecordsAndPurge(mapEntry.getValue(), purgeDate))
       {
-        final ByteString value = attrValHist.getAttributeValue();
-
-        // Encode an attribute value
-        if (attrValHist.getValueDeleteTime() != null)
+        if (record.getValue() != null)
         {
-          if (needsPurge(attrValHist.getValueDeleteTime(), purgeDate))
-          {
-            // this hist must be purged now, so skip its encoding
-            continue;
-          }
-          String strValue = encode(DEL, options, attrValHist.getValueDeleteTime(), value);
-          builder.add(strValue);
+          builder.add(encode(record.getKey(), options, record.getCSN(), record.getValue()));
         }
-        else if (attrValHist.getValueUpdateTime() != null)
+        else
         {
-          if (needsPurge(attrValHist.getValueUpdateTime(), purgeDate))
-          {
-            // this hist must be purged now, so skip its encoding
-            continue;
-          }
-
-          String strValue;
-          final CSN updateTime = attrValHist.getValueUpdateTime();
-          // FIXME very suspicious use of == in the next if statement,
-          // unit tests do not like changing it
-          if (attrDel && updateTime == deleteTime && value != null)
-          {
-            strValue = encode(REPL, options, updateTime, value);
-            attrDel = false;
-          }
-          else if (value != null)
-          {
-            strValue = encode(ADD, options, updateTime, value);
-          }
-          else
-          {
-            // "add" without any value is suspicious. Tests never go there.
-            // Is this used to encode "add" with an empty string?
-            strValue = encode(ADD, options, updateTime);
-          }
-
-          builder.add(strValue);
+          builder.add(encode(record.getKey(), options, record.getCSN()));
         }
       }
-
-      if (attrDel)
-      {
-        if (needsPurge(deleteTime, purgeDate))
-        {
-          // this hist must be purged now, so skip its encoding
-          continue;
-        }
-        builder.add(encode(ATTRDEL, options, deleteTime));
-      }
     }
 
     if (entryADDDate != null && !needsPurge(entryADDDate, purgeDate))
@@ -432,6 +462,136 @@ public class EntryHistorical
     return builder.toAttribute();
   }
 
+  /**
+   * Encode this historical information object in the form to store in the
+   * entry, as set by {@link #setCompactForm(boolean)}, and purge it from the
+   * values older than the purge delay.
+   *
+   * @return The historical information encoded in an operational attribute.
+   */
+  public Attribute encodeStoredFormAndPurge()
+  {
+    return compactForm ? encodeCompactAndPurge() : encodeAndPurge();
+  }
+
+  /**
+   * Encode this historical information object in an operational attribute and
+   * purge it from the values older than the purge delay. The historical
+   * information is encoded in the compact form. The historical information of
+   * the attributes which has not been decoded yet is only decoded when some of
+   * it must be purged.
+   *
+   * @return The historical information encoded in an operational attribute.
+   * @see CompactHistorical
+   */
+  public Attribute encodeCompactAndPurge()
+  {
+    long purgeDate = startPurge();
+
+    Map<AttributeDescription, List<CompactHistorical.Record>> records = new HashMap<>();
+    for (Map.Entry<AttributeDescription, CompactHistorical.EncodedAttribute> mapEntry
+        : new ArrayList<>(encodedAttributesHistorical.entrySet()))
+    {
+      AttributeDescription attrDesc = mapEntry.getKey();
+      if (purgeDelayInMillisec > 0 && mapEntry.getValue().getOldestCSN().getTime() <= purgeDate)
+      {
+        // some values must be purged, they are handled with the decoded attributes below
+        decodeAttrHistorical(attrDesc);
+      }
+      else
+      {
+        records.put(attrDesc, mapEntry.getValue().decode());
+      }
+    }
+    for (Map.Entry<AttributeDescription, AttrHistorical> mapEntry : attributesHistorical.entrySet())
+    {
+      records.put(mapEntry.getKey(), toRecordsAndPurge(mapEntry.getValue(), purgeDate));
+    }
+
+    CSN addDate = entryADDDate != null && !needsPurge(entryADDDate, purgeDate) ? entryADDDate : null;
+    CSN moddnDate = entryMODDNDate != null && !needsPurge(entryMODDNDate, purgeDate) ? entryMODDNDate : null;
+    return CompactHistorical.encode(addDate, moddnDate, records);
+  }
+
+  /**
+   * Resets the purge statistics and computes the purge date.
+   *
+   * @return the date before which the historical information must be purged,
+   *         or 0 if there is no purge delay
+   */
+  private long startPurge()
+  {
+    // Set the stats counter to 0 and compute the purgeDate to now minus
+    // the potentially set purge delay.
+    this.lastPurgedValuesCount = 0;
+    if (purgeDelayInMillisec>0)
+    {
+      return TimeThread.getTime() - purgeDelayInMillisec;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the historical values of the provided attribute historical which
+   * are not older than the purge date.
+   *
+   * @param attrHist the attribute historical
+   * @param purgeDate the purge date
+   * @return the historical values to keep
+   */
+  private List<CompactHistorical.Record> toRecordsAndPurge(AttrHistorical attrHist, long purgeDate)
+  {
+    List<CompactHistorical.Record> records = new ArrayList<>();
+    CSN deleteTime = attrHist.getDeleteTime();
+    /* generate the historical information for deleted attributes */
+    boolean attrDel = deleteTime != null;
+
+    for (AttrValueHistorical attrValHist : attrHist.getValuesHistorical())
+    {
+      final ByteString value = attrValHist.getAttributeValue();
+
+      // Encode an attribute value
+      if (attrValHist.getValueDeleteTime() != null)
+      {
+        if (needsPurge(attrValHist.getValueDeleteTime(), purgeDate))
+        {
+          // this hist must be purged now, so skip its encoding
+          continue;
+        }
+        records.add(new CompactHistorical.Record(DEL, attrValHist.getValueDeleteTime(), value));
+      }
+      else if (attrValHist.getValueUpdateTime() != null)
+      {
+        if (needsPurge(attrValHist.getValueUpdateTime(), purgeDate))
+        {
+          // this hist must be purged now, so skip its encoding
+          continue;
+        }
+
+        final CSN updateTime = attrValHist.getValueUpdateTime();
+        // FIXME very suspicious use of == in the next if statement,
+        // unit tests do not like changing it
+        if (attrDel && updateTime == deleteTime && value != null)
+        {
+          records.add(new CompactHistorical.Record(REPL, updateTime, value));
+          attrDel = false;
+        }
+        else
+        {
+          // "add" without any value is suspicious. Tests never go there.
+          // Is this used to encode "add" with an empty string?
+          records.add(new CompactHistorical.Record(ADD, updateTime, value));
+        }
+      }
+    }
+
+    if (attrDel && !needsPurge(deleteTime, purgeDate))
+    {
+      records.add(new CompactHistorical.Record(ATTRDEL, deleteTime, null));
+    }
+    return records;
+  }
+
   private boolean needsPurge(CSN csn, long purgeDate)
   {
     boolean needsPurge = purgeDelayInMillisec > 0 && csn.getTime() <= purgeDate;
@@ -464,6 +624,18 @@ public class EntryHistorical
     this.purgeDelayInMillisec = purgeDelay;
   }
 
+  /**
+   * Sets whether the historical information is written in the compact form
+   * rather than in the legacy form. Both forms are always read.
+   *
+   * @param compactForm true to write the compact form
+   * @see CompactHistorical
+   */
+  public void setCompactForm(boolean compactForm)
+  {
+    this.compactForm = compactForm;
+  }
+
   /**
    * Indicates if the Entry was renamed or added after the CSN that is given as
    * a parameter.
@@ -536,6 +708,16 @@ public class EntryHistorical
         // For each Attribute (option), traverse the values
         for (ByteString histAttrValueFromEntry : histAttrFromEntry)
         {
+          if (CompactHistorical.isCompact(histAttrValueFromEntry))
+          {
+            if (CompactHistorical.isPayload(histAttrValueFromEntry))
+            {
+              newHistorical.assignPayload(CompactHistorical.decodePayload(histAttrValueFromEntry));
+            }
+            // Other values of the compact form only serve the ordering index
+            continue;
+          }
+
           // From each value of the hist attr, create an object
           final HistoricalAttributeValue histVal = new HistoricalAttributeValue(histAttrValueFromEntry.toString());
           final CSN csn = histVal.getCSN();
@@ -596,63 +778,128 @@ public class EntryHistorical
   }
 
   /**
-   * Use this historical information to generate fake operations that would
-   * result in this historical information.
-   * TODO : This is only implemented for MODIFY, MODRDN and ADD
-   *        need to complete with DELETE.
-   * @param entry The Entry to use to generate the FakeOperation Iterable.
+   * Assigns the historical information read in the compact form to this
+   * object. The historical information of the attributes is only decoded when
+   * needed.
    *
-   * @return an Iterable of FakeOperation that would result in this historical information.
+   * @param payload the historical information read in the compact form
    */
-  public static Iterable<FakeOperation> generateFakeOperations(Entry entry)
+  private void assignPayload(CompactHistorical.Payload payload)
   {
-    TreeMap<CSN, FakeOperation> operations = new TreeMap<>();
+    for (CSN csn : payload.getCSNs())
+    {
+      updateOldestCSN(csn);
+    }
+    if (payload.getEntryADDDate() != null)
+    {
+      entryADDDate = payload.getEntryADDDate();
+    }
+    if (payload.getEntryMODDNDate() != null)
+    {
+      entryMODDNDate = payload.getEntryMODDNDate();
+    }
+    encodedAttributesHistorical.putAll(payload.getAttributes());
+  }
+
+  /**
+   * Reads all the values of the historical attribute of the provided entry,
+   * whether they are stored in the legacy or in the compact form.
+   *
+   * @param entry the entry containing the historical information
+   * @return the values of the historical attribute
+   */
+  static List<HistoricalAttributeValue> getHistoricalValues(Entry entry)
+  {
+    List<HistoricalAttributeValue> histVals = new ArrayList<>();
     List<Attribute> attrs = getHistoricalAttr(entry);
-    if (attrs != null)
+    if (attrs == null)
     {
-      for (Attribute attr : attrs)
+      return histVals;
+    }
+    for (Attribute attr : attrs)
+    {
+      for (ByteString val : attr)
       {
-        for (ByteString val : attr)
+        if (!CompactHistorical.isCompact(val))
         {
-          HistoricalAttributeValue histVal = new HistoricalAttributeValue(val.toString());
-          if (histVal.isADDOperation())
+          histVals.add(new HistoricalAttributeValue(val.toString()));
+        }
+        else if (CompactHistorical.isPayload(val))
+        {
+          CompactHistorical.Payload payload = CompactHistorical.decodePayload(val);
+          if (payload.getEntryADDDate() != null)
           {
-            // Found some historical information indicating that this entry was just added.
-            // Create the corresponding ADD operation.
-            operations.put(histVal.getCSN(), new FakeAddOperation(histVal.getCSN(), entry));
+            histVals.add(new HistoricalAttributeValue(payload.getEntryADDDate(), false));
           }
-          else if (histVal.isMODDNOperation())
+          if (payload.getEntryMODDNDate() != null)
           {
-            // Found some historical information indicating that this entry was just renamed.
-            // Create the corresponding ADD operation.
-            operations.put(histVal.getCSN(), new FakeModdnOperation(histVal.getCSN(), entry));
+            histVals.add(new HistoricalAttributeValue(payload.getEntryMODDNDate(), true));
           }
-          else
+          for (Map.Entry<AttributeDescription, CompactHistorical.EncodedAttribute> mapEntry
+              : payload.getAttributes().entrySet())
           {
-            // Found some historical information for modify operation.
-            // Generate the corresponding ModifyOperation or update
-            // the already generated Operation if it can be found.
-            CSN csn = histVal.getCSN();
-            Modification mod = histVal.generateMod();
-            FakeOperation fakeOperation = operations.get(csn);
-
-            if (fakeOperation instanceof FakeModifyOperation)
-            {
-              FakeModifyOperation modifyFakeOperation = (FakeModifyOperation) fakeOperation;
-              modifyFakeOperation.addModification(mod);
-            }
-            else
+            for (CompactHistorical.Record record : mapEntry.getValue().decode())
             {
-              String uuidString = getEntryUUID(entry);
-              FakeModifyOperation modifyFakeOperation =
-                  new FakeModifyOperation(entry.getName(), csn, uuidString);
-              modifyFakeOperation.addModification(mod);
-              operations.put(histVal.getCSN(), modifyFakeOperation);
+              histVals.add(new HistoricalAttributeValue(
+                  mapEntry.getKey(), record.getKey(), record.getCSN(), record.getValue()));
             }
           }
         }
       }
     }
+    return histVals;
+  }
+
+  /**
+   * Use this historical information to generate fake operations that would
+   * result in this historical information.
+   * TODO : This is only implemented for MODIFY, MODRDN and ADD
+   *        need to complete with DELETE.
+   * @param entry The Entry to use to generate the FakeOperation Iterable.
+   *
+   * @return an Iterable of FakeOperation that would result in this historical information.
+   */
+  public static Iterable<FakeOperation> generateFakeOperations(Entry entry)
+  {
+    TreeMap<CSN, FakeOperation> operations = new TreeMap<>();
+    for (HistoricalAttributeValue histVal : getHistoricalValues(entry))
+    {
+      if (histVal.isADDOperation())
+      {
+        // Found some historical information indicating that this entry was just added.
+        // Create the corresponding ADD operation.
+        operations.put(histVal.getCSN(), new FakeAddOperation(histVal.getCSN(), entry));
+      }
+      else if (histVal.isMODDNOperation())
+      {
+        // Found some historical information indicating that this entry was just renamed.
+        // Create the corresponding ADD operation.
+        operations.put(histVal.getCSN(), new FakeModdnOperation(histVal.getCSN(), entry));
+      }
+      else
+      {
+        // Found some historical information for modify operation.
+        // Generate the corresponding ModifyOperation or update
+        // the already generated Operation if it can be found.
+        CSN csn = histVal.getCSN();
+        Modification mod = histVal.generateMod();
+        FakeOperation fakeOperation = operations.get(csn);
+
+        if (fakeOperation instanceof FakeModifyOperation)
+        {
+          FakeModifyOperation modifyFakeOperation = (FakeModifyOperation) fakeOperation;
+          modifyFakeOperation.addModification(mod);
+        }
+        else
+        {
+          String uuidString = getEntryUUID(entry);
+          FakeModifyOperation modifyFakeOperation =
+              new FakeModifyOperation(entry.getName(), csn, uuidString);
+          modifyFakeOperation.addModification(mod);
+          operations.put(histVal.getCSN(), modifyFakeOperation);
+        }
+      }
+    }
     return operations.values();
   }
 
@@ -35,29 +35,36 @@ package org.opends.server.replication.plugin;
  * ds-sync-hist: attrName1:changeNumber2:del:deletedValue
  * ds-sync-hist: attrName3:changeNumber3:add:newAddedvalue
  * ds-sync-hist: attrName3:changeNumber4:attrDel
+ *
+ * The compact form of the historical information stores the code of the
+ * keys, which must never change once released.
  */
 public enum HistAttrModificationKey
 {
   /** The key for attribute value deletion. */
-  DEL("del"),
+  DEL("del", 0),
   /** The key for attribute deletion. */
-  ATTRDEL("attrDel"),
+  ATTRDEL("attrDel", 1),
   /** The key for attribute replace. */
-  REPL("repl"),
+  REPL("repl", 2),
   /** The key for attribute value addition. */
-  ADD("add");
+  ADD("add", 3);
 
   /** The string representation of this key. */
   private String key;
+  /** The code of this key in the compact form of the historical information. */
+  private final byte code;
 
   /**
    * Creates a new HistKey type with the provided key string.
    *
    * @param histkey The key string
+   * @param code The code of the key in the compact form
    */
-  private HistAttrModificationKey(String histkey)
+  private HistAttrModificationKey(String histkey, int code)
   {
     this.key = histkey;
+    this.code = (byte) code;
   }
 
   /**
@@ -78,6 +85,35 @@ public enum HistAttrModificationKey
     return null;
   }
 
+  /**
+   * Get a key from its code in the compact form of the historical information.
+   *
+   * @param code the code to decode
+   * @return the key from the enum type, or null if the code is unknown
+   */
+  public static HistAttrModificationKey decodeCode(byte code)
+  {
+    for (HistAttrModificationKey histKey : values())
+    {
+      if (histKey.code == code)
+      {
+        return histKey;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Retrieves the code of this HistKey in the compact form of the historical
+   * information.
+   *
+   * @return The code of this HistKey.
+   */
+  public byte getCode()
+  {
+    return code;
+  }
+
   /**
    * Retrieves the human-readable name for this HistKey.
    *
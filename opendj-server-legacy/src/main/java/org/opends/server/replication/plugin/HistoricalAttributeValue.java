@@ -74,6 +74,10 @@ import org.opends.server.types.Modification;
  *  options are stored with the attribute names using; as a separator
  *  example :
  *  description;FR;France:00000108b3a65541000000000001:add:added_value
+ *
+ *  Entries written by this version store their historical in the compact form
+ *  described in {@link CompactHistorical}, from which objects of this class
+ *  can also be created.
  */
 class HistoricalAttributeValue
 {
@@ -161,6 +165,45 @@ class HistoricalAttributeValue
     }
   }
 
+  /**
+   * Create a new object from a historical value of an attribute decoded from
+   * the compact form.
+   *
+   * @param attrDesc The attribute description.
+   * @param histKey The type of historical information.
+   * @param csn The CSN.
+   * @param value The attribute value, or null if there is none.
+   * @see CompactHistorical
+   */
+  HistoricalAttributeValue(AttributeDescription attrDesc, HistAttrModificationKey histKey, CSN csn, ByteString value)
+  {
+    this.attrDesc = attrDesc;
+    this.attrString = toLowerCase(attrDesc.getAttributeType().getNameOrOID());
+    this.csn = csn;
+    this.histKey = histKey;
+    this.attributeValue = value;
+    this.stringValue = value != null ? value.toString() : null;
+  }
+
+  /**
+   * Create a new object storing the date when the entry was added or last
+   * renamed, decoded from the compact form.
+   *
+   * @param csn The CSN of the ADD or MODDN operation.
+   * @param isModDN Whether the operation is a MODDN rather than an ADD.
+   * @see CompactHistorical
+   */
+  HistoricalAttributeValue(CSN csn, boolean isModDN)
+  {
+    this.attrDesc = null;
+    this.attrString = "dn";
+    this.csn = csn;
+    this.histKey = isModDN ? null : ADD;
+    this.attributeValue = null;
+    this.stringValue = null;
+    this.isModDN = isModDN;
+  }
+
   private AttributeType getAttributeType()
   {
     return attrDesc != null ? attrDesc.getAttributeType() : null;
@@ -240,6 +240,12 @@ public final class LDAPReplicationDomain extends ReplicationDomain
   private final AtomicInteger numResolvedNamingConflicts = new AtomicInteger();
   /** The number of modify conflicts successfully resolved. */
   private final AtomicInteger numResolvedModifyConflicts = new AtomicInteger();
+  /**
+   * The attributes recently changed on the entries of this domain, used to
+   * skip the resolution of modify conflicts when none is possible. Null when
+   * disabled.
+   */
+  private volatile ConflictFilter conflictFilter;
   /** The number of unresolved naming conflicts. */
   private final AtomicInteger numUnresolvedNamingConflicts =
       new AtomicInteger();
@@ -268,6 +274,12 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * too early.
    */
   private final RemotePendingChanges remotePendingChanges;
+  /**
+   * Orders the replay of the updates received from the replication server
+   * according to the dependencies between them, so that independent updates
+   * are replayed in parallel.
+   */
+  private final ReplayScheduler replayScheduler = new ReplayScheduler();
   private boolean solveConflictFlag = true;
 
   private final InternalClientConnection conn = getRootConnection();
@@ -493,6 +505,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     readFractionalConfig(configuration, false);
     storeECLConfiguration(configuration);
     solveConflictFlag = isSolveConflict(configuration);
+    conflictFilter = newConflictFilter(configuration);
 
     Backend<?> backend = getBackend();
     if (backend == null)
@@ -539,6 +552,15 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     startPublishService();
   }
 
+  private static ConflictFilter newConflictFilter(ReplicationDomainCfg cfg)
+  {
+    if (cfg.getConflictFilterSize() <= 0)
+    {
+      return null;
+    }
+    return new ConflictFilter(cfg.getConflictFilterSize(), cfg.getConflictFilterWindow() * 1000);
+  }
+
   /**
    * Modify conflicts are solved for all suffixes but the schema suffix because
    * we don't want to store extra information in the schema ldif files. This has
@@ -1943,12 +1965,18 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       }
 
       // Solve the conflicts between modify operations
+      final boolean mayConflict = mayConflict(modifiedEntryUUID, ctx.getCSN(), modifyOperation.getModifications());
       EntryHistorical historicalInformation =
         EntryHistorical.newInstanceFromEntry(modifiedEntry);
       modifyOperation.setAttachment(EntryHistorical.HISTORICAL,
                                     historicalInformation);
 
-      if (historicalInformation.replayOperation(modifyOperation, modifiedEntry))
+      if (!mayConflict)
+      {
+        // No other server recently changed these attributes: no conflict is possible
+        historicalInformation.replayNonConflictingOperation(modifyOperation);
+      }
+      else if (historicalInformation.replayOperation(modifyOperation, modifiedEntry))
       {
         numResolvedModifyConflicts.incrementAndGet();
       }
@@ -1956,6 +1984,76 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     return new SynchronizationProviderResult.ContinueProcessing();
   }
 
+  /**
+   * Returns whether the provided replayed modifications may conflict with
+   * another change, and must therefore be resolved against the historical
+   * information of the entry.
+   * <p>
+   * Only modifications made of replace operations can skip the resolution:
+   * the resolution of the add and delete operations also drops the values
+   * already added or already deleted, which makes the changes sent again
+   * after a reconnection idempotent.
+   *
+   * @param entryUUID
+   *          the entryUUID of the modified entry, may be null
+   * @param csn
+   *          the CSN of the replayed operation
+   * @param mods
+   *          the modifications of the replayed operation
+   * @return true if a conflict is possible, false otherwise
+   */
+  private boolean mayConflict(String entryUUID, CSN csn, List<Modification> mods)
+  {
+    final ConflictFilter filter = conflictFilter;
+    if (filter == null || entryUUID == null)
+    {
+      return true;
+    }
+    for (Modification mod : mods)
+    {
+      if (mod.getModificationType() != ModificationType.REPLACE)
+      {
+        return true;
+      }
+    }
+    return filter.mayConflict(entryUUID, csn, mods);
+  }
+
+  /**
+   * Records the attributes changed by a modify operation, local or replicated,
+   * for the resolution of the conflicts of the next replicated modify
+   * operations.
+   *
+   * @param modifyOperation
+   *          the modify operation, in its pre-operation phase
+   */
+  void recordChange(PreOperationModifyOperation modifyOperation)
+  {
+    final ConflictFilter filter = conflictFilter;
+    final OperationContext ctx = (OperationContext) modifyOperation.getAttachment(SYNCHROCONTEXT);
+    if (filter != null && ctx != null && ctx.getEntryUUID() != null)
+    {
+      filter.recordModify(ctx.getEntryUUID(), ctx.getCSN(), modifyOperation.getModifications());
+    }
+  }
+
+  /**
+   * Records a modify DN operation, local or replicated, for the resolution of
+   * the conflicts of the next replicated modify operations.
+   *
+   * @param modifyDNOperation
+   *          the modify DN operation, in its pre-operation phase
+   */
+  void recordChange(PreOperationModifyDNOperation modifyDNOperation)
+  {
+    final ConflictFilter filter = conflictFilter;
+    final OperationContext ctx = (OperationContext) modifyDNOperation.getAttachment(SYNCHROCONTEXT);
+    if (filter != null && ctx != null && ctx.getEntryUUID() != null)
+    {
+      filter.recordEntryChange(ctx.getEntryUUID(), ctx.getCSN());
+    }
+  }
+
   /**
    * The preOperation phase for the add Operation.
    * Its job is to generate the replication context associated to the
@@ -2277,6 +2375,10 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    */
   void replay(LDAPUpdateMsg msg, AtomicBoolean shutdown)
   {
+    // The updates released by the scheduler which could not be shared with
+    // the other replay threads.
+    final Deque<LDAPUpdateMsg> readyUpdates = new ArrayDeque<>();
+
     // Try replay the operation, then flush (replaying) any pending operation
     // whose dependency has been replayed until no more left.
     do
@@ -2292,8 +2394,9 @@ public final class LDAPReplicationDomain extends ReplicationDomain
         // variable until the next loop iteration starts.
         // "op" is already initialized to the next Operation because of the
         // error handling paths.
+        // The replay scheduler only hands out updates whose dependencies
+        // have been replayed.
         Operation nextOp = op = msg.createOperation(conn);
-        dependency = remotePendingChanges.checkDependencies(op, msg);
 
         boolean replayDone = false;
         int retryCount = 10;
@@ -2441,6 +2544,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
         if (!dependency)
         {
           processUpdateDone(msg, replayErrorMsg);
+          dispatchReadyUpdates(replayScheduler.updateDone(msg.getCSN()), readyUpdates);
         }
       }
 
@@ -2448,9 +2552,31 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       // dependency has been replayed, do that until no more updates of that
       // type left...
       msg = remotePendingChanges.getNextUpdate();
+      if (msg == null)
+      {
+        msg = readyUpdates.poll();
+      }
     } while (msg != null);
   }
 
+  /**
+   * Shares the updates released by the replay scheduler with the other replay
+   * threads. The current thread keeps one of them, as well as those which do
+   * not fit in the replay queue: blocking here could deadlock the replay
+   * threads.
+   */
+  private void dispatchReadyUpdates(List<LDAPUpdateMsg> updates, Deque<LDAPUpdateMsg> readyUpdates)
+  {
+    for (LDAPUpdateMsg update : updates)
+    {
+      if (readyUpdates.isEmpty()
+          || !updateToReplayQueue.offer(new UpdateToReplay(update, this)))
+      {
+        readyUpdates.add(update);
+      }
+    }
+  }
+
   private String logDecodingOperationError(LDAPUpdateMsg msg, Exception e)
   {
     LocalizableMessage message =
@@ -3433,6 +3559,11 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
       }
       exportConfig.setIncludeAttributes(includeAttributes);
     }
+    else
+    {
+      final ImportExportContext ieCtx = getImportExportContext();
+      exportConfig.setBinaryEntries(ieCtx != null && ieCtx.isBinaryEntries());
+    }
 
     //  Launch the export.
     long genID = 0;
@@ -3551,6 +3682,8 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
       importConfig.setValidateSchema(false);
       // Allow fractional replication ldif import plugin to be called
       importConfig.setInvokeImportPlugins(true);
+      // The exporter tells whether it sends the entries in the binary format
+      importConfig.setBinaryEntries(ieCtx.isBinaryEntries());
       // Reset the follow import flag and message before starting the import
       importErrorMessageId = -1;
 
@@ -3781,6 +3914,12 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
   public ConfigChangeResult applyConfigurationChange(
          ReplicationDomainCfg configuration)
   {
+    if (configuration.getConflictFilterSize() != config.getConflictFilterSize()
+        || configuration.getConflictFilterWindow() != config.getConflictFilterWindow())
+    {
+      // The new filter only skips conflict resolution once it has recorded enough changes
+      conflictFilter = newConflictFilter(configuration);
+    }
     this.config = configuration;
     changeConfig(configuration);
 
@@ -3855,9 +3994,91 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     // Create the ServerStateFlush thread
     flushThread.start();
 
+    rebuildConflictFilter();
     startListenService();
   }
 
+  /**
+   * Records in the conflict filter the changes of the last two conflict
+   * windows, read from the historical information of the entries. Until this
+   * succeeds, the conflict filter reports that any operation may conflict.
+   */
+  private void rebuildConflictFilter()
+  {
+    final ConflictFilter filter = conflictFilter;
+    if (filter == null)
+    {
+      return;
+    }
+
+    final long since = TimeThread.getTime() - 2 * filter.getWindowMillis();
+    try
+    {
+      final ConflictFilterSearchListener listener = new ConflictFilterSearchListener(filter, since);
+      for (CSN csn : getServerState())
+      {
+        final CSN fromCSN = new CSN(since, 0, csn.getServerId());
+        final InternalSearchOperation op = searchForChangedEntries(getBaseDN(), fromCSN, listener);
+        if (op.getResultCode() != ResultCode.SUCCESS)
+        {
+          return;
+        }
+      }
+      filter.setRecordingSince(since);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+    }
+  }
+
+  /** Records in a conflict filter the recent changes of the entries returned by a search. */
+  private static class ConflictFilterSearchListener implements InternalSearchListener
+  {
+    private final ConflictFilter filter;
+    private final long since;
+
+    private ConflictFilterSearchListener(ConflictFilter filter, long since)
+    {
+      this.filter = filter;
+      this.since = since;
+    }
+
+    @Override
+    public void handleInternalSearchEntry(InternalSearchOperation searchOperation, SearchResultEntry searchEntry)
+        throws DirectoryException
+    {
+      final String entryUUID = EntryHistorical.getEntryUUID(searchEntry);
+      if (entryUUID == null)
+      {
+        return;
+      }
+      for (HistoricalAttributeValue histVal : EntryHistorical.getHistoricalValues(searchEntry))
+      {
+        final CSN csn = histVal.getCSN();
+        if (csn == null || csn.getTime() < since || histVal.isADDOperation())
+        {
+          continue;
+        }
+        if (histVal.isMODDNOperation())
+        {
+          filter.recordEntryChange(entryUUID, csn);
+        }
+        else if (histVal.getAttributeDescription() != null)
+        {
+          filter.record(entryUUID, histVal.getAttributeDescription().getAttributeType(), csn.getServerId());
+        }
+      }
+    }
+
+    @Override
+    public void handleInternalSearchReference(InternalSearchOperation searchOperation,
+        SearchResultReference searchReference) throws DirectoryException
+    {
+      // Nothing to do.
+    }
+  }
+
   /** Remove the configuration of the external changelog from this domain configuration. */
   private void removeECLDomainCfg()
   {
@@ -4254,6 +4475,31 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         return true;
       }
 
+      if (!replayScheduler.add(msg))
+      {
+        // The update will be replayed once the updates it depends on are.
+        // Like the replay queue, do not accept more blocked updates than its
+        // capacity: wait until the dependencies of some of them are replayed.
+        final int maxBlockedUpdates =
+            updateToReplayQueue.size() + updateToReplayQueue.remainingCapacity();
+        while (!isListenerShuttingDown())
+        {
+          try
+          {
+            if (replayScheduler.awaitBlockedUpdates(maxBlockedUpdates, 1, TimeUnit.SECONDS))
+            {
+              break;
+            }
+          }
+          catch (InterruptedException e)
+          {
+            // Thread interrupted: check for shutdown.
+            Thread.currentThread().interrupt();
+          }
+        }
+        return false;
+      }
+
       // Put update message into the replay queue
       // (block until some place in the queue is available)
       final UpdateToReplay updateToReplay = new UpdateToReplay(msg, this);
@@ -4305,6 +4551,8 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         numUnresolvedNamingConflicts.get());
     addMonitorData(attributes, "remote-pending-changes-size",
         remotePendingChanges.getQueueSize());
+    addMonitorData(attributes, "updates-waiting-for-dependencies",
+        replayScheduler.getNumberOfBlockedUpdates());
 
     return attributes;
   }
@@ -4902,6 +5150,21 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     return config.getConflictsHistoricalPurgeDelay() * 60 * 1000;
   }
 
+  /**
+   * Tells whether the historical information of the entries is written in the
+   * compact form. The compact form must be enabled in the configuration, and
+   * all the servers of the topology must be able to read it, which they
+   * advertise with the replication protocol V11. Otherwise the legacy form is
+   * written.
+   *
+   * @return true if the historical information is written in the compact form.
+   */
+  boolean isCompactHistoricalUsed()
+  {
+    return isCompactHistoricalEnabled()
+        && isSupportedByAllServers(ProtocolVersion.REPLICATION_PROTOCOL_V11);
+  }
+
   /**
    * Check if the operation that just happened has cleared a conflict : Clearing
    * a conflict happens if the operation has freed a DN for which another entry
@@ -4956,7 +5219,8 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
        EntryHistorical entryHist = EntryHistorical.newInstanceFromEntry(entry);
        lastCSNPurgedFromHist = entryHist.getOldestCSN();
        entryHist.setPurgeDelay(getHistoricalPurgeDelay());
-       Attribute attr = entryHist.encodeAndPurge();
+       entryHist.setCompactForm(isCompactHistoricalUsed());
+       Attribute attr = entryHist.encodeStoredFormAndPurge();
        count += entryHist.getLastPurgedValuesCount();
        List<Modification> mods = newArrayList(new Modification(ModificationType.REPLACE, attr));
 
@@ -492,7 +492,9 @@ public class MultimasterReplication
           historicalInformation);
     }
     historicalInformation.setPurgeDelay(domain.getHistoricalPurgeDelay());
+    historicalInformation.setCompactForm(domain.isCompactHistoricalUsed());
     historicalInformation.setHistoricalAttrToOperation(modifyOperation);
+    domain.recordChange(modifyOperation);
 
     if (modifyOperation.getModifications().isEmpty())
     {
@@ -543,9 +545,11 @@ public class MultimasterReplication
           historicalInformation);
     }
     historicalInformation.setPurgeDelay(domain.getHistoricalPurgeDelay());
+    historicalInformation.setCompactForm(domain.isCompactHistoricalUsed());
 
     // Add to the operation the historical attribute : "dn:changeNumber:moddn"
     historicalInformation.setHistoricalAttrToOperation(modifyDNOperation);
+    domain.recordChange(modifyDNOperation);
 
     return new SynchronizationProviderResult.ContinueProcessing();
   }
@@ -570,7 +574,7 @@ public class MultimasterReplication
     }
 
     // Add to the operation the historical attribute : "dn:changeNumber:add"
-    EntryHistorical.setHistoricalAttrToOperation(addOperation);
+    EntryHistorical.setHistoricalAttrToOperation(addOperation, domain.isCompactHistoricalUsed());
 
     return new SynchronizationProviderResult.ContinueProcessing();
   }
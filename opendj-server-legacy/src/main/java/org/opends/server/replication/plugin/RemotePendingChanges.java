@@ -30,13 +30,11 @@ import java.util.*;
 
 import org.opends.server.core.AddOperation;
 import org.opends.server.core.DeleteOperation;
-import org.opends.server.core.ModifyDNOperationBasis;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.common.ServerState;
 import org.opends.server.replication.protocol.*;
 import org.opends.server.types.DN;
-import org.opends.server.types.Operation;
 
 /**
  * This class is used to store the list of remote changes received
@@ -44,7 +42,8 @@ import org.opends.server.types.Operation;
  * or that are waiting for being replayed.
  *
  * It is used to know when the ServerState must be updated and to compute
- * the dependencies between operations.
+ * the dependencies of the operations whose replay failed. The dependencies
+ * between the received changes are handled by the {@link ReplayScheduler}.
  *
  * One of this object is instantiated for each ReplicationDomain.
  */
@@ -321,93 +320,6 @@ final class RemotePendingChanges
     return hasDependencies;
   }
 
-  /**
-   * Check if the given ModifyDNMsg has some dependencies on any
-   * currently running previous operation.
-   * Update the dependency list in the associated PendingChange if
-   * there are some dependencies.
-   *
-   * Modify DN Operation depends on
-   * - AddOperation done on the same DN as the target DN of the MODDN operation
-   * - AddOperation done on the new parent of the MODDN  operation
-   * - DeleteOperation done on the new DN of the MODDN operation
-   * - ModifyDNOperation done from the new DN of the MODDN operation
-   *
-   * @param msg The ModifyDNMsg to be checked.
-   *
-   * @return A boolean indicating if this operation has some dependencies.
-   */
-  private synchronized boolean checkDependencies(ModifyDNMsg msg)
-  {
-    boolean hasDependencies = false;
-    final CSN csn = msg.getCSN();
-    final PendingChange change = pendingChanges.get(csn);
-    if (change == null)
-    {
-      return false;
-    }
-
-    final DN targetDN = change.getLDAPUpdateMsg().getDN();
-
-    for (PendingChange pendingChange : pendingChanges.values())
-    {
-      if (pendingChange.getCSN().isOlderThan(csn))
-      {
-        final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-        if (pendingMsg != null)
-        {
-          if (pendingMsg instanceof DeleteMsg)
-          {
-            // Check if the target of the Delete is the same
-            // as the new DN of this ModifyDN
-            if (msg.newDNIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
-          }
-          else if (pendingMsg instanceof AddMsg)
-          {
-            // Check if the Add Operation was done on the new parent of
-            // the MODDN  operation
-            if (msg.newParentIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
-            // Check if the AddOperation was done on the same DN as the
-            // target DN of the MODDN operation
-            if (pendingMsg.getDN().equals(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
-          }
-          else if (pendingMsg instanceof ModifyDNMsg)
-          {
-            // Check if the ModifyDNOperation was done from the new DN of
-            // the MODDN operation
-            if (msg.newDNIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
-          }
-        }
-      }
-      else
-      {
-        // We reached an operation that is newer than the operation
-        // for which we are doing the dependency check so it is
-        // not possible to find another operation with some dependency.
-        // break the loop to avoid going through the potentially large
-        // list of pending changes.
-        break;
-      }
-    }
-    return hasDependencies;
-  }
-
   /**
    * Check if the given DeleteOperation has some dependencies on any
    * currently running previous operation.
@@ -494,38 +406,4 @@ final class RemotePendingChanges
     }
     return hasDependencies;
   }
-
-  /**
-   * Check the dependencies of a given Operation/UpdateMsg.
-   *
-   * @param op   The Operation for which dependencies must be checked.
-   * @param msg  The LocalizableMessage for which dependencies must be checked.
-   * @return     A boolean indicating if an operation cannot be replayed
-   *             because of dependencies.
-   */
-  public boolean checkDependencies(Operation op, LDAPUpdateMsg msg)
-  {
-    if (op instanceof ModifyOperation)
-    {
-      ModifyOperation newOp = (ModifyOperation) op;
-      return checkDependencies(newOp);
-
-    } else if (op instanceof DeleteOperation)
-    {
-      DeleteOperation newOp = (DeleteOperation) op;
-      return checkDependencies(newOp);
-
-    } else if (op instanceof AddOperation)
-    {
-      AddOperation newOp = (AddOperation) op;
-      return checkDependencies(newOp);
-    } else if (op instanceof ModifyDNOperationBasis)
-    {
-      ModifyDNMsg newMsg = (ModifyDNMsg) msg;
-      return checkDependencies(newMsg);
-    } else
-    {
-      return true;  // unknown type of operation ?!
-    }
-  }
 }
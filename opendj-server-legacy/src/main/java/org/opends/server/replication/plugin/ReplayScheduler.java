@@ -0,0 +1,335 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.opends.server.replication.protocol.ModifyMsg;
+import org.opends.server.types.DN;
+import org.opends.server.types.DirectoryException;
+
+/**
+ * Schedules the replay of the updates received by a replication domain
+ * according to the dependencies between them.
+ * <p>
+ * Updates are added in the order they are received. Each update depends on the
+ * pending updates received before it which target:
+ * <ul>
+ * <li>the same entry, or the new DN of a modify DN,</li>
+ * <li>one of its ancestors, when adding, deleting or renaming this ancestor,</li>
+ * <li>one of its descendants, for deletes and modify DNs.</li>
+ * </ul>
+ * These dependencies form a directed acyclic graph indexed by DN. Updates
+ * without pending dependencies can be replayed right away and in parallel,
+ * while the others are released once all the updates they depend on are done.
+ * Finding the dependencies of an update only costs a few index lookups, rather
+ * than a scan of all the pending changes.
+ * <p>
+ * One of this object is instantiated for each ReplicationDomain.
+ */
+final class ReplayScheduler
+{
+  /** An update waiting for, or undergoing, replay. */
+  private static final class Node
+  {
+    private final LDAPUpdateMsg msg;
+    /** The DNs targeted by the update: the entry DN, then the new DN of a modify DN. */
+    private final DN[] dns;
+    /** The number of pending updates this update depends on. */
+    private int nbDependencies;
+    /** The pending updates depending on this update, lazily created. */
+    private List<Node> dependents;
+
+    private Node(LDAPUpdateMsg msg, DN... dns)
+    {
+      this.msg = msg;
+      this.dns = dns;
+    }
+  }
+
+  /** The pending updates targeting a DN. */
+  private static final class PendingDN
+  {
+    /** The last pending update targeting the entry. */
+    private Node lastUpdate;
+    /** The last pending add, delete or modify DN targeting the entry. */
+    private Node lastStructuralUpdate;
+    /** The number of pending updates targeting the entry. */
+    private int nbUpdates;
+  }
+
+  /** The updates added and not done yet, by CSN. */
+  private final Map<CSN, Node> pendingUpdates = new HashMap<>();
+
+  /**
+   * The DNs targeted by the pending updates. The DNs are sorted by their
+   * normalized form, so that the descendants of a DN follow it.
+   */
+  private final TreeMap<DN, PendingDN> pendingDNs = new TreeMap<>();
+
+  /** The number of pending updates waiting for other updates to be done. */
+  private int nbBlockedUpdates;
+
+  /**
+   * Adds an update received from the replication server.
+   *
+   * @param msg
+   *          The update to schedule.
+   * @return {@code true} if the update can be replayed right away, or
+   *         {@code false} if it will be returned by {@link #updateDone(CSN)}
+   *         once the updates it depends on are done.
+   */
+  synchronized boolean add(LDAPUpdateMsg msg)
+  {
+    final DN dn = msg.getDN();
+    final Node node;
+    final Set<Node> dependencies = new HashSet<>();
+    if (msg instanceof ModifyDNMsg)
+    {
+      final DN newDN = getNewDN((ModifyDNMsg) msg);
+      if (newDN != null && !newDN.equals(dn))
+      {
+        node = new Node(msg, dn, newDN);
+        addSameEntryDependency(dependencies, newDN);
+        addAncestorDependencies(dependencies, newDN);
+      }
+      else
+      {
+        node = new Node(msg, dn);
+      }
+      addDescendantDependencies(dependencies, dn);
+    }
+    else
+    {
+      node = new Node(msg, dn);
+      if (msg instanceof DeleteMsg)
+      {
+        addDescendantDependencies(dependencies, dn);
+      }
+    }
+    addSameEntryDependency(dependencies, dn);
+    addAncestorDependencies(dependencies, dn);
+
+    for (Node dependency : dependencies)
+    {
+      if (dependency.dependents == null)
+      {
+        dependency.dependents = new ArrayList<>(2);
+      }
+      dependency.dependents.add(node);
+    }
+    node.nbDependencies = dependencies.size();
+    if (node.nbDependencies > 0)
+    {
+      nbBlockedUpdates++;
+    }
+
+    final boolean structural = !(msg instanceof ModifyMsg);
+    for (DN targetDN : node.dns)
+    {
+      PendingDN pendingDN = pendingDNs.get(targetDN);
+      if (pendingDN == null)
+      {
+        pendingDN = new PendingDN();
+        pendingDNs.put(targetDN, pendingDN);
+      }
+      pendingDN.lastUpdate = node;
+      if (structural)
+      {
+        pendingDN.lastStructuralUpdate = node;
+      }
+      pendingDN.nbUpdates++;
+    }
+    pendingUpdates.put(msg.getCSN(), node);
+    return node.nbDependencies == 0;
+  }
+
+  private static DN getNewDN(ModifyDNMsg msg)
+  {
+    try
+    {
+      return msg.computeNewDN();
+    }
+    catch (DirectoryException e)
+    {
+      // The replay will fail anyway, only the entry DN matters.
+      return null;
+    }
+  }
+
+  private void addSameEntryDependency(Set<Node> dependencies, DN dn)
+  {
+    final PendingDN pendingDN = pendingDNs.get(dn);
+    if (pendingDN != null && pendingDN.lastUpdate != null)
+    {
+      dependencies.add(pendingDN.lastUpdate);
+    }
+  }
+
+  private void addAncestorDependencies(Set<Node> dependencies, DN dn)
+  {
+    for (DN ancestor = dn.parent(); ancestor != null; ancestor = ancestor.parent())
+    {
+      final PendingDN pendingDN = pendingDNs.get(ancestor);
+      if (pendingDN != null && pendingDN.lastStructuralUpdate != null)
+      {
+        dependencies.add(pendingDN.lastStructuralUpdate);
+      }
+    }
+  }
+
+  private void addDescendantDependencies(Set<Node> dependencies, DN dn)
+  {
+    // The normalized form of the descendants starts with the normalized DN.
+    final ByteString prefix = dn.toNormalizedByteString();
+    for (Map.Entry<DN, PendingDN> entry : pendingDNs.tailMap(dn, false).entrySet())
+    {
+      final DN pendingDN = entry.getKey();
+      final ByteString normalizedDN = pendingDN.toNormalizedByteString();
+      if (normalizedDN.length() < prefix.length()
+          || !normalizedDN.subSequence(0, prefix.length()).equals(prefix))
+      {
+        break;
+      }
+      if (pendingDN.isDescendantOf(dn) && entry.getValue().lastUpdate != null)
+      {
+        dependencies.add(entry.getValue().lastUpdate);
+      }
+    }
+  }
+
+  /**
+   * Signals that the replay of an update is done, whether it succeeded or not.
+   *
+   * @param csn
+   *          The CSN of the update.
+   * @return The updates which can now be replayed, as they no longer depend on
+   *         any pending update.
+   */
+  synchronized List<LDAPUpdateMsg> updateDone(CSN csn)
+  {
+    final Node node = pendingUpdates.remove(csn);
+    if (node == null)
+    {
+      return Collections.emptyList();
+    }
+
+    for (DN dn : node.dns)
+    {
+      final PendingDN pendingDN = pendingDNs.get(dn);
+      if (--pendingDN.nbUpdates == 0)
+      {
+        pendingDNs.remove(dn);
+      }
+      else
+      {
+        if (pendingDN.lastUpdate == node)
+        {
+          pendingDN.lastUpdate = null;
+        }
+        if (pendingDN.lastStructuralUpdate == node)
+        {
+          pendingDN.lastStructuralUpdate = null;
+        }
+      }
+    }
+
+    if (node.dependents == null)
+    {
+      return Collections.emptyList();
+    }
+    final List<LDAPUpdateMsg> readyUpdates = new ArrayList<>(node.dependents.size());
+    for (Node dependent : node.dependents)
+    {
+      if (--dependent.nbDependencies == 0)
+      {
+        nbBlockedUpdates--;
+        readyUpdates.add(dependent.msg);
+      }
+    }
+    if (!readyUpdates.isEmpty())
+    {
+      notifyAll();
+    }
+    return readyUpdates;
+  }
+
+  /**
+   * Waits until at most the provided number of updates are waiting for other
+   * updates to be replayed. This bounds the memory used by the blocked updates
+   * the same way the replay queue bounds the memory used by the other ones.
+   * This cannot deadlock, as the blocked updates only depend on updates which
+   * have already been added.
+   *
+   * @param maxBlockedUpdates
+   *          The maximum number of blocked updates.
+   * @param timeout
+   *          The maximum time to wait.
+   * @param unit
+   *          The unit of the timeout.
+   * @return {@code true} if at most {@code maxBlockedUpdates} updates are
+   *         blocked, {@code false} if the timeout elapsed before.
+   * @throws InterruptedException
+   *           If the current thread is interrupted while waiting.
+   */
+  synchronized boolean awaitBlockedUpdates(int maxBlockedUpdates, long timeout, TimeUnit unit)
+      throws InterruptedException
+  {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (nbBlockedUpdates > maxBlockedUpdates)
+    {
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0)
+      {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of updates waiting for other updates to be replayed.
+   *
+   * @return The number of updates waiting for other updates to be replayed.
+   */
+  synchronized int getNumberOfBlockedUpdates()
+  {
+    return nbBlockedUpdates;
+  }
+}
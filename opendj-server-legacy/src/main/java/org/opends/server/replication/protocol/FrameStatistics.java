@@ -0,0 +1,154 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about the frames sent and received by a session, each holding
+ * several replication messages.
+ */
+public final class FrameStatistics
+{
+  private final AtomicLong framesSent = new AtomicLong();
+  private final AtomicLong messagesSentInFrames = new AtomicLong();
+  private final AtomicLong frameBytesSent = new AtomicLong();
+  private final AtomicLong bytesSavedOnSend = new AtomicLong();
+  private final AtomicLong framesReceived = new AtomicLong();
+  private final AtomicLong messagesReceivedInFrames = new AtomicLong();
+  private final AtomicLong frameBytesReceived = new AtomicLong();
+  private final AtomicLong bytesSavedOnReceive = new AtomicLong();
+
+  void frameSent(int nbMessages, int payloadSize, int bodySize)
+  {
+    framesSent.incrementAndGet();
+    messagesSentInFrames.addAndGet(nbMessages);
+    frameBytesSent.addAndGet(bodySize);
+    bytesSavedOnSend.addAndGet(bytesSaved(nbMessages, payloadSize, bodySize));
+  }
+
+  void frameReceived(int nbMessages, int payloadSize, int bodySize)
+  {
+    framesReceived.incrementAndGet();
+    messagesReceivedInFrames.addAndGet(nbMessages);
+    frameBytesReceived.addAndGet(bodySize);
+    bytesSavedOnReceive.addAndGet(bytesSaved(nbMessages, payloadSize, bodySize));
+  }
+
+  /**
+   * Returns the number of bytes saved by sending a frame rather than each
+   * message separately with an 8 bytes header.
+   */
+  private static long bytesSaved(int nbMessages, int payloadSize, int bodySize)
+  {
+    // The payload holds a 4 bytes length per message.
+    final long unframedSize = payloadSize + 4L * nbMessages;
+    return unframedSize - (bodySize + 8L);
+  }
+
+  /**
+   * Returns the number of frames sent.
+   *
+   * @return the number of frames sent
+   */
+  public long getFramesSent()
+  {
+    return framesSent.get();
+  }
+
+  /**
+   * Returns the number of messages sent in frames.
+   *
+   * @return the number of messages sent in frames
+   */
+  public long getMessagesSentInFrames()
+  {
+    return messagesSentInFrames.get();
+  }
+
+  /**
+   * Returns the average size in bytes of the frames sent.
+   *
+   * @return the average size in bytes of the frames sent
+   */
+  public long getAverageSentFrameSize()
+  {
+    final long frames = framesSent.get();
+    return frames != 0 ? frameBytesSent.get() / frames : 0;
+  }
+
+  /**
+   * Returns the number of bytes saved by sending messages in frames, mostly
+   * thanks to compression.
+   *
+   * @return the number of bytes saved by sending messages in frames
+   */
+  public long getBytesSavedOnSend()
+  {
+    return bytesSavedOnSend.get();
+  }
+
+  /**
+   * Returns the number of frames received.
+   *
+   * @return the number of frames received
+   */
+  public long getFramesReceived()
+  {
+    return framesReceived.get();
+  }
+
+  /**
+   * Returns the number of messages received in frames.
+   *
+   * @return the number of messages received in frames
+   */
+  public long getMessagesReceivedInFrames()
+  {
+    return messagesReceivedInFrames.get();
+  }
+
+  /**
+   * Returns the average size in bytes of the frames received.
+   *
+   * @return the average size in bytes of the frames received
+   */
+  public long getAverageReceivedFrameSize()
+  {
+    final long frames = framesReceived.get();
+    return frames != 0 ? frameBytesReceived.get() / frames : 0;
+  }
+
+  /**
+   * Returns the number of bytes saved by receiving messages in frames, mostly
+   * thanks to compression.
+   *
+   * @return the number of bytes saved by receiving messages in frames
+   */
+  public long getBytesSavedOnReceive()
+  {
+    return bytesSavedOnReceive.get();
+  }
+}
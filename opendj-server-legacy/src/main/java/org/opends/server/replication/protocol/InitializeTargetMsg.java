@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2014 ForgeRock AS.
+ *      Portions Copyright 2013-2015 ForgeRock AS.
  */
 package org.opends.server.replication.protocol;
 
@@ -51,6 +51,12 @@ public class InitializeTargetMsg extends RoutableMsg
 
   private int initWindow;
 
+  /**
+   * Specifies whether the entries are sent in the binary format rather than in
+   * LDIF.
+   */
+  private final boolean binaryEntries;
+
   /**
    * Creates a InitializeTargetMsg.
    *
@@ -63,12 +69,32 @@ public class InitializeTargetMsg extends RoutableMsg
    */
   public InitializeTargetMsg(DN baseDN, int serverID,
       int destination, int requestorID, long entryCount, int initWindow)
+  {
+    this(baseDN, serverID, destination, requestorID, entryCount, initWindow,
+        false);
+  }
+
+  /**
+   * Creates a InitializeTargetMsg.
+   *
+   * @param baseDN     The base DN for which the InitializeMessage is created.
+   * @param serverID   The serverID of the server that sends this message.
+   * @param destination     The destination of this message.
+   * @param requestorID    The server that initiates this export.
+   * @param entryCount The count of entries that will be sent.
+   * @param initWindow the initialization window.
+   * @param binaryEntries whether the entries will be sent in the binary format
+   *                      rather than in LDIF.
+   */
+  public InitializeTargetMsg(DN baseDN, int serverID, int destination,
+      int requestorID, long entryCount, int initWindow, boolean binaryEntries)
   {
     super(serverID, destination);
     this.requestorID = requestorID;
     this.baseDN = baseDN;
     this.entryCount = entryCount;
     this.initWindow = initWindow; // V4
+    this.binaryEntries = binaryEntries; // V10
   }
 
   /**
@@ -97,6 +123,14 @@ public class InitializeTargetMsg extends RoutableMsg
     {
       initWindow = scanner.nextIntUTF8();
     }
+    if (version >= ProtocolVersion.REPLICATION_PROTOCOL_V10)
+    {
+      binaryEntries = scanner.nextBoolean();
+    }
+    else
+    {
+      binaryEntries = false;
+    }
   }
 
   /**
@@ -140,6 +174,17 @@ public class InitializeTargetMsg extends RoutableMsg
     return this.initWindow;
   }
 
+  /**
+   * Returns whether the entries are sent in the binary format rather than in
+   * LDIF.
+   *
+   * @return true if the entries are sent in the binary format.
+   */
+  public boolean isBinaryEntries()
+  {
+    return this.binaryEntries;
+  }
+
   // ============
   // Msg encoding
   // ============
@@ -159,6 +204,10 @@ public class InitializeTargetMsg extends RoutableMsg
     {
       builder.appendIntUTF8(initWindow);
     }
+    if (version >= ProtocolVersion.REPLICATION_PROTOCOL_V10)
+    {
+      builder.appendBoolean(binaryEntries);
+    }
     return builder.toByteArray();
   }
 
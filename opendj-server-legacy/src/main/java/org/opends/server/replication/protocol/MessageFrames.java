@@ -0,0 +1,240 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the frames used by sessions to send several replication
+ * messages at once, starting with {@link ProtocolVersion#REPLICATION_PROTOCOL_V9}.
+ * <p>
+ * A single message is sent as its length, in 8 hexadecimal digits, followed by
+ * its bytes. A frame header starts with {@link #FRAME_MARKER}, which can never
+ * be part of such a length, followed by the length of the frame body in 7
+ * hexadecimal digits. The frame body is made of:
+ * <ul>
+ * <li>a flags byte, telling whether the payload is compressed,</li>
+ * <li>for compressed payloads, the length of the uncompressed payload on 4
+ * bytes,</li>
+ * <li>the payload, possibly deflated, holding each message as its length on 4
+ * bytes followed by its bytes.</li>
+ * </ul>
+ */
+final class MessageFrames
+{
+  /** The first byte of a frame header. */
+  static final byte FRAME_MARKER = '#';
+
+  /** The maximum size of the payload of a frame. */
+  static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+
+  /** Payloads smaller than this are not worth compressing. */
+  private static final int MIN_COMPRESSED_PAYLOAD_SIZE = 512;
+
+  private static final byte FLAG_COMPRESSED = 0x01;
+
+  private MessageFrames()
+  {
+    // Utility class.
+  }
+
+  /**
+   * Returns the header of a frame.
+   *
+   * @param bodyLength
+   *          the length of the frame body
+   * @return the header of the frame
+   */
+  static byte[] header(int bodyLength)
+  {
+    final byte[] header = String.format("%08x", bodyLength).getBytes();
+    header[0] = FRAME_MARKER;
+    return header;
+  }
+
+  /**
+   * Returns the length of the frame body read from a frame header.
+   *
+   * @param header
+   *          the frame header
+   * @return the length of the frame body
+   */
+  static int bodyLength(byte[] header)
+  {
+    return Integer.parseInt(new String(header, 1, header.length - 1), 16);
+  }
+
+  /**
+   * Encodes messages into the body of a frame.
+   *
+   * @param messages
+   *          the encoded messages to send
+   * @param deflater
+   *          the deflater used to compress the payload, or {@code null} to
+   *          leave the payload uncompressed
+   * @param statistics
+   *          the statistics to update
+   * @return the body of the frame
+   */
+  static byte[] encode(List<byte[]> messages, Deflater deflater, FrameStatistics statistics)
+  {
+    int payloadSize = 0;
+    for (byte[] message : messages)
+    {
+      payloadSize += 4 + message.length;
+    }
+    final ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+    for (byte[] message : messages)
+    {
+      payload.putInt(message.length);
+      payload.put(message);
+    }
+
+    byte[] body = null;
+    if (deflater != null && payloadSize >= MIN_COMPRESSED_PAYLOAD_SIZE)
+    {
+      body = deflate(payload.array(), deflater);
+    }
+    if (body == null)
+    {
+      body = new byte[1 + payloadSize];
+      System.arraycopy(payload.array(), 0, body, 1, payloadSize);
+    }
+    statistics.frameSent(messages.size(), payloadSize, body.length);
+    return body;
+  }
+
+  /**
+   * Returns the body of a compressed frame, or {@code null} if compressing does
+   * not save any byte.
+   */
+  private static byte[] deflate(byte[] payload, Deflater deflater)
+  {
+    deflater.reset();
+    deflater.setInput(payload);
+    deflater.finish();
+    final byte[] buffer = new byte[5 + payload.length];
+    int length = 5;
+    while (!deflater.finished() && length < buffer.length)
+    {
+      length += deflater.deflate(buffer, length, buffer.length - length);
+    }
+    if (!deflater.finished())
+    {
+      return null;
+    }
+    ByteBuffer.wrap(buffer).put(FLAG_COMPRESSED).putInt(payload.length);
+    final byte[] body = new byte[length];
+    System.arraycopy(buffer, 0, body, 0, length);
+    return body;
+  }
+
+  /**
+   * Decodes the messages held in the body of a frame.
+   *
+   * @param body
+   *          the body of the frame
+   * @param inflater
+   *          the inflater used to uncompress the payload
+   * @param messages
+   *          where to add the encoded messages, in the order they were sent
+   * @param statistics
+   *          the statistics to update
+   * @throws DataFormatException
+   *           if the frame is not properly formatted
+   */
+  static void decode(byte[] body, Inflater inflater, Queue<byte[]> messages, FrameStatistics statistics)
+      throws DataFormatException
+  {
+    if (body.length < 1)
+    {
+      throw new DataFormatException("Empty replication frame");
+    }
+    final ByteBuffer payload;
+    if ((body[0] & FLAG_COMPRESSED) != 0)
+    {
+      if (body.length < 5)
+      {
+        throw new DataFormatException("Truncated replication frame");
+      }
+      final int payloadSize = ByteBuffer.wrap(body, 1, 4).getInt();
+      if (payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE)
+      {
+        throw new DataFormatException("Invalid replication frame payload size " + payloadSize);
+      }
+      final byte[] inflated = new byte[payloadSize];
+      inflater.reset();
+      inflater.setInput(body, 5, body.length - 5);
+      int length = 0;
+      while (length < payloadSize && !inflater.finished())
+      {
+        final int read = inflater.inflate(inflated, length, payloadSize - length);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+        {
+          break;
+        }
+        length += read;
+      }
+      if (length != payloadSize)
+      {
+        throw new DataFormatException("Truncated replication frame");
+      }
+      payload = ByteBuffer.wrap(inflated);
+    }
+    else
+    {
+      payload = ByteBuffer.wrap(body, 1, body.length - 1);
+    }
+
+    final int payloadSize = payload.remaining();
+    int nbMessages = 0;
+    while (payload.hasRemaining())
+    {
+      if (payload.remaining() < 4)
+      {
+        throw new DataFormatException("Truncated replication frame");
+      }
+      final int length = payload.getInt();
+      if (length < 0 || length > payload.remaining())
+      {
+        throw new DataFormatException("Invalid replication message length " + length);
+      }
+      final byte[] message = new byte[length];
+      payload.get(message);
+      messages.add(message);
+      nbMessages++;
+    }
+    if (nbMessages == 0)
+    {
+      throw new DataFormatException("Empty replication frame");
+    }
+    statistics.frameReceived(nbMessages, payloadSize, body.length);
+  }
+}
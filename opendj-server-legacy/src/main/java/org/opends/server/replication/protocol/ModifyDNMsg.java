@@ -372,7 +372,7 @@ public class ModifyDNMsg extends ModifyCommonMsg
    * @return the newDN.
    * @throws DirectoryException in case of decoding problems.
    */
-  private DN computeNewDN() throws DirectoryException
+  public DN computeNewDN() throws DirectoryException
   {
     if (newSuperior != null)
     {
@@ -104,10 +104,37 @@ public class ProtocolVersion
    */
   public static final short REPLICATION_PROTOCOL_V8 = 8;
 
+  /**
+   * The constant for the 9th version of the replication protocol.
+   * <ul>
+   * <li>Sessions may send several messages in a single, optionally
+   * compressed, frame.</li>
+   * </ul>
+   */
+  public static final short REPLICATION_PROTOCOL_V9 = 9;
+
+  /**
+   * The constant for the 10th version of the replication protocol.
+   * <ul>
+   * <li>InitializeTargetMsg specifies whether the entries of a total update
+   * are sent in the binary format rather than in LDIF.</li>
+   * </ul>
+   */
+  public static final short REPLICATION_PROTOCOL_V10 = 10;
+
+  /**
+   * The constant for the 11th version of the replication protocol.
+   * <ul>
+   * <li>Directory servers can read the compact form of the historical
+   * information of the entries.</li>
+   * </ul>
+   */
+  public static final short REPLICATION_PROTOCOL_V11 = 11;
+
   /**
    * The replication protocol version used by the instance of RS/DS in this VM.
    */
-  private static final short CURRENT_VERSION = REPLICATION_PROTOCOL_V8;
+  private static final short CURRENT_VERSION = REPLICATION_PROTOCOL_V11;
 
   /**
    * Gets the current version of the replication protocol.
@@ -29,9 +29,11 @@ package org.opends.server.replication.protocol;
 import java.io.IOException;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.SortedSet;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
@@ -280,6 +282,136 @@ public final class ReplSessionSecurity
 
 
 
+  /**
+   * Create a new protocol session in the client role on the provided socket
+   * channel. The network I/O of the session is handled by a shared selector
+   * thread rather than by a dedicated session thread.
+   *
+   * @param channel
+   *          The connected socket channel.
+   * @param soTimeout
+   *          The socket timeout option to use for the protocol session.
+   * @return The new protocol session.
+   * @throws ConfigException
+   *           If the protocol session could not be established due to a
+   *           configuration problem.
+   * @throws IOException
+   *           If the protocol session could not be established for some other
+   *           reason.
+   */
+  public Session createClientSession(final SocketChannel channel,
+      final int soTimeout) throws ConfigException, IOException
+  {
+    boolean hasCompleted = false;
+    SessionChannel sessionChannel = null;
+
+    try
+    {
+      // Create a new SSL context every time to make sure we pick up the
+      // latest contents of the trust store.
+      final CryptoManager cryptoManager = DirectoryConfig.getCryptoManager();
+      final SSLContext sslContext = cryptoManager.getSslContext(REPLICATION_CLIENT_NAME, sslCertNicknames);
+      final Socket socket = channel.socket();
+      final SSLEngine sslEngine = sslContext.createSSLEngine(
+          socket.getInetAddress().getHostName(), socket.getPort());
+      sslEngine.setUseClientMode(true);
+      setEnabledProtocolsAndCipherSuites(sslEngine);
+
+      sessionChannel = new SessionChannel(channel, sslEngine);
+      sessionChannel.setSoTimeout(soTimeout);
+      // Force TLS negotiation now.
+      sessionChannel.handshake();
+      hasCompleted = true;
+      return new Session(sessionChannel);
+    }
+    finally
+    {
+      if (!hasCompleted)
+      {
+        close(sessionChannel, channel);
+      }
+    }
+  }
+
+
+
+  /**
+   * Create a new protocol session in the server role on the provided socket
+   * channel. The network I/O of the session is handled by a shared selector
+   * thread rather than by a dedicated session thread.
+   *
+   * @param channel
+   *          The connected socket channel.
+   * @param soTimeout
+   *          The socket timeout option to use for the protocol session.
+   * @return The new protocol session.
+   * @throws ConfigException
+   *           If the protocol session could not be established due to a
+   *           configuration problem.
+   * @throws IOException
+   *           If the protocol session could not be established for some other
+   *           reason.
+   */
+  public Session createServerSession(final SocketChannel channel,
+      final int soTimeout) throws ConfigException, IOException
+  {
+    boolean hasCompleted = false;
+    SessionChannel sessionChannel = null;
+
+    try
+    {
+      // Create a new SSL context every time to make sure we pick up the
+      // latest contents of the trust store.
+      final CryptoManager cryptoManager = DirectoryConfig.getCryptoManager();
+      final SSLContext sslContext = cryptoManager.getSslContext(REPLICATION_SERVER_NAME, sslCertNicknames);
+      final Socket socket = channel.socket();
+      final SSLEngine sslEngine = sslContext.createSSLEngine(
+          socket.getInetAddress().getHostName(), socket.getPort());
+      sslEngine.setUseClientMode(false);
+      sslEngine.setNeedClientAuth(true);
+      setEnabledProtocolsAndCipherSuites(sslEngine);
+
+      sessionChannel = new SessionChannel(channel, sslEngine);
+      sessionChannel.setSoTimeout(soTimeout);
+      // Force TLS negotiation now.
+      sessionChannel.handshake();
+      hasCompleted = true;
+      return new Session(sessionChannel);
+    }
+    catch (final SSLException e)
+    {
+      // This is probably a connection attempt from an unexpected client
+      // log that to warn the administrator.
+      logger.debug(INFO_SSL_SERVER_CON_ATTEMPT_ERROR, channel.socket().getRemoteSocketAddress(),
+          channel.socket().getLocalSocketAddress(), e.getLocalizedMessage());
+      return null;
+    }
+    finally
+    {
+      if (!hasCompleted)
+      {
+        close(sessionChannel, channel);
+      }
+    }
+  }
+
+
+
+  private void setEnabledProtocolsAndCipherSuites(final SSLEngine sslEngine)
+  {
+    if (sslProtocols != null)
+    {
+      sslEngine.setEnabledProtocols(sslProtocols);
+    }
+
+    if (sslCipherSuites != null)
+    {
+      sslEngine.setEnabledCipherSuites(sslCipherSuites);
+    }
+  }
+
+
+
   /**
    * Determine whether sessions to a given replication server should be
    * encrypted.
@@ -31,6 +31,10 @@ import static org.opends.server.util.StaticUtils.*;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -38,6 +42,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.SSLSocket;
 
@@ -47,6 +53,11 @@ import org.opends.server.util.StaticUtils;
 
 /**
  * This class defines a replication session using TLS.
+ * <p>
+ * A session is either based on blocking sockets, in which case messages
+ * published once the session is started are sent by the session thread, or on
+ * a {@link SessionChannel}, in which case no session thread is needed: the
+ * publishing threads and a shared selector thread send them.
  */
 public final class Session extends DirectoryThread implements Closeable
 {
@@ -54,6 +65,8 @@ public final class Session extends DirectoryThread implements Closeable
 
   private final Socket plainSocket;
   private final SSLSocket secureSocket;
+  /** The channel of this session, null if it is based on blocking sockets. */
+  private final SessionChannel channel;
   private final InputStream plainInput;
   private final OutputStream plainOutput;
   private final byte[] rcvLengthBuf = new byte[8];
@@ -93,6 +106,13 @@ public final class Session extends DirectoryThread implements Closeable
   private short protocolVersion = ProtocolVersion.getCurrentVersion();
   /** Initially encrypted. */
   private boolean isEncrypted = true;
+  /**
+   * Whether several messages may be sent in a single frame, once the peer is
+   * known to support it.
+   */
+  private volatile boolean framingEnabled;
+  /** Whether frames should be compressed when it saves bytes. */
+  private volatile boolean frameCompression;
 
   /**
    * Use a buffered input stream to avoid too many system calls.
@@ -105,6 +125,21 @@ public final class Session extends DirectoryThread implements Closeable
    */
   private BufferedOutputStream output;
 
+  /**
+   * The messages received in a frame and not returned yet by
+   * {@link #receive()}. Only used by the receiving thread.
+   */
+  private final Queue<byte[]> receivedMessages = new ArrayDeque<>();
+  /** Uncompresses the frames received, only used by the receiving thread. */
+  private Inflater inflater;
+  private final FrameStatistics frameStatistics = new FrameStatistics();
+
+  /**
+   * Compresses the frames sent by a session over a channel, guarded by
+   * publishLock.
+   */
+  private Deflater channelDeflater;
+
   private final LinkedBlockingQueue<byte[]> sendQueue = new LinkedBlockingQueue<>(4000);
   private AtomicBoolean isRunning = new AtomicBoolean(false);
   private final CountDownLatch latch = new CountDownLatch(1);
@@ -135,6 +170,7 @@ public final class Session extends DirectoryThread implements Closeable
 
     this.plainSocket = socket;
     this.secureSocket = secureSocket;
+    this.channel = null;
     this.plainInput = plainSocket.getInputStream();
     this.plainOutput = plainSocket.getOutputStream();
     this.input = new BufferedInputStream(secureSocket.getInputStream());
@@ -146,6 +182,38 @@ public final class Session extends DirectoryThread implements Closeable
         + plainSocket.getLocalPort();
   }
 
+  /**
+   * Creates a new Session over a channel.
+   *
+   * @param channel
+   *          The channel on which the Session will be based, once the TLS
+   *          handshake has been performed.
+   */
+  Session(final SessionChannel channel)
+  {
+    super("Replication Session from " + channel.getSocket().getLocalSocketAddress()
+        + " to " + channel.getSocket().getRemoteSocketAddress());
+    if (logger.isTraceEnabled())
+    {
+      logger.trace(
+          "Creating Session from %s to %s in %s",
+          channel.getSocket().getLocalSocketAddress(),
+          channel.getSocket().getRemoteSocketAddress(),
+          stackTraceToSingleLineString(new Exception()));
+    }
+
+    this.plainSocket = channel.getSocket();
+    this.secureSocket = null;
+    this.channel = channel;
+    this.plainInput = null;
+    this.plainOutput = null;
+    this.readableRemoteAddress = plainSocket.getRemoteSocketAddress()
+        .toString();
+    this.remoteAddress = plainSocket.getInetAddress().getHostAddress();
+    this.localUrl = plainSocket.getLocalAddress().getHostName() + ":"
+        + plainSocket.getLocalPort();
+  }
+
 
 
   /**
@@ -175,6 +243,8 @@ public final class Session extends DirectoryThread implements Closeable
     catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
+    // Messages published from now on, such as StopMsg, are sent synchronously.
+    isRunning.set(false);
 
     // Perform close outside of critical section.
     if (logger.isTraceEnabled())
@@ -211,7 +281,27 @@ public final class Session extends DirectoryThread implements Closeable
       }
     }
 
-    StaticUtils.close(plainSocket, secureSocket);
+    if (channel != null)
+    {
+      channel.close();
+      publishLock.lock();
+      try
+      {
+        if (channelDeflater != null)
+        {
+          channelDeflater.end();
+          channelDeflater = null;
+        }
+      }
+      finally
+      {
+        publishLock.unlock();
+      }
+    }
+    else
+    {
+      StaticUtils.close(plainSocket, secureSocket);
+    }
   }
 
 
@@ -333,6 +423,10 @@ public final class Session extends DirectoryThread implements Closeable
           // Avoid blocking forever so that we can check for session closure.
           if (sendQueue.offer(buffer, 100, TimeUnit.MILLISECONDS))
           {
+            if (channel != null)
+            {
+              flushSendQueue();
+            }
             return;
           }
         }
@@ -358,18 +452,110 @@ public final class Session extends DirectoryThread implements Closeable
   private void send(final byte[] buffer) throws IOException
   {
     final String str = String.format("%08x", buffer.length);
-    final byte[] sendLengthBuf = str.getBytes();
+    send(str.getBytes(), buffer);
+  }
 
+  /**
+   * Sends the first message of the send queue, along with the following ones
+   * in a single frame if the queue holds a backlog. A message published while
+   * the queue is empty is thus sent right away, while a backlog is drained in
+   * large frames.
+   *
+   * @param buffer
+   *          the first message of the send queue, already encoded
+   * @param deflater
+   *          the deflater used to compress the frames, or {@code null}
+   * @throws IOException if the messages could not be sent
+   */
+  private void sendBacklog(final byte[] buffer, final Deflater deflater) throws IOException
+  {
+    byte[] next = sendQueue.peek();
+    int payloadSize = 4 + buffer.length;
+    if (next == null || payloadSize + 4 + next.length > MessageFrames.MAX_PAYLOAD_SIZE)
+    {
+      send(buffer);
+      return;
+    }
+
+    final List<byte[]> messages = new ArrayList<>();
+    messages.add(buffer);
+    do
+    {
+      // Only one thread at a time consumes the queue.
+      messages.add(sendQueue.poll());
+      payloadSize += 4 + next.length;
+      next = sendQueue.peek();
+    }
+    while (next != null && payloadSize + 4 + next.length <= MessageFrames.MAX_PAYLOAD_SIZE);
+
+    final byte[] body = MessageFrames.encode(messages, deflater, frameStatistics);
+    send(MessageFrames.header(body.length), body);
+  }
+
+  /**
+   * Sends the messages of the send queue of a session over a channel, as long
+   * as the channel has room for them. Called by the publishing threads, and by
+   * the selector thread once the channel has sent its pending output: the
+   * thread acquiring the publish lock sends the messages published by the
+   * others, in frames when there is a backlog.
+   */
+  private void flushSendQueue()
+  {
+    while (!sendQueue.isEmpty() && channel.hasRoomForOutput() && !closeInitiated
+        && publishLock.tryLock())
+    {
+      boolean needClosing = false;
+      try
+      {
+        byte[] buffer;
+        while (channel.hasRoomForOutput() && (buffer = sendQueue.poll()) != null)
+        {
+          if (framingEnabled)
+          {
+            sendBacklog(buffer, channelDeflater);
+          }
+          else
+          {
+            send(buffer);
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        setSessionError(e);
+        needClosing = true;
+      }
+      finally
+      {
+        publishLock.unlock();
+      }
+      if (needClosing)
+      {
+        close();
+        return;
+      }
+    }
+  }
+
+  private void send(final byte[] header, final byte[] content) throws IOException
+  {
     publishLock.lock();
     try
     {
-      /*
-       * The buffered output stream ensures that the message is usually sent as
-       * a single TCP packet.
-       */
-      output.write(sendLengthBuf);
-      output.write(buffer);
-      output.flush();
+      if (channel != null)
+      {
+        channel.write(header, content);
+      }
+      else
+      {
+        /*
+         * The buffered output stream ensures that the message is usually sent
+         * as a single TCP packet.
+         */
+        output.write(header);
+        output.write(content);
+        output.flush();
+      }
     } catch (final IOException e) {
       setSessionError(e);
       throw e;
@@ -404,6 +590,12 @@ public final class Session extends DirectoryThread implements Closeable
   {
     try
     {
+      final byte[] framedMessage = receivedMessages.poll();
+      if (framedMessage != null)
+      {
+        return ReplicationMsg.generateMsg(framedMessage, protocolVersion);
+      }
+
       /*
        * Let's start the stop-watch before waiting on read for the heartbeat
        * check to be operational.
@@ -412,6 +604,10 @@ public final class Session extends DirectoryThread implements Closeable
 
       // Read the first 8 bytes containing the packet length.
       read(rcvLengthBuf);
+      if (rcvLengthBuf[0] == MessageFrames.FRAME_MARKER)
+      {
+        return receiveFrame(MessageFrames.bodyLength(rcvLengthBuf));
+      }
       final int totalLength = Integer.parseInt(new String(rcvLengthBuf), 16);
 
       try
@@ -439,13 +635,39 @@ public final class Session extends DirectoryThread implements Closeable
     }
   }
 
+  private ReplicationMsg receiveFrame(final int bodyLength) throws IOException,
+      DataFormatException, NotSupportedOldVersionPDUException
+  {
+    final byte[] body;
+    try
+    {
+      body = new byte[bodyLength];
+    }
+    catch (final OutOfMemoryError e)
+    {
+      throw new IOException("Packet too large, can't allocate "
+          + bodyLength + " bytes.");
+    }
+    read(body);
+    lastReceiveTime = 0;
+
+    if (inflater == null)
+    {
+      inflater = new Inflater();
+    }
+    MessageFrames.decode(body, inflater, receivedMessages, frameStatistics);
+    return ReplicationMsg.generateMsg(receivedMessages.poll(), protocolVersion);
+  }
+
   private void read(byte[] buffer) throws IOException
   {
     final int totalLength = buffer.length;
     int length = 0;
     while (length < totalLength)
     {
-      final int read = input.read(buffer, length, totalLength - length);
+      final int read = channel != null
+          ? channel.read(buffer, length, totalLength - length)
+          : input.read(buffer, length, totalLength - length);
       if (read == -1)
       {
         lastReceiveTime = 0;
@@ -464,6 +686,8 @@ public final class Session extends DirectoryThread implements Closeable
   public void setProtocolVersion(final short version)
   {
     protocolVersion = version;
+    // The peer advertised this version, so it can decode frames.
+    framingEnabled = version >= ProtocolVersion.REPLICATION_PROTOCOL_V9;
   }
 
 
@@ -492,7 +716,14 @@ public final class Session extends DirectoryThread implements Closeable
    */
   public void setSoTimeout(final int timeout) throws SocketException
   {
-    plainSocket.setSoTimeout(timeout);
+    if (channel != null)
+    {
+      channel.setSoTimeout(timeout);
+    }
+    else
+    {
+      plainSocket.setSoTimeout(timeout);
+    }
   }
 
 
@@ -502,6 +733,13 @@ public final class Session extends DirectoryThread implements Closeable
    */
   public void stopEncryption()
   {
+    isEncrypted = false;
+    if (channel != null)
+    {
+      channel.stopEncryption();
+      return;
+    }
+
     /*
      * The secure socket has been configured not to auto close the underlying
      * plain socket. We should close it here and properly tear down the SSL
@@ -514,7 +752,32 @@ public final class Session extends DirectoryThread implements Closeable
 
     input = new BufferedInputStream(plainInput);
     output = new BufferedOutputStream(plainOutput);
-    isEncrypted = false;
+  }
+
+
+
+  /**
+   * Sets whether the frames sent on this session should be compressed. It must
+   * be called before the session thread is started.
+   *
+   * @param compression
+   *          whether the frames should be compressed when it saves bytes
+   */
+  public void setFrameCompression(final boolean compression)
+  {
+    frameCompression = compression;
+  }
+
+
+
+  /**
+   * Returns the statistics about the frames sent and received on this session.
+   *
+   * @return the statistics about the frames sent and received on this session
+   */
+  public FrameStatistics getFrameStatistics()
+  {
+    return frameStatistics;
   }
 
 
@@ -530,6 +793,44 @@ public final class Session extends DirectoryThread implements Closeable
     }
   }
 
+  /**
+   * Starts sending the messages published on this session asynchronously.
+   * Sessions over a channel do not need to start a thread for this, the
+   * publishing threads and the selector thread of the channel send them.
+   */
+  @Override
+  public synchronized void start()
+  {
+    if (channel == null)
+    {
+      super.start();
+      return;
+    }
+
+    publishLock.lock();
+    try
+    {
+      if (frameCompression)
+      {
+        channelDeflater = new Deflater(Deflater.BEST_SPEED);
+      }
+    }
+    finally
+    {
+      publishLock.unlock();
+    }
+    channel.setDrainListener(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        flushSendQueue();
+      }
+    });
+    isRunning.set(true);
+    latch.countDown();
+  }
+
   /**
    * Run method for the Session.
    * Loops waiting for buffers from the queue and sends them when available.
@@ -544,6 +845,7 @@ public final class Session extends DirectoryThread implements Closeable
       logger.trace(getName() + " starting.");
     }
     boolean needClosing = false;
+    final Deflater deflater = frameCompression ? new Deflater(Deflater.BEST_SPEED) : null;
     while (!closeInitiated)
     {
       byte[] buffer;
@@ -557,7 +859,14 @@ public final class Session extends DirectoryThread implements Closeable
       }
       try
       {
-        send(buffer);
+        if (framingEnabled)
+        {
+          sendBacklog(buffer, deflater);
+        }
+        else
+        {
+          send(buffer);
+        }
       }
       catch (IOException e)
       {
@@ -565,6 +874,10 @@ public final class Session extends DirectoryThread implements Closeable
         needClosing = true;
       }
     }
+    if (deflater != null)
+    {
+      deflater.end();
+    }
     isRunning.set(false);
     if (needClosing)
     {
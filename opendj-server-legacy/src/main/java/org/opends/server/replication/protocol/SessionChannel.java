@@ -0,0 +1,807 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * A non-blocking socket channel carrying a replication session, secured with
+ * an {@link SSLEngine} until encryption is stopped. The network I/O is
+ * performed by a shared {@link SessionSelector} thread, while the session
+ * threads wait for the bytes they read or for room to write: this allows
+ * {@link Session} to keep the same blocking semantics as over regular sockets.
+ * <p>
+ * Raw bytes are only decrypted by the thread reading them, one TLS record at a
+ * time, so that encryption can be stopped between two messages as the
+ * replication handshake requires.
+ */
+final class SessionChannel implements Closeable
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The number of bytes written but not sent yet above which writers wait for
+   * the selector thread to send them.
+   */
+  static final int MAX_PENDING_OUTPUT_SIZE = 256 * 1024;
+  /** The minimum size of the buffer holding the raw bytes read from the channel. */
+  private static final int MIN_INPUT_BUFFER_SIZE = 64 * 1024;
+  /** How long closing waits for the pending output to be sent. */
+  private static final long CLOSE_TIMEOUT_MS = 1000;
+
+  private final SocketChannel channel;
+  private final SessionSelector selector;
+  /** The TLS engine, null once encryption has been stopped. */
+  private volatile SSLEngine engine;
+  /** Only accessed by the selector thread. */
+  private SelectionKey key;
+  private volatile boolean closed;
+  private volatile int soTimeout;
+  /** Called by the selector thread when there is room again for more output. */
+  private volatile Runnable drainListener;
+  private final AtomicBoolean interestUpdatePending = new AtomicBoolean();
+  private final Runnable interestUpdater = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      interestUpdatePending.set(false);
+      applyInterest();
+    }
+  };
+
+  /** Guards the input buffers and state. */
+  private final Lock inputLock = new ReentrantLock();
+  private final Condition inputAvailable = inputLock.newCondition();
+  /** Raw bytes read from the channel, in write mode. */
+  private ByteBuffer netInput;
+  /** Decrypted bytes not read yet, in write mode. */
+  private ByteBuffer appInput;
+  private IOException inputError;
+  private volatile boolean endOfInput;
+  /** Whether reading from the channel is suspended until there is room in netInput. */
+  private volatile boolean inputSuspended;
+
+  /** Guards the output buffers and state. */
+  private final Lock outputLock = new ReentrantLock();
+  private final Condition outputDrained = outputLock.newCondition();
+  /** Bytes waiting to be sent, in read mode. */
+  private final ArrayDeque<ByteBuffer> pendingOutput = new ArrayDeque<>();
+  private volatile int pendingOutputSize;
+  /** Receives the bytes produced by the TLS engine before they are queued. */
+  private final ByteBuffer netOutput;
+  private IOException outputError;
+
+  /**
+   * Creates a new session channel and registers it with a selector thread.
+   *
+   * @param channel
+   *          the connected socket channel
+   * @param engine
+   *          the TLS engine securing the channel, or {@code null} for a plain
+   *          session
+   * @throws IOException
+   *           if the channel could not be made non-blocking
+   */
+  SessionChannel(SocketChannel channel, SSLEngine engine) throws IOException
+  {
+    this.channel = channel;
+    this.engine = engine;
+    final int packetBufferSize = engine != null ? engine.getSession().getPacketBufferSize() : 0;
+    this.netInput = ByteBuffer.allocate(Math.max(MIN_INPUT_BUFFER_SIZE, packetBufferSize));
+    this.appInput = ByteBuffer.allocate(engine != null ? engine.getSession().getApplicationBufferSize() : 0);
+    this.netOutput = ByteBuffer.allocate(packetBufferSize);
+
+    channel.configureBlocking(false);
+    this.selector = SessionSelector.next();
+    selector.execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        register();
+      }
+    });
+  }
+
+  private void register()
+  {
+    try
+    {
+      key = channel.register(selector.getSelector(), interestOps(), this);
+    }
+    catch (IOException e)
+    {
+      // The channel has been closed before being registered.
+      logger.traceException(e);
+    }
+  }
+
+  /**
+   * Returns the socket of this channel.
+   *
+   * @return the socket of this channel
+   */
+  Socket getSocket()
+  {
+    return channel.socket();
+  }
+
+  /**
+   * Sets the maximum time a read waits for data.
+   *
+   * @param timeout
+   *          the timeout in milliseconds, or 0 to wait forever
+   */
+  void setSoTimeout(int timeout)
+  {
+    this.soTimeout = timeout;
+  }
+
+  /**
+   * Sets the listener called by the selector thread when the pending output
+   * falls below {@link #MAX_PENDING_OUTPUT_SIZE}. The listener must not block.
+   *
+   * @param listener
+   *          the listener to call
+   */
+  void setDrainListener(Runnable listener)
+  {
+    this.drainListener = listener;
+  }
+
+  /**
+   * Returns whether more output can be written without waiting.
+   *
+   * @return whether more output can be written without waiting
+   */
+  boolean hasRoomForOutput()
+  {
+    return pendingOutputSize < MAX_PENDING_OUTPUT_SIZE;
+  }
+
+  /**
+   * Performs the TLS handshake, waiting at most the read timeout for each
+   * message of the peer.
+   *
+   * @throws IOException
+   *           if the handshake failed
+   */
+  void handshake() throws IOException
+  {
+    final SSLEngine sslEngine = engine;
+    final long deadline = deadline();
+    sslEngine.beginHandshake();
+    while (true)
+    {
+      final HandshakeStatus status = sslEngine.getHandshakeStatus();
+      if (status == HandshakeStatus.NEED_UNWRAP)
+      {
+        inputLock.lock();
+        try
+        {
+          if (!unwrap(sslEngine) && !awaitInput(deadline))
+          {
+            throw new SSLException("Connection closed during the TLS handshake");
+          }
+        }
+        finally
+        {
+          inputLock.unlock();
+        }
+      }
+      else if (!handleHandshakeStatus(sslEngine, status))
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stops using the TLS engine: the following bytes are read and written in
+   * the clear.
+   */
+  void stopEncryption()
+  {
+    inputLock.lock();
+    outputLock.lock();
+    try
+    {
+      engine = null;
+    }
+    finally
+    {
+      outputLock.unlock();
+      inputLock.unlock();
+    }
+  }
+
+  /**
+   * Reads some bytes, waiting at most the read timeout for them.
+   *
+   * @param buffer
+   *          where to store the bytes read
+   * @param offset
+   *          where to store the first byte read
+   * @param length
+   *          the maximum number of bytes to read
+   * @return the number of bytes read, or -1 if the end of the stream has been
+   *         reached
+   * @throws IOException
+   *           if an error occurred or no byte was read before the timeout
+   */
+  int read(byte[] buffer, int offset, int length) throws IOException
+  {
+    final long deadline = deadline();
+    inputLock.lock();
+    try
+    {
+      while (true)
+      {
+        if (appInput.position() > 0)
+        {
+          return take(appInput, buffer, offset, length);
+        }
+        final SSLEngine sslEngine = engine;
+        if (sslEngine == null)
+        {
+          if (netInput.position() > 0)
+          {
+            final int read = take(netInput, buffer, offset, length);
+            resumeInput();
+            return read;
+          }
+        }
+        else if (unwrap(sslEngine))
+        {
+          continue;
+        }
+        if (!awaitInput(deadline))
+        {
+          return -1;
+        }
+      }
+    }
+    finally
+    {
+      inputLock.unlock();
+    }
+  }
+
+  private long deadline()
+  {
+    final int timeout = soTimeout;
+    return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+  }
+
+  private static int take(ByteBuffer source, byte[] buffer, int offset, int length)
+  {
+    source.flip();
+    final int read = Math.min(length, source.remaining());
+    source.get(buffer, offset, read);
+    source.compact();
+    return read;
+  }
+
+  /**
+   * Decrypts the next TLS record held in netInput, if complete. Must be called
+   * with the input lock held.
+   *
+   * @return whether some progress was made, false if more raw bytes are needed
+   */
+  private boolean unwrap(SSLEngine sslEngine) throws IOException
+  {
+    netInput.flip();
+    final SSLEngineResult result;
+    try
+    {
+      result = sslEngine.unwrap(netInput, appInput);
+    }
+    finally
+    {
+      netInput.compact();
+    }
+    if (result.bytesConsumed() > 0)
+    {
+      resumeInput();
+    }
+    final boolean handled = handleHandshakeStatus(sslEngine, result.getHandshakeStatus());
+    switch (result.getStatus())
+    {
+    case BUFFER_UNDERFLOW:
+      final int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+      if (netInput.capacity() < packetBufferSize)
+      {
+        netInput = enlarge(netInput, packetBufferSize);
+        resumeInput();
+      }
+      return handled;
+    case BUFFER_OVERFLOW:
+      appInput = enlarge(appInput, sslEngine.getSession().getApplicationBufferSize());
+      return true;
+    case CLOSED:
+      endOfInput = true;
+      return handled;
+    default:
+      return handled || result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity)
+  {
+    final ByteBuffer enlarged = ByteBuffer.allocate(Math.max(minCapacity, 2 * buffer.capacity()));
+    buffer.flip();
+    enlarged.put(buffer);
+    return enlarged;
+  }
+
+  /** Resumes reading from the channel if it was suspended for lack of room. */
+  private void resumeInput()
+  {
+    if (inputSuspended && netInput.hasRemaining())
+    {
+      inputSuspended = false;
+      updateInterest();
+    }
+  }
+
+  /**
+   * Waits for more raw bytes. Must be called with the input lock held.
+   *
+   * @return false if the end of the stream has been reached
+   */
+  private boolean awaitInput(long deadline) throws IOException
+  {
+    if (inputError != null)
+    {
+      throw new IOException(inputError);
+    }
+    if (endOfInput)
+    {
+      return false;
+    }
+    if (closed)
+    {
+      throw new ClosedChannelException();
+    }
+    try
+    {
+      if (deadline == 0)
+      {
+        inputAvailable.await();
+      }
+      else
+      {
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+        {
+          throw new SocketTimeoutException("Read timed out");
+        }
+        inputAvailable.await(remaining, TimeUnit.MILLISECONDS);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+    return true;
+  }
+
+  /**
+   * Runs the TLS handshake step required by the provided status, other than
+   * reading from the peer.
+   *
+   * @return whether a step was run
+   */
+  private boolean handleHandshakeStatus(SSLEngine sslEngine, HandshakeStatus status) throws IOException
+  {
+    switch (status)
+    {
+    case NEED_TASK:
+      Runnable task;
+      while ((task = sslEngine.getDelegatedTask()) != null)
+      {
+        task.run();
+      }
+      return true;
+    case NEED_WRAP:
+      outputLock.lock();
+      try
+      {
+        checkOutputState();
+        wrap(sslEngine, new ByteBuffer[] { ByteBuffer.allocate(0) });
+        flushOutput();
+      }
+      finally
+      {
+        outputLock.unlock();
+      }
+      if (pendingOutputSize > 0)
+      {
+        updateInterest();
+      }
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Writes a message. Threads other than the selector thread wait for the
+   * pending output to fall below {@link #MAX_PENDING_OUTPUT_SIZE} first. The
+   * provided arrays must not be modified afterwards.
+   *
+   * @param header
+   *          the header of the message
+   * @param content
+   *          the content of the message
+   * @throws IOException
+   *           if the channel is closed or failed
+   */
+  void write(byte[] header, byte[] content) throws IOException
+  {
+    outputLock.lock();
+    try
+    {
+      if (!selector.inSelectorThread())
+      {
+        awaitRoomForOutput();
+      }
+      checkOutputState();
+      final SSLEngine sslEngine = engine;
+      if (sslEngine == null)
+      {
+        enqueue(ByteBuffer.wrap(header));
+        enqueue(ByteBuffer.wrap(content));
+      }
+      else
+      {
+        wrap(sslEngine, new ByteBuffer[] { ByteBuffer.wrap(header), ByteBuffer.wrap(content) });
+      }
+      flushOutput();
+    }
+    finally
+    {
+      outputLock.unlock();
+    }
+    if (pendingOutputSize > 0)
+    {
+      updateInterest();
+    }
+  }
+
+  private void awaitRoomForOutput() throws IOException
+  {
+    while (!hasRoomForOutput() && !closed && outputError == null)
+    {
+      try
+      {
+        // Avoid blocking forever so that we can check for channel closure.
+        outputDrained.await(100, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+    }
+  }
+
+  private void checkOutputState() throws IOException
+  {
+    if (outputError != null)
+    {
+      throw new IOException(outputError);
+    }
+    if (closed)
+    {
+      throw new ClosedChannelException();
+    }
+  }
+
+  /** Encrypts and queues the provided bytes. Must be called with the output lock held. */
+  private void wrap(SSLEngine sslEngine, ByteBuffer[] sources) throws IOException
+  {
+    do
+    {
+      final SSLEngineResult result = sslEngine.wrap(sources, netOutput);
+      if (result.getStatus() != SSLEngineResult.Status.OK)
+      {
+        throw new SSLException("Unexpected TLS wrap status " + result.getStatus());
+      }
+      if (netOutput.position() > 0)
+      {
+        netOutput.flip();
+        final ByteBuffer packet = ByteBuffer.allocate(netOutput.remaining());
+        packet.put(netOutput);
+        packet.flip();
+        enqueue(packet);
+        netOutput.clear();
+      }
+      if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+      {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null)
+        {
+          task.run();
+        }
+      }
+      else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+      {
+        throw new SSLException("TLS renegotiation is not supported on replication sessions");
+      }
+    }
+    while (hasRemaining(sources));
+  }
+
+  private static boolean hasRemaining(ByteBuffer[] buffers)
+  {
+    for (ByteBuffer buffer : buffers)
+    {
+      if (buffer.hasRemaining())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void enqueue(ByteBuffer buffer)
+  {
+    if (buffer.hasRemaining())
+    {
+      pendingOutput.add(buffer);
+      pendingOutputSize += buffer.remaining();
+    }
+  }
+
+  /** Sends as many pending bytes as possible. Must be called with the output lock held. */
+  private void flushOutput() throws IOException
+  {
+    try
+    {
+      while (!pendingOutput.isEmpty())
+      {
+        final long written = channel.write(pendingOutput.toArray(new ByteBuffer[pendingOutput.size()]));
+        pendingOutputSize -= written;
+        while (!pendingOutput.isEmpty() && !pendingOutput.peekFirst().hasRemaining())
+        {
+          pendingOutput.removeFirst();
+        }
+        if (written == 0)
+        {
+          return;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      outputError = e;
+      pendingOutput.clear();
+      pendingOutputSize = 0;
+      outputDrained.signalAll();
+      throw e;
+    }
+  }
+
+  /**
+   * Handles the events selected for this channel. Only called by the selector
+   * thread.
+   *
+   * @param selectedKey
+   *          the selection key of this channel
+   */
+  void processEvents(SelectionKey selectedKey)
+  {
+    try
+    {
+      if (selectedKey.isValid() && selectedKey.isReadable())
+      {
+        readFromChannel();
+      }
+      if (selectedKey.isValid() && selectedKey.isWritable())
+      {
+        writeToChannel();
+      }
+      applyInterest();
+    }
+    catch (CancelledKeyException e)
+    {
+      // The channel has been closed concurrently.
+      logger.traceException(e);
+    }
+  }
+
+  private void readFromChannel()
+  {
+    inputLock.lock();
+    try
+    {
+      if (channel.read(netInput) < 0)
+      {
+        endOfInput = true;
+      }
+      else if (!netInput.hasRemaining())
+      {
+        inputSuspended = true;
+      }
+    }
+    catch (IOException e)
+    {
+      inputError = e;
+      endOfInput = true;
+    }
+    finally
+    {
+      inputAvailable.signalAll();
+      inputLock.unlock();
+    }
+  }
+
+  private void writeToChannel()
+  {
+    boolean hasRoom;
+    outputLock.lock();
+    try
+    {
+      flushOutput();
+    }
+    catch (IOException e)
+    {
+      // Reported to the next writer.
+      logger.traceException(e);
+    }
+    finally
+    {
+      hasRoom = hasRoomForOutput() && outputError == null && !closed;
+      outputDrained.signalAll();
+      outputLock.unlock();
+    }
+
+    final Runnable listener = drainListener;
+    if (hasRoom && listener != null)
+    {
+      listener.run();
+    }
+  }
+
+  private int interestOps()
+  {
+    int ops = 0;
+    if (!endOfInput && !inputSuspended)
+    {
+      ops |= SelectionKey.OP_READ;
+    }
+    if (pendingOutputSize > 0)
+    {
+      ops |= SelectionKey.OP_WRITE;
+    }
+    return ops;
+  }
+
+  /** Only called by the selector thread. */
+  private void applyInterest()
+  {
+    if (key != null && key.isValid())
+    {
+      key.interestOps(interestOps());
+    }
+  }
+
+  private void updateInterest()
+  {
+    if (selector.inSelectorThread())
+    {
+      applyInterest();
+    }
+    else if (interestUpdatePending.compareAndSet(false, true))
+    {
+      selector.execute(interestUpdater);
+    }
+  }
+
+  /**
+   * Closes this channel, after waiting a bit for the pending output to be sent
+   * unless called by the selector thread.
+   */
+  @Override
+  public void close()
+  {
+    outputLock.lock();
+    try
+    {
+      if (closed)
+      {
+        return;
+      }
+      if (!selector.inSelectorThread())
+      {
+        awaitOutputSent();
+      }
+      closed = true;
+      outputDrained.signalAll();
+    }
+    finally
+    {
+      outputLock.unlock();
+    }
+
+    inputLock.lock();
+    try
+    {
+      inputAvailable.signalAll();
+    }
+    finally
+    {
+      inputLock.unlock();
+    }
+
+    StaticUtils.close(channel);
+    // Let the selector thread forget about the cancelled key.
+    selector.getSelector().wakeup();
+  }
+
+  private void awaitOutputSent()
+  {
+    final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+    try
+    {
+      long remaining = CLOSE_TIMEOUT_MS;
+      while (pendingOutputSize > 0 && outputError == null && remaining > 0)
+      {
+        outputDrained.await(remaining, TimeUnit.MILLISECONDS);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
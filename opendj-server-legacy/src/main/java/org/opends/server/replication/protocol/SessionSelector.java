@@ -0,0 +1,154 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+
+/**
+ * A thread multiplexing the network I/O of several replication sessions over a
+ * single {@link Selector}. Sessions over a {@link SessionChannel} share a small
+ * pool of these threads rather than each running its own sender thread.
+ * <p>
+ * Selection keys are only registered and updated by the selector thread itself:
+ * other threads submit these changes with {@link #execute(Runnable)}.
+ */
+final class SessionSelector extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The number of selector threads shared by all the sessions. */
+  private static final int NB_SELECTORS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  private static final SessionSelector[] SELECTORS = new SessionSelector[NB_SELECTORS];
+  private static final AtomicInteger nextSelector = new AtomicInteger();
+
+  private final Selector selector;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Returns the selector thread which should handle a new session, starting it
+   * if needed. Sessions are spread over the selector threads in a round robin
+   * fashion.
+   *
+   * @return the selector thread which should handle a new session
+   * @throws IOException
+   *           if a new selector could not be opened
+   */
+  static SessionSelector next() throws IOException
+  {
+    final int index = (nextSelector.getAndIncrement() & Integer.MAX_VALUE) % NB_SELECTORS;
+    synchronized (SELECTORS)
+    {
+      if (SELECTORS[index] == null || !SELECTORS[index].isAlive())
+      {
+        SELECTORS[index] = new SessionSelector(index);
+        SELECTORS[index].start();
+      }
+      return SELECTORS[index];
+    }
+  }
+
+  private SessionSelector(int index) throws IOException
+  {
+    super("Replication session selector " + index);
+    this.selector = Selector.open();
+    // Sessions are closed by their owners, this thread only serves them.
+    setDaemon(true);
+  }
+
+  /**
+   * Returns the selector served by this thread.
+   *
+   * @return the selector served by this thread
+   */
+  Selector getSelector()
+  {
+    return selector;
+  }
+
+  /**
+   * Runs a task on the selector thread, as soon as it wakes up.
+   *
+   * @param task
+   *          the task to run
+   */
+  void execute(Runnable task)
+  {
+    pendingTasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Returns whether the current thread is this selector thread.
+   *
+   * @return whether the current thread is this selector thread
+   */
+  boolean inSelectorThread()
+  {
+    return currentThread() == this;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void run()
+  {
+    if (logger.isTraceEnabled())
+    {
+      logger.trace(getName() + " starting.");
+    }
+    while (true)
+    {
+      try
+      {
+        selector.select();
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null)
+        {
+          task.run();
+        }
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext())
+        {
+          final SelectionKey key = it.next();
+          it.remove();
+          ((SessionChannel) key.attachment()).processEvents(key);
+        }
+      }
+      catch (IOException | RuntimeException e)
+      {
+        // Keep serving the other sessions.
+        logger.traceException(e);
+      }
+    }
+  }
+}
@@ -31,6 +31,7 @@ import static org.opends.server.types.Attributes.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -62,22 +63,29 @@ import org.opends.server.types.InitializationException;
  * the message to the registered message handlers.
  * LocalizableMessage are buffered into a queue.
  * Consumers are expected to come and consume the UpdateMsg from the queue.
+ * <p>
+ * Adding a message never blocks and never takes a lock: when the queue is
+ * full, the message is dropped from the queue (it is still available from the
+ * changelog) and the consumer stops following the queue. It then reads the
+ * changelog through the late queue until it has caught up, and follows the
+ * queue again.
  */
 class MessageHandler extends MonitorProvider<MonitorProviderCfg>
 {
   /** The logger of this class. */
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
-  private static final int MINIMUM_TRESHOLD_MSG_QUEUE_SIZE = 5;
+  private static final int MAX_LATE_QUEUE_SIZE = 100;
+  private static final int MAX_LATE_QUEUE_BYTES_SIZE = 50000;
 
-  /** UpdateMsg queue. */
-  private final MsgQueue msgQueue = new MsgQueue();
+  /** UpdateMsg queue, filled by the replication server domain. */
+  private final MsgQueue msgQueue;
   /**
-   * Late queue. All access to the lateQueue in getNextMessage() is
-   * single-threaded. However, reads from threads calling getOlderUpdateCN()
-   * need protecting against removals performed using getNextMessage().
+   * Late queue, filled with changes read from the changelog and consumed by
+   * getNextMessage(). Only threads calling getOlderUpdateCSN() peek at it
+   * concurrently.
    */
-  private final MsgQueue lateQueue = new MsgQueue();
+  private final MsgQueue lateQueue = new MsgQueue(MAX_LATE_QUEUE_SIZE, MAX_LATE_QUEUE_BYTES_SIZE);
   /** Local hosting RS. */
   protected final ReplicationServer replicationServer;
   /** Specifies the related replication server domain based on baseDN. */
@@ -88,10 +96,13 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   private int inCount;
   /** Specifies the max queue size for this handler. */
   protected final int maxQueueSize;
-  /** Specifies the max queue size in bytes for this handler. */
-  private final int maxQueueBytesSize;
   /** Specifies whether the consumer is following the producer (is not late). */
-  private boolean following;
+  private volatile boolean following;
+  /**
+   * Whether the last cursor opened on the changelog while the consumer is late
+   * has been read until its end. Only accessed by the consumer.
+   */
+  private boolean lateCursorExhausted;
   /** Specifies the current serverState of this handler. */
   private ServerState serverState;
   /** Specifies the baseDN of the domain. */
@@ -101,7 +112,7 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    * If not active, the handler will not return any message.
    * Called at the beginning of shutdown process.
    */
-  private boolean activeConsumer = true;
+  private volatile boolean activeConsumer = true;
   /** Set when ServerHandler is stopping. */
   private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
@@ -114,7 +125,7 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   MessageHandler(int queueSize, ReplicationServer replicationServer)
   {
     this.maxQueueSize = queueSize;
-    this.maxQueueBytesSize = queueSize * 100;
+    this.msgQueue = new MsgQueue(queueSize, queueSize * 100);
     this.replicationServer = replicationServer;
   }
 
@@ -127,39 +138,9 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   void add(UpdateMsg update)
   {
-    synchronized (msgQueue)
-    {
-      /*
-       * If queue was empty the writer thread was probably asleep
-       * waiting for some changes, wake it up
-       */
-      if (msgQueue.isEmpty())
-      {
-        msgQueue.notify();
-      }
-
-      msgQueue.add(update);
-
-      // TODO : size should be configurable and larger than max-receive-queue-size
-      while (isMsgQueueAboveThreshold())
-      {
-        following = false;
-        msgQueue.removeFirst();
-      }
-    }
-  }
-
-  private boolean isMsgQueueAboveThreshold()
-  {
-    final long count = msgQueue.count();
-    // ensure there is a minimum number of messages in queue to avoid wrong behavior
-    return count > maxQueueSize
-        || (count >= MINIMUM_TRESHOLD_MSG_QUEUE_SIZE && msgQueue.bytesCount() > maxQueueBytesSize);
-  }
-
-  private boolean isMsgQueueBelowThreshold()
-  {
-    return !isMsgQueueAboveThreshold();
+    // TODO : size should be configurable and larger than max-receive-queue-size
+    // When the queue is full, the consumer will read this update from the changelog
+    msgQueue.add(update);
   }
 
   /**
@@ -253,139 +234,86 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
          * If this server is able to close the gap, it will start using again
          * the regular msgQueue later.
          */
-        if (lateQueue.isEmpty())
+        final UpdateMsg msg = lateQueue.poll();
+        if (msg == null)
         {
-          /*
-           * Start from the server State
-           * Loop until the queue high mark or until no more changes
-           *   for each known LDAP master
-           *      get the next CSN after this last one :
-           *         - try to get next from the file
-           *         - if not found in the file
-           *             - try to get the next from the queue
-           *   select the smallest of changes
-           *   check if it is in the memory tree
-           *     yes : lock memory tree.
-           *           check all changes from the list, remove the ones that
-           *           are already sent
-           *           unlock memory tree
-           *           restart as usual
-           *   load this change on the delayList
-           */
-          fillLateQueue();
-          if (lateQueue.isEmpty())
+          if (lateCursorExhausted && !msgQueue.hasOverflowed())
           {
-            // we could not find any messages in the changelog
-            // so the remote server is not late anymore.
-            synchronized (msgQueue)
-            {
-              // Ensure we are below threshold so this server will follow the
-              // msgQueue without fearing the msgQueue gets trimmed
-              if (isMsgQueueBelowThreshold())
-              {
-                following = true;
-              }
-            }
+            /*
+             * All the changes from the changelog have been sent and every change
+             * added since the last cursor was opened is in the regular queue:
+             * we finally catch up with the regular queue.
+             * Changes read from both are filtered out by updateServerState().
+             */
+            following = true;
           }
           else
           {
-            /*
-             * if the first change in the lateQueue is also on the regular queue,
-             * we can resume the processing from the regular queue
-             * -> set following to true and empty the lateQueue.
-             */
-            UpdateMsg msg = lateQueue.first();
-            synchronized (msgQueue)
-            {
-              if (msgQueue.contains(msg))
-              {
-                /* we finally catch up with the regular queue */
-                following = true;
-                lateQueue.clear();
-                msgQueue.consumeUpTo(msg);
-                if (updateServerState(msg))
-                {
-                  return msg;
-                }
-              }
-            }
+            lateCursorExhausted = fillLateQueue();
           }
         }
-        else
+        else if (updateServerState(msg))
         {
-          // get the next change from the lateQueue
-          UpdateMsg msg;
-          synchronized (msgQueue) // TODO JNR why synchronize(msgQueue) here?
-          {
-            msg = lateQueue.removeFirst();
-          }
-          if (updateServerState(msg))
-          {
-            return msg;
-          }
-          continue;
+          return msg;
         }
+        continue;
       }
 
-      synchronized (msgQueue)
+      if (msgQueue.hasOverflowed())
       {
-        if (following)
-        {
-          try
-          {
-            while (msgQueue.isEmpty() && following)
-            {
-              msgQueue.wait(500);
-              if (!activeConsumer)
-              {
-                return null;
-              }
-            }
-          } catch (InterruptedException e)
-          {
-            return null;
-          }
-          UpdateMsg msg = msgQueue.removeFirst();
-          if (updateServerState(msg))
-          {
-            /*
-             * Only push the message if it has not yet been seen
-             * by the other server.
-             * Otherwise just loop to select the next message.
-             */
-            return msg;
-          }
-        }
+        // some changes could not be queued: read them from the changelog
+        following = false;
+        lateCursorExhausted = false;
+        continue;
+      }
+
+      final UpdateMsg msg;
+      try
+      {
+        msg = msgQueue.poll(500, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+        return null;
+      }
+      if (msg != null && updateServerState(msg))
+      {
+        /*
+         * Only push the message if it has not yet been seen
+         * by the other server.
+         * Otherwise just loop to select the next message.
+         */
+        return msg;
       }
-      /*
-       * Need to loop because following flag may have gone to false between the
-       * first check at the beginning of this method and the second check just
-       * above.
-       */
     }
     return null;
   }
 
   /**
-   * Fills the late queue with the most recent changes, accepting only the
-   * messages from provided replica ids.
+   * Fills the late queue with the next changes from the changelog.
+   * <p>
+   * The regular queue is cleared beforehand: the changes it holds were already
+   * in the changelog, so the cursor will return them.
+   *
+   * @return {@code true} if the cursor was read until its end, {@code false} if
+   *         the late queue is full
    */
-  private void fillLateQueue() throws ChangelogException
+  private boolean fillLateQueue() throws ChangelogException
   {
-    try (DBCursor<UpdateMsg> cursor = replicationServerDomain.getCursorFrom(serverState);)
+    msgQueue.clear();
+    try (DBCursor<UpdateMsg> cursor = replicationServerDomain.getCursorFrom(serverState))
     {
-      while (cursor.next() && isLateQueueBelowThreshold())
+      while (cursor.next())
       {
-        lateQueue.add(cursor.getRecord());
+        if (!lateQueue.add(cursor.getRecord()))
+        {
+          return false;
+        }
       }
+      return true;
     }
   }
 
-  private boolean isLateQueueBelowThreshold()
-  {
-    return lateQueue.count() < 100 && lateQueue.bytesCount() < 50000;
-  }
-
   /**
    * Get the older CSN for that server.
    * Returns null when the queue is empty.
@@ -393,35 +321,25 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   public CSN getOlderUpdateCSN()
   {
-    synchronized (msgQueue)
+    if (following)
     {
-      if (following)
-      {
-        if (!msgQueue.isEmpty())
-        {
-          return msgQueue.first().getCSN();
-        }
-      }
-      else
-      {
-        if (!lateQueue.isEmpty())
-        {
-          return lateQueue.first().getCSN();
-        }
-        else
-        {
-          /*
-          following is false AND lateQueue is empty
-          We may be at the very moment when the writer has emptied the
-          lateQueue when it sent the last update. The writer will fill again
-          the lateQueue when it will send the next update but we are not yet
-          there. So let's take the last change not sent directly from the db.
-          */
-          return findOldestCSNFromReplicaDBs();
-        }
-      }
+      final UpdateMsg msg = msgQueue.peek();
+      return msg != null ? msg.getCSN() : null;
     }
-    return null;
+
+    final UpdateMsg msg = lateQueue.peek();
+    if (msg != null)
+    {
+      return msg.getCSN();
+    }
+    /*
+    following is false AND lateQueue is empty
+    We may be at the very moment when the writer has emptied the
+    lateQueue when it sent the last update. The writer will fill again
+    the lateQueue when it will send the next update but we are not yet
+    there. So let's take the last change not sent directly from the db.
+    */
+    return findOldestCSNFromReplicaDBs();
   }
 
   private CSN findOldestCSNFromReplicaDBs()
@@ -459,27 +377,24 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   public int getRcvMsgQueueSize()
   {
-    synchronized (msgQueue)
+    /*
+     * When the server is up to date or close to be up to date,
+     * the number of updates to be sent is the size of the receive queue.
+     */
+    if (following)
     {
-      /*
-       * When the server is up to date or close to be up to date,
-       * the number of updates to be sent is the size of the receive queue.
-       */
-      if (following)
-      {
-        return msgQueue.count();
-      }
-
-      /*
-       * When the server is not able to follow, the msgQueue may become too
-       * large and therefore won't contain all the changes. Some changes may
-       * only be stored in the backing DB of the servers.
-       * The total size of the receive queue is calculated by doing the sum of
-       * the number of missing changes for every replicaDB.
-       */
-      ServerState latestState = replicationServerDomain.getLatestServerState();
-      return ServerState.diffChanges(latestState, serverState);
+      return msgQueue.count();
     }
+
+    /*
+     * When the server is not able to follow, the msgQueue may become too
+     * large and therefore won't contain all the changes. Some changes may
+     * only be stored in the backing DB of the servers.
+     * The total size of the receive queue is calculated by doing the sum of
+     * the number of missing changes for every replicaDB.
+     */
+    ServerState latestState = replicationServerDomain.getLatestServerState();
+    return ServerState.diffChanges(latestState, serverState);
   }
 
   /**
@@ -578,12 +493,8 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   /** Shutdown this handler. */
   public void shutdown()
   {
-    synchronized (msgQueue)
-    {
-      msgQueue.clear();
-      msgQueue.notify();
-      msgQueue.notifyAll();
-    }
+    // the consumer is inactive by now: only wake it up so it returns
+    msgQueue.wakeUpConsumer();
 
     DirectoryServer.deregisterMonitorProvider(this);
   }
@@ -26,205 +26,306 @@
  */
 package org.opends.server.replication.server;
 
-import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
-import org.forgerock.i18n.slf4j.LocalizedLogger;
-import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.protocol.UpdateMsg;
 
-import static org.opends.messages.ReplicationMessages.*;
-
 /**
- * This class is used to build ordered lists of UpdateMsg.
- * The order is defined by the order of the CSN of the UpdateMsg.
+ * This class is a bounded queue of UpdateMsg, filled by any number of
+ * producer threads and consumed by a single consumer thread.
+ * <p>
+ * The queue is a lock-free ring buffer: producers reserve a slot with a
+ * compare-and-set on the tail and publish the message by advancing the
+ * sequence of the slot, the consumer frees the slot by advancing its sequence
+ * by one lap. The UpdateMsg are returned in the order they were added.
+ * <p>
+ * The queue is bounded both by a number of messages and by a number of bytes.
+ * The bytes limit is only enforced once the queue holds a minimum number of
+ * messages, so that a single big message is always accepted, and it is a soft
+ * limit: concurrent producers may exceed it by at most one message each.
+ * When an UpdateMsg is rejected because the queue is full, the queue records
+ * that it has overflowed. The consumer is then expected to stop reading from
+ * the queue and to read the missing messages from the changelog instead, see
+ * {@link #hasOverflowed()} and {@link #clear()}.
+ * <p>
+ * Methods documented as consumer methods must only be called by the single
+ * consumer thread. The other methods can be called by any thread.
+ *
  * @ThreadSafe
  */
 public class MsgQueue
 {
-  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+  /** Minimum number of messages held before the bytes limit is enforced. */
+  private static final int MINIMUM_COUNT = 5;
+  /**
+   * Maximum number of slots of the ring buffer, which are allocated upfront.
+   * Bigger queues would mostly waste memory since the consumer reads the
+   * changelog when it cannot keep up.
+   */
+  public static final int MAXIMUM_CAPACITY = 1 << 17;
 
-  private TreeMap<CSN, UpdateMsg> map = new TreeMap<>();
+  private final int maxCount;
+  private final int maxBytes;
+  private final int mask;
+  private final AtomicReferenceArray<UpdateMsg> slots;
   /**
-   * FIXME JNR to be investigated:
-   * I strongly suspect that we could replace this field
-   * by using the synchronized keyword on each method.
-   * However, MessageHandler is weirdly synchronizing on msgQueue field
-   * even though it is touching the lateQueue field (?!?).
+   * Sequence of each slot. A slot is free for the producer reserving position
+   * {@code p} when its sequence is {@code p}, and it holds the message for the
+   * consumer at position {@code p} when its sequence is {@code p + 1}.
    */
-  private final Object lock = new Object();
+  private final AtomicLongArray sequences;
+  /** Next position to be reserved by a producer. */
+  private final AtomicLong tail = new AtomicLong();
+  /** Next position to be read by the consumer. */
+  private final AtomicLong head = new AtomicLong();
 
-  /** The total number of bytes for all the message in the queue. */
-  private int bytesCount;
+  /** The total number of bytes for all the messages in the queue. */
+  private final AtomicInteger bytesCount = new AtomicInteger();
+  /** Whether a message has been rejected since the last call to {@link #clear()}. */
+  private final AtomicBoolean overflowed = new AtomicBoolean();
+  /** The consumer thread, when it is waiting for a message. */
+  private final AtomicReference<Thread> waitingConsumer = new AtomicReference<>();
 
   /**
-   * Return the first UpdateMsg in the MsgQueue.
+   * Creates a new queue.
    *
-   * @return The first UpdateMsg in the MsgQueue.
+   * @param maxCount
+   *          the maximum number of messages held by this queue, capped to
+   *          {@value #MAXIMUM_CAPACITY}
+   * @param maxBytes
+   *          the maximum number of bytes held by this queue
    */
-  public UpdateMsg first()
+  public MsgQueue(int maxCount, int maxBytes)
   {
-    synchronized (lock)
+    this.maxCount = Math.min(Math.max(maxCount, 1), MAXIMUM_CAPACITY);
+    this.maxBytes = maxBytes;
+    final int capacity = Integer.highestOneBit(Math.max(this.maxCount - 1, 1)) << 1;
+    this.mask = capacity - 1;
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++)
     {
-      return map.get(map.firstKey());
+      sequences.set(i, i);
     }
   }
 
   /**
-   * Returns the number of elements in this MsgQueue.
+   * Returns the first UpdateMsg in this queue without removing it.
+   * <p>
+   * When called by another thread than the consumer, the result is only a
+   * snapshot: the returned message may already have been consumed.
    *
-   * @return The number of elements in this MsgQueue.
+   * @return The first UpdateMsg in this queue, or {@code null} if it is empty.
    */
-  public int count()
+  public UpdateMsg peek()
   {
-    synchronized (lock)
+    final long h = head.get();
+    final int index = (int) h & mask;
+    if (sequences.get(index) != h + 1)
     {
-      return map.size();
+      return null;
     }
+    return slots.get(index);
+  }
+
+  /**
+   * Returns the number of elements in this queue.
+   *
+   * @return The number of elements in this queue.
+   */
+  public int count()
+  {
+    final long h = head.get();
+    return (int) Math.max(tail.get() - h, 0);
   }
 
   /**
-   * Returns the number of bytes in this MsgQueue.
+   * Returns the number of bytes in this queue.
    *
-   * @return The number of bytes in this MsgQueue.
+   * @return The number of bytes in this queue.
    */
   public int bytesCount()
   {
-    synchronized (lock)
-    {
-      return bytesCount;
-    }
+    return bytesCount.get();
   }
 
   /**
-   * Returns <tt>true</tt> if this MsgQueue contains no UpdateMsg.
+   * Returns <tt>true</tt> if this queue contains no UpdateMsg.
    *
-   * @return <tt>true</tt> if this MsgQueue contains no UpdateMsg.
+   * @return <tt>true</tt> if this queue contains no UpdateMsg.
    */
   public boolean isEmpty()
   {
-    synchronized (lock)
-    {
-      return map.isEmpty();
-    }
+    return count() == 0;
+  }
+
+  /**
+   * Returns whether an UpdateMsg has been rejected because this queue was full
+   * since the last call to {@link #clear()}.
+   *
+   * @return {@code true} if this queue has overflowed
+   */
+  public boolean hasOverflowed()
+  {
+    return overflowed.get();
   }
 
   /**
-   * Add an UpdateMsg to this MessageQueue.
+   * Adds an UpdateMsg at the end of this queue, unless it is full.
    *
-   * @param update The UpdateMsg to add to this MessageQueue.
+   * @param update
+   *          The UpdateMsg to add to this queue.
+   * @return {@code true} if the UpdateMsg was added, {@code false} if it was
+   *         rejected because the queue is full
    */
-  public void add(UpdateMsg update)
+  public boolean add(UpdateMsg update)
   {
-    synchronized (lock)
+    final int size = update.size();
+    long position;
+    int index;
+    while (true)
     {
-      final UpdateMsg msgSameCSN = map.put(update.getCSN(), update);
-      if (msgSameCSN != null)
+      position = tail.get();
+      if (isFull(position, size))
       {
-        try
-        {
-          if (msgSameCSN.getBytes().length != update.getBytes().length
-              || msgSameCSN.isAssured() != update.isAssured()
-              || msgSameCSN.getVersion() != update.getVersion())
-          {
-            // Adding 2 msgs with the same CSN is ok only when the 2 msgs are the same
-            bytesCount += update.size() - msgSameCSN.size();
-            logger.error(ERR_RSQUEUE_DIFFERENT_MSGS_WITH_SAME_CSN, msgSameCSN.getCSN(), msgSameCSN, update);
-          }
-        }
-        catch (Exception e)
+        overflowed.set(true);
+        wakeUpConsumer();
+        return false;
+      }
+      index = (int) position & mask;
+      final long sequence = sequences.get(index);
+      if (sequence == position)
+      {
+        if (tail.compareAndSet(position, position + 1))
         {
-          logger.traceException(e);
+          break;
         }
       }
-      else
+      else if (sequence < position)
       {
-        // it is really an ADD
-        bytesCount += update.size();
+        // the consumer has not yet freed this slot
+        overflowed.set(true);
+        wakeUpConsumer();
+        return false;
       }
+      // else another producer reserved this position: retry
     }
+
+    bytesCount.addAndGet(size);
+    slots.set(index, update);
+    sequences.set(index, position + 1);
+    wakeUpConsumer();
+    return true;
+  }
+
+  private boolean isFull(long position, int size)
+  {
+    final long count = position - head.get();
+    return count >= maxCount || (count >= MINIMUM_COUNT && bytesCount.get() + size > maxBytes);
   }
 
   /**
-   * Get and remove the first UpdateMsg in this MessageQueue.
+   * Removes and returns the first UpdateMsg in this queue. Consumer method.
    *
-   * @return The first UpdateMsg in this MessageQueue.
+   * @return The first UpdateMsg in this queue, or {@code null} if it is empty.
    */
-  public UpdateMsg removeFirst()
+  public UpdateMsg poll()
   {
-    synchronized (lock)
+    final long h = head.get();
+    final int index = (int) h & mask;
+    if (sequences.get(index) != h + 1)
     {
-      // FIXME JNR replace next 2 lines with just that one:
-      // final UpdateMsg update = map.pollFirstEntry().getValue();
-      final UpdateMsg update = map.get(map.firstKey());
-      map.remove(update.getCSN());
-      bytesCount -= update.size();
-      if (map.isEmpty() && bytesCount != 0)
-      {
-        // should never happen
-        logger.error(ERR_BYTE_COUNT, bytesCount);
-        bytesCount = 0;
-      }
-      return update;
+      return null;
     }
+    final UpdateMsg update = slots.get(index);
+    slots.lazySet(index, null);
+    sequences.lazySet(index, h + mask + 1);
+    head.set(h + 1);
+    bytesCount.addAndGet(-update.size());
+    return update;
   }
 
   /**
-   * Returns <tt>true</tt> if this map contains an UpdateMsg
-   * with the same CSN as the given UpdateMsg.
+   * Removes and returns the first UpdateMsg in this queue, waiting up to the
+   * provided timeout for one to be added. The wait ends early when this queue
+   * overflows or when {@link #wakeUpConsumer()} is called. Consumer method.
    *
-   * @param msg UpdateMsg whose presence in this queue is to be tested.
-   *
-   * @return <tt>true</tt> if this map contains an UpdateMsg
-   *         with the same CSN as the given UpdateMsg.
+   * @param timeout
+   *          how long to wait before giving up
+   * @param unit
+   *          the unit of the timeout
+   * @return The first UpdateMsg in this queue, or {@code null} if none was
+   *         added before the wait ended.
+   * @throws InterruptedException
+   *           if the consumer thread is interrupted while waiting
    */
-  public boolean contains(UpdateMsg msg)
+  public UpdateMsg poll(long timeout, TimeUnit unit) throws InterruptedException
   {
-    synchronized (lock)
+    UpdateMsg update = poll();
+    if (update != null)
+    {
+      return update;
+    }
+
+    // register before checking again so that no wake up can be missed
+    waitingConsumer.set(Thread.currentThread());
+    try
+    {
+      update = poll();
+      if (update == null && !hasOverflowed())
+      {
+        LockSupport.parkNanos(this, unit.toNanos(timeout));
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+        update = poll();
+      }
+      return update;
+    }
+    finally
     {
-      return map.containsKey(msg.getCSN());
+      waitingConsumer.set(null);
     }
   }
 
-  /** Removes all UpdateMsg form this queue. */
-  public void clear()
+  /** Wakes up the consumer if it is waiting for an UpdateMsg. */
+  public void wakeUpConsumer()
   {
-    synchronized (lock)
+    final Thread consumer = waitingConsumer.get();
+    if (consumer != null)
     {
-      map.clear();
-      bytesCount = 0;
+      LockSupport.unpark(consumer);
     }
   }
 
   /**
-   * Consumes all the messages in this queue up to and including the passed in
-   * message. If the passed in message is not contained in the current queue,
-   * then all messages will be removed from it.
-   *
-   * @param finalMsg
-   *          the final message to reach when consuming messages from this queue
+   * Removes all UpdateMsg from this queue and resets its overflowed state.
+   * Consumer method.
+   * <p>
+   * Any UpdateMsg added after this method returns is either held by this queue
+   * or reported by {@link #hasOverflowed()}.
    */
-  public void consumeUpTo(UpdateMsg finalMsg)
+  public void clear()
   {
-    // FIXME this code could be more efficient if the msgQueue could call the
-    // following code (to be tested):
-    // if (!map.containsKey(finalMsg.getCSN())) {
-    // map.clear();
-    // } else {
-    // map.headMap(finalMsg.getCSN(), true).clear();
-    // }
-
-    final CSN finalCSN = finalMsg.getCSN();
-    UpdateMsg msg;
-    do
+    overflowed.set(false);
+    while (poll() != null)
     {
-      msg = removeFirst();
+      // drain
     }
-    while (!finalCSN.equals(msg.getCSN()));
   }
 
   @Override
   public String toString()
   {
-    return getClass().getSimpleName() + " bytesCount=" + bytesCount + " queue=" + map.values();
+    return getClass().getSimpleName() + " count=" + count() + " bytesCount=" + bytesCount()
+        + " overflowed=" + hasOverflowed();
   }
 }
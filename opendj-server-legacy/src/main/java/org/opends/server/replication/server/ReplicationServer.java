@@ -32,6 +32,8 @@ import static org.opends.server.util.StaticUtils.*;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -169,6 +171,7 @@ public class ReplicationServer
     this.config = cfg;
     this.dsrsShutdownSync = dsrsShutdownSync;
     this.domainPredicate = predicate;
+    warnIfQueueSizeCapped(cfg);
 
     enableExternalChangeLog();
     this.changelogDB = new FileChangelogDB(this, config.getReplicationDBDirectory());
@@ -183,6 +186,21 @@ public class ReplicationServer
     allInstances.add(this);
   }
 
+  /**
+   * Logs a warning when the configured queue size exceeds the number of
+   * changes a {@link MsgQueue} can hold.
+   *
+   * @param cfg
+   *          the configuration of this replication server
+   */
+  private static void warnIfQueueSizeCapped(ReplicationServerCfg cfg)
+  {
+    if (cfg.getQueueSize() > MsgQueue.MAXIMUM_CAPACITY)
+    {
+      logger.warn(WARN_REPLICATION_SERVER_QUEUE_SIZE_CAPPED, cfg.getQueueSize(), MsgQueue.MAXIMUM_CAPACITY);
+    }
+  }
+
   private Set<HostPort> getConfiguredRSAddresses()
   {
     final Set<HostPort> results = new HashSet<>();
@@ -231,7 +249,7 @@ public class ReplicationServer
           newSocket.setTcpNoDelay(true);
           newSocket.setKeepAlive(true);
           int timeoutMS = MultimasterReplication.getConnectionTimeoutMS();
-          session = replSessionSecurity.createServerSession(newSocket,
+          session = replSessionSecurity.createServerSession(newSocket.getChannel(),
               timeoutMS);
           if (session == null) // Error, go back to accept
           {
@@ -381,10 +399,12 @@ public class ReplicationServer
           + remoteServerAddress);
     }
 
-    Socket socket = new Socket();
+    SocketChannel channel = null;
     Session session = null;
     try
     {
+      channel = SocketChannel.open();
+      final Socket socket = channel.socket();
       socket.setTcpNoDelay(true);
       if (config.getSourceAddress() != null)
       {
@@ -393,7 +413,7 @@ public class ReplicationServer
       }
       int timeoutMS = MultimasterReplication.getConnectionTimeoutMS();
       socket.connect(remoteServerAddress.toInetSocketAddress(), timeoutMS);
-      session = replSessionSecurity.createClientSession(socket, timeoutMS);
+      session = replSessionSecurity.createClientSession(channel, timeoutMS);
 
       ReplicationServerHandler rsHandler = new ReplicationServerHandler(
           session, config.getQueueSize(), this, config.getWindowSize());
@@ -403,10 +423,20 @@ public class ReplicationServer
     {
       logger.traceException(e);
       close(session);
-      close(socket);
+      close(channel);
     }
   }
 
+  /**
+   * Returns a new unbound listen socket. Sessions accepted on it are based on
+   * socket channels, so that their network I/O is handled by shared selector
+   * threads.
+   */
+  private static ServerSocket newListenSocket() throws IOException
+  {
+    return ServerSocketChannel.open().socket();
+  }
+
   /** Initialization function for the replicationServer. */
   private void initialize()
   {
@@ -417,7 +447,7 @@ public class ReplicationServer
       this.changelogDB.initializeDB();
 
       setServerURL();
-      listenSocket = new ServerSocket();
+      listenSocket = newListenSocket();
       listenSocket.bind(new InetSocketAddress(getReplicationPort()));
 
       // creates working threads: we must first connect, then start to listen.
@@ -859,11 +889,22 @@ public class ReplicationServer
 
     disconnectRemovedReplicationServers(oldRSAddresses);
 
+    if (config.getQueueSize() != oldConfig.getQueueSize())
+    {
+      warnIfQueueSizeCapped(config);
+    }
     final long newPurgeDelay = config.getReplicationPurgeDelay();
     if (newPurgeDelay != oldConfig.getReplicationPurgeDelay())
     {
       this.changelogDB.setPurgeDelay(getPurgeDelay());
     }
+    if (config.isChangelogGroupCommitEnabled() != oldConfig.isChangelogGroupCommitEnabled()
+        || config.getChangelogGroupCommitInterval() != oldConfig.getChangelogGroupCommitInterval()
+        || config.getChangelogGroupCommitSize() != oldConfig.getChangelogGroupCommitSize())
+    {
+      this.changelogDB.setGroupCommit(config.isChangelogGroupCommitEnabled(),
+          config.getChangelogGroupCommitInterval(), config.getChangelogGroupCommitSize());
+    }
     final boolean computeCN = config.isComputeChangeNumber();
     if (computeCN != oldConfig.isComputeChangeNumber())
     {
@@ -890,7 +931,7 @@ public class ReplicationServer
         stopListen = false;
 
         setServerURL();
-        listenSocket = new ServerSocket();
+        listenSocket = newListenSocket();
         listenSocket.bind(new InetSocketAddress(getReplicationPort()));
 
         listenThread = new ReplicationServerListenThread(this);
@@ -1080,6 +1121,64 @@ public class ReplicationServer
     return this.config.getDegradedStatusThreshold();
   }
 
+  /**
+   * Returns whether the frames of messages sent to the peers supporting them
+   * should be compressed.
+   *
+   * @return whether the frames of messages sent to the peers should be
+   *         compressed.
+   */
+  public boolean isFrameCompressionEnabled()
+  {
+    return this.config.isFrameCompressionEnabled();
+  }
+
+  /**
+   * Indicates whether the changelog files which are not written any more should
+   * be read through memory-mapped regions.
+   * <p>
+   * The setting is read when a changelog file is opened.
+   *
+   * @return whether sealed changelog files should be memory-mapped.
+   */
+  public boolean isChangelogMemoryMappedReadsEnabled()
+  {
+    return this.config.isChangelogMemoryMappedReadsEnabled();
+  }
+
+  /**
+   * Indicates whether the changes written to the changelog are synced to disk
+   * by groups.
+   *
+   * @return whether group commit is enabled for the changelog.
+   */
+  public boolean isChangelogGroupCommitEnabled()
+  {
+    return this.config.isChangelogGroupCommitEnabled();
+  }
+
+  /**
+   * Returns the maximum time a change written to the changelog waits before
+   * being synced to disk, when group commit is enabled.
+   *
+   * @return the group commit interval in milliseconds.
+   */
+  public long getChangelogGroupCommitInterval()
+  {
+    return this.config.getChangelogGroupCommitInterval();
+  }
+
+  /**
+   * Returns the amount of changes written to the changelog after which they are
+   * synced to disk, when group commit is enabled.
+   *
+   * @return the group commit size in bytes.
+   */
+  public long getChangelogGroupCommitSize()
+  {
+    return this.config.getChangelogGroupCommitSize();
+  }
+
   /**
    * Get the monitoring publisher period value.
    * <p>
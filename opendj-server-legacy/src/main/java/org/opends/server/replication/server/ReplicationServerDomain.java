@@ -37,6 +37,9 @@ import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
@@ -46,6 +49,7 @@ import org.forgerock.i18n.LocalizableMessageBuilder;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.api.DirectoryThread;
 import org.opends.server.api.MonitorProvider;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.replication.common.CSN;
@@ -157,6 +161,21 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
   /** The tracer object for the debug logger. */
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * Sends the acks of the updates once they are persisted. Each server handler
+   * has at most one thread sending its acks at any time.
+   */
+  private static final ExecutorService PERSISTED_ACK_SENDER = Executors.newCachedThreadPool(new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new DirectoryThread(r, "Replication server persisted ack sender");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
   /**
    * The needed info for each received assured update message we are waiting
    * acks for.
@@ -338,6 +357,10 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     {
       return;
     }
+    if (preparedAssuredInfo != null && preparedAssuredInfo.ackOncePersisted)
+    {
+      sendAckOncePersisted(sourceHandler, new AckMsg(updateMsg.getCSN()));
+    }
 
     final List<Integer> assuredServers = getAssuredServers(updateMsg, preparedAssuredInfo);
 
@@ -583,6 +606,12 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
        * received. Null if expectedServers is null.
        */
       public ExpectedAcksInfo expectedAcksInfo;
+
+      /**
+       * Whether an ack must be sent to the requester as soon as the update is
+       * persisted in the changelog, without waiting for acks of other servers.
+       */
+      public boolean ackOncePersisted;
   }
 
   /**
@@ -670,7 +699,8 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
 
   /**
    * Process a just received assured update message in Safe Data mode. If the
-   * ack can be sent immediately, it is done here. This will also determine to
+   * ack does not depend on other servers, the returned object requests to send
+   * it once the update is persisted. This will also determine to
    * which suitable servers an ack should be requested from, and which ones are
    * not eligible for an ack request.
    * This method is an helper method for the put method. Have a look at the put
@@ -688,6 +718,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
   {
     CSN csn = update.getCSN();
     boolean interestedInAcks = false;
+    boolean ackOncePersisted = false;
     byte safeDataLevel = update.getSafeDataLevel();
     byte groupId = localReplicationServer.getGroupId();
     byte sourceGroupId = sourceHandler.getGroupId();
@@ -707,10 +738,10 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
           {
             /**
              * Immediately return the ack for an assured message in safe data
-             * mode with safe data level 1, coming from a DS. No need to wait
-             * for more acks
+             * mode with safe data level 1, coming from a DS, once it is
+             * persisted. No need to wait for more acks
              */
-            sourceHandler.send(new AckMsg(csn));
+            ackOncePersisted = true;
           } else
           {
             /**
@@ -730,7 +761,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
            */
           if (safeDataLevel > (byte) 1)
           {
-            sourceHandler.send(new AckMsg(csn));
+            ackOncePersisted = true;
           }
         }
     }
@@ -743,6 +774,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
 
     // Return computed structures
     PreparedAssuredInfo preparedAssuredInfo = new PreparedAssuredInfo();
+    preparedAssuredInfo.ackOncePersisted = ackOncePersisted;
     int nExpectedServers = expectedServers.size();
     if (interestedInAcks) // interestedInAcks so level > 1
     {
@@ -764,8 +796,8 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
       } else
       {
         // level > 1 and source is a DS but no eligible servers found, send the
-        // ack immediately
-        sourceHandler.send(new AckMsg(csn));
+        // ack once the update is persisted
+        preparedAssuredInfo.ackOncePersisted = true;
       }
     }
 
@@ -833,22 +865,14 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
           waitingAcks.remove(csn);
           AckMsg finalAck = expectedAcksInfo.createAck(false);
           ServerHandler origServer = expectedAcksInfo.getRequesterServer();
-          try
+          if (expectedAcksInfo instanceof SafeDataExpectedAcksInfo)
           {
-            origServer.send(finalAck);
-          } catch (IOException e)
+            // the update must also be persisted by this server
+            sendAckOncePersisted(origServer, finalAck);
+          }
+          else
           {
-            /**
-             * An error happened trying the send back an ack to the server.
-             * Log an error and close the connection to this server.
-             */
-            LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
-            mb.append(ERR_RS_ERROR_SENDING_ACK.get(
-                localReplicationServer.getServerId(), origServer.getServerId(), csn, baseDN));
-            mb.append(" ");
-            mb.append(stackTraceToSingleLineString(e));
-            logger.error(mb.toMessage());
-            stopServer(origServer, false);
+            sendAck(origServer, finalAck);
           }
           // Mark the ack info object as completed to prevent potential timeout
           // code parallel run
@@ -861,6 +885,73 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
      */
   }
 
+  /**
+   * Sends the provided ack to the provided server. If the ack cannot be sent,
+   * an error is logged and the connection to this server is closed.
+   *
+   * @param origServer The server to send the ack to.
+   * @param ack The ack to send.
+   */
+  private void sendAck(ServerHandler origServer, AckMsg ack)
+  {
+    try
+    {
+      origServer.send(ack);
+    } catch (IOException e)
+    {
+      /**
+       * An error happened trying the send back an ack to the server.
+       * Log an error and close the connection to this server.
+       */
+      LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
+      mb.append(ERR_RS_ERROR_SENDING_ACK.get(
+          localReplicationServer.getServerId(), origServer.getServerId(), ack.getCSN(), baseDN));
+      mb.append(" ");
+      mb.append(stackTraceToSingleLineString(e));
+      logger.error(mb.toMessage());
+      stopServer(origServer, false);
+    }
+  }
+
+  /**
+   * Sends the provided ack to the provided server once all the updates
+   * published so far, including the acknowledged one, are persisted in the
+   * changelog.
+   * <p>
+   * The changelog syncer running the task must not block, so the ack is only
+   * queued on the server handler. A thread of {@link #PERSISTED_ACK_SENDER}
+   * then sends the queued acks, and may wait for a slow server without
+   * delaying the acks sent to the other servers.
+   *
+   * @param origServer The server to send the ack to.
+   * @param ack The ack to send.
+   */
+  private void sendAckOncePersisted(final ServerHandler origServer, final AckMsg ack)
+  {
+    domainDB.runWhenPersisted(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        if (origServer.queuePersistedAck(ack))
+        {
+          PERSISTED_ACK_SENDER.execute(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              AckMsg persistedAck;
+              while ((persistedAck = origServer.pollPersistedAck()) != null)
+              {
+                sendAck(origServer, persistedAck);
+              }
+            }
+          });
+        }
+      }
+    });
+  }
+
   /**
    * The code run when the timeout occurs while waiting for acks of the
    * eligible servers. This basically sends a timeout ack (with any additional
@@ -909,23 +1000,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
             debug("sending timeout for assured update with CSN " + csn
                 + " to serverId=" + origServer.getServerId());
           }
-          try
-          {
-            origServer.send(finalAck);
-          } catch (IOException e)
-          {
-            /**
-             * An error happened trying the send back an ack to the server.
-             * Log an error and close the connection to this server.
-             */
-            LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
-            mb.append(ERR_RS_ERROR_SENDING_ACK.get(
-                localReplicationServer.getServerId(), origServer.getServerId(), csn, baseDN));
-            mb.append(" ");
-            mb.append(stackTraceToSingleLineString(e));
-            logger.error(mb.toMessage());
-            stopServer(origServer, false);
-          }
+          sendAck(origServer, finalAck);
           // Increment assured counters
           boolean safeRead =
               expectedAcksInfo instanceof SafeReadExpectedAcksInfo;
@@ -30,9 +30,12 @@ import static org.opends.messages.ReplicationMessages.*;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -163,6 +166,11 @@ public abstract class ServerHandler extends MessageHandler
   /** Weight of this remote server. */
   protected int weight = 1;
 
+  /** The acks of persisted updates waiting to be sent to this server. */
+  private final Queue<AckMsg> persistedAcks = new ConcurrentLinkedQueue<>();
+  /** Whether a thread is currently sending the persisted acks to this server. */
+  private final AtomicBoolean sendingPersistedAcks = new AtomicBoolean();
+
   /**
    * Creates a new server handler instance with the provided socket.
    *
@@ -292,6 +300,7 @@ public abstract class ServerHandler extends MessageHandler
       session.setName("Replication server RS(" + getReplicationServerId()
           + ") session thread to " + this + " at "
           + session.getReadableRemoteAddress());
+      session.setFrameCompression(replicationServer.isFrameCompressionEnabled());
       session.start();
       try
       {
@@ -322,6 +331,43 @@ public abstract class ServerHandler extends MessageHandler
     DirectoryServer.registerMonitorProvider(this);
   }
 
+  /**
+   * Queues the ack of a persisted update, to be sent to this server by the
+   * thread polling them with {@link #pollPersistedAck()}.
+   *
+   * @param ack
+   *          The ack to queue.
+   * @return {@code true} if no thread is currently sending the persisted acks,
+   *         in which case the caller must start one.
+   */
+  boolean queuePersistedAck(AckMsg ack)
+  {
+    persistedAcks.add(ack);
+    return sendingPersistedAcks.compareAndSet(false, true);
+  }
+
+  /**
+   * Returns the next queued ack of a persisted update, for the thread sending
+   * them to this server.
+   *
+   * @return The next ack to send, or {@code null} if there is none, in which
+   *         case the calling thread must stop sending the persisted acks.
+   */
+  AckMsg pollPersistedAck()
+  {
+    AckMsg ack;
+    while ((ack = persistedAcks.poll()) == null)
+    {
+      sendingPersistedAcks.set(false);
+      // An ack may have been queued just before the flag was cleared
+      if (persistedAcks.isEmpty() || !sendingPersistedAcks.compareAndSet(false, true))
+      {
+        return null;
+      }
+    }
+    return ack;
+  }
+
   /**
    * Sends a message.
    *
@@ -532,6 +578,20 @@ public abstract class ServerHandler extends MessageHandler
     // Encryption
     attributes.add(Attributes.create("ssl-encryption", String.valueOf(session.isEncrypted())));
 
+    // Frames
+    final FrameStatistics frameStats = session.getFrameStatistics();
+    attributes.add(Attributes.create("sent-frames", String.valueOf(frameStats.getFramesSent())));
+    attributes.add(Attributes.create("sent-updates-in-frames",
+        String.valueOf(frameStats.getMessagesSentInFrames())));
+    attributes.add(Attributes.create("average-sent-frame-size",
+        String.valueOf(frameStats.getAverageSentFrameSize())));
+    attributes.add(Attributes.create("sent-frames-bytes-saved", String.valueOf(frameStats.getBytesSavedOnSend())));
+    attributes.add(Attributes.create("received-frames", String.valueOf(frameStats.getFramesReceived())));
+    attributes.add(Attributes.create("average-received-frame-size",
+        String.valueOf(frameStats.getAverageReceivedFrameSize())));
+    attributes.add(Attributes.create("received-frames-bytes-saved",
+        String.valueOf(frameStats.getBytesSavedOnReceive())));
+
     // Data generation
     attributes.add(Attributes.create("generation-id", String.valueOf(generationId)));
 
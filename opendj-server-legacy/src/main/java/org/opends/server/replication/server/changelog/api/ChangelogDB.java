@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2013 ForgeRock AS
+ *      Copyright 2013-2015 ForgeRock AS
  */
 package org.opends.server.replication.server.changelog.api;
 
@@ -68,6 +68,24 @@ public interface ChangelogDB
   void setComputeChangeNumber(boolean computeChangeNumber)
       throws ChangelogException;
 
+  /**
+   * Sets whether the replication database must sync the published changes to
+   * persistent storage by groups, and the bounds of the group commit window.
+   * Can be called while the database is running.
+   * <p>
+   * When group commit is enabled, the published changes are synced together
+   * at most after the provided interval, or as soon as the provided amount of
+   * bytes is waiting to be synced.
+   *
+   * @param enabled
+   *          whether to sync the published changes by groups
+   * @param intervalInMillis
+   *          the maximum time a published change waits before being synced
+   * @param sizeInBytes
+   *          the amount of published bytes triggering a sync
+   */
+  void setGroupCommit(boolean enabled, long intervalInMillis, long sizeInBytes);
+
   /**
    * Shutdown the replication database.
    *
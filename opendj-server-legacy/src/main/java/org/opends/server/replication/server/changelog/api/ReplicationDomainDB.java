@@ -242,4 +242,18 @@ public interface ReplicationDomainDB
    *           If a database problem happened
    */
   void notifyReplicaOffline(DN baseDN, CSN offlineCSN) throws ChangelogException;
+
+  /**
+   * Runs the provided task once all the changes published so far are
+   * persisted.
+   * <p>
+   * When group commit is disabled, the task is run immediately in the calling
+   * thread. Otherwise, it is run by another thread once the changes have been
+   * synced with the ones published by all the other replicas. The task is not
+   * run if syncing the changes fails.
+   *
+   * @param task
+   *          the task to run, which must not block
+   */
+  void runWhenPersisted(Runnable task);
 }
@@ -34,9 +34,11 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.forgerock.opendj.ldap.ByteString;
-import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.util.Pair;
 import org.forgerock.util.Reject;
 import org.opends.server.replication.server.changelog.api.ChangelogException;
@@ -53,6 +55,11 @@ import org.opends.server.util.StaticUtils;
  * <p>
  * The reader provides both sequential access, using the {@code readRecord()} method,
  * and reasonably fast random access, using the {@code seekToRecord(K, boolean)} method.
+ * <p>
+ * Records are read either through a random access file or, for log files which are
+ * not written any more, through a memory-mapped region of the file. A mapped region
+ * can be shared by many readers, each one reading a duplicate of the region with its
+ * own position, so that no system call is needed to read a record.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -78,7 +85,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
 
   private final RecordParser<K, V> parser;
 
-  private final RandomAccessFile reader;
+  private final Input reader;
 
   private final File file;
 
@@ -100,7 +107,31 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReader(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser)
   {
-    return new BlockLogReader<>(file, reader, parser, BLOCK_SIZE);
+    return new BlockLogReader<>(file, new FileInput(reader), parser, BLOCK_SIZE);
+  }
+
+  /**
+   * Creates a reader for the provided file, memory-mapped region of the file and parser.
+   * <p>
+   * The reader owns the provided region position and limit, hence the region must not be
+   * shared with other readers: use {@link ByteBuffer#duplicate()} to share a mapping.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param region
+   *          The region mapping the whole log file, positioned at the start of the file.
+   * @param parser
+   *          The parser to decode the records read.
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newReader(
+      final File file, final ByteBuffer region, final RecordParser<K, V> parser)
+  {
+    return new BlockLogReader<>(file, new MappedInput(region), parser, BLOCK_SIZE);
   }
 
   /**
@@ -126,11 +157,37 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReaderForTests(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, int blockSize)
   {
-    return new BlockLogReader<>(file, reader, parser, blockSize);
+    return new BlockLogReader<>(file, new FileInput(reader), parser, blockSize);
+  }
+
+  /**
+   * Creates a reader for the provided file, memory-mapped region, parser and block size.
+   * <p>
+   * This method is intended for tests only, to allow tuning of the block size.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param region
+   *          The region mapping the whole log file, positioned at the start of the file.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param blockSize
+   *          The size of each block, or frequency at which the record offset is
+   *          present in the log file.
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newMappedReaderForTests(
+      final File file, final ByteBuffer region, final RecordParser<K, V> parser, int blockSize)
+  {
+    return new BlockLogReader<>(file, new MappedInput(region), parser, blockSize);
   }
 
   private BlockLogReader(
-      final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, final int blockSize)
+      final File file, final Input reader, final RecordParser<K, V> parser, final int blockSize)
   {
     this.file = file;
     this.reader = reader;
@@ -162,9 +219,40 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       final KeyMatchingStrategy matchStrategy,
       final PositionStrategy positionStrategy)
           throws ChangelogException
+  {
+    return seekToRecord(key, matchStrategy, positionStrategy, null);
+  }
+
+  /**
+   * Position the reader to the record corresponding to the provided key and
+   * matching and positioning strategies, using the provided sparse index of the
+   * log file to narrow the search. Returns the last record read.
+   *
+   * @param key
+   *          Key to use as a start position. Key must not be {@code null}.
+   * @param matchStrategy
+   *          The key matching strategy.
+   * @param positionStrategy
+   *          The positioning strategy.
+   * @param sparseIndex
+   *          The sparse index of the log file, or {@code null} to search the
+   *          whole log file.
+   * @return The pair (key_found, last_record_read), as described for
+   *         {@link #seekToRecord(Comparable, KeyMatchingStrategy, PositionStrategy)}
+   * @throws ChangelogException
+   *           If an error occurs when seeking the key.
+   */
+  Pair<Boolean, Record<K,V>> seekToRecord(
+      final K key,
+      final KeyMatchingStrategy matchStrategy,
+      final PositionStrategy positionStrategy,
+      final LogFileSparseIndex<K> sparseIndex)
+          throws ChangelogException
   {
     Reject.ifNull(key);
-    final long markerPosition = searchClosestBlockStartToKey(key);
+    final long markerPosition = sparseIndex != null
+        ? searchClosestBlockStartToKey(key, sparseIndex.getLowerBound(key), sparseIndex.getUpperBound(key))
+        : searchClosestBlockStartToKey(key);
     if (markerPosition >= 0)
     {
       return positionToKey(markerPosition, key, matchStrategy, positionStrategy);
@@ -275,7 +363,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
     if (blockStartPosition > 0)
     {
       final byte[] offsetData = new byte[SIZE_OF_BLOCK_OFFSET];
-      reader.readFully(offsetData);
+      reader.readFully(offsetData, 0, SIZE_OF_BLOCK_OFFSET);
       final int offsetToRecord = ByteString.wrap(offsetData).toInt();
       if (offsetToRecord > 0)
       {
@@ -307,14 +395,13 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       // read the record
       long currentPosition = reader.getFilePointer();
       distanceToBlockStart = getDistanceToNextBlockStart(currentPosition, blockSize);
-      final ByteStringBuilder recordBytes =
-          new ByteStringBuilder(getLengthOfStoredRecord(recordLength, distanceToBlockStart));
+      final byte[] recordBytes = new byte[recordLength];
       int remainingBytesToRead = recordLength;
       while (distanceToBlockStart < remainingBytesToRead)
       {
         if (distanceToBlockStart != 0)
         {
-          recordBytes.appendBytes(reader, distanceToBlockStart);
+          reader.readFully(recordBytes, recordLength - remainingBytesToRead, distanceToBlockStart);
         }
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
@@ -327,9 +414,9 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       if (remainingBytesToRead > 0)
       {
         // last bytes of the record
-        recordBytes.appendBytes(reader, remainingBytesToRead);
+        reader.readFully(recordBytes, recordLength - remainingBytesToRead, remainingBytesToRead);
       }
-      return recordBytes.toByteString();
+      return ByteString.wrap(recordBytes);
     }
     catch (EOFException e)
     {
@@ -363,13 +450,13 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   /** Read the length of a record. */
   private int readRecordLength(final int distanceToBlockStart) throws IOException
   {
-    final ByteStringBuilder lengthBytes = new ByteStringBuilder(SIZE_OF_RECORD_SIZE);
+    final byte[] lengthBytes = new byte[SIZE_OF_RECORD_SIZE];
     if (distanceToBlockStart > 0 && distanceToBlockStart < SIZE_OF_RECORD_SIZE)
     {
-      lengthBytes.appendBytes(reader, distanceToBlockStart);
+      reader.readFully(lengthBytes, 0, distanceToBlockStart);
       // skip the offset
       reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
+      reader.readFully(lengthBytes, distanceToBlockStart, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
     }
     else
     {
@@ -378,9 +465,47 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
       }
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE);
+      reader.readFully(lengthBytes, 0, SIZE_OF_RECORD_SIZE);
+    }
+    return ByteString.wrap(lengthBytes).toInt();
+  }
+
+  /**
+   * Builds a sparse index of the log file, with the key of the record found at
+   * every {@link LogFileSparseIndex#INTERVAL_IN_BLOCKS} blocks.
+   * <p>
+   * Note that position of reader is modified by this method.
+   *
+   * @return the sparse index of the log file
+   * @throws ChangelogException
+   *          if a problem occurs
+   */
+  LogFileSparseIndex<K> buildSparseIndex() throws ChangelogException
+  {
+    final long fileLength = getFileLength();
+    final long interval = (long) LogFileSparseIndex.INTERVAL_IN_BLOCKS * blockSize;
+    final List<K> keys = new ArrayList<>();
+    final List<Long> positions = new ArrayList<>();
+    for (long blockStart = 0; blockStart < fileLength; blockStart += interval)
+    {
+      final Record<K, V> record = readRecord(blockStart);
+      if (record == null)
+      {
+        break;
+      }
+      // a record larger than the interval can be found at several block starts
+      if (keys.isEmpty() || record.getKey().compareTo(keys.get(keys.size() - 1)) > 0)
+      {
+        keys.add(record.getKey());
+        positions.add(blockStart);
+      }
+    }
+    final long[] positionsArray = new long[positions.size()];
+    for (int i = 0; i < positionsArray.length; i++)
+    {
+      positionsArray[i] = positions.get(i);
     }
-    return lengthBytes.toByteString().toInt();
+    return new LogFileSparseIndex<>(keys, positionsArray);
   }
 
   /**
@@ -396,10 +521,37 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
    *          if a problem occurs
    */
   long searchClosestBlockStartToKey(K key) throws ChangelogException
+  {
+    return searchClosestBlockStartToKey(key, 0L, LogFileSparseIndex.NO_UPPER_BOUND);
+  }
+
+  /**
+   * Search the closest block start to the provided key, using binary search
+   * between the provided block starts.
+   * <p>
+   * Note that position of reader is modified by this method.
+   *
+   * @param key
+   *          The key to search
+   * @param lowerBound
+   *          The block start from which to search, which must be 0 or a block
+   *          start whose record has a key lower than or equal to the provided key
+   * @param upperBound
+   *          The block start where to stop the search, which must be a block start
+   *          whose record has a key strictly greater than the provided key, or
+   *          {@link LogFileSparseIndex#NO_UPPER_BOUND} to search up to the end of file
+   * @return the file position of block start that must be used to find the given key,
+   *      or a negative number if no position could be found.
+   * @throws ChangelogException
+   *          if a problem occurs
+   */
+  private long searchClosestBlockStartToKey(K key, long lowerBound, long upperBound) throws ChangelogException
   {
     final long maxPos = getFileLength() - 1;
-    long lowPos = 0L;
-    long highPos = getClosestBlockStartStrictlyAfterPosition(maxPos);
+    long lowPos = lowerBound;
+    long highPos = upperBound != LogFileSparseIndex.NO_UPPER_BOUND
+        ? upperBound
+        : getClosestBlockStartStrictlyAfterPosition(maxPos);
 
     while (lowPos <= highPos)
     {
@@ -639,4 +791,149 @@ Record<K, V> getNewestRecord() throws ChangelogException
      throw new ChangelogException(ERR_CHANGELOG_CANNOT_READ_NEWEST_RECORD.get(file.getPath()), e);
    }
  }
+
+  /** The input read by a block log reader, providing random access to the log file bytes. */
+  private interface Input extends Closeable
+  {
+    long length() throws IOException;
+
+    long getFilePointer() throws IOException;
+
+    void seek(long position) throws IOException;
+
+    void readFully(byte[] bytes, int offset, int length) throws IOException;
+
+    void skipBytes(int length) throws IOException;
+  }
+
+  /** Input reading the log file with a random access file. */
+  private static final class FileInput implements Input
+  {
+    private final RandomAccessFile file;
+
+    private FileInput(final RandomAccessFile file)
+    {
+      this.file = file;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+      return file.length();
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+      return file.getFilePointer();
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+      file.seek(position);
+    }
+
+    @Override
+    public void readFully(final byte[] bytes, final int offset, final int length) throws IOException
+    {
+      file.readFully(bytes, offset, length);
+    }
+
+    @Override
+    public void skipBytes(final int length) throws IOException
+    {
+      file.skipBytes(length);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      file.close();
+    }
+
+    @Override
+    public String toString()
+    {
+      return file.toString();
+    }
+  }
+
+  /**
+   * Input reading the log file from a memory-mapped region, with the same semantics
+   * as a random access file: positions past the end of the region are allowed, and
+   * reading there fails with an {@link EOFException}.
+   */
+  private static final class MappedInput implements Input
+  {
+    private final ByteBuffer region;
+
+    /** Position past the end of the region, or -1 if the position is the one of the region. */
+    private long positionAfterEnd = -1;
+
+    private MappedInput(final ByteBuffer region)
+    {
+      this.region = region;
+    }
+
+    @Override
+    public long length()
+    {
+      return region.limit();
+    }
+
+    @Override
+    public long getFilePointer()
+    {
+      return positionAfterEnd != -1 ? positionAfterEnd : region.position();
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+      if (position < 0)
+      {
+        throw new IOException("Negative seek offset: " + position);
+      }
+      if (position > region.limit())
+      {
+        region.position(region.limit());
+        positionAfterEnd = position;
+      }
+      else
+      {
+        region.position((int) position);
+        positionAfterEnd = -1;
+      }
+    }
+
+    @Override
+    public void readFully(final byte[] bytes, final int offset, final int length) throws IOException
+    {
+      if (region.remaining() < length)
+      {
+        region.position(region.limit());
+        throw new EOFException();
+      }
+      region.get(bytes, offset, length);
+    }
+
+    @Override
+    public void skipBytes(final int length)
+    {
+      region.position(region.position() + Math.min(length, region.remaining()));
+    }
+
+    @Override
+    public void close()
+    {
+      // the mapping is owned by the log reader pool
+    }
+
+    @Override
+    public String toString()
+    {
+      return "MappedInput [position=" + getFilePointer() + ", length=" + length() + "]";
+    }
+  }
 }
@@ -116,6 +116,8 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
    */
   private volatile long purgeDelayInMillis;
   private final AtomicReference<ChangelogDBPurger> cnPurger = new AtomicReference<>();
+  /** The thread syncing the replica DBs by groups of changes, if group commit is enabled. */
+  private final AtomicReference<GroupCommitSyncer> groupCommitSyncer = new AtomicReference<>();
 
   /** The local replication server. */
   private final ReplicationServer replicationServer;
@@ -294,6 +296,8 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
         startIndexer();
       }
       setPurgeDelay(replicationServer.getPurgeDelay());
+      setGroupCommit(replicationServer.isChangelogGroupCommitEnabled(),
+          replicationServer.getChangelogGroupCommitInterval(), replicationServer.getChangelogGroupCommitSize());
     }
     catch (ChangelogException e)
     {
@@ -338,6 +342,7 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
 
     shutdownCNIndexerAndPurger();
+    shutdownGroupCommitSyncer();
 
     // Remember the first exception because :
     // - we want to try to remove everything we want to remove
@@ -409,6 +414,24 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
   }
 
+  private void shutdownGroupCommitSyncer()
+  {
+    final GroupCommitSyncer syncer = groupCommitSyncer.getAndSet(null);
+    if (syncer != null)
+    {
+      // the syncer syncs the pending changes before exiting
+      syncer.initiateShutdown();
+      try
+      {
+        syncer.join();
+      }
+      catch (InterruptedException e)
+      {
+        // do nothing: we are already shutting down
+      }
+    }
+  }
+
   /**
    * Clears all records from the changelog (does not remove the changelog itself).
    *
@@ -601,6 +624,31 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
   }
 
+  @Override
+  public void setGroupCommit(final boolean enabled, final long intervalInMillis, final long sizeInBytes)
+  {
+    if (enabled)
+    {
+      final GroupCommitSyncer newSyncer = new GroupCommitSyncer(intervalInMillis, sizeInBytes);
+      if (groupCommitSyncer.compareAndSet(null, newSyncer))
+      { // no syncer was running, run this new one
+        newSyncer.start();
+      }
+      else
+      { // a syncer was already running, just update its window
+        groupCommitSyncer.get().setWindow(intervalInMillis, sizeInBytes);
+      }
+    }
+    else
+    {
+      final GroupCommitSyncer syncerToStop = groupCommitSyncer.getAndSet(null);
+      if (syncerToStop != null)
+      { // stop this syncer, after it has synced the pending changes
+        syncerToStop.initiateShutdown();
+      }
+    }
+  }
+
   @Override
   public void setComputeChangeNumber(final boolean computeChangeNumber)
       throws ChangelogException
@@ -813,6 +861,11 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
         csn.getServerId(), replicationServer);
     final FileReplicaDB replicaDB = pair.getFirst();
     replicaDB.add(updateMsg);
+    final GroupCommitSyncer syncer = groupCommitSyncer.get();
+    if (syncer != null)
+    {
+      syncer.appended(replicaDB.getLog(), updateMsg.size());
+    }
 
     ChangelogBackend.getInstance().notifyCookieEntryAdded(baseDN, updateMsg);
 
@@ -825,6 +878,20 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     return pair.getSecond(); // replica DB was created
   }
 
+  @Override
+  public void runWhenPersisted(final Runnable task)
+  {
+    final GroupCommitSyncer syncer = groupCommitSyncer.get();
+    if (syncer != null)
+    {
+      syncer.runWhenSynced(task);
+    }
+    else
+    {
+      task.run();
+    }
+  }
+
   @Override
   public void replicaHeartbeat(final DN baseDN, final CSN heartbeatCSN) throws ChangelogException
   {
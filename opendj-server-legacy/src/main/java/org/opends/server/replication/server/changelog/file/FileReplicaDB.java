@@ -151,6 +151,16 @@ class FileReplicaDB
     return replicationEnv.getOrCreateReplicaDB(baseDN, serverId, domain.getGenerationId());
   }
 
+  /**
+   * Returns the log in which the records of this replicaDB are persisted.
+   *
+   * @return the log of this replicaDB
+   */
+  Log<CSN, UpdateMsg> getLog()
+  {
+    return log;
+  }
+
   /**
    * Adds a new message.
    *
@@ -0,0 +1,270 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import static org.opends.messages.ReplicationMessages.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+
+/**
+ * Thread syncing the logs of the changelog to the file system by groups of
+ * appends, also known as group commit.
+ * <p>
+ * Appends to the logs mark them as dirty. This thread syncs all the dirty logs
+ * together once the oldest append not synced yet is older than the sync
+ * interval, or once the bytes appended since the last sync exceed the sync
+ * size, whichever comes first. It then runs the tasks waiting for the appends
+ * to be persisted, like sending acknowledgments of assured updates.
+ */
+final class GroupCommitSyncer extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final long NO_PENDING_APPEND = -1;
+
+  private final Object lock = new Object();
+
+  /** The logs with appends not synced yet. Guarded by lock. */
+  private Set<Log<?, ?>> dirtyLogs = new HashSet<>();
+  /** The tasks to run once the next sync completes. Guarded by lock. */
+  private List<Runnable> waitingTasks = new ArrayList<>();
+  /** The number of bytes appended since the last sync. Guarded by lock. */
+  private long unsyncedBytes;
+  /** The time, in nanoseconds, of the oldest append not synced yet. Guarded by lock. */
+  private long oldestUnsyncedAppendNanos = NO_PENDING_APPEND;
+  /** Whether a sync is in progress. Guarded by lock. */
+  private boolean isSyncing;
+  /** Whether shutdown has been initiated. Guarded by lock. */
+  private boolean isShuttingDown;
+  /** Whether this thread has completed its last sync and exited. Guarded by lock. */
+  private boolean isStopped;
+
+  private volatile long intervalInNanos;
+  private volatile long sizeInBytes;
+
+  /**
+   * Creates a new syncer, which must then be started.
+   *
+   * @param intervalInMillis
+   *          the maximum time an append waits before being synced
+   * @param sizeInBytes
+   *          the amount of appended bytes triggering a sync
+   */
+  GroupCommitSyncer(final long intervalInMillis, final long sizeInBytes)
+  {
+    super("Changelog group commit syncer");
+    setWindow(intervalInMillis, sizeInBytes);
+  }
+
+  /**
+   * Sets the bounds of the group commit window.
+   *
+   * @param intervalInMillis
+   *          the maximum time an append waits before being synced
+   * @param sizeInBytes
+   *          the amount of appended bytes triggering a sync
+   */
+  void setWindow(final long intervalInMillis, final long sizeInBytes)
+  {
+    this.intervalInNanos = TimeUnit.MILLISECONDS.toNanos(intervalInMillis);
+    this.sizeInBytes = sizeInBytes;
+    synchronized (lock)
+    {
+      lock.notify();
+    }
+  }
+
+  /**
+   * Notifies this syncer that records have been appended to the provided log.
+   *
+   * @param log
+   *          the log the records have been appended to
+   * @param appendedBytes
+   *          the approximate number of bytes appended
+   */
+  void appended(final Log<?, ?> log, final int appendedBytes)
+  {
+    synchronized (lock)
+    {
+      if (isStopped)
+      {
+        // the logs are synced when closed
+        return;
+      }
+      dirtyLogs.add(log);
+      if (oldestUnsyncedAppendNanos == NO_PENDING_APPEND)
+      {
+        oldestUnsyncedAppendNanos = System.nanoTime();
+        lock.notify();
+      }
+      unsyncedBytes += appendedBytes;
+      if (unsyncedBytes >= sizeInBytes)
+      {
+        lock.notify();
+      }
+    }
+  }
+
+  /**
+   * Runs the provided task once all the records appended so far are synced.
+   * <p>
+   * The task is run immediately in the calling thread if there is nothing to
+   * sync.
+   *
+   * @param task
+   *          the task to run
+   */
+  void runWhenSynced(final Runnable task)
+  {
+    synchronized (lock)
+    {
+      if (!isStopped && (isSyncing || !dirtyLogs.isEmpty()))
+      {
+        // a sync in progress may be syncing the records appended by the caller
+        waitingTasks.add(task);
+        lock.notify();
+        return;
+      }
+    }
+    // Nothing left to sync by this syncer
+    task.run();
+  }
+
+  @Override
+  public void run()
+  {
+    while (true)
+    {
+      final Set<Log<?, ?>> logsToSync;
+      final List<Runnable> tasksToRun;
+      synchronized (lock)
+      {
+        try
+        {
+          waitForSyncToBeDue();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          isShuttingDown = true;
+        }
+        if (isShuttingDown && dirtyLogs.isEmpty() && waitingTasks.isEmpty())
+        {
+          isStopped = true;
+          return;
+        }
+        logsToSync = dirtyLogs;
+        tasksToRun = waitingTasks;
+        dirtyLogs = new HashSet<>();
+        waitingTasks = new ArrayList<>();
+        unsyncedBytes = 0;
+        oldestUnsyncedAppendNanos = NO_PENDING_APPEND;
+        isSyncing = true;
+      }
+
+      try
+      {
+        sync(logsToSync, tasksToRun);
+      }
+      finally
+      {
+        synchronized (lock)
+        {
+          isSyncing = false;
+        }
+      }
+    }
+  }
+
+  private void waitForSyncToBeDue() throws InterruptedException
+  {
+    while (!isShuttingDown)
+    {
+      if (dirtyLogs.isEmpty())
+      {
+        if (!waitingTasks.isEmpty())
+        {
+          // the records appended before these tasks were synced by the previous sync
+          return;
+        }
+        lock.wait();
+        continue;
+      }
+      final long remainingNanos = oldestUnsyncedAppendNanos + intervalInNanos - System.nanoTime();
+      if (remainingNanos <= 0 || unsyncedBytes >= sizeInBytes)
+      {
+        return;
+      }
+      TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+    }
+  }
+
+  private void sync(final Set<Log<?, ?>> logsToSync, final List<Runnable> tasksToRun)
+  {
+    for (Log<?, ?> log : logsToSync)
+    {
+      try
+      {
+        log.syncToFileSystem();
+      }
+      catch (ChangelogException e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_CHANGELOG_GROUP_COMMIT_SYNC_FAILED.get(e.getMessageObject(), tasksToRun.size()));
+        return;
+      }
+    }
+    for (Runnable task : tasksToRun)
+    {
+      try
+      {
+        task.run();
+      }
+      catch (RuntimeException e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  @Override
+  public void initiateShutdown()
+  {
+    super.initiateShutdown();
+    synchronized (lock)
+    {
+      isShuttingDown = true;
+      lock.notify();
+    }
+  }
+}
@@ -529,20 +529,29 @@ final class Log<K extends Comparable<K>, V> implements Closeable
    * <p>
    * After a successful call to this method, it is guaranteed that all records
    * added to the log are persisted to the file system.
+   * <p>
+   * Only the head log file needs to be synchronized: read-only log files have
+   * been synchronized when the head log file was rotated. The shared lock is
+   * enough to prevent a concurrent rotation, and does not block the appends.
    *
    * @throws ChangelogException
    *           If the synchronization fails.
    */
   public void syncToFileSystem() throws ChangelogException
   {
-    exclusiveLock.lock();
+    sharedLock.lock();
     try
     {
+      if (isClosed)
+      {
+        // all records have been synchronized when closing
+        return;
+      }
       getHeadLogFile().syncToFileSystem();
     }
     finally
     {
-      exclusiveLock.unlock();
+      sharedLock.unlock();
     }
   }
 
@@ -998,7 +1007,9 @@ final class Log<K extends Comparable<K>, V> implements Closeable
     renameHeadLogFileTo(readOnlyLogFile);
 
     openHeadLogFile();
-    openReadOnlyLogFile(readOnlyLogFile);
+    final LogFile<K, V> rotatedLogFile = openReadOnlyLogFile(readOnlyLogFile);
+    // Persist the sparse index now rather than on first cursor positioning
+    rotatedLogFile.getSparseIndex();
 
     // Re-enable cursors previously opened on head, with the saved state
     updateOpenedCursorsOnHeadAfterRotation(cursorsOnHead);
@@ -1128,11 +1139,13 @@ final class Log<K extends Comparable<K>, V> implements Closeable
     logFiles.put(recordParser.getMaxKey(), head);
   }
 
-  private void openReadOnlyLogFile(final File logFilePath) throws ChangelogException
+  private LogFile<K, V> openReadOnlyLogFile(final File logFilePath) throws ChangelogException
   {
-    final LogFile<K, V> logFile = LogFile.newReadOnlyLogFile(logFilePath, recordParser);
+    final LogFile<K, V> logFile =
+        LogFile.newReadOnlyLogFile(logFilePath, recordParser, replicationEnv.isMemoryMappedReadsEnabled());
     final Pair<K, K> bounds = getKeyBounds(logFile);
     logFiles.put(bounds.getSecond(), logFile);
+    return logFile;
   }
 
   private void registerCursor(final AbortableLogCursor<K, V> cursor)
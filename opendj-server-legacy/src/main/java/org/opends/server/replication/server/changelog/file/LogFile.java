@@ -81,6 +81,15 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
   /** Indicates if log is enabled for write. */
   private final boolean isWriteEnabled;
 
+  /** The parser of records, also used to encode the keys of the sparse index. */
+  private final RecordParser<K, V> parser;
+
+  /**
+   * The sparse index of this log file, lazily loaded or built. Always
+   * {@code null} if log file is write-enabled.
+   */
+  private volatile LogFileSparseIndex<K> sparseIndex;
+
   /** Lock used to ensure write atomicity. */
   private final Lock exclusiveLock;
 
@@ -99,15 +108,20 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
    * @param isWriteEnabled
    *          {@code true} if this changelog is write-enabled, {@code false}
    *          otherwise.
+   * @param isMemoryMapped
+   *          {@code true} if records should be read through a memory-mapped
+   *          region of the file, only allowed when write is not enabled.
    * @throws ChangelogException
    *            If a problem occurs during initialization.
    */
-  private LogFile(final File logFilePath, final RecordParser<K, V> parser, boolean isWriteEnabled)
-      throws ChangelogException
+  private LogFile(final File logFilePath, final RecordParser<K, V> parser, boolean isWriteEnabled,
+      boolean isMemoryMapped) throws ChangelogException
   {
     Reject.ifNull(logFilePath, parser);
+    Reject.ifTrue(isWriteEnabled && isMemoryMapped, "A write-enabled log file cannot be memory-mapped");
     this.logfile = logFilePath;
     this.isWriteEnabled = isWriteEnabled;
+    this.parser = parser;
 
     createLogFileIfNotExists();
     if (isWriteEnabled)
@@ -119,7 +133,7 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
     {
       writer = null;
     }
-    readerPool = new LogReaderPool<>(logfile, parser);
+    readerPool = new LogReaderPool<>(logfile, parser, isMemoryMapped);
 
     final ReadWriteLock rwLock = new ReentrantReadWriteLock();
     exclusiveLock = rwLock.writeLock();
@@ -137,14 +151,17 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
    *          Path of the log file.
    * @param parser
    *          Parser of records.
+   * @param isMemoryMapped
+   *          {@code true} if records should be read through a memory-mapped
+   *          region of the file rather than through random access files.
    * @return a read-only log file
    * @throws ChangelogException
    *            If a problem occurs during initialization.
    */
   static <K extends Comparable<K>, V> LogFile<K, V> newReadOnlyLogFile(final File logFilePath,
-      final RecordParser<K, V> parser) throws ChangelogException
+      final RecordParser<K, V> parser, final boolean isMemoryMapped) throws ChangelogException
   {
-    return new LogFile<>(logFilePath, parser, false);
+    return new LogFile<>(logFilePath, parser, false, isMemoryMapped);
   }
 
   /**
@@ -166,7 +183,7 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> LogFile<K, V> newAppendableLogFile(final File logFilePath,
       final RecordParser<K, V> parser) throws ChangelogException
   {
-    return new LogFile<>(logFilePath, parser, true);
+    return new LogFile<>(logFilePath, parser, true, false);
   }
 
   /**
@@ -179,6 +196,76 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
     return logfile;
   }
 
+  /**
+   * Returns the sparse index of this read-only log file, reading it from the
+   * index file, or building and persisting it if the index file is missing or
+   * invalid.
+   *
+   * @return the sparse index, or {@code null} if the log file is write-enabled
+   *         or if the index can't be obtained, in which case the whole log file
+   *         must be searched
+   */
+  LogFileSparseIndex<K> getSparseIndex()
+  {
+    if (isWriteEnabled)
+    {
+      return null;
+    }
+    LogFileSparseIndex<K> index = sparseIndex;
+    if (index == null)
+    {
+      synchronized (this)
+      {
+        index = sparseIndex;
+        if (index == null)
+        {
+          index = loadOrBuildSparseIndex();
+          sparseIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  private LogFileSparseIndex<K> loadOrBuildSparseIndex()
+  {
+    final File indexFile = LogFileSparseIndex.getIndexFile(logfile);
+    final long logFileLength = logfile.length();
+    try
+    {
+      final LogFileSparseIndex<K> index = LogFileSparseIndex.read(indexFile, logFileLength, parser);
+      if (index != null)
+      {
+        return index;
+      }
+    }
+    catch (IOException e)
+    {
+      logger.traceException(e);
+    }
+
+    BlockLogReader<K, V> reader = null;
+    try
+    {
+      reader = getReader();
+      final LogFileSparseIndex<K> index = reader.buildSparseIndex();
+      index.write(indexFile, logFileLength, parser);
+      return index;
+    }
+    catch (ChangelogException | IOException e)
+    {
+      logger.traceException(e, "Unable to build the sparse index of log file %s", getPath());
+      return null;
+    }
+    finally
+    {
+      if (reader != null)
+      {
+        releaseReader(reader);
+      }
+    }
+  }
+
   private void checkLogIsEnabledForWrite() throws ChangelogException
   {
     if (!isWriteEnabled)
@@ -454,6 +541,8 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
       {
         throw new ChangelogException(ERR_CHANGELOG_UNABLE_TO_DELETE_LOG_FILE.get(getPath()));
       }
+      // the index is rebuilt if needed, no need to fail if it can't be deleted
+      LogFileSparseIndex.getIndexFile(logfile).delete();
     }
     finally
     {
@@ -614,7 +703,7 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
       logFile.sharedLock.lock();
       try
       {
-        result = reader.seekToRecord(key, match, pos);
+        result = reader.seekToRecord(key, match, pos, logFile.getSparseIndex());
       }
       finally
       {
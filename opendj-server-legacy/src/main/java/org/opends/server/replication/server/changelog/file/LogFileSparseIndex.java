@@ -0,0 +1,238 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.util.Reject;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * A sparse index of a read-only log file, mapping the key of the record found
+ * at regular block intervals to the position of the block in the log file.
+ * <p>
+ * The index narrows the binary search performed by a {@link BlockLogReader}
+ * when positioning a cursor to a key: only the blocks between the two index
+ * entries surrounding the key are searched, instead of the whole log file.
+ * <p>
+ * The index is persisted next to its log file, when the head log file is rotated
+ * or the first time it is needed. It is rebuilt from the log file if the index
+ * file is missing or does not match the log file.
+ *
+ * @param <K>
+ *          Type of the key of a record, which must be comparable.
+ */
+final class LogFileSparseIndex<K extends Comparable<K>>
+{
+  /** Number of blocks between two entries of the index. */
+  static final int INTERVAL_IN_BLOCKS = 256;
+
+  /** Suffix of the index file name, appended to the name of the log file. */
+  static final String INDEX_FILE_SUFFIX = ".idx";
+
+  /** Returned as upper bound when the key may be located up to the end of the log file. */
+  static final long NO_UPPER_BOUND = -1;
+
+  private static final int FORMAT_VERSION = 1;
+
+  /** The keys of the entries, in ascending order. */
+  private final List<K> keys;
+
+  /** The block positions of the entries, in ascending order. */
+  private final long[] positions;
+
+  /**
+   * Creates a sparse index from the provided entries.
+   *
+   * @param keys
+   *          the keys of the entries, in strictly ascending order
+   * @param positions
+   *          the block positions of the entries, the first one being 0
+   */
+  LogFileSparseIndex(final List<K> keys, final long[] positions)
+  {
+    Reject.ifFalse(keys.size() == positions.length, "keys and positions must have the same size");
+    this.keys = keys;
+    this.positions = positions;
+  }
+
+  /**
+   * Returns the position of the last entry whose key is lower than or equal to
+   * the provided key, which is where the search for this key should start.
+   *
+   * @param key
+   *          the key to search
+   * @return the position from which the key should be searched
+   */
+  long getLowerBound(final K key)
+  {
+    final int index = Collections.binarySearch(keys, key);
+    if (index >= 0)
+    {
+      return positions[index];
+    }
+    final int insertionPoint = -index - 1;
+    return insertionPoint == 0 ? 0 : positions[insertionPoint - 1];
+  }
+
+  /**
+   * Returns the position of the first entry whose key is strictly greater than
+   * the provided key, which is where the search for this key should stop.
+   *
+   * @param key
+   *          the key to search
+   * @return the position where the search for this key should stop, or
+   *         {@link #NO_UPPER_BOUND} if the key may be located up to the end of
+   *         the log file
+   */
+  long getUpperBound(final K key)
+  {
+    final int index = Collections.binarySearch(keys, key);
+    final int firstGreater = index >= 0 ? index + 1 : -index - 1;
+    return firstGreater < positions.length ? positions[firstGreater] : NO_UPPER_BOUND;
+  }
+
+  /**
+   * Returns the number of entries of this index.
+   *
+   * @return the number of entries
+   */
+  int size()
+  {
+    return positions.length;
+  }
+
+  /**
+   * Returns the index file associated to the provided log file.
+   *
+   * @param logFile
+   *          the log file
+   * @return the index file of the log file
+   */
+  static File getIndexFile(final File logFile)
+  {
+    return new File(logFile.getParentFile(), logFile.getName() + INDEX_FILE_SUFFIX);
+  }
+
+  /**
+   * Writes this index to the provided index file. The index is first written to
+   * a temporary file, then renamed, so that the index file is either complete
+   * or absent.
+   *
+   * @param indexFile
+   *          the file to write
+   * @param logFileLength
+   *          the length of the indexed log file, used to detect stale indexes
+   * @param parser
+   *          the parser used to encode the keys
+   * @throws IOException
+   *           if the index file cannot be written
+   */
+  void write(final File indexFile, final long logFileLength, final RecordParser<K, ?> parser) throws IOException
+  {
+    final File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))
+    {
+      output.writeInt(FORMAT_VERSION);
+      output.writeLong(logFileLength);
+      output.writeInt(positions.length);
+      for (int i = 0; i < positions.length; i++)
+      {
+        output.writeLong(positions[i]);
+        output.writeUTF(parser.encodeKeyToString(keys.get(i)));
+      }
+    }
+    StaticUtils.renameFile(tmpFile, indexFile);
+  }
+
+  /**
+   * Reads the index persisted in the provided index file.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param indexFile
+   *          the file to read
+   * @param logFileLength
+   *          the current length of the indexed log file
+   * @param parser
+   *          the parser used to decode the keys
+   * @return the index, or {@code null} if the index file does not exist or
+   *         does not match the log file
+   * @throws IOException
+   *           if the index file cannot be read
+   */
+  static <K extends Comparable<K>> LogFileSparseIndex<K> read(final File indexFile, final long logFileLength,
+      final RecordParser<K, ?> parser) throws IOException
+  {
+    if (!indexFile.exists())
+    {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))))
+    {
+      if (input.readInt() != FORMAT_VERSION || input.readLong() != logFileLength)
+      {
+        return null;
+      }
+      final int size = input.readInt();
+      if (size <= 0)
+      {
+        return null;
+      }
+      final long[] positions = new long[size];
+      @SuppressWarnings("unchecked")
+      final K[] keys = (K[]) new Comparable[size];
+      for (int i = 0; i < size; i++)
+      {
+        positions[i] = input.readLong();
+        keys[i] = parser.decodeKeyFromString(input.readUTF());
+      }
+      return new LogFileSparseIndex<>(Arrays.asList(keys), positions);
+    }
+    catch (ChangelogException e)
+    {
+      // a key cannot be decoded: the index must be rebuilt
+      return null;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "(size=" + positions.length + ")";
+  }
+}
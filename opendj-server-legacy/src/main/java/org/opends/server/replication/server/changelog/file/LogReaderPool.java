@@ -21,13 +21,17 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014 ForgeRock AS.
+ *      Copyright 2014-2015 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
+import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.replication.server.changelog.api.ChangelogException;
 import org.opends.server.util.StaticUtils;
 
@@ -35,7 +39,11 @@ import static org.opends.messages.ReplicationMessages.*;
 
 /**
  * A Pool of readers to a log file.
-
+ * <p>
+ * When memory mapping is enabled, which is only allowed for log files that are
+ * not written any more, the file is mapped once in memory on first access and all
+ * readers share the mapping, each one with its own position. Otherwise, each reader
+ * opens its own random access file.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -45,11 +53,19 @@ import static org.opends.messages.ReplicationMessages.*;
 // TODO : implement a real pool - reusing readers instead of opening-closing them each time
 class LogReaderPool<K extends Comparable<K>, V>
 {
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
   /** The file to read. */
   private final File file;
 
   private final RecordParser<K, V> parser;
 
+  /** Indicates whether the file should be read through a memory-mapped region. */
+  private volatile boolean isMemoryMapped;
+
+  /** The region mapping the whole file, lazily created on first access. */
+  private ByteBuffer mappedRegion;
+
   /**
    * Creates a pool of readers for provided file.
    *
@@ -57,11 +73,15 @@ class LogReaderPool<K extends Comparable<K>, V>
    *          The file to read.
    * @param parser
    *          The parser to decode the records read.
+   * @param isMemoryMapped
+   *          Indicates whether the file should be read through a memory-mapped
+   *          region. The file must not be written any more when {@code true}.
    */
-  LogReaderPool(File file, RecordParser<K, V> parser)
+  LogReaderPool(File file, RecordParser<K, V> parser, boolean isMemoryMapped)
   {
     this.file = file;
     this.parser = parser;
+    this.isMemoryMapped = isMemoryMapped;
   }
 
   /**
@@ -76,6 +96,14 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   BlockLogReader<K, V> get() throws ChangelogException
   {
+    if (isMemoryMapped)
+    {
+      final ByteBuffer region = getMappedRegion();
+      if (region != null)
+      {
+        return BlockLogReader.newReader(file, region.duplicate(), parser);
+      }
+    }
     return getReader(file);
   }
 
@@ -90,9 +118,43 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   void release(BlockLogReader<K, V> reader)
   {
+    // a mapped reader does not hold any resource, closing it is a no-op
     StaticUtils.close(reader);
   }
 
+  /**
+   * Returns the region mapping the whole file, mapping it on first call.
+   * <p>
+   * Returns {@code null} if the file cannot be mapped, in which case memory mapping
+   * is disabled for this pool and readers fall back to random access files.
+   */
+  private synchronized ByteBuffer getMappedRegion()
+  {
+    if (mappedRegion == null && isMemoryMapped)
+    {
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+           FileChannel channel = randomAccessFile.getChannel())
+      {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE)
+        {
+          logger.trace("Log file %s is too large to be memory-mapped: %s bytes", file.getPath(), size);
+          isMemoryMapped = false;
+          return null;
+        }
+        // the mapping remains valid after the channel is closed
+        mappedRegion = channel.map(MapMode.READ_ONLY, 0, size);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e, "Unable to memory-map log file %s, reading it with a random access file",
+            file.getPath());
+        isMemoryMapped = false;
+      }
+    }
+    return mappedRegion;
+  }
+
   /** Returns a random access file to read this log. */
   private BlockLogReader<K, V> getReader(File file) throws ChangelogException
   {
@@ -110,9 +172,12 @@ class LogReaderPool<K extends Comparable<K>, V>
    * Shutdown this pool, releasing all files handles opened
    * on the file.
    */
-  void shutdown()
+  synchronized void shutdown()
   {
-    // Nothing to do yet as no file handle is kept opened.
+    // No file handle is kept opened. The mapping is released once the region
+    // and its duplicates held by readers are garbage collected.
+    isMemoryMapped = false;
+    mappedRegion = null;
   }
 
 }
@@ -296,6 +296,17 @@ class ReplicationEnvironment implements ChangelogStateProvider
     }
   }
 
+  /**
+   * Indicates whether log files which are not written any more should be read
+   * through memory-mapped regions.
+   *
+   * @return {@code true} if sealed log files should be memory-mapped
+   */
+  boolean isMemoryMappedReadsEnabled()
+  {
+    return replicationServer != null && replicationServer.isChangelogMemoryMappedReadsEnabled();
+  }
+
   /**
    * Returns the state of the replication changelog.
    *
@@ -2833,6 +2833,19 @@ public class ReplicationBroker
     return session != null ? session.isEncrypted() : false;
   }
 
+  /**
+   * Returns the statistics about the frames exchanged with the replication
+   * server.
+   *
+   * @return the statistics about the frames exchanged with the replication
+   *         server, or {@code null} if not connected.
+   */
+  public FrameStatistics getFrameStatistics()
+  {
+    final Session session = connectedRS.get().session;
+    return session != null ? session.getFrameStatistics() : null;
+  }
+
   /**
    * Signals the RS we just entered a new status.
    * @param newStatus The status the local DS just entered
@@ -57,6 +57,7 @@ import org.opends.server.tasks.InitializeTask;
 import org.opends.server.types.Attribute;
 import org.opends.server.types.DN;
 import org.opends.server.types.DirectoryException;
+import org.opends.server.util.BinaryEntryFormat;
 
 /**
  * This class should be used as a base for Replication implementations.
@@ -539,6 +540,53 @@ public abstract class ReplicationDomain
     return config.getInitializationWindowSize();
   }
 
+  /**
+   * Tells whether the entries exported to initialize remote servers may be sent
+   * in the binary format rather than in LDIF.
+   *
+   * @return true if the binary initialization is enabled for this domain.
+   */
+  protected boolean isBinaryInitializationEnabled()
+  {
+    return config.isBinaryInitializationEnabled();
+  }
+
+  /**
+   * Tells whether the historical information of the entries may be written in
+   * the compact form rather than in the legacy form.
+   *
+   * @return true if the compact historical is enabled for this domain.
+   */
+  protected boolean isCompactHistoricalEnabled()
+  {
+    return config.isCompactHistoricalEnabled();
+  }
+
+  /**
+   * Tells whether this server is connected to the topology and whether its
+   * session and all the directory servers of the topology speak at least the
+   * provided version of the replication protocol.
+   *
+   * @param protocolVersion
+   *          the version of the replication protocol
+   * @return true if all the known servers speak at least the provided version.
+   */
+  protected boolean isSupportedByAllServers(short protocolVersion)
+  {
+    if (!broker.isConnected() || broker.getProtocolVersion() < protocolVersion)
+    {
+      return false;
+    }
+    for (DSInfo dsi : getReplicaInfos().values())
+    {
+      if (dsi.getProtocolVersion() < protocolVersion)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Tells if assured replication is enabled for this domain.
    * @return True if assured replication is enabled for this domain.
@@ -1148,6 +1196,11 @@ public abstract class ReplicationDomain
     /** Number of attempt already done for this initialization. */
     private short attemptCnt;
 
+    /** Whether the entries are exchanged in the binary format rather than in LDIF. */
+    private boolean binaryEntries;
+    /** Counts the binary entries exchanged, whatever the message boundaries. */
+    private BinaryEntryFormat.EntryCounter binaryEntryCounter;
+
     /**
      * Creates a new IEContext.
      *
@@ -1174,6 +1227,23 @@ public abstract class ReplicationDomain
       return importInProgress;
     }
 
+    /**
+     * Returns whether the entries of this total update are exchanged in the
+     * binary format rather than in LDIF.
+     *
+     * @return true if the entries are exchanged in the binary format.
+     */
+    public boolean isBinaryEntries()
+    {
+      return binaryEntries;
+    }
+
+    private void setBinaryEntries(boolean binaryEntries)
+    {
+      this.binaryEntries = binaryEntries;
+      this.binaryEntryCounter = binaryEntries ? new BinaryEntryFormat.EntryCounter() : null;
+    }
+
     /**
      * Returns the total number of entries to be processed when a total update
      * is in progress.
@@ -1492,11 +1562,13 @@ public abstract class ReplicationDomain
         ieCtx.msgCnt = 0;
         ieCtx.initNumLostConnections = broker.getNumLostConnections();
         ieCtx.initWindow = initWindow;
+        ieCtx.setBinaryEntries(canExportBinaryEntries(serverToInitialize));
 
         // Send start message to the peer
         InitializeTargetMsg initTargetMsg = new InitializeTargetMsg(
             getBaseDN(), getServerId(), serverToInitialize,
-            serverRunningTheTask, ieCtx.entryCount, initWindow);
+            serverRunningTheTask, ieCtx.entryCount, initWindow,
+            ieCtx.binaryEntries);
 
         broker.publish(initTargetMsg);
 
@@ -1901,7 +1973,7 @@ public abstract class ReplicationDomain
         {
           EntryMsg entryMsg = (EntryMsg)msg;
           byte[] entryBytes = entryMsg.getEntryBytes();
-          ieCtx.updateCounters(countEntryLimits(entryBytes));
+          ieCtx.updateCounters(countEntries(ieCtx, entryBytes, 0, entryBytes.length));
 
           if (ieCtx.exporterProtocolVersion >=
             ProtocolVersion.REPLICATION_PROTOCOL_V4)
@@ -1979,16 +2051,22 @@ public abstract class ReplicationDomain
   }
 
   /**
-   * Count the number of entries in the provided byte[].
-   * This is based on the hypothesis that the entries are separated
-   * by a "\n\n" String.
+   * Count the number of entries ending in the provided byte[], according to the
+   * format used to exchange the entries of the provided context.
    *
+   * @param   ieCtx the import/export context.
    * @param   entryBytes the set of bytes containing one or more entries.
+   * @param   pos the starting position in the array.
+   * @param   length the number of bytes to consider.
    * @return  The number of entries in the provided byte[].
    */
-  private int countEntryLimits(byte[] entryBytes)
+  private int countEntries(ImportExportContext ieCtx, byte[] entryBytes, int pos, int length)
   {
-    return countEntryLimits(entryBytes, 0, entryBytes.length);
+    if (ieCtx.binaryEntries)
+    {
+      return ieCtx.binaryEntryCounter.count(entryBytes, pos, length);
+    }
+    return countEntryLimits(entryBytes, pos, length);
   }
 
   /**
@@ -1997,6 +2075,8 @@ public abstract class ReplicationDomain
    * by a "\n\n" String.
    *
    * @param   entryBytes the set of bytes containing one or more entries.
+   * @param   pos the starting position in the array.
+   * @param   length the number of bytes to consider.
    * @return  The number of entries in the provided byte[].
    */
   private int countEntryLimits(byte[] entryBytes, int pos, int length)
@@ -2126,7 +2206,7 @@ public abstract class ReplicationDomain
     // publish succeeded
     try
     {
-      ieCtx.updateCounters(countEntryLimits(lDIFEntry, pos, length));
+      ieCtx.updateCounters(countEntries(ieCtx, lDIFEntry, pos, length));
     }
     catch (DirectoryException de)
     {
@@ -2269,6 +2349,7 @@ public abstract class ReplicationDomain
       ieCtx.initializeCounters(initTargetMsgReceived.getEntryCount());
       ieCtx.initWindow = initTargetMsgReceived.getInitWindow();
       ieCtx.exporterProtocolVersion = getProtocolVersion(source);
+      ieCtx.setBinaryEntries(initTargetMsgReceived.isBinaryEntries());
       initFromTask = (InitializeTask) ieCtx.initializeTask;
 
       // Launch the import
@@ -2388,6 +2469,36 @@ public abstract class ReplicationDomain
     } // finally
   }
 
+  /**
+   * Tells whether the entries exported to the provided server(s) can be sent in
+   * the binary format: the binary initialization must be enabled and this
+   * server as well as all the servers to initialize must support it.
+   *
+   * @param serverToInitialize The serverId of the server to initialize, or
+   *                           {@link RoutableMsg#ALL_SERVERS}.
+   * @return true if the entries can be sent in the binary format.
+   */
+  private boolean canExportBinaryEntries(int serverToInitialize)
+  {
+    if (!isBinaryInitializationEnabled()
+        || broker.getProtocolVersion() < ProtocolVersion.REPLICATION_PROTOCOL_V10)
+    {
+      return false;
+    }
+    if (serverToInitialize != RoutableMsg.ALL_SERVERS)
+    {
+      return getProtocolVersion(serverToInitialize) >= ProtocolVersion.REPLICATION_PROTOCOL_V10;
+    }
+    for (DSInfo dsi : getReplicaInfos().values())
+    {
+      if (dsi.getProtocolVersion() < ProtocolVersion.REPLICATION_PROTOCOL_V10)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Return the protocol version of the DS related to the provided serverId.
    * Returns -1 when the protocol version is not known.
@@ -2670,6 +2781,18 @@ public abstract class ReplicationDomain
     return broker != null && broker.isSessionEncrypted();
   }
 
+  /**
+   * Returns the statistics about the frames exchanged with the replication
+   * server.
+   *
+   * @return the statistics about the frames exchanged with the replication
+   *         server, or {@code null} if not connected.
+   */
+  FrameStatistics getFrameStatistics()
+  {
+    return broker != null ? broker.getFrameStatistics() : null;
+  }
+
   /**
    * Check if the domain is connected to a ReplicationServer.
    *
@@ -33,6 +33,7 @@ import java.util.Map.Entry;
 
 import org.opends.server.admin.std.server.MonitorProviderCfg;
 import org.opends.server.api.MonitorProvider;
+import org.opends.server.replication.protocol.FrameStatistics;
 import org.opends.server.replication.service.ReplicationDomain.ImportExportContext;
 import org.opends.server.types.Attribute;
 import org.opends.server.types.AttributeBuilder;
@@ -113,6 +114,15 @@ public class ReplicationMonitor extends MonitorProvider<MonitorProviderCfg>
     attributes.add(builder.toAttribute());
 
     addMonitorData(attributes, "ssl-encryption", domain.isSessionEncrypted());
+
+    final FrameStatistics frameStats = domain.getFrameStatistics();
+    if (frameStats != null)
+    {
+      addMonitorData(attributes, "received-frames", frameStats.getFramesReceived());
+      addMonitorData(attributes, "received-updates-in-frames", frameStats.getMessagesReceivedInFrames());
+      addMonitorData(attributes, "average-received-frame-size", frameStats.getAverageReceivedFrameSize());
+      addMonitorData(attributes, "received-frames-bytes-saved", frameStats.getBytesSavedOnReceive());
+    }
     addMonitorData(attributes, "generation-id", domain.getGenerationID());
 
     // Add import/export monitoring attributes
@@ -60,6 +60,8 @@ public class InitializeTargetTask extends Task
   private LDAPReplicationDomain domain;
   private int target;
   private long total;
+  /** The time in milliseconds at which this export started. */
+  private long startTime;
 
   /** {@inheritDoc} */
   @Override
@@ -116,6 +118,7 @@ public class InitializeTargetTask extends Task
       logger.trace("[IE] InitializeTargetTask is starting on domain: " + domain.getBaseDN());
     }
 
+    startTime = System.currentTimeMillis();
     try
     {
       domain.initializeRemote(target, this);
@@ -142,6 +145,7 @@ public class InitializeTargetTask extends Task
     this.total = total;
     replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(total));
     replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(0));
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_RATE, String.valueOf(0));
   }
 
   /**
@@ -153,5 +157,7 @@ public class InitializeTargetTask extends Task
   {
     replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(left));
     replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE,String.valueOf(total-left));
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_RATE,
+        String.valueOf(TaskUtils.getEntryRate(total - left, startTime)));
   }
 }
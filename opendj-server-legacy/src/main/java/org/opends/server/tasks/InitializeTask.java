@@ -63,6 +63,8 @@ public class InitializeTask extends Task
   private long total;
   /** The number of entries still to be processed for this import to be completed. */
   private long left;
+  /** The time in milliseconds at which this import started. */
+  private long startTime;
   private LocalizableMessage taskCompletionError;
 
   /** {@inheritDoc} */
@@ -109,6 +111,7 @@ public class InitializeTask extends Task
 
     replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(0));
     replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(0));
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_RATE, String.valueOf(0));
   }
 
   /** {@inheritDoc} */
@@ -120,6 +123,7 @@ public class InitializeTask extends Task
       logger.trace("[IE] InitializeTask is starting on domain: %s from source:%d", domain.getBaseDN(), source);
     }
     initState = getTaskState();
+    startTime = System.currentTimeMillis();
     try
     {
       // launch the import
@@ -131,12 +135,10 @@ public class InitializeTask extends Task
         while (initState == TaskState.RUNNING)
         {
           initState.wait(1000);
-          replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(left));
-          replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(total-left));
+          updateProgress();
         }
       }
-      replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(left));
-      replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(total-left));
+      updateProgress();
 
       // Error raised at completion time
       if (taskCompletionError != null)
@@ -157,6 +159,14 @@ public class InitializeTask extends Task
     return initState;
   }
 
+  private void updateProgress() throws DirectoryException
+  {
+    final long done = total - left;
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(left));
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(done));
+    replaceAttributeValue(ATTR_TASK_INITIALIZE_RATE, String.valueOf(TaskUtils.getEntryRate(done, startTime)));
+  }
+
   /**
    * Set the state for the current task.
    *
@@ -422,4 +422,18 @@ public class TaskUtils
 
     return defaultValue;
   }
+
+  /**
+   * Returns the average number of entries processed per second since the
+   * provided start time.
+   *
+   * @param processedEntries The number of entries processed so far.
+   * @param startTime The time in milliseconds at which the processing started.
+   * @return The average number of entries processed per second.
+   */
+  static long getEntryRate(long processedEntries, long startTime)
+  {
+    final long elapsed = System.currentTimeMillis() - startTime;
+    return elapsed > 0 ? processedEntries * 1000 / elapsed : 0;
+  }
 }
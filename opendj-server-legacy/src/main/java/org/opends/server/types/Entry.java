@@ -50,6 +50,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.PluginConfigManager;
 import org.opends.server.core.SubentryManager;
 import org.opends.server.types.SubEntry.CollectiveConflictBehavior;
+import org.opends.server.util.BinaryEntryFormat;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.LDIFWriter;
 
@@ -3419,6 +3420,11 @@ public class Entry
       {
         for (Attribute a : attrList)
         {
+          if (a.isVirtual() || a.isEmpty())
+          {
+            continue;
+          }
+
           byte[] nameBytes = getBytes(a.getNameWithOptions());
           buffer.appendBytes(nameBytes);
           buffer.appendByte(0x00);
@@ -3840,23 +3846,50 @@ public class Entry
 
 
   /**
-   * Writes this entry in LDIF form according to the provided
-   * configuration.
+   * Encodes this entry in the binary format of
+   * {@link BinaryEntryFormat}, if it should be exported according to
+   * the provided configuration. This method does not write anything
+   * and may be called concurrently for different entries, leaving to
+   * the caller the writing of the encoded entries.
    *
-   * @param  exportConfig  The configuration that specifies how the
-   *                       entry should be written.
+   * @param  exportConfig  The configuration that specifies whether the
+   *                       entry should be exported.
    *
-   * @return  <CODE>true</CODE> if the entry is actually written, or
-   *          <CODE>false</CODE> if it is not for some reason.
-   *
-   * @throws  IOException  If a problem occurs while writing the
-   *                       information.
+   * @return  The encoded entry, or <CODE>null</CODE> if it should not
+   *          be exported.
    *
    * @throws  LDIFException  If a problem occurs while trying to
-   *                         determine whether to write the entry.
+   *                         determine whether to export the entry or
+   *                         while encoding it.
    */
-  public boolean toLDIF(LDIFExportConfig exportConfig)
-         throws IOException, LDIFException
+  public ByteString encodeForExport(LDIFExportConfig exportConfig)
+         throws LDIFException
+  {
+    if (! isIncludedInExport(exportConfig))
+    {
+      return null;
+    }
+
+    try
+    {
+      return BinaryEntryFormat.encode(this);
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      throw new LDIFException(e.getMessageObject(), e);
+    }
+  }
+
+
+
+  /**
+   * Indicates whether this entry should be exported according to the
+   * provided configuration, invoking the LDIF export plugins if
+   * appropriate.
+   */
+  private boolean isIncludedInExport(LDIFExportConfig exportConfig)
+          throws LDIFException
   {
     // See if this entry should be included in the export at all.
     try
@@ -3890,6 +3923,47 @@ public class Entry
         return false;
       }
     }
+    return true;
+  }
+
+
+
+  /**
+   * Writes this entry in LDIF form according to the provided
+   * configuration, or in the binary format if the configuration
+   * requests binary entries.
+   *
+   * @param  exportConfig  The configuration that specifies how the
+   *                       entry should be written.
+   *
+   * @return  <CODE>true</CODE> if the entry is actually written, or
+   *          <CODE>false</CODE> if it is not for some reason.
+   *
+   * @throws  IOException  If a problem occurs while writing the
+   *                       information.
+   *
+   * @throws  LDIFException  If a problem occurs while trying to
+   *                         determine whether to write the entry.
+   */
+  public boolean toLDIF(LDIFExportConfig exportConfig)
+         throws IOException, LDIFException
+  {
+    if (exportConfig.isBinaryEntries())
+    {
+      final ByteString encodedEntry = encodeForExport(exportConfig);
+      if (encodedEntry == null)
+      {
+        return false;
+      }
+      BinaryEntryFormat.writeEncodedEntry(exportConfig.getOutputStream(),
+                                          encodedEntry);
+      return true;
+    }
+
+    if (! isIncludedInExport(exportConfig))
+    {
+      return false;
+    }
 
 
     // Get the information necessary to write the LDIF.
@@ -99,6 +99,21 @@ public final class LDIFExportConfig extends OperationConfig
   /** The buffered writer to which the LDIF data should be written. */
   private BufferedWriter writer;
 
+  /**
+   * Indicates whether entries should be written in the binary format rather
+   * than in LDIF.
+   */
+  private boolean binaryEntries;
+
+  /** The buffered output stream to which binary entries should be written. */
+  private OutputStream binaryOutputStream;
+
+  /**
+   * The output stream shared by the writer and the binary output
+   * stream, possibly compressing the data.
+   */
+  private OutputStream outputStream;
+
   /**
    * The behavior that should be used when writing an LDIF file and a file with
    * the same name already exists.
@@ -222,91 +237,137 @@ public final class LDIFExportConfig extends OperationConfig
   {
     if (writer == null)
     {
-      if (ldifOutputStream == null)
-      {
-        File f = new File(ldifFile);
-        boolean mustSetPermissions = false;
+      writer = new BufferedWriter(new OutputStreamWriter(openOutputStream()));
+    }
+
+    return writer;
+  }
+
+
+
+  /**
+   * Retrieves the output stream that should be used to write the
+   * entries when they are exported in the binary format. If
+   * compression or encryption are to be used, then they must be
+   * enabled before the first call to this method.
+   *
+   * @return  The output stream that should be used to write the
+   *          binary entries.
+   *
+   * @throws  IOException  If a problem occurs while preparing the
+   *                       output stream.
+   *
+   * @see  #isBinaryEntries()
+   */
+  public OutputStream getOutputStream()
+         throws IOException
+  {
+    if (binaryOutputStream == null)
+    {
+      binaryOutputStream = new BufferedOutputStream(openOutputStream());
+    }
+
+    return binaryOutputStream;
+  }
+
+
+
+  /**
+   * Opens the underlying output stream if not already done, creating
+   * the LDIF file if needed, and wrapping it to compress the data if
+   * needed.
+   *
+   * @return  The output stream to which the data should be written.
+   *
+   * @throws  IOException  If a problem occurs while opening the
+   *                       output stream.
+   */
+  private OutputStream openOutputStream() throws IOException
+  {
+    if (outputStream != null)
+    {
+      return outputStream;
+    }
+
+    if (ldifOutputStream == null)
+    {
+      File f = new File(ldifFile);
+      boolean mustSetPermissions = false;
 
-        switch (existingFileBehavior)
+      switch (existingFileBehavior)
+      {
+      case APPEND:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
         {
-        case APPEND:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, true);
-          break;
-        case OVERWRITE:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, false);
-          break;
-        case FAIL:
-          if (f.exists())
-          {
-            LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
-            throw new IOException(message.toString());
-          }
-          else
-          {
-            // Create new file ensuring that we can set its permissions.
-            f.createNewFile();
-            mustSetPermissions = true;
-            ldifOutputStream = new FileOutputStream(ldifFile);
-          }
-          break;
+          f.createNewFile();
+          mustSetPermissions = true;
         }
-
-        if (mustSetPermissions)
+        ldifOutputStream = new FileOutputStream(ldifFile, true);
+        break;
+      case OVERWRITE:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
+        {
+          f.createNewFile();
+          mustSetPermissions = true;
+        }
+        ldifOutputStream = new FileOutputStream(ldifFile, false);
+        break;
+      case FAIL:
+        if (f.exists())
+        {
+          LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
+          throw new IOException(message.toString());
+        }
+        else
         {
-          try
-          {
-            // Ignore
-            FilePermission.setSafePermissions(f, 0600);
-          }
-          catch (Exception e)
-          {
-            // The file could not be created with the correct permissions.
-            LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
-                .get(f, stackTraceToSingleLineString(e));
-            throw new IOException(message.toString());
-          }
+          // Create new file ensuring that we can set its permissions.
+          f.createNewFile();
+          mustSetPermissions = true;
+          ldifOutputStream = new FileOutputStream(ldifFile);
         }
+        break;
       }
 
-
-      // See if we should compress the output.
-      OutputStream outputStream;
-      if (compressData)
+      if (mustSetPermissions)
       {
-        outputStream = new GZIPOutputStream(ldifOutputStream);
-      }
-      else
-      {
-        outputStream = ldifOutputStream;
+        try
+        {
+          // Ignore
+          FilePermission.setSafePermissions(f, 0600);
+        }
+        catch (Exception e)
+        {
+          // The file could not be created with the correct permissions.
+          LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
+              .get(f, stackTraceToSingleLineString(e));
+          throw new IOException(message.toString());
+        }
       }
+    }
 
 
-      // See if we should encrypt the output.
-      if (encryptData)
-      {
-        // FIXME -- Implement this.
-      }
+    // See if we should compress the output.
+    if (compressData)
+    {
+      outputStream = new GZIPOutputStream(ldifOutputStream);
+    }
+    else
+    {
+      outputStream = ldifOutputStream;
+    }
 
 
-      // Create the writer.
-      writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+    // See if we should encrypt the output.
+    if (encryptData)
+    {
+      // FIXME -- Implement this.
     }
 
-    return writer;
+    return outputStream;
   }
 
 
@@ -923,6 +984,39 @@ public final class LDIFExportConfig extends OperationConfig
 
 
 
+  /**
+   * Indicates whether the entries should be written in the binary
+   * format of {@link org.opends.server.util.BinaryEntryFormat} to the
+   * stream returned by {@link #getOutputStream()}, rather than in LDIF.
+   * Entries are then written with all their real attributes: the
+   * settings controlling which attributes are exported, the wrap
+   * column and the types only setting are ignored.
+   *
+   * @return  <CODE>true</CODE> if the entries should be written in the
+   *          binary format, or <CODE>false</CODE> if they should be
+   *          written in LDIF.
+   */
+  public boolean isBinaryEntries()
+  {
+    return binaryEntries;
+  }
+
+
+
+  /**
+   * Specifies whether the entries should be written in the binary
+   * format rather than in LDIF.
+   *
+   * @param  binaryEntries  Indicates whether the entries should be
+   *                        written in the binary format.
+   */
+  public void setBinaryEntries(boolean binaryEntries)
+  {
+    this.binaryEntries = binaryEntries;
+  }
+
+
+
   /**
    * Closes any resources that this export config might have open.
    */
@@ -930,6 +1024,6 @@ public final class LDIFExportConfig extends OperationConfig
   public void close()
   {
     // FIXME -- Need to add code to generate a signed hash of the LDIF content.
-    StaticUtils.close(writer);
+    StaticUtils.close(binaryOutputStream, writer);
   }
 }
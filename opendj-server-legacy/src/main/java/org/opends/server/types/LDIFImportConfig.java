@@ -88,6 +88,15 @@ public final class LDIFImportConfig extends OperationConfig
   /** The input stream to use to read the data to import. */
   private InputStream ldifInputStream;
 
+  /**
+   * Indicates whether entries are read in the binary format rather than
+   * in LDIF.
+   */
+  private boolean binaryEntries;
+
+  /** The buffered input stream from which binary entries are read. */
+  private InputStream binaryInputStream;
+
   /** The buffer size to use when reading data from the LDIF file. */
   private int bufferSize = DEFAULT_BUFFER_SIZE;
 
@@ -253,6 +262,50 @@ public final class LDIFImportConfig extends OperationConfig
 
 
 
+  /**
+   * Retrieves the input stream that should be used to read the entries
+   * when they are imported in the binary format. Only the first file
+   * is read when several files are provided. Note that if the data is
+   * compressed, then that must be indicated before this method is
+   * called for the first time.
+   *
+   * @return  The input stream that should be used to read the binary
+   *          entries.
+   *
+   * @throws  IOException  If a problem occurs while obtaining the
+   *                       input stream.
+   *
+   * @see  #isBinaryEntries()
+   */
+  public InputStream getInputStream()
+         throws IOException
+  {
+    if (binaryInputStream == null)
+    {
+      InputStream inputStream;
+      if (ldifInputStream != null)
+      {
+        inputStream = ldifInputStream;
+      }
+      else
+      {
+        inputStream = ldifInputStream =
+             new FileInputStream(ldifFileIterator.next());
+      }
+
+      if (isCompressed)
+      {
+        inputStream = new GZIPInputStream(inputStream);
+      }
+
+      binaryInputStream = new BufferedInputStream(inputStream, bufferSize);
+    }
+
+    return binaryInputStream;
+  }
+
+
+
   /**
    * Retrieves the LDIF reader configured to read from the next LDIF
    * file in the list.
@@ -1088,11 +1141,43 @@ public final class LDIFImportConfig extends OperationConfig
 
 
 
+  /**
+   * Indicates whether the entries are read in the binary format of
+   * {@link org.opends.server.util.BinaryEntryFormat} from the stream
+   * returned by {@link #getInputStream()}, rather than in LDIF. Binary
+   * entries are decoded with all their attributes: the settings
+   * controlling which attributes are imported are ignored.
+   *
+   * @return  <CODE>true</CODE> if the entries are read in the binary
+   *          format, or <CODE>false</CODE> if they are read in LDIF.
+   */
+  public boolean isBinaryEntries()
+  {
+    return binaryEntries;
+  }
+
+
+
+  /**
+   * Specifies whether the entries are read in the binary format rather
+   * than in LDIF. This must be set before the reader of the entries is
+   * created.
+   *
+   * @param  binaryEntries  Indicates whether the entries are read in
+   *                        the binary format.
+   */
+  public void setBinaryEntries(boolean binaryEntries)
+  {
+    this.binaryEntries = binaryEntries;
+  }
+
+
+
   /** Closes any resources that this import config might have open. */
   @Override
   public void close()
   {
-    StaticUtils.close(reader, rejectWriter, skipWriter);
+    StaticUtils.close(reader, binaryInputStream, rejectWriter, skipWriter);
   }
 
   /**
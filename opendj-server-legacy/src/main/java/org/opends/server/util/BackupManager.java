@@ -28,40 +28,60 @@ package org.opends.server.util;
 
 import static java.util.Collections.*;
 
+import static org.forgerock.util.Utils.newThreadFactory;
 import static org.opends.messages.BackendMessages.*;
 import static org.opends.messages.UtilityMessages.*;
 import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -82,6 +102,7 @@ import org.opends.server.types.CryptoManager;
 import org.opends.server.types.CryptoManagerException;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BlockManifest.FileBlocks;
 
 /**
  * A backup manager for any entity that is backupable (backend, storage).
@@ -98,25 +119,35 @@ public class BackupManager
   private static final String BACKUP_BASE_FILENAME = "backup-";
 
   /**
-   * The name of the property that holds the name of the latest log file
-   * at the time the backup was created.
+   * The name of the property that holds the name of the block manifest file
+   * of the backup, stored next to the archive file.
    */
-  private static final String PROPERTY_LAST_LOGFILE_NAME = "last_logfile_name";
+  private static final String PROPERTY_BLOCK_MANIFEST_FILENAME = "block_manifest_filename";
 
   /**
-   * The name of the property that holds the size of the latest log file
-   * at the time the backup was created.
+   * The suffix appended to the name of the archive file to build the name of
+   * the block manifest file.
    */
-  private static final String PROPERTY_LAST_LOGFILE_SIZE = "last_logfile_size";
-
+  private static final String BLOCK_MANIFEST_SUFFIX = ".blocks";
 
   /**
    * The name of the entry in an incremental backup archive file
-   * containing a list of log files that are unchanged since the
-   * previous backup.
+   * containing a list of files whose content depends on the previous backups:
+   * either they are unchanged since the previous backup, or only their changed
+   * blocks are in the archive.
    */
   private static final String ZIPENTRY_UNCHANGED_LOGFILES = "unchanged.txt";
 
+  /**
+   * The prefix of the names of the entries of the archive holding the blocks of
+   * a file, followed by the path of the file relative to the backed up
+   * directory.
+   */
+  private static final String ZIPENTRY_BLOCKS_PREFIX = "blocks/";
+
+  /** The marker ending the list of blocks of an entry holding the blocks of a file. */
+  private static final int END_OF_BLOCKS = -1;
+
   /**
    * The name of a dummy entry in the backup archive file that will act
    * as a placeholder in case a backup is done on an empty backend.
@@ -469,6 +500,66 @@ public class BackupManager
 
   }
 
+  /** An output stream including the written bytes in the hash of a backup. */
+  private static final class HashingOutputStream extends FilterOutputStream
+  {
+    private final CryptoEngine cryptoEngine;
+
+    HashingOutputStream(OutputStream outputStream, CryptoEngine cryptoEngine)
+    {
+      super(outputStream);
+      this.cryptoEngine = cryptoEngine;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      cryptoEngine.updateHashWith(new byte[] { (byte) b }, 0, 1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int len) throws IOException
+    {
+      cryptoEngine.updateHashWith(buffer, offset, len);
+      out.write(buffer, offset, len);
+    }
+  }
+
+  /** An input stream including the read bytes in the hash of a backup. */
+  private static final class HashingInputStream extends FilterInputStream
+  {
+    private final CryptoEngine cryptoEngine;
+
+    HashingInputStream(InputStream inputStream, CryptoEngine cryptoEngine)
+    {
+      super(inputStream);
+      this.cryptoEngine = cryptoEngine;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      final int b = in.read();
+      if (b != -1)
+      {
+        cryptoEngine.updateHashWith(new byte[] { (byte) b }, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException
+    {
+      final int bytesRead = in.read(buffer, offset, len);
+      if (bytesRead > 0)
+      {
+        cryptoEngine.updateHashWith(buffer, offset, bytesRead);
+      }
+      return bytesRead;
+    }
+  }
+
   /**
    * Contains all parameters for creation of a new backup.
    */
@@ -483,6 +574,8 @@ public class BackupManager
     final boolean isIncremental;
     final String incrementalBaseID;
     final BackupInfo baseBackupInfo;
+    /** The block manifest of the base backup, {@code null} if the backup is not incremental. */
+    final BlockManifest baseManifest;
 
     NewBackupParams(BackupConfig backupConfig) throws DirectoryException
     {
@@ -492,8 +585,44 @@ public class BackupManager
       shouldCompress = backupConfig.compressData();
 
       incrementalBaseID = retrieveIncrementalBaseID(backupConfig);
-      isIncremental = incrementalBaseID != null;
-      baseBackupInfo = isIncremental ? getBackupInfo(backupDir, incrementalBaseID) : null;
+      BackupInfo baseInfo = incrementalBaseID != null ? getBackupInfo(backupDir, incrementalBaseID) : null;
+      baseManifest = baseInfo != null ? readBaseManifest(baseInfo) : null;
+      isIncremental = baseManifest != null;
+      baseBackupInfo = isIncremental ? baseInfo : null;
+    }
+
+    /**
+     * Reads the block manifest of the base backup. Returns {@code null} if the
+     * base backup has no block manifest, like the backups created by older
+     * versions, or if it cannot be read: a full backup is then performed.
+     */
+    private BlockManifest readBaseManifest(BackupInfo baseInfo) throws DirectoryException
+    {
+      String manifestFilename = baseInfo.getBackupProperties().get(PROPERTY_BLOCK_MANIFEST_FILENAME);
+      if (manifestFilename == null)
+      {
+        logger.warn(WARN_BACKUP_NO_BLOCK_MANIFEST_DOING_NORMAL, baseInfo.getBackupID(), backupDir.getPath());
+        return null;
+      }
+
+      InputStream inputStream = null;
+      try
+      {
+        inputStream = new FileInputStream(new File(backupDir.getPath(), manifestFilename));
+        inputStream = CryptoEngine.forRestore(baseInfo).encryptInput(inputStream);
+        return BlockManifest.read(new BufferedInputStream(inputStream));
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_BACKUP_CANNOT_READ_BLOCK_MANIFEST_DOING_NORMAL, manifestFilename, baseInfo.getBackupID(),
+            stackTraceToSingleLineString(e));
+        return null;
+      }
+      finally
+      {
+        StaticUtils.close(inputStream);
+      }
     }
 
     private String retrieveIncrementalBaseID(BackupConfig backupConfig)
@@ -537,9 +666,10 @@ public class BackupManager
   private static final class NewBackupArchive {
 
     private final String archiveFilename;
+    private final String manifestFilename;
 
-    private String latestFileName;
-    private long latestFileSize;
+    /** The blocks of the files of the backup, written next to the archive. */
+    private final BlockManifest manifest;
 
     private final HashSet<String> dependencies;
 
@@ -553,13 +683,9 @@ public class BackupManager
       this.newBackupParams = backupParams;
       this.cryptoEngine = crypt;
       dependencies = new HashSet<>();
-      if (backupParams.isIncremental)
-      {
-        HashMap<String,String> properties = backupParams.baseBackupInfo.getBackupProperties();
-        latestFileName = properties.get(PROPERTY_LAST_LOGFILE_NAME);
-        latestFileSize = Long.parseLong(properties.get(PROPERTY_LAST_LOGFILE_SIZE));
-      }
+      manifest = new BlockManifest();
       archiveFilename = BACKUP_BASE_FILENAME + backendID + "-" +  backupParams.backupID;
+      manifestFilename = archiveFilename + BLOCK_MANIFEST_SUFFIX;
     }
 
     String getArchiveFilename()
@@ -585,6 +711,42 @@ public class BackupManager
       dependencies.add(newBackupParams.baseBackupInfo.getBackupID());
     }
 
+    /** Returns the blocks of the provided file in the base backup, or {@code null} if there are none. */
+    FileBlocks getBaseBlocks(String relativePath)
+    {
+      return newBackupParams.isIncremental ? newBackupParams.baseManifest.get(relativePath) : null;
+    }
+
+    /**
+     * Writes the block manifest next to the archive file. Its content is
+     * included in the hash of the backup.
+     */
+    void writeBlockManifest() throws DirectoryException
+    {
+      OutputStream outputStream = null;
+      try
+      {
+        outputStream = new FileOutputStream(new File(getBackupPath(), manifestFilename), false);
+        outputStream = cryptoEngine.encryptOutput(outputStream);
+        outputStream = new HashingOutputStream(new BufferedOutputStream(outputStream), cryptoEngine);
+        cryptoEngine.updateHashWith(manifestFilename);
+        manifest.write(outputStream);
+        outputStream.close();
+        newBackupParams.putProperty(PROPERTY_BLOCK_MANIFEST_FILENAME, manifestFilename);
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+            ERR_BACKUP_CANNOT_WRITE_BLOCK_MANIFEST.get(manifestFilename, getBackupID(),
+                stackTraceToSingleLineString(e)), e);
+      }
+      finally
+      {
+        StaticUtils.close(outputStream);
+      }
+    }
+
     void updateBackupDirectory() throws DirectoryException
     {
       BackupInfo backupInfo = createDescriptorForBackup();
@@ -609,8 +771,6 @@ public class BackupManager
       byte[] bytes = cryptoEngine.generateBytes();
       byte[] digestBytes = cryptoEngine.hasSignedHash() ? null : bytes;
       byte[] macBytes = cryptoEngine.hasSignedHash() ? bytes : null;
-      newBackupParams.putProperty(PROPERTY_LAST_LOGFILE_NAME, latestFileName);
-      newBackupParams.putProperty(PROPERTY_LAST_LOGFILE_SIZE, String.valueOf(latestFileSize));
       return new BackupInfo(
           newBackupParams.backupDir, newBackupParams.backupID, new Date(), newBackupParams.isIncremental,
           newBackupParams.shouldCompress, cryptoEngine.shouldEncrypt(), digestBytes, macBytes,
@@ -620,7 +780,7 @@ public class BackupManager
     @Override
     public String toString()
     {
-      return "NewArchive [archive file=" + archiveFilename + ", latestFileName=" + latestFileName
+      return "NewArchive [archive file=" + archiveFilename + ", manifest file=" + manifestFilename
           + ", backendID=" + backendID + "]";
     }
 
@@ -713,6 +873,11 @@ public class BackupManager
         throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
       }
 
+      String manifestFilename = backupInfo.getBackupProperties().get(PROPERTY_BLOCK_MANIFEST_FILENAME);
+      if (manifestFilename != null)
+      {
+        new File(backupDir.getPath(), manifestFilename).delete();
+      }
       return archiveFile.delete();
     }
 
@@ -724,65 +889,29 @@ public class BackupManager
     private final ZipOutputStream zipOutputStream;
     private final NewBackupArchive archive;
     private final CryptoEngine cryptoEngine;
+    /** Reads, hashes and compresses the blocks of the files to archive. */
+    private final ExecutorService blockReaders;
+    /** The maximum number of blocks read ahead of the block being written. */
+    private final int maxPendingBlocks;
 
     BackupArchiveWriter(NewBackupArchive archive) throws DirectoryException
     {
       this.archive = archive;
       this.cryptoEngine = archive.cryptoEngine;
       this.zipOutputStream = open(archive.getBackupPath(), archive.getArchiveFilename());
+      final int nbThreads = Runtime.getRuntime().availableProcessors();
+      this.blockReaders = Executors.newFixedThreadPool(nbThreads,
+          newThreadFactory(null, "Backup " + archive.getBackendID() + " %d", true));
+      this.maxPendingBlocks = 2 * nbThreads;
     }
 
     @Override
     public void close() throws IOException
     {
+      blockReaders.shutdownNow();
       StaticUtils.close(zipOutputStream);
     }
 
-    /**
-     * Writes the provided file to a new entry in the archive.
-     *
-     * @param file
-     *          The file to be written.
-     * @param cryptoMethod
-     *          The cryptographic method for the written data.
-     * @param backupConfig
-     *          The configuration, used to know if operation is cancelled.
-     *
-     * @return The number of bytes written from the file.
-     * @throws FileNotFoundException If the file to be archived does not exist.
-     * @throws IOException If an I/O error occurs while archiving the file.
-     */
-    long writeFile(Path file, String relativePath, CryptoEngine cryptoMethod, BackupConfig backupConfig)
-         throws IOException, FileNotFoundException
-    {
-      ZipEntry zipEntry = new ZipEntry(relativePath);
-      zipOutputStream.putNextEntry(zipEntry);
-
-      cryptoMethod.updateHashWith(relativePath);
-
-      InputStream inputStream = null;
-      long totalBytesRead = 0;
-      try {
-        inputStream = new FileInputStream(file.toFile());
-        byte[] buffer = new byte[8192];
-        int bytesRead = inputStream.read(buffer);
-        while (bytesRead > 0 && !backupConfig.isCancelled())
-        {
-          cryptoMethod.updateHashWith(buffer, 0, bytesRead);
-          zipOutputStream.write(buffer, 0, bytesRead);
-          totalBytesRead += bytesRead;
-          bytesRead = inputStream.read(buffer);
-        }
-      }
-      finally {
-        StaticUtils.close(inputStream);
-      }
-
-      zipOutputStream.closeEntry();
-      logger.info(NOTE_BACKUP_ARCHIVED_FILE, zipEntry.getName());
-      return totalBytesRead;
-    }
-
     /**
      * Write a list of strings to an entry in the archive.
      *
@@ -833,86 +962,209 @@ public class BackupManager
       }
     }
 
+    /** Writes the list of unchanged files names in a file as new entry in the archive. */
+    private void writeUnchangedFilenames(List<String> unchangedList) throws DirectoryException
+    {
+      String zipEntryName = ZIPENTRY_UNCHANGED_LOGFILES;
+      try
+      {
+        writeStrings(unchangedList, zipEntryName, archive.cryptoEngine);
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        throw new DirectoryException(
+             DirectoryServer.getServerErrorResultCode(),
+             ERR_BACKUP_CANNOT_WRITE_ARCHIVE_FILE.get(zipEntryName, archive.getBackupID(),
+                 stackTraceToSingleLineString(e)), e);
+      }
+      archive.addBaseBackupAsDependency();
+    }
+
     /**
-     * Writes the files that are unchanged from the base backup (for an
-     * incremental backup only).
+     * Writes the files in the archive.
      * <p>
-     * The unchanged files names are listed in the "unchanged.txt" file, which
-     * is put in the archive.
-     *
+     * For an incremental backup, the files whose size and modification time
+     * are unchanged since the base backup are not read, and only the changed
+     * blocks of the other files known by the base backup are archived. The
+     * names of the files whose content depends on the previous backups are
+     * listed in the "unchanged.txt" file, which is put in the archive.
      */
-    void writeUnchangedFiles(Path rootDirectory, ListIterator<Path> files, BackupConfig backupConfig)
+    void writeFiles(Path rootDirectory, ListIterator<Path> files, BackupConfig backupConfig)
         throws DirectoryException
     {
-      List<String> unchangedFilenames = new ArrayList<>();
+      List<String> dependentFilenames = new ArrayList<>();
       while (files.hasNext() && !backupConfig.isCancelled())
       {
         Path file = files.next();
         String relativePath = rootDirectory.relativize(file).toString();
-        int cmp = relativePath.compareTo(archive.latestFileName);
-        if (cmp > 0 || (cmp == 0 && file.toFile().length() != archive.latestFileSize))
+        try
+        {
+          if (writeFileBlocks(file, relativePath, archive.getBaseBlocks(relativePath), backupConfig))
+          {
+            dependentFilenames.add(relativePath);
+          }
+        }
+        catch (FileNotFoundException e)
         {
-          files.previous();
-          break;
+          // The file may have been deleted by a cleaner (i.e. for JE storage) since we started.
+          // The backupable entity is responsible for handling the changes through the files list iterator
+          logger.traceException(e);
+        }
+        catch (IOException e)
+        {
+          logger.traceException(e);
+          throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+               ERR_BACKUP_CANNOT_WRITE_ARCHIVE_FILE.get(relativePath, archive.getBackupID(),
+                   stackTraceToSingleLineString(e)), e);
         }
-        logger.info(NOTE_BACKUP_FILE_UNCHANGED, relativePath);
-        unchangedFilenames.add(relativePath);
       }
 
-      if (!unchangedFilenames.isEmpty())
+      if (!dependentFilenames.isEmpty())
       {
-        writeUnchangedFilenames(unchangedFilenames);
+        writeUnchangedFilenames(dependentFilenames);
       }
     }
 
-    /** Writes the list of unchanged files names in a file as new entry in the archive. */
-    private void writeUnchangedFilenames(List<String> unchangedList) throws DirectoryException
+    /**
+     * Writes the blocks of the provided file which have changed since the base
+     * backup to a new entry in the archive, and adds the file to the block
+     * manifest.
+     *
+     * @param file
+     *          The file to be written.
+     * @param relativePath
+     *          The path of the file relative to the backed up directory.
+     * @param baseBlocks
+     *          The blocks of the file in the base backup, or {@code null} if
+     *          there are none.
+     * @param backupConfig
+     *          The configuration, used to know if operation is cancelled.
+     * @return {@code true} if the content of the file depends on the base
+     *         backup
+     * @throws FileNotFoundException If the file to be archived does not exist.
+     * @throws IOException If an I/O error occurs while archiving the file.
+     */
+    private boolean writeFileBlocks(Path file, String relativePath, FileBlocks baseBlocks,
+        BackupConfig backupConfig) throws IOException, FileNotFoundException
     {
-      String zipEntryName = ZIPENTRY_UNCHANGED_LOGFILES;
+      final FileInputStream inputStream = new FileInputStream(file.toFile());
       try
       {
-        writeStrings(unchangedList, zipEntryName, archive.cryptoEngine);
+        // Any modification performed after this point changes the modification time seen by the next backup
+        final long lastModified = file.toFile().lastModified();
+        final long readTime = System.currentTimeMillis();
+        final FileChannel channel = inputStream.getChannel();
+        final long size = channel.size();
+        if (baseBlocks != null && baseBlocks.isUnchanged(size, lastModified))
+        {
+          archive.manifest.add(baseBlocks);
+          logger.info(NOTE_BACKUP_FILE_UNCHANGED, relativePath);
+          return true;
+        }
+
+        final String zipEntryName = ZIPENTRY_BLOCKS_PREFIX + relativePath;
+        zipOutputStream.putNextEntry(new ZipEntry(zipEntryName));
+        cryptoEngine.updateHashWith(zipEntryName);
+
+        final DataOutputStream output = new DataOutputStream(new HashingOutputStream(zipOutputStream, cryptoEngine));
+        output.writeLong(size);
+        output.writeInt(BlockManifest.BLOCK_SIZE);
+        final byte[][] digests = new byte[BlockManifest.getBlockCount(size)][];
+        final int nbWrittenBlocks = writeChangedBlocks(channel, size, baseBlocks, digests, output, backupConfig);
+        output.writeInt(END_OF_BLOCKS);
+        output.flush();
+        zipOutputStream.closeEntry();
+
+        if (backupConfig.isCancelled())
+        {
+          return false;
+        }
+        archive.manifest.add(new FileBlocks(relativePath, size,
+            BlockManifest.getTrustedModificationTime(lastModified, readTime), digests));
+        if (nbWrittenBlocks == digests.length)
+        {
+          logger.info(NOTE_BACKUP_ARCHIVED_FILE, zipEntryName);
+        }
+        else
+        {
+          logger.info(NOTE_BACKUP_ARCHIVED_FILE_BLOCKS, nbWrittenBlocks, digests.length, relativePath);
+        }
+        return baseBlocks != null && nbWrittenBlocks < digests.length;
       }
-      catch (IOException e)
+      finally
       {
-        logger.traceException(e);
-        throw new DirectoryException(
-             DirectoryServer.getServerErrorResultCode(),
-             ERR_BACKUP_CANNOT_WRITE_ARCHIVE_FILE.get(zipEntryName, archive.getBackupID(),
-                 stackTraceToSingleLineString(e)), e);
+        StaticUtils.close(inputStream);
       }
-      archive.addBaseBackupAsDependency();
     }
 
     /**
-     * Writes the new files in the archive.
+     * Writes the blocks of a file which have changed since the base backup.
+     * <p>
+     * The blocks are read, hashed and compressed by the block readers while
+     * the blocks read before them are written to the archive.
+     *
+     * @return the number of written blocks
      */
-    void writeChangedFiles(Path rootDirectory, ListIterator<Path> files, BackupConfig backupConfig)
-        throws DirectoryException
+    private int writeChangedBlocks(FileChannel channel, long size, FileBlocks baseBlocks, byte[][] digests,
+        DataOutputStream output, BackupConfig backupConfig) throws IOException
     {
-        while (files.hasNext() && !backupConfig.isCancelled())
+      final Deque<Future<Block>> pendingBlocks = new ArrayDeque<>();
+      int nextBlockIndex = 0;
+      int nbWrittenBlocks = 0;
+      try
+      {
+        while ((nextBlockIndex < digests.length || !pendingBlocks.isEmpty()) && !backupConfig.isCancelled())
         {
-          Path file = files.next();
-          String relativePath = rootDirectory.relativize(file).toString();
-          try
-          {
-            archive.latestFileSize = writeFile(file, relativePath, archive.cryptoEngine, backupConfig);
-            archive.latestFileName = relativePath;
-          }
-          catch (FileNotFoundException e)
+          while (nextBlockIndex < digests.length && pendingBlocks.size() < maxPendingBlocks)
           {
-            // The file may have been deleted by a cleaner (i.e. for JE storage) since we started.
-            // The backupable entity is responsible for handling the changes through the files list iterator
-            logger.traceException(e);
+            final byte[] baseDigest = baseBlocks != null ? baseBlocks.getDigest(nextBlockIndex) : null;
+            pendingBlocks.add(blockReaders.submit(
+                new BlockReader(channel, size, nextBlockIndex, baseDigest, archive.newBackupParams.shouldCompress)));
+            nextBlockIndex++;
           }
-          catch (IOException e)
+
+          final Block block = getBlock(pendingBlocks.poll());
+          digests[block.index] = block.digest;
+          if (block.data != null)
           {
-            logger.traceException(e);
-            throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
-                 ERR_BACKUP_CANNOT_WRITE_ARCHIVE_FILE.get(relativePath, archive.getBackupID(),
-                     stackTraceToSingleLineString(e)), e);
+            output.writeInt(block.index);
+            output.writeBoolean(block.compressed);
+            output.writeInt(block.length);
+            output.write(block.data, 0, block.length);
+            nbWrittenBlocks++;
           }
         }
+        return nbWrittenBlocks;
+      }
+      finally
+      {
+        for (Future<Block> pendingBlock : pendingBlocks)
+        {
+          pendingBlock.cancel(false);
+        }
+      }
+    }
+
+    private Block getBlock(Future<Block> future) throws IOException
+    {
+      try
+      {
+        return future.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+      catch (ExecutionException e)
+      {
+        if (e.getCause() instanceof IOException)
+        {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
     }
 
     private ZipOutputStream open(String backupPath, String archiveFilename) throws DirectoryException
@@ -955,14 +1207,8 @@ public class BackupManager
       zipStream.setComment(ERR_BACKUP_ZIP_COMMENT.get(DynamicConstants.PRODUCT_NAME, archive.getBackupID())
           .toString());
 
-      if (archive.newBackupParams.shouldCompress)
-      {
-        zipStream.setLevel(Deflater.DEFAULT_COMPRESSION);
-      }
-      else
-      {
-        zipStream.setLevel(Deflater.NO_COMPRESSION);
-      }
+      // The blocks of the files are compressed by the block readers, in parallel
+      zipStream.setLevel(Deflater.NO_COMPRESSION);
       return zipStream;
     }
 
@@ -975,6 +1221,104 @@ public class BackupManager
 
   }
 
+  /** A block of a file read by a {@link BlockReader}. */
+  private static final class Block
+  {
+    private final int index;
+    private final byte[] digest;
+    /** The bytes to archive, {@code null} if the block is unchanged since the base backup. */
+    private final byte[] data;
+    private final int length;
+    private final boolean compressed;
+
+    Block(int index, byte[] digest, byte[] data, int length, boolean compressed)
+    {
+      this.index = index;
+      this.digest = digest;
+      this.data = data;
+      this.length = length;
+      this.compressed = compressed;
+    }
+  }
+
+  /**
+   * Reads a block of a file and computes its digest. Unless it is unchanged
+   * since the base backup, the block is then compressed if required, so that
+   * the blocks are hashed and compressed by several threads.
+   */
+  private static final class BlockReader implements Callable<Block>
+  {
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int index;
+    private final byte[] baseDigest;
+    private final boolean shouldCompress;
+
+    BlockReader(FileChannel channel, long fileSize, int index, byte[] baseDigest, boolean shouldCompress)
+    {
+      this.channel = channel;
+      this.fileSize = fileSize;
+      this.index = index;
+      this.baseDigest = baseDigest;
+      this.shouldCompress = shouldCompress;
+    }
+
+    @Override
+    public Block call() throws IOException
+    {
+      final long position = (long) index * BlockManifest.BLOCK_SIZE;
+      final byte[] bytes = new byte[(int) Math.min(BlockManifest.BLOCK_SIZE, fileSize - position)];
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      // The file may have been truncated since its size was read
+      int bytesRead = 0;
+      while (buffer.hasRemaining() && bytesRead >= 0)
+      {
+        bytesRead = channel.read(buffer, position + buffer.position());
+      }
+      final int length = buffer.position();
+
+      final MessageDigest messageDigest = BlockManifest.newDigest();
+      messageDigest.update(bytes, 0, length);
+      final byte[] digest = messageDigest.digest();
+      if (baseDigest != null && MessageDigest.isEqual(digest, baseDigest))
+      {
+        return new Block(index, digest, null, 0, false);
+      }
+      if (shouldCompress)
+      {
+        final byte[] compressedBytes = new byte[length];
+        final int compressedLength = compress(bytes, length, compressedBytes);
+        if (compressedLength >= 0)
+        {
+          return new Block(index, digest, compressedBytes, compressedLength, true);
+        }
+      }
+      return new Block(index, digest, bytes, length, false);
+    }
+
+    /** Returns the length of the compressed bytes, or -1 if compressing does not make them smaller. */
+    private int compress(byte[] bytes, int length, byte[] compressedBytes)
+    {
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+      try
+      {
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < compressedBytes.length)
+        {
+          compressedLength +=
+              deflater.deflate(compressedBytes, compressedLength, compressedBytes.length - compressedLength);
+        }
+        return deflater.finished() ? compressedLength : -1;
+      }
+      finally
+      {
+        deflater.end();
+      }
+    }
+  }
+
   /** Represents a reader of a backup archive. */
   private static final class BackupArchiveReader {
 
@@ -1062,6 +1406,7 @@ public class BackupManager
       try
       {
         restoreArchive0(restoreDir, filesToRestore, restoreConfig, backupable);
+        hashBlockManifest();
       }
       catch (IOException e)
       {
@@ -1093,10 +1438,15 @@ public class BackupManager
               continue;
             }
 
-            boolean mustRestoreOnDisk = !restoreConfig.verifyOnly()
-                && (filesToRestore.isEmpty() || filesToRestore.contains(zipEntryName));
-
-            if (mustRestoreOnDisk)
+            if (zipEntryName.startsWith(ZIPENTRY_BLOCKS_PREFIX))
+            {
+              String relativePath = zipEntryName.substring(ZIPENTRY_BLOCKS_PREFIX.length());
+              Path fileToRestore =
+                  mustRestoreOnDisk(relativePath, filesToRestore, restoreConfig) ? restoreDir.resolve(relativePath)
+                                                                                 : null;
+              restoreFileBlocks(zipEntryName, relativePath, zipStream, fileToRestore, restoreConfig);
+            }
+            else if (mustRestoreOnDisk(zipEntryName, filesToRestore, restoreConfig))
             {
               restoreZipEntry(zipEntryName, zipStream, restoreDir, restoreConfig);
             }
@@ -1142,6 +1492,154 @@ public class BackupManager
       return Pair.of(false, null);
     }
 
+    private boolean mustRestoreOnDisk(String fileName, Set<String> filesToRestore, RestoreConfig restoreConfig)
+    {
+      return !restoreConfig.verifyOnly() && (filesToRestore.isEmpty() || filesToRestore.contains(fileName));
+    }
+
+    /**
+     * Restores the blocks of a file listed by a zip entry. The blocks are
+     * written over the content of the file restored from the previous backups,
+     * if any.
+     * <p>
+     * The restore is virtual if the file to restore is {@code null}: the blocks
+     * are only included in the hash.
+     */
+    private void restoreFileBlocks(String zipEntryName, String relativePath, ZipInputStream zipStream,
+        Path fileToRestore, RestoreConfig restoreConfig) throws IOException, DirectoryException
+    {
+      if (restoreConfig.verifyOnly())
+      {
+        logger.info(NOTE_BACKUP_VERIFY_FILE, relativePath);
+      }
+      cryptoEngine.updateHashWith(zipEntryName);
+
+      final DataInputStream input = new DataInputStream(new HashingInputStream(zipStream, cryptoEngine));
+      final long size = input.readLong();
+      final int blockSize = input.readInt();
+      if (size < 0 || blockSize <= 0)
+      {
+        throw newInvalidBlocksEntryException(zipEntryName, null);
+      }
+
+      RandomAccessFile file = null;
+      final Inflater inflater = new Inflater();
+      try
+      {
+        if (fileToRestore != null)
+        {
+          ensureFileCanBeRestored(fileToRestore);
+          file = new RandomAccessFile(fileToRestore.toFile(), "rw");
+          file.setLength(size);
+        }
+
+        final byte[] buffer = new byte[blockSize];
+        final byte[] uncompressedBuffer = new byte[blockSize];
+        int index = input.readInt();
+        while (index != END_OF_BLOCKS && !restoreConfig.isCancelled())
+        {
+          final boolean compressed = input.readBoolean();
+          final int length = input.readInt();
+          if (index < 0 || length < 0 || length > blockSize)
+          {
+            throw newInvalidBlocksEntryException(zipEntryName, null);
+          }
+          input.readFully(buffer, 0, length);
+
+          if (file != null)
+          {
+            file.seek((long) index * blockSize);
+            if (compressed)
+            {
+              file.write(uncompressedBuffer, 0, inflate(inflater, buffer, length, uncompressedBuffer, zipEntryName));
+            }
+            else
+            {
+              file.write(buffer, 0, length);
+            }
+          }
+          index = input.readInt();
+        }
+
+        if (file != null)
+        {
+          logger.info(NOTE_BACKUP_RESTORED_FILE, relativePath, size);
+        }
+      }
+      finally
+      {
+        inflater.end();
+        StaticUtils.close(file);
+      }
+    }
+
+    /** Uncompresses a block, returning its length. */
+    private int inflate(Inflater inflater, byte[] input, int length, byte[] output, String zipEntryName)
+        throws DirectoryException
+    {
+      inflater.reset();
+      inflater.setInput(input, 0, length);
+      try
+      {
+        int outputLength = 0;
+        while (!inflater.finished() && outputLength < output.length)
+        {
+          final int inflated = inflater.inflate(output, outputLength, output.length - outputLength);
+          if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          {
+            break;
+          }
+          outputLength += inflated;
+        }
+        if (!inflater.finished())
+        {
+          throw newInvalidBlocksEntryException(zipEntryName, null);
+        }
+        return outputLength;
+      }
+      catch (DataFormatException e)
+      {
+        logger.traceException(e);
+        throw newInvalidBlocksEntryException(zipEntryName, e);
+      }
+    }
+
+    private DirectoryException newInvalidBlocksEntryException(String zipEntryName, Exception cause)
+    {
+      return new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_BACKUP_INVALID_BLOCKS_ENTRY.get(zipEntryName, identifier), cause);
+    }
+
+    /** Includes the content of the block manifest of the backup, if any, in the computed hash. */
+    private void hashBlockManifest() throws DirectoryException, IOException
+    {
+      String manifestFilename = backupInfo.getBackupProperties().get(PROPERTY_BLOCK_MANIFEST_FILENAME);
+      if (manifestFilename == null)
+      {
+        // the backup has been created by an older version
+        return;
+      }
+
+      InputStream inputStream = null;
+      try
+      {
+        inputStream = new FileInputStream(new File(archiveFile.getParentFile(), manifestFilename));
+        inputStream = cryptoEngine.encryptInput(inputStream);
+        cryptoEngine.updateHashWith(manifestFilename);
+        byte[] buffer = new byte[8192];
+        int bytesRead = inputStream.read(buffer);
+        while (bytesRead >= 0)
+        {
+          cryptoEngine.updateHashWith(buffer, 0, bytesRead);
+          bytesRead = inputStream.read(buffer);
+        }
+      }
+      finally
+      {
+        StaticUtils.close(inputStream);
+      }
+    }
+
     /**
      * Restores a zip entry virtually (no actual write on disk).
      */
@@ -1260,12 +1758,17 @@ public class BackupManager
   /**
    * Creates a backup of the provided backupable entity.
    * <p>
-   * The backup is stored in a single zip file in the backup directory.
+   * The backup is stored in a single zip file in the backup directory, next to
+   * a block manifest holding the digest of each block of the backed up files.
+   * Each file is stored in the zip as a list of blocks, which are read, hashed
+   * and compressed in parallel.
    * <p>
-   * If the backup is incremental, then the first entry in the zip is a text
-   * file containing a list of all the log files that are unchanged since the
-   * previous backup. The remaining zip entries are the log files themselves,
-   * which, for an incremental, only include those files that have changed.
+   * If the backup is incremental, only the blocks which have changed since the
+   * base backup are stored, as found by comparing them with the block manifest
+   * of the base backup, and the zip contains a text file listing the files
+   * whose content depends on the previous backups. Restoring the backup then
+   * restores these files from the chain of previous backups before applying
+   * the blocks of this backup.
    *
    * @param backupable
    *          The underlying entity (storage, backend) to be backed up.
@@ -1289,10 +1792,7 @@ public class BackupManager
 
       if (files.hasNext())
       {
-        if (backupParams.isIncremental) {
-          archiveWriter.writeUnchangedFiles(rootDirectory, files, backupConfig);
-        }
-        archiveWriter.writeChangedFiles(rootDirectory, files, backupConfig);
+        archiveWriter.writeFiles(rootDirectory, files, backupConfig);
       }
       else {
         archiveWriter.writeEmptyPlaceHolder();
@@ -1303,6 +1803,10 @@ public class BackupManager
       closeArchiveWriter(archiveWriter, newArchive.getArchiveFilename(), backupParams.backupDir.getPath());
     }
 
+    if (!backupConfig.isCancelled())
+    {
+      newArchive.writeBlockManifest();
+    }
     newArchive.updateBackupDirectory();
 
     if (backupConfig.isCancelled())
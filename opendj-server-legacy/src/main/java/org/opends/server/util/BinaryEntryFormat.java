@@ -0,0 +1,259 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.util;
+
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.DN;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+
+/**
+ * This class provides the binary format used to transfer entries in bulk, as
+ * an alternative to LDIF. Each entry is written as a four bytes length followed
+ * by the entry encoded with {@link Entry#encode(ByteStringBuilder, EntryEncodeConfig)}
+ * using the default configuration, which neither compresses the schema
+ * elements nor excludes the DN, so that the encoded entries can be decoded by
+ * any server.
+ */
+public final class BinaryEntryFormat
+{
+  /** The number of bytes used to store the length of each encoded entry. */
+  private static final int LENGTH_SIZE = 4;
+
+  private BinaryEntryFormat()
+  {
+    // Utility class
+  }
+
+  /**
+   * Encodes the provided entry in the binary format.
+   *
+   * @param entry
+   *          the entry to encode
+   * @return the encoded entry, without its length
+   * @throws DirectoryException
+   *           if the entry cannot be encoded
+   */
+  public static ByteString encode(final Entry entry) throws DirectoryException
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    entry.encode(builder, EntryEncodeConfig.DEFAULT_CONFIG);
+    return builder.toByteString();
+  }
+
+  /**
+   * Writes the provided encoded entry, preceded by its length, to the provided
+   * output stream.
+   *
+   * @param output
+   *          the output stream where to write the entry
+   * @param encodedEntry
+   *          the entry, as returned by {@link #encode(Entry)}
+   * @throws IOException
+   *           if a problem occurs while writing the entry
+   */
+  public static void writeEncodedEntry(final OutputStream output, final ByteString encodedEntry) throws IOException
+  {
+    final int length = encodedEntry.length();
+    output.write(length >>> 24);
+    output.write(length >>> 16);
+    output.write(length >>> 8);
+    output.write(length);
+    encodedEntry.copyTo(output);
+  }
+
+  /**
+   * Reads the next encoded entry from the provided input stream.
+   *
+   * @param input
+   *          the input stream from which to read the entry
+   * @return the encoded entry, without its length, or {@code null} if the end
+   *         of the input stream has been reached
+   * @throws IOException
+   *           if a problem occurs while reading the entry, or if the input
+   *           stream ends in the middle of an entry
+   */
+  public static ByteString readEncodedEntry(final InputStream input) throws IOException
+  {
+    int length = 0;
+    for (int i = 0; i < LENGTH_SIZE; i++)
+    {
+      final int b = input.read();
+      if (b < 0)
+      {
+        if (i == 0)
+        {
+          return null;
+        }
+        throw new EOFException();
+      }
+      length = (length << 8) | b;
+    }
+    if (length < 0)
+    {
+      throw new IOException("Invalid length of encoded entry: " + length);
+    }
+
+    final byte[] bytes = new byte[length];
+    int offset = 0;
+    while (offset < length)
+    {
+      final int read = input.read(bytes, offset, length - offset);
+      if (read < 0)
+      {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+    return ByteString.wrap(bytes);
+  }
+
+  /**
+   * Decodes the DN of the provided encoded entry, without decoding its
+   * attributes.
+   *
+   * @param encodedEntry
+   *          the entry, as returned by {@link #encode(Entry)}
+   * @return the DN of the entry
+   * @throws DirectoryException
+   *           if the DN cannot be decoded
+   */
+  public static DN decodeDN(final ByteString encodedEntry) throws DirectoryException
+  {
+    try
+    {
+      final ByteSequenceReader reader = encodedEntry.asReader();
+      final byte version = reader.readByte();
+      if (version != 0x01)
+      {
+        final int configLength = reader.readBERLength();
+        final EntryEncodeConfig config =
+            EntryEncodeConfig.decode(reader, configLength, DirectoryServer.getDefaultCompressedSchema());
+        if (config.excludeDN())
+        {
+          throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+              ERR_ENTRY_DECODE_EXCEPTION.get("the encoded entry does not contain its DN"));
+        }
+      }
+      final int dnLength = reader.readBERLength();
+      return DN.decode(reader.readByteSequence(dnLength).toByteString());
+    }
+    catch (DirectoryException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_ENTRY_DECODE_EXCEPTION.get(getExceptionMessage(e)), e);
+    }
+  }
+
+  /**
+   * Decodes the provided encoded entry.
+   *
+   * @param encodedEntry
+   *          the entry, as returned by {@link #encode(Entry)}
+   * @return the decoded entry
+   * @throws DirectoryException
+   *           if the entry cannot be decoded
+   */
+  public static Entry decode(final ByteString encodedEntry) throws DirectoryException
+  {
+    return Entry.decode(encodedEntry.asReader());
+  }
+
+  /**
+   * Counts the entries contained in a stream of entries in the binary format,
+   * when this stream is only seen as a sequence of chunks of bytes which may
+   * split the entries at any position. This class is not thread safe.
+   */
+  public static final class EntryCounter
+  {
+    /** The number of bytes of the length of the current entry already read. */
+    private int lengthBytesRead;
+    /** The length of the current entry, partially known until all its bytes are read. */
+    private int length;
+    /** The number of bytes of the current entry still to be skipped. */
+    private long bytesToSkip;
+
+    /**
+     * Counts the entries ending in the provided chunk of the stream.
+     *
+     * @param bytes
+     *          the array containing the chunk
+     * @param offset
+     *          the position of the chunk in the array
+     * @param count
+     *          the length of the chunk
+     * @return the number of entries whose last byte is in the chunk
+     */
+    public int count(final byte[] bytes, final int offset, final int count)
+    {
+      int entries = 0;
+      int pos = offset;
+      final int end = offset + count;
+      while (pos < end)
+      {
+        if (bytesToSkip > 0)
+        {
+          final int skipped = (int) Math.min(bytesToSkip, end - pos);
+          pos += skipped;
+          bytesToSkip -= skipped;
+          if (bytesToSkip == 0)
+          {
+            entries++;
+          }
+          continue;
+        }
+
+        length = (length << 8) | (bytes[pos++] & 0xFF);
+        if (++lengthBytesRead == LENGTH_SIZE)
+        {
+          bytesToSkip = length;
+          lengthBytesRead = 0;
+          length = 0;
+          if (bytesToSkip == 0)
+          {
+            entries++;
+          }
+        }
+      }
+      return entries;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lists the files of a backup, with the digest of each of their fixed size
+ * blocks.
+ * <p>
+ * The manifest of a backup is stored next to its archive. An incremental backup
+ * compares the files to back up with the manifest of its base backup, so that
+ * only the blocks which have changed since the base backup are archived. A file
+ * whose size and last modification time have not changed is not even read.
+ */
+final class BlockManifest
+{
+  /** The size of the blocks in which the backed up files are split. */
+  static final int BLOCK_SIZE = 256 * 1024;
+
+  /** The algorithm used to compute the digests of the blocks. */
+  static final String DIGEST_ALGORITHM = "SHA-256";
+
+  /**
+   * The modification time recorded for a file whose modification time cannot
+   * be trusted to detect later changes.
+   */
+  static final long UNKNOWN_MODIFICATION_TIME = -1;
+
+  /**
+   * A file modified less than this delay before being read may be modified
+   * again without any change of its modification time, given the granularity of
+   * the file system timestamps.
+   */
+  private static final long MODIFICATION_TIME_GRANULARITY_MS = 2000;
+
+  /** The version of the manifest format. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** The blocks of a backed up file. */
+  static final class FileBlocks
+  {
+    private final String relativePath;
+    private final long size;
+    private final long lastModified;
+    private final byte[][] digests;
+
+    /**
+     * Creates the blocks of a backed up file.
+     *
+     * @param relativePath
+     *          the path of the file, relative to the backed up directory
+     * @param size
+     *          the size of the file when it was read
+     * @param lastModified
+     *          the modification time of the file, or
+     *          {@link BlockManifest#UNKNOWN_MODIFICATION_TIME}
+     * @param digests
+     *          the digests of the blocks of the file
+     */
+    FileBlocks(String relativePath, long size, long lastModified, byte[][] digests)
+    {
+      this.relativePath = relativePath;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digests = digests;
+    }
+
+    String getRelativePath()
+    {
+      return relativePath;
+    }
+
+    /**
+     * Indicates whether the file can be considered unchanged without reading it,
+     * because its size and its modification time are the recorded ones.
+     */
+    boolean isUnchanged(long currentSize, long currentLastModified)
+    {
+      return lastModified != UNKNOWN_MODIFICATION_TIME
+          && size == currentSize
+          && lastModified == currentLastModified;
+    }
+
+    /** Returns the digest of the provided block, or {@code null} if the file had no such block. */
+    byte[] getDigest(int blockIndex)
+    {
+      return blockIndex < digests.length ? digests[blockIndex] : null;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "FileBlocks [relativePath=" + relativePath + ", size=" + size + ", blocks=" + digests.length + "]";
+    }
+  }
+
+  private final Map<String, FileBlocks> files = new LinkedHashMap<>();
+
+  /** Returns the blocks of the provided file, or {@code null} if the file is not in this manifest. */
+  FileBlocks get(String relativePath)
+  {
+    return files.get(relativePath);
+  }
+
+  /** Adds the blocks of a file to this manifest. */
+  void add(FileBlocks fileBlocks)
+  {
+    files.put(fileBlocks.getRelativePath(), fileBlocks);
+  }
+
+  /** Returns the number of blocks of a file of the provided size. */
+  static int getBlockCount(long size)
+  {
+    return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+  }
+
+  /**
+   * Returns the modification time to record for a file read at the provided
+   * time: a file modified just before being read may be modified again without
+   * any visible change of its modification time, which must then not be
+   * trusted.
+   */
+  static long getTrustedModificationTime(long lastModified, long readTime)
+  {
+    return readTime - lastModified < MODIFICATION_TIME_GRANULARITY_MS ? UNKNOWN_MODIFICATION_TIME : lastModified;
+  }
+
+  /** Returns a new message digest for the blocks of files. */
+  static MessageDigest newDigest()
+  {
+    try
+    {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      // Every implementation of the Java platform is required to support it
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Writes this manifest to the provided output stream, which is not closed. */
+  void write(OutputStream outputStream) throws IOException
+  {
+    final DataOutputStream output = new DataOutputStream(outputStream);
+    output.writeInt(FORMAT_VERSION);
+    output.writeInt(BLOCK_SIZE);
+    output.writeUTF(DIGEST_ALGORITHM);
+    output.writeInt(files.size());
+    for (FileBlocks fileBlocks : files.values())
+    {
+      output.writeUTF(fileBlocks.relativePath);
+      output.writeLong(fileBlocks.size);
+      output.writeLong(fileBlocks.lastModified);
+      output.writeInt(fileBlocks.digests.length);
+      for (byte[] digest : fileBlocks.digests)
+      {
+        output.writeByte(digest.length);
+        output.write(digest);
+      }
+    }
+    output.flush();
+  }
+
+  /**
+   * Reads a manifest from the provided input stream, which is not closed.
+   *
+   * @throws IOException
+   *           if the manifest cannot be read, or has been written with another
+   *           block size or digest algorithm
+   */
+  static BlockManifest read(InputStream inputStream) throws IOException
+  {
+    final DataInputStream input = new DataInputStream(inputStream);
+    final int version = input.readInt();
+    final int blockSize = input.readInt();
+    final String algorithm = input.readUTF();
+    if (version != FORMAT_VERSION || blockSize != BLOCK_SIZE || !DIGEST_ALGORITHM.equals(algorithm))
+    {
+      throw new IOException("Unsupported block manifest: version " + version + ", block size " + blockSize
+          + ", digest algorithm " + algorithm);
+    }
+
+    final BlockManifest manifest = new BlockManifest();
+    final int fileCount = input.readInt();
+    for (int i = 0; i < fileCount; i++)
+    {
+      final String relativePath = input.readUTF();
+      final long size = input.readLong();
+      final long lastModified = input.readLong();
+      final int blockCount = input.readInt();
+      if (blockCount < 0)
+      {
+        throw new IOException("Invalid number of blocks " + blockCount + " for file " + relativePath);
+      }
+      final byte[][] digests = new byte[blockCount][];
+      for (int j = 0; j < digests.length; j++)
+      {
+        digests[j] = new byte[input.readUnsignedByte()];
+        input.readFully(digests[j]);
+      }
+      manifest.add(new FileBlocks(relativePath, size, lastModified, digests));
+    }
+    return manifest;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BlockManifest [files=" + files.size() + "]";
+  }
+}
@@ -144,7 +144,7 @@ public class LDIFReader implements Closeable
     ifNull(importConfig);
     this.importConfig = importConfig;
 
-    reader               = importConfig.getReader();
+    reader               = importConfig.isBinaryEntries() ? null : importConfig.getReader();
     lastEntryBodyLines   = new LinkedList<>();
     lastEntryHeaderLines = new LinkedList<>();
     pluginConfigManager  = DirectoryServer.getPluginConfigManager();
@@ -197,6 +197,11 @@ public class LDIFReader implements Closeable
   public Entry readEntry(boolean checkSchema)
          throws IOException, LDIFException
   {
+    if (importConfig.isBinaryEntries())
+    {
+      return readBinaryEntry(checkSchema);
+    }
+
     while (true)
     {
       // Read the set of lines that make up the next entry.
@@ -246,6 +251,103 @@ public class LDIFReader implements Closeable
     }
   }
 
+  private Entry readBinaryEntry(boolean checkSchema) throws IOException, LDIFException
+  {
+    while (true)
+    {
+      final ByteString encodedEntry = readEncodedEntry();
+      if (encodedEntry == null)
+      {
+        return null;
+      }
+      entriesRead.incrementAndGet();
+
+      final Entry entry = decodeBinaryEntry(encodedEntry);
+      final DN entryDN = entry.getName();
+      final LinkedList<StringBuilder> lines = new LinkedList<>(entry.toLDIF());
+      lastEntryBodyLines   = lines;
+      lastEntryHeaderLines = new LinkedList<>();
+      if (!importConfig.includeEntry(entryDN))
+      {
+        logger.trace("Skipping entry %s because the DN is not one that "
+            + "should be included based on the include and exclude branches.", entryDN);
+        logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
+        continue;
+      }
+
+      if (!isIncludedInImport(entry, lines)
+          || !invokeImportPlugins(entry, lines))
+      {
+        continue;
+      }
+      validateAgainstSchemaIfNeeded(checkSchema, entry, lines);
+      return entry;
+    }
+  }
+
+  /**
+   * Reads the next entry in the binary format from the input stream of the import configuration.
+   *
+   * @return the encoded entry, or {@code null} if the end of the data is reached
+   * @throws IOException
+   *           If an I/O problem occurs while reading the entry.
+   * @see LDIFImportConfig#isBinaryEntries()
+   */
+  protected ByteString readEncodedEntry() throws IOException
+  {
+    return BinaryEntryFormat.readEncodedEntry(importConfig.getInputStream());
+  }
+
+  /**
+   * Decodes the DN of the provided entry in the binary format.
+   *
+   * @param encodedEntry
+   *          the encoded entry
+   * @return the DN of the entry
+   * @throws LDIFException
+   *           If the DN cannot be decoded.
+   */
+  protected DN decodeBinaryDN(ByteString encodedEntry) throws LDIFException
+  {
+    try
+    {
+      return BinaryEntryFormat.decodeDN(encodedEntry);
+    }
+    catch (DirectoryException e)
+    {
+      throw newBinaryEntryDecodingException(e);
+    }
+  }
+
+  /**
+   * Decodes the provided entry in the binary format.
+   *
+   * @param encodedEntry
+   *          the encoded entry
+   * @return the decoded entry
+   * @throws LDIFException
+   *           If the entry cannot be decoded.
+   */
+  protected Entry decodeBinaryEntry(ByteString encodedEntry) throws LDIFException
+  {
+    try
+    {
+      return BinaryEntryFormat.decode(encodedEntry);
+    }
+    catch (DirectoryException e)
+    {
+      throw newBinaryEntryDecodingException(e);
+    }
+  }
+
+  private LDIFException newBinaryEntryDecodingException(DirectoryException e)
+  {
+    logger.traceException(e);
+    final long entryNumber = entriesRead.get();
+    final LocalizableMessage message = ERR_LDIF_CANNOT_DECODE_BINARY_ENTRY.get(entryNumber, e.getMessageObject());
+    return new LDIFException(message, entryNumber, true, e);
+  }
+
   private Entry createEntry(DN entryDN, List<StringBuilder> lines, boolean checkSchema) throws LDIFException
   {
     Map<ObjectClass, String> objectClasses = new HashMap<>();
@@ -704,6 +704,11 @@ outerLoop:
          throws IOException
   {
     writer.flush();
+    if (exportConfig.isBinaryEntries())
+    {
+      // Flush the binary entries before closing the underlying stream
+      exportConfig.getOutputStream().flush();
+    }
     writer.close();
   }
 
@@ -31,11 +31,12 @@ import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 import static org.opends.server.backends.pluggable.State.IndexFlag.*;
-import static org.opends.server.backends.pluggable.Utils.assertIdsEquals;
+import static org.opends.server.backends.pluggable.Utils.*;
 
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -48,6 +49,7 @@ import org.opends.server.backends.pluggable.State.IndexFlag;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
 import org.opends.server.backends.pluggable.spi.TreeName;
 import org.opends.server.backends.pluggable.spi.UpdateFunction;
 import org.opends.server.backends.pluggable.spi.WriteableTransaction;
@@ -107,6 +109,100 @@ public class DefaultIndexTest extends DirectoryServerTestCase
     assertThat(txn.read(index.getName(), valueOfUtf8("key"))).isNull();
   }
 
+  @Test
+  public void testKeySize() {
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(0);
+
+    update(newDefinedSet(), newDefinedSet(1, 2, 3, 4));
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(4);
+
+    update(newDefinedSet(), newDefinedSet(5, 6, 7, 8));
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(index.getIndexEntryLimit());
+
+    index.setTrusted(txn, false);
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(IndexQueryEstimator.UNKNOWN);
+  }
+
+  @Test
+  public void testKeySizeOfBitmapAndSegmentedKeys() {
+    index = newIndex("segmented", 0, EnumSet.of(TRUSTED, COMPACTED, BITMAP));
+    index.open(txn, true);
+
+    update(newDefinedSet(), newDefinedSet(idsUpTo(2 * BITMAP_THRESHOLD)));
+    assertThat(isBitmapEncoded(getFromDb())).isTrue();
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(2 * BITMAP_THRESHOLD);
+
+    update(newDefinedSet(), newDefinedSet(idsUpTo(3 * IndexSegments.SEGMENT_SIZE)));
+    assertThat(IndexSegments.isDirectory(getFromDb())).isTrue();
+    assertThat(index.getKeySize(txn, valueOfUtf8("key"))).isEqualTo(3 * IndexSegments.SEGMENT_SIZE);
+  }
+
+  @Test
+  public void testSegmentedKey() {
+    index = newIndex("segmented", 0, EnumSet.of(TRUSTED, COMPACTED, BITMAP));
+    index.open(txn, true);
+
+    final long[] ids = new long[3 * IndexSegments.SEGMENT_SIZE];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i + 1;
+    }
+    update(newDefinedSet(), newDefinedSet(ids));
+    assertThat(IndexSegments.isDirectory(getFromDb())).isTrue();
+    assertThat(index.get(txn, valueOfUtf8("key")).size()).isEqualTo(ids.length);
+
+    final long newID = 10L * IndexSegments.SEGMENT_SIZE;
+    update(newDefinedSet(1), newDefinedSet(newID));
+    final EntryIDSet updated = index.get(txn, valueOfUtf8("key"));
+    assertThat(updated.size()).isEqualTo(ids.length);
+    assertThat(updated.contains(id(1))).isFalse();
+    assertThat(updated.contains(id(newID))).isTrue();
+
+    final EntryIDSet restricted = index.get(txn, valueOfUtf8("key"), newDefinedSet(1, 2, 5, newID + 1));
+    assertThat(restricted.toLongArray()).containsExactly(2, 5);
+
+    update(newDefinedSet(ids), newDefinedSet());
+    assertThat(IndexSegments.isDirectory(getFromDb())).isFalse();
+    assertIdsEquals(index.get(txn, valueOfUtf8("key")), newID);
+  }
+
+  @Test
+  public void testSegmentedKeyIsUpdatedUnderTheIndexRecordLock() {
+    index = newIndex("segmented", 0, EnumSet.of(TRUSTED, COMPACTED, BITMAP));
+    index.open(txn, true);
+    update(newDefinedSet(), newDefinedSet(idsUpTo(3 * IndexSegments.SEGMENT_SIZE)));
+
+    final WriteableTransaction spiedTxn = spy(txn);
+    index.update(spiedTxn, valueOfUtf8("key"), newDefinedSet(1), newDefinedSet());
+
+    verify(spiedTxn).update(eq(index.getName()), any(ByteSequence.class), any(UpdateFunction.class));
+    verify(spiedTxn, never()).put(eq(index.getName()), any(ByteSequence.class), any(ByteSequence.class));
+    assertThat(IndexSegments.isDirectory(getFromDb())).isTrue();
+    assertThat(index.get(txn, valueOfUtf8("key")).size()).isEqualTo(3 * IndexSegments.SEGMENT_SIZE - 1);
+  }
+
+  @Test
+  public void testImportedKeyWithTooManyIDsIsSegmented() {
+    index = newIndex("segmented", 0, EnumSet.of(TRUSTED, COMPACTED, BITMAP));
+    index.open(txn, true);
+
+    final ByteString smallValue = CODEC_V3.encode(newDefinedSet(1, 2, 3));
+    assertThat(index.toImportedValue(txn, valueOfUtf8("key"), smallValue)).isSameAs(smallValue);
+
+    final long[] ids = idsUpTo(3 * IndexSegments.SEGMENT_SIZE);
+    final ByteString value = index.toImportedValue(txn, valueOfUtf8("key"), CODEC_V3.encode(newDefinedSet(ids)));
+    assertThat(IndexSegments.isDirectory(value)).isTrue();
+    txn.put(index.getName(), valueOfUtf8("key"), value);
+    assertThat(index.get(txn, valueOfUtf8("key")).toLongArray()).isEqualTo(ids);
+  }
+
+  private static long[] idsUpTo(int nbIDs) {
+    final long[] ids = new long[nbIDs];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i + 1;
+    }
+    return ids;
+  }
+
   private void update(EntryIDSet deletedIDSet, EntryIDSet addedIDSet) {
     index.update(txn, valueOfUtf8("key"), deletedIDSet, addedIDSet);
   }
@@ -131,7 +227,7 @@ public class DefaultIndexTest extends DirectoryServerTestCase
     return new DefaultIndex(new TreeName("dc=example,dc=com", name), state, indexLimit, mock(EntryContainer.class));
   }
 
-  static final class DummyWriteableTransaction implements WriteableTransaction {
+  static class DummyWriteableTransaction implements WriteableTransaction {
 
     private final Map<TreeName, TreeMap<ByteString, ByteString>> storage = new HashMap<>();
 
@@ -141,6 +237,12 @@ public class DefaultIndexTest extends DirectoryServerTestCase
       return getTree(treeName).get(key);
     }
 
+    @Override
+    public List<ByteString> multiGet(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return StorageUtils.multiGet(this, treeName, keys);
+    }
+
     private TreeMap<ByteString, ByteString> getTree(TreeName treeName) {
       final TreeMap<ByteString, ByteString> tree = storage.get(treeName);
       if ( tree == null ) {
@@ -206,7 +308,11 @@ public class DefaultIndexTest extends DirectoryServerTestCase
           current = null;
 
           it = tree.tailMap(key.toByteString()).entrySet().iterator();
-          return it.hasNext() && it.next().getKey().equals(key.toByteString());
+          if (it.hasNext()) {
+            current = it.next();
+            return current.getKey().equals(key.toByteString());
+          }
+          return false;
         }
 
         @Override
@@ -216,7 +322,7 @@ public class DefaultIndexTest extends DirectoryServerTestCase
 
           it = tree.tailMap(key.toByteString()).entrySet().iterator();
           if( it.hasNext() ) {
-            it.next();
+            current = it.next();
             return true;
           }
           return false;
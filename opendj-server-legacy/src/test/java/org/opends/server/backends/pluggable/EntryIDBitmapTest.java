@@ -0,0 +1,161 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.EntryIDBitmap.*;
+import static org.opends.server.backends.pluggable.Utils.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class EntryIDBitmapTest extends DirectoryServerTestCase
+{
+  @Test
+  public void testEmpty()
+  {
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    assertThat(bitmap.size()).isEqualTo(0);
+    assertThat(bitmap.getRange()).isNull();
+    assertThat(bitmap.iterator().hasNext()).isFalse();
+    assertThat(bitmap.toArray()).isEmpty();
+  }
+
+  @Test
+  public void testAddRemoveContains()
+  {
+    final EntryIDBitmap bitmap = fromSortedArray(1, 3, 65536, 65537, 1L << 40);
+
+    assertThat(bitmap.add(2)).isTrue();
+    assertThat(bitmap.add(2)).isFalse();
+    assertThat(bitmap.remove(65536)).isTrue();
+    assertThat(bitmap.remove(65536)).isFalse();
+    assertThat(bitmap.contains(1L << 40)).isTrue();
+    assertThat(bitmap.contains(65536)).isFalse();
+
+    assertThat(bitmap.toArray()).containsExactly(1, 2, 3, 65537, 1L << 40);
+    assertThat(bitmap.getRange()).containsExactly(1, 1L << 40);
+    assertIdsEquals(bitmap.iterator(), 1, 2, 3, 65537, 1L << 40);
+    assertIdsEquals(bitmap.iterator(3), 3, 65537, 1L << 40);
+  }
+
+  @Test
+  public void testContainerConversions()
+  {
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    for (int i = 0; i <= ARRAY_CONTAINER_MAX_SIZE; i++)
+    {
+      bitmap.add(2 * i);
+    }
+    assertThat(bitmap.size()).isEqualTo(ARRAY_CONTAINER_MAX_SIZE + 1);
+    assertThat(bitmap.contains(2 * ARRAY_CONTAINER_MAX_SIZE)).isTrue();
+    assertThat(bitmap.contains(1)).isFalse();
+
+    bitmap.remove(0);
+    bitmap.remove(2);
+    assertThat(bitmap.size()).isEqualTo(ARRAY_CONTAINER_MAX_SIZE - 1);
+    assertThat(bitmap.getRange()).containsExactly(4, 2 * ARRAY_CONTAINER_MAX_SIZE);
+  }
+
+  @Test(dataProvider = "randomSets")
+  public void testSetOperations(long[] a, long[] b)
+  {
+    final EntryIDBitmap bitmapA = fromSortedArray(a);
+    final EntryIDBitmap bitmapB = fromSortedArray(b);
+
+    final TreeSet<Long> and = toSet(a);
+    and.retainAll(toSet(b));
+    assertThat(EntryIDBitmap.and(bitmapA, bitmapB).toArray()).isEqualTo(toArray(and));
+
+    final TreeSet<Long> or = toSet(a);
+    or.addAll(toSet(b));
+    assertThat(EntryIDBitmap.or(bitmapA, bitmapB).toArray()).isEqualTo(toArray(or));
+
+    final TreeSet<Long> andNot = toSet(a);
+    andNot.removeAll(toSet(b));
+    assertThat(EntryIDBitmap.andNot(bitmapA, bitmapB).toArray()).isEqualTo(toArray(andNot));
+
+    // Operands must be left untouched
+    assertThat(bitmapA.toArray()).isEqualTo(a);
+    assertThat(bitmapB.toArray()).isEqualTo(b);
+  }
+
+  @Test(dataProvider = "randomSets")
+  public void testEncodeDecode(long[] a, long[] b)
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    fromSortedArray(a).append(builder);
+    assertThat(EntryIDBitmap.read(builder.toByteString().asReader()).toArray()).isEqualTo(a);
+  }
+
+  @DataProvider(name = "randomSets")
+  public static Object[][] randomSets()
+  {
+    final Random random = new Random(0);
+    return new Object[][] {
+      { newRandomSet(random, 100, 1000000), newRandomSet(random, 100000, 1000000) },
+      { newRandomSet(random, 50000, 70000), newRandomSet(random, 6000, 70000) },
+      { newRandomSet(random, 200000, 300000), newRandomSet(random, 200000, 300000) },
+      { newRandomSet(random, 0, 10), newRandomSet(random, 10, 10) },
+    };
+  }
+
+  private static long[] newRandomSet(Random random, int count, int maxID)
+  {
+    final TreeSet<Long> ids = new TreeSet<>();
+    for (int i = 0; i < count; i++)
+    {
+      ids.add((long) random.nextInt(maxID));
+    }
+    return toArray(ids);
+  }
+
+  private static TreeSet<Long> toSet(long[] ids)
+  {
+    final TreeSet<Long> set = new TreeSet<>();
+    for (long id : ids)
+    {
+      set.add(id);
+    }
+    return set;
+  }
+
+  private static long[] toArray(TreeSet<Long> set)
+  {
+    final long[] ids = new long[set.size()];
+    int i = 0;
+    for (long id : set)
+    {
+      ids[i++] = id;
+    }
+    return ids;
+  }
+}
@@ -318,7 +318,92 @@ public class EntryIDSetTest extends DirectoryServerTestCase
 
   @DataProvider(name = "codecs")
   public static Object[][] codecs() {
-     return new Object[][] { { CODEC_V1 }, { CODEC_V2 } };
+     return new Object[][] { { CODEC_V1 }, { CODEC_V2 }, { CODEC_V3 } };
+  }
+
+  @Test
+  public void testCodecV3EncodesLargeSetsAsBitmap()
+  {
+    final long[] sparseIDs = newSparseIDs(BITMAP_THRESHOLD + 1);
+    final EntryIDSet decoded = CODEC_V3.decode(KEY, CODEC_V3.encode(newDefinedSet(sparseIDs)));
+    assertThat(decoded.isDefined()).isTrue();
+    assertThat(decoded.toLongArray()).isEqualTo(sparseIDs);
+
+    final long[] denseIDs = new long[70000];
+    for (int i = 0; i < denseIDs.length; i++)
+    {
+      denseIDs[i] = i + 1;
+    }
+    final ByteString encoded = CODEC_V3.encode(newDefinedSet(denseIDs));
+    assertThat(encoded.length()).isLessThan(CODEC_V2.encode(newDefinedSet(denseIDs)).length());
+    assertThat(CODEC_V3.decode(KEY, encoded).toLongArray()).isEqualTo(denseIDs);
+  }
+
+  @Test
+  public void testCodecV3DecodesV2Values()
+  {
+    final long[] ids = newSparseIDs(BITMAP_THRESHOLD + 1);
+    assertThat(CODEC_V3.decode(KEY, CODEC_V2.encode(newDefinedSet(ids))).toLongArray()).isEqualTo(ids);
+    assertIdsEquals(CODEC_V3.decode(KEY, CODEC_V2.encode(newDefinedSet(4, 6, 8))), 4, 6, 8);
+    assertThat(CODEC_V3.decode(KEY, CODEC_V2.encode(newUndefinedSet())).isDefined()).isFalse();
+  }
+
+  @Test
+  public void testBitmapSetOperations()
+  {
+    final EntryIDSet bitmapSet = newDefinedSet(EntryIDBitmap.fromSortedArray(2, 4, 6, 8, 70000, 70002));
+
+    assertThat(bitmapSet.add(id(5))).isTrue();
+    assertThat(bitmapSet.remove(id(70002))).isTrue();
+    assertThat(bitmapSet.contains(id(70000))).isTrue();
+    assertThat(bitmapSet.toLongArray()).containsExactly(2, 4, 5, 6, 8, 70000);
+
+    bitmapSet.addAll(newDefinedSet(1, 9));
+    assertThat(bitmapSet.toLongArray()).containsExactly(1, 2, 4, 5, 6, 8, 9, 70000);
+
+    bitmapSet.removeAll(newDefinedSet(EntryIDBitmap.fromSortedArray(1, 70000)));
+    assertThat(bitmapSet.toLongArray()).containsExactly(2, 4, 5, 6, 8, 9);
+
+    final EntryIDSet arraySet = newDefinedSet(3, 4, 5, 6, 7);
+    arraySet.retainAll(bitmapSet);
+    assertThat(arraySet.toLongArray()).containsExactly(4, 5, 6);
+
+    bitmapSet.retainAll(newDefinedSet(EntryIDBitmap.fromSortedArray(5, 6, 7, 8)));
+    assertThat(bitmapSet.toLongArray()).containsExactly(5, 6, 8);
+
+    final EntryIDSet undefined = newUndefinedSet();
+    undefined.retainAll(bitmapSet);
+    undefined.add(id(1));
+    assertThat(undefined.toLongArray()).containsExactly(1, 5, 6, 8);
+    assertThat(bitmapSet.toLongArray()).containsExactly(5, 6, 8);
+  }
+
+  @Test
+  public void testNewSetFromUnionOfLargeSets()
+  {
+    final long[] evens = new long[BITMAP_THRESHOLD];
+    final long[] odds = new long[BITMAP_THRESHOLD];
+    for (int i = 0; i < BITMAP_THRESHOLD; i++)
+    {
+      evens[i] = 2 * i;
+      odds[i] = 2 * i + 1;
+    }
+
+    final EntryIDSet union = newSetFromUnion(Arrays.asList(newDefinedSet(evens), newDefinedSet(odds)));
+    assertThat(union.size()).isEqualTo(2 * BITMAP_THRESHOLD);
+    assertThat(union.contains(id(0))).isTrue();
+    assertThat(union.contains(id(2 * BITMAP_THRESHOLD - 1))).isTrue();
+    assertThat(union.contains(id(2 * BITMAP_THRESHOLD))).isFalse();
+  }
+
+  private static long[] newSparseIDs(int count)
+  {
+    final long[] ids = new long[count];
+    for (int i = 0; i < count; i++)
+    {
+      ids[i] = i * 3L + 1;
+    }
+    return ids;
   }
 
 }
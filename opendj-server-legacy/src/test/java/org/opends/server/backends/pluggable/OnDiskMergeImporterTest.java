@@ -212,6 +212,24 @@ public class OnDiskMergeImporterTest extends DirectoryServerTestCase
     assertThat(toPairs(result)).containsExactlyElementsOf(toPairs(expected));
   }
 
+  @Test
+  @SuppressWarnings(value = { "unchecked", "resource" })
+  public void testEntryIDSetCollectorWithoutIndexEntryLimit()
+  {
+    final MeteredCursor<String, ByteString> source = cursorOf(
+        Pair.of("key1", EntryIDSet.CODEC_V2.encode(newDefinedSet(3))),
+        Pair.of("key1", EntryIDSet.CODEC_V2.encode(newDefinedSet(1))),
+        Pair.of("key1", EntryIDSet.CODEC_V2.encode(newDefinedSet(2))));
+
+    final SequentialCursor<String, ByteString> expected = cursorOf(
+        Pair.of("key1", EntryIDSet.CODEC_V2.encode(newDefinedSet(1, 2, 3))));
+
+    final SequentialCursor<String, ByteString> result =
+        new CollectorCursor<>(source, new EntryIDSetsCollector(new DummyIndex(0)));
+
+    assertThat(toPairs(result)).containsExactlyElementsOf(toPairs(expected));
+  }
+
   @Test
   @SuppressWarnings(value = "resource")
   public void testUniqueValueCollectorAcceptUniqueValues()
@@ -38,6 +38,7 @@ import static org.testng.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -770,6 +771,24 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
         "One Level search should return the expected child");
   }
 
+  @Test
+  public void testSizeLimitedSearchOnlyReturnsEntriesInScope() throws Exception
+  {
+    final DN peopleDN = topEntries.get(1).getName();
+    SearchRequest request = newSearchRequest(testBaseDN, SearchScope.SINGLE_LEVEL, "objectclass=*").setSizeLimit(1);
+    List<SearchResultEntry> result = runSearch(request, false);
+    assertThat(result).hasSize(1);
+    assertEquals(result.get(0).getName(), peopleDN);
+
+    request = newSearchRequest(peopleDN, SearchScope.SINGLE_LEVEL, "objectclass=*").setSizeLimit(2);
+    result = runSearch(request, false);
+    assertThat(result).hasSize(2);
+    for (SearchResultEntry entry : result)
+    {
+      assertEquals(entry.getName().parent(), peopleDN);
+    }
+  }
+
   @Test
   public void testSubTreeSearch() throws Exception
   {
@@ -777,6 +796,32 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     subTreeSearch(true);
   }
 
+  @Test
+  public void testSubTreeSearchWithPrefetch() throws Exception
+  {
+    final RootContainer rootContainer = backend.getRootContainer();
+    rootContainer.applyConfigurationChange(createSearchPrefetchCfg(2));
+    try
+    {
+      assertThat(rootContainer.getSearchPrefetchExecutor()).isNotNull();
+      subTreeSearch(false);
+      subTreeSearch(true);
+    }
+    finally
+    {
+      rootContainer.applyConfigurationChange(createSearchPrefetchCfg(0));
+    }
+    assertThat(rootContainer.getSearchPrefetchExecutor()).isNull();
+  }
+
+  private PluggableBackendCfg createSearchPrefetchCfg(int nbThreads)
+  {
+    final PluggableBackendCfg cfg = mock(PluggableBackendCfg.class);
+    when(cfg.getIndexFilterAnalyzerMaxFilters()).thenReturn(25);
+    when(cfg.getSearchPrefetchThreads()).thenReturn(nbThreads);
+    return cfg;
+  }
+
   @Test
   public void testSubTreeSearchAgainstAnIndexWithUnrecognizedMatchingRule() throws Exception
   {
@@ -865,6 +910,36 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testMultiGetEntries() throws Exception
+  {
+    final EntryContainer entryContainer = backend.getRootContainer().getEntryContainer(testBaseDN);
+    backend.getRootContainer().getStorage().read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        final List<EntryID> entryIDs = new ArrayList<>();
+        for (Entry entry : entries)
+        {
+          entryIDs.add(entryContainer.getDN2ID().get(txn, entry.getName()));
+        }
+        entryIDs.add(new EntryID(Long.MAX_VALUE));
+        Collections.sort(entryIDs);
+
+        final ID2Entry id2entry = entryContainer.getID2Entry();
+        final List<Entry> multiGetEntries = id2entry.get(txn, entryIDs);
+        assertThat(multiGetEntries).hasSize(entryIDs.size());
+        for (int i = 0; i < entryIDs.size() - 1; i++)
+        {
+          assertThat(multiGetEntries.get(i).getName()).isEqualTo(id2entry.get(txn, entryIDs.get(i)).getName());
+        }
+        assertThat(multiGetEntries.get(entryIDs.size() - 1)).isNull();
+        return null;
+      }
+    });
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -0,0 +1,348 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable.inmemory;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.ConfigurationMock.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.std.server.InMemoryBackendCfg;
+import org.opends.server.backends.inmemory.InMemoryStorage;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.DN;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class InMemoryStorageTestCase extends DirectoryServerTestCase
+{
+  private final TreeName treeName = new TreeName("dc=test,dc=com", "tree");
+  private ServerContext serverContext;
+  private InMemoryStorage storage;
+
+  // FIXME: This is required since the storage is using
+  // DirectoryServer static method.
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+
+    storage = new InMemoryStorage(createBackendCfg(), serverContext);
+    storage.open(AccessMode.READ_WRITE);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+      }
+    });
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testPutReadDelete() throws Exception
+  {
+    put("key1", "value1");
+    put("key2", "value2");
+    assertThat(read(storage, "key1")).isEqualTo(value("value1"));
+
+    put("key1", "value1bis");
+    delete("key2");
+    assertThat(read(storage, "key1")).isEqualTo(value("value1bis"));
+    assertThat(read(storage, "key2")).isNull();
+    assertThat(read(storage, "key3")).isNull();
+  }
+
+  @Test
+  public void testCursorSeesOwnUpdates() throws Exception
+  {
+    put("key1", "value1");
+    put("key3", "value3");
+    put("key5", "value5");
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, value("key2"), value("value2"));
+        txn.delete(treeName, value("key3"));
+        txn.put(treeName, value("key5"), value("value5bis"));
+        txn.put(treeName, value("key6"), value("value6"));
+
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKey(value("key3"))).isFalse();
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key5"));
+          assertThat(cursor.getValue()).isEqualTo(value("value5bis"));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key6"));
+          assertThat(cursor.positionToIndex(1)).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key2"));
+          cursor.delete();
+        }
+        assertThat(keys(txn)).containsExactly(value("key1"), value("key5"), value("key6"));
+      }
+    });
+
+    assertThat(storage.read(new ReadOperation<List<ByteString>>()
+    {
+      @Override
+      public List<ByteString> run(ReadableTransaction txn) throws Exception
+      {
+        return keys(txn);
+      }
+    })).containsExactly(value("key1"), value("key5"), value("key6"));
+  }
+
+  @Test
+  public void testReadTransactionsAreIsolated() throws Exception
+  {
+    put("key1", "value1");
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        put("key1", "value1bis");
+        put("key2", "value2");
+        delete("key1");
+        assertThat(txn.read(treeName, value("key1"))).isEqualTo(value("value1"));
+        assertThat(txn.read(treeName, value("key2"))).isNull();
+        assertThat(keys(txn)).containsExactly(value("key1"));
+        return null;
+      }
+    });
+    assertThat(read(storage, "key1")).isNull();
+    assertThat(read(storage, "key2")).isEqualTo(value("value2"));
+  }
+
+  @Test
+  public void testFailedWriteIsRolledBack() throws Exception
+  {
+    put("key1", "value1");
+    final TreeName otherTreeName = new TreeName("dc=test,dc=com", "other");
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, value("key1"), value("value1bis"));
+          txn.put(treeName, value("key2"), value("value2"));
+          txn.openTree(otherTreeName, true);
+          throw new IllegalStateException("rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // Expected
+    }
+    assertThat(read(storage, "key1")).isEqualTo(value("value1"));
+    assertThat(read(storage, "key2")).isNull();
+    assertThat(storage.listTrees()).containsOnly(treeName);
+  }
+
+  @Test
+  public void testDataSurvivesReopen() throws Exception
+  {
+    put("key1", "value1");
+    put("key2", "value2");
+    delete("key2");
+
+    storage.close();
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(storage.listTrees()).containsOnly(treeName);
+    assertThat(read(storage, "key1")).isEqualTo(value("value1"));
+    assertThat(read(storage, "key2")).isNull();
+  }
+
+  /** Opens a second storage on the same files without closing the first one, as if the server had crashed. */
+  @Test
+  public void testTransactionLogIsReplayed() throws Exception
+  {
+    put("key1", "value1");
+    put("key2", "value2");
+    delete("key1");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.deleteTree(treeName);
+        txn.openTree(treeName, true);
+        txn.put(treeName, value("key3"), value("value3"));
+      }
+    });
+
+    final InMemoryStorage recovered = new InMemoryStorage(createBackendCfg(), serverContext);
+    recovered.open(AccessMode.READ_ONLY);
+    try
+    {
+      assertThat(recovered.listTrees()).containsOnly(treeName);
+      assertThat(read(recovered, "key1")).isNull();
+      assertThat(read(recovered, "key2")).isNull();
+      assertThat(read(recovered, "key3")).isEqualTo(value("value3"));
+    }
+    finally
+    {
+      recovered.close();
+    }
+  }
+
+  @Test
+  public void testImport() throws Exception
+  {
+    put("key1", "value1");
+    storage.close();
+    final Importer importer = storage.startImport();
+    try
+    {
+      importer.clearTree(treeName);
+      for (int i = 0; i < 1000; i++)
+      {
+        importer.put(treeName, value("imported" + i), value("value" + i));
+      }
+      assertThat(importer.read(treeName, value("imported10"))).isEqualTo(value("value10"));
+    }
+    finally
+    {
+      importer.close();
+    }
+
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(read(storage, "key1")).isNull();
+    assertThat(read(storage, "imported999")).isEqualTo(value("value999"));
+    assertThat(storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return txn.getRecordCount(treeName);
+      }
+    })).isEqualTo(1000);
+  }
+
+  private void put(final String key, final String value) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, value(key), value(value));
+      }
+    });
+  }
+
+  private void delete(final String key) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.delete(treeName, value(key));
+      }
+    });
+  }
+
+  private ByteString read(InMemoryStorage fromStorage, final String key) throws Exception
+  {
+    return fromStorage.read(new ReadOperation<ByteString>()
+    {
+      @Override
+      public ByteString run(ReadableTransaction txn) throws Exception
+      {
+        return txn.read(treeName, value(key));
+      }
+    });
+  }
+
+  private List<ByteString> keys(ReadableTransaction txn)
+  {
+    final List<ByteString> keys = new ArrayList<>();
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+    {
+      while (cursor.next())
+      {
+        keys.add(cursor.getKey());
+      }
+    }
+    return keys;
+  }
+
+  private static ByteString value(String value)
+  {
+    return ByteString.valueOfUtf8(value);
+  }
+
+  private static InMemoryBackendCfg createBackendCfg() throws Exception
+  {
+    InMemoryBackendCfg backendCfg = legacyMockCfg(InMemoryBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("inMemoryTest");
+    when(backendCfg.getDBDirectory()).thenReturn("in_memory_test");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.dn()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    return backendCfg;
+  }
+}
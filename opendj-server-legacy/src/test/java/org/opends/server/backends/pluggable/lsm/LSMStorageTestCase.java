@@ -0,0 +1,519 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable.lsm;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.ConfigurationMock.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.std.server.JEBackendCfg;
+import org.opends.server.admin.std.server.LSMBackendCfg;
+import org.opends.server.admin.std.server.PDBBackendCfg;
+import org.opends.server.backends.jeb.JEStorage;
+import org.opends.server.backends.lsm.LSMStorage;
+import org.opends.server.backends.pdb.PDBStorage;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.DN;
+import org.testng.Reporter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class LSMStorageTestCase extends DirectoryServerTestCase
+{
+  private final TreeName treeName = new TreeName("dc=test,dc=com", "tree");
+  private ServerContext serverContext;
+  private LSMStorage storage;
+
+  // FIXME: This is required since the storages are using
+  // DirectoryServer static method.
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+
+    storage = new LSMStorage(createLSMBackendCfg(), serverContext);
+    storage.open(AccessMode.READ_WRITE);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+      }
+    });
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testPutReadDelete() throws Exception
+  {
+    put("key1", "value1");
+    put("key2", "value2");
+    assertThat(read("key1")).isEqualTo(value("value1"));
+
+    put("key1", "value1bis");
+    delete("key2");
+    assertThat(read("key1")).isEqualTo(value("value1bis"));
+    assertThat(read("key2")).isNull();
+    assertThat(read("key3")).isNull();
+  }
+
+  @Test
+  public void testMissingTreeIsEmpty() throws Exception
+  {
+    final TreeName missingTree = new TreeName("dc=test,dc=com", "missing");
+    assertThat(storage.read(new ReadOperation<List<ByteString>>()
+    {
+      @Override
+      public List<ByteString> run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.read(missingTree, value("key1"))).isNull();
+        return keys(txn);
+      }
+    })).isEmpty();
+    assertThat(storage.listTrees()).containsOnly(treeName);
+  }
+
+  @Test
+  public void testCursorSeesPendingUpdates() throws Exception
+  {
+    put("key1", "value1");
+    put("key3", "value3");
+    put("key5", "value5");
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, value("key2"), value("value2"));
+        txn.delete(treeName, value("key3"));
+        txn.put(treeName, value("key5"), value("value5bis"));
+        txn.put(treeName, value("key6"), value("value6"));
+
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKey(value("key3"))).isFalse();
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key5"));
+          assertThat(cursor.getValue()).isEqualTo(value("value5bis"));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key6"));
+          assertThat(cursor.positionToIndex(1)).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(value("key2"));
+          cursor.delete();
+        }
+        assertThat(keys(txn)).containsExactly(value("key1"), value("key5"), value("key6"));
+      }
+    });
+
+    assertThat(storage.read(new ReadOperation<List<ByteString>>()
+    {
+      @Override
+      public List<ByteString> run(ReadableTransaction txn) throws Exception
+      {
+        return keys(txn);
+      }
+    })).containsExactly(value("key1"), value("key5"), value("key6"));
+  }
+
+  @Test
+  public void testReadTransactionsAreIsolated() throws Exception
+  {
+    put("key1", "value1");
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        put("key1", "value1bis");
+        put("key2", "value2");
+        assertThat(txn.read(treeName, value("key1"))).isEqualTo(value("value1"));
+        assertThat(txn.read(treeName, value("key2"))).isNull();
+        assertThat(keys(txn)).containsExactly(value("key1"));
+        return null;
+      }
+    });
+    assertThat(read("key1")).isEqualTo(value("value1bis"));
+  }
+
+  @Test
+  public void testFailedWriteIsRolledBack() throws Exception
+  {
+    put("key1", "value1");
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, value("key1"), value("value1bis"));
+          txn.put(treeName, value("key2"), value("value2"));
+          throw new IllegalStateException("rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // Expected
+    }
+    assertThat(read("key1")).isEqualTo(value("value1"));
+    assertThat(read("key2")).isNull();
+  }
+
+  @Test
+  public void testDataSurvivesReopen() throws Exception
+  {
+    put("key1", "value1");
+    put("key2", "value2");
+    delete("key2");
+
+    storage.close();
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(read("key1")).isEqualTo(value("value1"));
+    assertThat(read("key2")).isNull();
+
+    storage.close();
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(storage.listTrees()).containsOnly(treeName);
+    assertThat(read("key1")).isEqualTo(value("value1"));
+  }
+
+  @Test
+  public void testDeleteTree() throws Exception
+  {
+    put("key1", "value1");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.deleteTree(treeName);
+      }
+    });
+    assertThat(storage.listTrees()).isEmpty();
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+      }
+    });
+    assertThat(read("key1")).isNull();
+  }
+
+  /** Writes several times the size of the memtables, so that segments get flushed and compacted. */
+  @Test
+  public void testFlushAndCompaction() throws Exception
+  {
+    final int nbKeys = 20000;
+    for (int round = 0; round < 3; round++)
+    {
+      final int r = round;
+      for (int i = 0; i < nbKeys; i += 100)
+      {
+        final int first = i;
+        storage.write(new WriteOperation()
+        {
+          @Override
+          public void run(WriteableTransaction txn) throws Exception
+          {
+            for (int j = first; j < first + 100; j++)
+            {
+              if (r == 2 && j % 2 == 0)
+              {
+                txn.delete(treeName, key(j));
+              }
+              else
+              {
+                txn.put(treeName, key(j), value("value" + j + "-" + r));
+              }
+            }
+          }
+        });
+      }
+    }
+
+    storage.close();
+    storage.open(AccessMode.READ_WRITE);
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        for (int i = 0; i < nbKeys; i++)
+        {
+          final ByteString expected = i % 2 == 0 ? null : value("value" + i + "-2");
+          assertThat(txn.read(treeName, key(i))).isEqualTo(expected);
+        }
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(nbKeys / 2);
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testImport() throws Exception
+  {
+    storage.close();
+    final Importer importer = storage.startImport();
+    try
+    {
+      importer.clearTree(treeName);
+      for (int i = 0; i < 1000; i++)
+      {
+        importer.put(treeName, key(i), value("value" + i));
+      }
+      assertThat(importer.read(treeName, key(10))).isEqualTo(value("value10"));
+    }
+    finally
+    {
+      importer.close();
+    }
+
+    storage.open(AccessMode.READ_WRITE);
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.read(treeName, key(999))).isEqualTo(value("value999"));
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(1000);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Compares the throughput of the LSM, PDB and JE storages, writing random keys in small transactions then
+   * reading them back.
+   */
+  @Test(groups = { "slow" })
+  public void testLoadBenchmark() throws Exception
+  {
+    final int nbWrites = 200000;
+    final int nbReads = 200000;
+
+    storage.close();
+    storage.removeStorageFiles();
+    runBenchmark("LSM", storage, nbWrites, nbReads);
+    runBenchmark("PDB", new PDBStorage(createPDBBackendCfg(), serverContext), nbWrites, nbReads);
+    runBenchmark("JE", new JEStorage(createJEBackendCfg(), serverContext), nbWrites, nbReads);
+
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  private void runBenchmark(String name, Storage benchmarked, int nbWrites, int nbReads) throws Exception
+  {
+    final int batchSize = 10;
+    final byte[] data = new byte[200];
+    benchmarked.open(AccessMode.READ_WRITE);
+    try
+    {
+      final Random random = new Random(0);
+      long start = System.nanoTime();
+      for (int i = 0; i < nbWrites; i += batchSize)
+      {
+        final List<ByteString> keys = new ArrayList<>(batchSize);
+        for (int j = 0; j < batchSize; j++)
+        {
+          keys.add(key(random.nextInt(nbWrites)));
+        }
+        benchmarked.write(new WriteOperation()
+        {
+          @Override
+          public void run(WriteableTransaction txn) throws Exception
+          {
+            txn.openTree(treeName, true);
+            for (ByteString key : keys)
+            {
+              txn.put(treeName, key, ByteString.wrap(data));
+            }
+          }
+        });
+      }
+      final long writeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < nbReads; i++)
+      {
+        final ByteString key = key(random.nextInt(nbWrites));
+        benchmarked.read(new ReadOperation<ByteString>()
+        {
+          @Override
+          public ByteString run(ReadableTransaction txn) throws Exception
+          {
+            return txn.read(treeName, key);
+          }
+        });
+      }
+      final long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      Reporter.log(String.format("%s storage: %d writes/s, %d reads/s", name,
+          nbWrites * 1000L / Math.max(writeMillis, 1), nbReads * 1000L / Math.max(readMillis, 1)), true);
+    }
+    finally
+    {
+      benchmarked.close();
+      benchmarked.removeStorageFiles();
+    }
+  }
+
+  private void put(final String key, final String value) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, value(key), value(value));
+      }
+    });
+  }
+
+  private void delete(final String key) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.delete(treeName, value(key));
+      }
+    });
+  }
+
+  private ByteString read(final String key) throws Exception
+  {
+    return storage.read(new ReadOperation<ByteString>()
+    {
+      @Override
+      public ByteString run(ReadableTransaction txn) throws Exception
+      {
+        return txn.read(treeName, value(key));
+      }
+    });
+  }
+
+  private List<ByteString> keys(ReadableTransaction txn)
+  {
+    final List<ByteString> keys = new ArrayList<>();
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+    {
+      while (cursor.next())
+      {
+        keys.add(cursor.getKey());
+      }
+    }
+    return keys;
+  }
+
+  private static ByteString key(int i)
+  {
+    return ByteString.valueOfUtf8(String.format("key%08d", i));
+  }
+
+  private static ByteString value(String value)
+  {
+    return ByteString.valueOfUtf8(value);
+  }
+
+  private static LSMBackendCfg createLSMBackendCfg() throws Exception
+  {
+    LSMBackendCfg backendCfg = legacyMockCfg(LSMBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("lsmTest");
+    when(backendCfg.getDBDirectory()).thenReturn("lsm_test");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    when(backendCfg.getDBMemtableSize()).thenReturn(256 * 1024L);
+    when(backendCfg.dn()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    return backendCfg;
+  }
+
+  private static PDBBackendCfg createPDBBackendCfg() throws Exception
+  {
+    PDBBackendCfg backendCfg = legacyMockCfg(PDBBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("pdbBenchmark");
+    when(backendCfg.getDBDirectory()).thenReturn("pdb_benchmark");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    when(backendCfg.dn()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    return backendCfg;
+  }
+
+  private static JEBackendCfg createJEBackendCfg() throws Exception
+  {
+    JEBackendCfg backendCfg = legacyMockCfg(JEBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("jeBenchmark");
+    when(backendCfg.getDBDirectory()).thenReturn("je_benchmark");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    when(backendCfg.dn()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    return backendCfg;
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.server.AdminTestCaseUtils;
+import org.opends.server.admin.std.meta.ConcurrentEntryCacheCfgDefn;
+import org.opends.server.admin.std.meta.FIFOEntryCacheCfgDefn;
+import org.opends.server.admin.std.meta.SoftReferenceEntryCacheCfgDefn;
+import org.opends.server.admin.std.server.ConcurrentEntryCacheCfg;
+import org.opends.server.admin.std.server.EntryCacheCfg;
+import org.opends.server.api.EntryCache;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.util.ServerConstants;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterGroups;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeGroups;
+import org.testng.annotations.Test;
+
+
+
+/**
+ * A set of test cases for the concurrent entry cache implementation.
+ */
+@Test(groups = "entrycache", sequential=true)
+public class ConcurrentEntryCacheTestCase
+       extends CommonEntryCacheTestCase<ConcurrentEntryCacheCfg>
+{
+  /**
+   * Initialize the entry cache test.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @BeforeClass
+  public void entryCacheTestInit()
+         throws Exception
+  {
+    // Ensure that the server is running.
+    TestCaseUtils.startServer();
+
+    // Configure this entry cache.
+    Entry cacheConfigEntry = TestCaseUtils.makeEntry(
+      "dn: cn=Concurrent,cn=Entry Caches,cn=config",
+      "objectClass: ds-cfg-concurrent-entry-cache",
+      "objectClass: ds-cfg-entry-cache",
+      "objectClass: top",
+      "cn: Concurrent",
+      "ds-cfg-cache-level: 1",
+      "ds-cfg-java-class: org.opends.server.extensions.ConcurrentEntryCache",
+      "ds-cfg-enabled: true",
+      "ds-cfg-max-entries: " + super.MAXENTRIES);
+    super.configuration = AdminTestCaseUtils.getConfiguration(
+      ConcurrentEntryCacheCfgDefn.getInstance(), cacheConfigEntry);
+
+    // Force GC to make sure we have enough memory for
+    // the cache capping constraints to work properly.
+    System.gc();
+
+    // Initialize the cache.
+    super.cache = new ConcurrentEntryCache();
+    super.cache.initializeEntryCache(configuration);
+
+    // Make some dummy test entries.
+    super.testEntriesList = new ArrayList<>(super.NUMTESTENTRIES);
+    for(int i = 0; i < super.NUMTESTENTRIES; i++ ) {
+      super.testEntriesList.add(TestCaseUtils.makeEntry(
+        "dn: uid=test" + i + ".user" + i + ",ou=test" + i + ",o=test",
+        "objectClass: person",
+        "objectClass: inetorgperson",
+        "objectClass: top",
+        "objectClass: organizationalperson",
+        "postalAddress: somewhere in Testville" + i,
+        "street: Under Construction Street" + i,
+        "l: Testcounty" + i,
+        "st: Teststate" + i,
+        "telephoneNumber: +878 8378 8378" + i,
+        "mobile: +878 8378 8378" + i,
+        "homePhone: +878 8378 8378" + i,
+        "pager: +878 8378 8378" + i,
+        "mail: test" + i + ".user" + i + "@testdomain.net",
+        "postalCode: 8378" + i,
+        "userPassword: testpassword" + i,
+        "description: description for Test" + i + "User" + i,
+        "cn: Test" + i + "User" + i,
+        "sn: User" + i,
+        "givenName: Test" + i,
+        "initials: TST" + i,
+        "employeeNumber: 8378" + i,
+        "uid: test" + i + ".user" + i)
+      );
+    }
+  }
+
+
+
+  /**
+   * Finalize the entry cache test.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @AfterClass
+  public void entryCacheTestFini()
+         throws Exception
+  {
+    super.cache.finalizeEntryCache();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testContainsEntry()
+         throws Exception
+  {
+    super.testContainsEntry();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testGetEntry1()
+         throws Exception
+  {
+    super.testGetEntry1();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testGetEntry2()
+         throws Exception
+  {
+    super.testGetEntry2();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testGetEntry3()
+         throws Exception
+  {
+    super.testGetEntry3();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testGetEntryID()
+         throws Exception
+  {
+    super.testGetEntryID();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testPutEntry()
+         throws Exception
+  {
+    super.testPutEntry();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testPutEntryIfAbsent()
+         throws Exception
+  {
+    super.testPutEntryIfAbsent();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testRemoveEntry()
+         throws Exception
+  {
+    super.testRemoveEntry();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testClear()
+         throws Exception
+  {
+    super.testClear();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testClearBackend()
+         throws Exception
+  {
+    super.testClearBackend();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testClearSubtree()
+         throws Exception
+  {
+    super.testClearSubtree();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test
+  @Override
+  public void testHandleLowMemory()
+         throws Exception
+  {
+    assertNull(cache.toVerboseString(),
+      "Expected empty cache.  " + "Cache contents:" + ServerConstants.EOL +
+      cache.toVerboseString());
+
+    String b = DirectoryServer.getBackend(DN.valueOf("o=test")).getBackendID();
+
+    for(int i = 0; i < super.NUMTESTENTRIES; i++ ) {
+      super.cache.putEntry(super.testEntriesList.get(i), b, i);
+    }
+
+    super.cache.handleLowMemory();
+
+    // Make sure that the entries put previously on the
+    // cache are no longer there after handleLowMemory.
+    for(int i = 0; i < super.NUMTESTENTRIES; i++ ) {
+      assertFalse(super.cache.containsEntry(
+        super.testEntriesList.get(i).getName()), "Not expected to find " +
+        super.testEntriesList.get(i).getName() + " in the " +
+        "cache.  Cache contents:" + ServerConstants.EOL +
+        cache.toVerboseString());
+    }
+
+    // Clear the cache so that other tests can start from scratch.
+    super.cache.clear();
+  }
+
+
+
+  @BeforeGroups(groups = "testConcurrentCacheConcurrency")
+  public void cacheConcurrencySetup()
+         throws Exception
+  {
+    assertNull(cache.toVerboseString(),
+      "Expected empty cache.  " + "Cache contents:" + ServerConstants.EOL +
+      cache.toVerboseString());
+  }
+
+
+
+  @AfterGroups(groups = "testConcurrentCacheConcurrency")
+  public void cacheConcurrencyCleanup()
+         throws Exception
+  {
+    // Clear the cache so that other tests can start from scratch.
+    super.cache.clear();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Test(groups = { "slow", "testConcurrentCacheConcurrency" },
+        threadPoolSize = 10,
+        invocationCount = 10,
+        timeOut = 60000)
+  @Override
+  public void testCacheConcurrency()
+         throws Exception
+  {
+    super.testCacheConcurrency();
+  }
+
+
+
+  /**
+   * Tests that entries which are frequently read are not evicted by entries
+   * which are only added once, and that an entry which is frequently requested
+   * gets admitted when it is eventually added.
+   */
+  @Test
+  public void testFrequencyAdmission()
+         throws Exception
+  {
+    assertNull(cache.toVerboseString(),
+      "Expected empty cache.  " + "Cache contents:" + ServerConstants.EOL +
+      cache.toVerboseString());
+
+    String b = DirectoryServer.getBackend(DN.valueOf("o=test")).getBackendID();
+
+    // Fill the cache and read all the entries but the last one.
+    for(int i = 0; i < super.MAXENTRIES; i++ ) {
+      super.cache.putEntry(super.testEntriesList.get(i), b, i);
+    }
+    for(int i = 0; i < super.MAXENTRIES - 1; i++ ) {
+      assertNotNull(super.cache.getEntry(super.testEntriesList.get(i).getName()));
+      assertNotNull(super.cache.getEntry(super.testEntriesList.get(i).getName()));
+    }
+
+    // Entries which are only added once must not evict the frequent ones.
+    for(int i = super.MAXENTRIES; i < super.NUMTESTENTRIES; i++ ) {
+      super.cache.putEntry(super.testEntriesList.get(i), b, i);
+    }
+    for(int i = 0; i < super.MAXENTRIES - 1; i++ ) {
+      assertTrue(super.cache.containsEntry(
+        super.testEntriesList.get(i).getName()), "Expected to find " +
+        super.testEntriesList.get(i).getName() + " in the " +
+        "cache.  Cache contents:" + ServerConstants.EOL +
+        cache.toVerboseString());
+    }
+    assertTrue(super.cache.containsEntry(
+      super.testEntriesList.get(super.NUMTESTENTRIES - 1).getName()));
+    assertEquals(super.cache.getCacheCount().longValue(), super.MAXENTRIES);
+
+    // An entry which keeps being requested gets admitted.
+    Entry frequentEntry = super.testEntriesList.get(super.MAXENTRIES);
+    for(int i = 0; i < 5; i++ ) {
+      assertNull(super.cache.getEntry(frequentEntry.getName()));
+    }
+    super.cache.putEntry(frequentEntry, b, super.MAXENTRIES);
+    super.cache.putEntry(super.testEntriesList.get(super.MAXENTRIES + 1), b, super.MAXENTRIES + 1);
+    assertTrue(super.cache.containsEntry(frequentEntry.getName()),
+      "Expected to find " + frequentEntry.getName() + " in the " +
+      "cache.  Cache contents:" + ServerConstants.EOL +
+      cache.toVerboseString());
+    assertEquals(super.cache.getCacheCount().longValue(), super.MAXENTRIES);
+
+    // Clear the cache so that other tests can start from scratch.
+    super.cache.clear();
+  }
+
+
+
+  /**
+   * Compares the throughput and the hit ratio of the FIFO, soft reference and
+   * concurrent entry caches for the same mix of reads and writes, with several
+   * threads reading entries with a skewed popularity and adding the missing
+   * ones, as the backends do.
+   */
+  @Test(groups = { "slow" })
+  public void testThroughputBenchmark()
+         throws Exception
+  {
+    final int nbEntries = 10000;
+    final int maxEntries = 1000;
+
+    List<Entry> entries = new ArrayList<>(nbEntries);
+    for(int i = 0; i < nbEntries; i++ ) {
+      entries.add(TestCaseUtils.makeEntry(
+        "dn: uid=bench" + i + ",ou=benchmark,o=test",
+        "objectClass: person",
+        "objectClass: inetorgperson",
+        "objectClass: top",
+        "objectClass: organizationalperson",
+        "mail: bench" + i + "@testdomain.net",
+        "description: description for Bench" + i,
+        "cn: Bench" + i,
+        "sn: Bench" + i,
+        "uid: bench" + i));
+    }
+
+    runBenchmark("FIFO", new FIFOEntryCache(), AdminTestCaseUtils.getConfiguration(
+        FIFOEntryCacheCfgDefn.getInstance(),
+        makeCacheConfigEntry("FIFO", "fifo", FIFOEntryCache.class, maxEntries)), entries);
+    runBenchmark("Soft Reference", new SoftReferenceEntryCache(), AdminTestCaseUtils.getConfiguration(
+        SoftReferenceEntryCacheCfgDefn.getInstance(),
+        makeCacheConfigEntry("Soft Reference", "soft-reference", SoftReferenceEntryCache.class, 0)), entries);
+    runBenchmark("Concurrent", new ConcurrentEntryCache(), AdminTestCaseUtils.getConfiguration(
+        ConcurrentEntryCacheCfgDefn.getInstance(),
+        makeCacheConfigEntry("Concurrent", "concurrent", ConcurrentEntryCache.class, maxEntries)), entries);
+  }
+
+
+
+  private Entry makeCacheConfigEntry(String name, String type, Class<?> cacheClass, int maxEntries)
+          throws Exception
+  {
+    List<String> lines = new ArrayList<>();
+    lines.add("dn: cn=" + name + " Benchmark,cn=Entry Caches,cn=config");
+    lines.add("objectClass: ds-cfg-" + type + "-entry-cache");
+    lines.add("objectClass: ds-cfg-entry-cache");
+    lines.add("objectClass: top");
+    lines.add("cn: " + name + " Benchmark");
+    lines.add("ds-cfg-cache-level: 1");
+    lines.add("ds-cfg-java-class: " + cacheClass.getName());
+    lines.add("ds-cfg-enabled: true");
+    if (maxEntries > 0)
+    {
+      lines.add("ds-cfg-max-entries: " + maxEntries);
+    }
+    return TestCaseUtils.makeEntry(lines.toArray(new String[lines.size()]));
+  }
+
+
+
+  private <T extends EntryCacheCfg> void runBenchmark(String name,
+      final EntryCache<T> benchmarkCache, T benchmarkConfiguration, final List<Entry> entries)
+          throws Exception
+  {
+    final int nbThreads = 8;
+    final int nbOperations = 200000;
+    final String backendID = DirectoryServer.getBackend(DN.valueOf("o=test")).getBackendID();
+
+    benchmarkCache.initializeEntryCache(benchmarkConfiguration);
+    try
+    {
+      final AtomicLong reads = new AtomicLong();
+      final AtomicLong hits = new AtomicLong();
+      final CountDownLatch start = new CountDownLatch(1);
+      final Thread[] threads = new Thread[nbThreads];
+      final Throwable[] errors = new Throwable[nbThreads];
+      for (int t = 0; t < nbThreads; t++)
+      {
+        final int threadID = t;
+        threads[t] = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              final Random random = new Random(threadID);
+              start.await();
+              for (int op = 0; op < nbOperations; op++)
+              {
+                // Favor the entries at the start of the list.
+                final int i = (int) (entries.size() * Math.pow(random.nextDouble(), 3));
+                final Entry entry = entries.get(i);
+                if (random.nextInt(10) == 0)
+                {
+                  // One operation out of ten modifies the entry.
+                  benchmarkCache.putEntry(entry, backendID, i);
+                }
+                else
+                {
+                  reads.incrementAndGet();
+                  if (benchmarkCache.getEntry(entry.getName()) != null)
+                  {
+                    hits.incrementAndGet();
+                  }
+                  else
+                  {
+                    benchmarkCache.putEntryIfAbsent(entry, backendID, i);
+                  }
+                }
+              }
+            }
+            catch (Throwable e)
+            {
+              errors[threadID] = e;
+            }
+          }
+        };
+        threads[t].start();
+      }
+
+      long startNanos = System.nanoTime();
+      start.countDown();
+      for (Thread thread : threads)
+      {
+        thread.join();
+      }
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      for (Throwable error : errors)
+      {
+        assertNull(error);
+      }
+
+      long totalOperations = (long) nbThreads * nbOperations;
+      Reporter.log(String.format("%s entry cache: %d ops/s, hit ratio %.1f%%",
+          name, totalOperations * 1000L / Math.max(1, elapsedMillis),
+          hits.get() * 100.0 / Math.max(1, reads.get())), true);
+    }
+    finally
+    {
+      benchmarkCache.clear();
+      benchmarkCache.finalizeEntryCache();
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.mockito.Mockito.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.server.AdminTestCaseUtils;
+import org.opends.server.admin.std.meta.ElasticWorkQueueCfgDefn;
+import org.opends.server.admin.std.meta.TraditionalWorkQueueCfgDefn;
+import org.opends.server.admin.std.server.ElasticWorkQueueCfg;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.admin.std.server.TraditionalWorkQueueCfg;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Operation;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the elastic work queue.
+ */
+@SuppressWarnings("javadoc")
+public class ElasticWorkQueueTestCase extends ExtensionsTestCase
+{
+  /** The work queue monitor of the server, replaced by the queues created here. */
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProvider("work queue");
+  }
+
+  @AfterClass
+  public void restoreServerMonitor()
+  {
+    DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+  }
+
+  /** Operations recording their concurrency and latency. */
+  private static final class TestOperations
+  {
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final long[] submitTimes;
+    private final long[] latencies;
+
+    private TestOperations(int count)
+    {
+      submitTimes = new long[count];
+      latencies = new long[count];
+    }
+
+    private void submit(WorkQueue<?> workQueue, Operation operation, int index) throws Exception
+    {
+      submitTimes[index] = System.nanoTime();
+      workQueue.submitOperation(operation);
+    }
+
+    private Operation newOperation(final int index, final long processingMillis)
+    {
+      final Operation operation = mock(Operation.class);
+      doAnswer(new Answer<Void>()
+      {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable
+        {
+          final int nowRunning = running.incrementAndGet();
+          int max;
+          while (nowRunning > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, nowRunning))
+          {
+            // Retry.
+          }
+          Thread.sleep(processingMillis);
+          running.decrementAndGet();
+          latencies[index] = System.nanoTime() - submitTimes[index];
+          completed.incrementAndGet();
+          return null;
+        }
+      }).when(operation).run();
+      return operation;
+    }
+
+    private long percentileMicros(double percentile)
+    {
+      final long[] sorted = latencies.clone();
+      Arrays.sort(sorted);
+      return TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.ceil(percentile * sorted.length) - 1]);
+    }
+  }
+
+  private ElasticWorkQueue newElasticWorkQueue(int maxConcurrentOperations, int maxCapacity) throws Exception
+  {
+    ElasticWorkQueueCfg configuration = AdminTestCaseUtils.getConfiguration(
+        ElasticWorkQueueCfgDefn.getInstance(), TestCaseUtils.makeEntry(
+            "dn: cn=Work Queue,cn=config",
+            "objectClass: top",
+            "objectClass: ds-cfg-work-queue",
+            "objectClass: ds-cfg-elastic-work-queue",
+            "cn: Work Queue",
+            "ds-cfg-java-class: org.opends.server.extensions.ElasticWorkQueue",
+            "ds-cfg-max-concurrent-operations: " + maxConcurrentOperations,
+            "ds-cfg-max-work-queue-capacity: " + maxCapacity));
+    ElasticWorkQueue workQueue = new ElasticWorkQueue();
+    workQueue.initializeWorkQueue(configuration);
+    return workQueue;
+  }
+
+  private TraditionalWorkQueue newTraditionalWorkQueue(int numWorkerThreads, int maxCapacity) throws Exception
+  {
+    TraditionalWorkQueueCfg configuration = AdminTestCaseUtils.getConfiguration(
+        TraditionalWorkQueueCfgDefn.getInstance(), TestCaseUtils.makeEntry(
+            "dn: cn=Work Queue,cn=config",
+            "objectClass: top",
+            "objectClass: ds-cfg-work-queue",
+            "objectClass: ds-cfg-traditional-work-queue",
+            "cn: Work Queue",
+            "ds-cfg-java-class: org.opends.server.extensions.TraditionalWorkQueue",
+            "ds-cfg-num-worker-threads: " + numWorkerThreads,
+            "ds-cfg-max-work-queue-capacity: " + maxCapacity));
+    TraditionalWorkQueue workQueue = new TraditionalWorkQueue();
+    workQueue.initializeWorkQueue(configuration);
+    return workQueue;
+  }
+
+  @Test
+  public void testConcurrencyIsLimited() throws Exception
+  {
+    ElasticWorkQueue workQueue = newElasticWorkQueue(4, 1000);
+    try
+    {
+      TestOperations operations = new TestOperations(200);
+      for (int i = 0; i < 200; i++)
+      {
+        operations.submit(workQueue, operations.newOperation(i, 1), i);
+      }
+
+      assertTrue(workQueue.waitUntilIdle(30000));
+      assertEquals(operations.completed.get(), 200);
+      assertTrue(operations.maxRunning.get() <= 4, "max running " + operations.maxRunning.get());
+      assertEquals(workQueue.getOpsSubmitted(), 200);
+      assertEquals(workQueue.size(), 0);
+      assertTrue(workQueue.getNumLiveThreads() <= 4 + 1);
+    }
+    finally
+    {
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  @Test
+  public void testTrySubmitWhenQueueIsFull() throws Exception
+  {
+    ElasticWorkQueue workQueue = newElasticWorkQueue(1, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try
+    {
+      Operation blocking = mock(Operation.class);
+      doAnswer(new Answer<Void>()
+      {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable
+        {
+          release.await();
+          return null;
+        }
+      }).when(blocking).run();
+
+      assertTrue(workQueue.trySubmitOperation(blocking));
+      assertTrue(workQueue.trySubmitOperation(mock(Operation.class)));
+      assertFalse(workQueue.trySubmitOperation(mock(Operation.class)));
+      assertEquals(workQueue.getOpsRejectedDueToQueueFull(), 1);
+      assertFalse(workQueue.isIdle());
+
+      release.countDown();
+      assertTrue(workQueue.waitUntilIdle(10000));
+      assertEquals(workQueue.getOpsSubmitted(), 2);
+    }
+    finally
+    {
+      release.countDown();
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  /**
+   * Compares the throughput and the 99th percentile latency of the elastic and
+   * traditional work queues for operations blocking for a couple of
+   * milliseconds, as they would when waiting for storage reads.
+   */
+  @Test(groups = { "slow" })
+  public void testLoadBenchmark() throws Exception
+  {
+    final int concurrency = 256;
+    final int nbOperations = 50000;
+
+    runBenchmark("traditional", newTraditionalWorkQueue(concurrency, 1000), nbOperations);
+    runBenchmark("elastic", newElasticWorkQueue(concurrency, 1000), nbOperations);
+  }
+
+  private void runBenchmark(String name, WorkQueue<?> workQueue, int nbOperations) throws Exception
+  {
+    try
+    {
+      TestOperations operations = new TestOperations(nbOperations);
+      Operation[] toSubmit = new Operation[nbOperations];
+      for (int i = 0; i < nbOperations; i++)
+      {
+        toSubmit[i] = operations.newOperation(i, 2);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < nbOperations; i++)
+      {
+        operations.submit(workQueue, toSubmit[i], i);
+      }
+      assertTrue(workQueue.waitUntilIdle(300000));
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertEquals(operations.completed.get(), nbOperations);
+
+      Reporter.log(String.format("%s work queue: %d ops/s, p99 latency %d us, p50 latency %d us",
+          name, nbOperations * 1000L / Math.max(1, elapsedMillis),
+          operations.percentileMicros(0.99), operations.percentileMicros(0.5)), true);
+    }
+    finally
+    {
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.mockito.Mockito.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ResultCode;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.server.AdminTestCaseUtils;
+import org.opends.server.admin.std.meta.FairWorkQueueCfgDefn;
+import org.opends.server.admin.std.server.FairWorkQueueCfg;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Operation;
+import org.opends.server.types.OperationType;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the fair work queue.
+ */
+@SuppressWarnings("javadoc")
+public class FairWorkQueueTestCase extends ExtensionsTestCase
+{
+  /** The work queue monitor of the server, replaced by the queues created here. */
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+
+  /** The names of the operations which have been processed, in processing order. */
+  private final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+
+  /** Holds up the operations created with {@link #newBlockingOperation}. */
+  private CountDownLatch release;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProvider("work queue");
+  }
+
+  @AfterClass
+  public void restoreServerMonitor()
+  {
+    DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+  }
+
+  private FairWorkQueue newFairWorkQueue(int numWorkerThreads, int numReservedWorkerThreads,
+      int maxClientCapacity) throws Exception
+  {
+    FairWorkQueueCfg configuration = AdminTestCaseUtils.getConfiguration(
+        FairWorkQueueCfgDefn.getInstance(), TestCaseUtils.makeEntry(
+            "dn: cn=Work Queue,cn=config",
+            "objectClass: top",
+            "objectClass: ds-cfg-work-queue",
+            "objectClass: ds-cfg-fair-work-queue",
+            "cn: Work Queue",
+            "ds-cfg-java-class: org.opends.server.extensions.FairWorkQueue",
+            "ds-cfg-num-worker-threads: " + numWorkerThreads,
+            "ds-cfg-num-reserved-worker-threads: " + numReservedWorkerThreads,
+            "ds-cfg-max-work-queue-capacity: 1000",
+            "ds-cfg-max-client-queue-capacity: " + maxClientCapacity));
+    processed.clear();
+    release = new CountDownLatch(1);
+    FairWorkQueue workQueue = new FairWorkQueue();
+    workQueue.initializeWorkQueue(configuration);
+    return workQueue;
+  }
+
+  private Operation newMock(OperationType type)
+  {
+    // Search operations are classified according to their scope.
+    return mock(type == OperationType.SEARCH ? SearchOperation.class : Operation.class);
+  }
+
+  private Operation newOperation(final String name, OperationType type, long connectionID)
+  {
+    final Operation operation = newMock(type);
+    when(operation.getOperationType()).thenReturn(type);
+    when(operation.getConnectionID()).thenReturn(connectionID);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        processed.add(name);
+        return null;
+      }
+    }).when(operation).run();
+    return operation;
+  }
+
+  private Operation newBlockingOperation(OperationType type, long connectionID)
+  {
+    final Operation operation = newMock(type);
+    when(operation.getOperationType()).thenReturn(type);
+    when(operation.getConnectionID()).thenReturn(connectionID);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        release.await();
+        return null;
+      }
+    }).when(operation).run();
+    return operation;
+  }
+
+  @Test
+  public void testClientsAreServedInTurn() throws Exception
+  {
+    FairWorkQueue workQueue = newFairWorkQueue(1, 0, 100);
+    try
+    {
+      workQueue.submitOperation(newBlockingOperation(OperationType.MODIFY, 0));
+      waitUntilSize(workQueue, 0);
+      for (int i = 1; i <= 4; i++)
+      {
+        workQueue.submitOperation(newOperation("a" + i, OperationType.MODIFY, 1));
+      }
+      workQueue.submitOperation(newOperation("b1", OperationType.MODIFY, 2));
+      workQueue.submitOperation(newOperation("b2", OperationType.MODIFY, 2));
+      assertEquals(workQueue.getNumActiveLanes(), 2);
+
+      release.countDown();
+      assertTrue(workQueue.waitUntilIdle(10000));
+      assertEquals(processed, Arrays.asList("a1", "b1", "a2", "b2", "a3", "a4"));
+    }
+    finally
+    {
+      release.countDown();
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  @Test
+  public void testCheapOperationsAreFavored() throws Exception
+  {
+    FairWorkQueue workQueue = newFairWorkQueue(1, 0, 100);
+    try
+    {
+      workQueue.submitOperation(newBlockingOperation(OperationType.SEARCH, 0));
+      waitUntilSize(workQueue, 0);
+      for (int i = 1; i <= 3; i++)
+      {
+        workQueue.submitOperation(newOperation("modify" + i, OperationType.MODIFY, 1));
+      }
+      for (int i = 1; i <= 6; i++)
+      {
+        workQueue.submitOperation(newOperation("bind" + i, OperationType.BIND, 2));
+      }
+      assertEquals(workQueue.getCheapOperationsBacklog(), 6);
+
+      release.countDown();
+      assertTrue(workQueue.waitUntilIdle(10000));
+      assertEquals(processed, Arrays.asList("bind1", "bind2", "bind3", "bind4", "modify1",
+          "bind5", "bind6", "modify2", "modify3"));
+    }
+    finally
+    {
+      release.countDown();
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  @Test
+  public void testReservedThreadsProcessCheapOperations() throws Exception
+  {
+    FairWorkQueue workQueue = newFairWorkQueue(3, 1, 100);
+    try
+    {
+      for (int i = 0; i < 10; i++)
+      {
+        workQueue.submitOperation(newBlockingOperation(OperationType.SEARCH, 1));
+      }
+      // The expensive operations hold up the non reserved worker threads.
+      waitUntilSize(workQueue, 8);
+      workQueue.submitOperation(newOperation("compare", OperationType.COMPARE, 2));
+      workQueue.submitOperation(newOperation("bind", OperationType.BIND, 3));
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (processed.size() < 2 && System.nanoTime() < deadline)
+      {
+        Thread.sleep(10);
+      }
+      assertEquals(processed, Arrays.asList("compare", "bind"));
+      assertEquals(workQueue.size(), 8);
+    }
+    finally
+    {
+      release.countDown();
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  @Test
+  public void testClientQueueCapacity() throws Exception
+  {
+    FairWorkQueue workQueue = newFairWorkQueue(1, 0, 2);
+    try
+    {
+      workQueue.submitOperation(newBlockingOperation(OperationType.SEARCH, 0));
+      waitUntilSize(workQueue, 0);
+
+      assertTrue(workQueue.trySubmitOperation(newOperation("a1", OperationType.SEARCH, 1)));
+      assertTrue(workQueue.trySubmitOperation(newOperation("a2", OperationType.SEARCH, 1)));
+      assertFalse(workQueue.trySubmitOperation(newOperation("a3", OperationType.SEARCH, 1)));
+      try
+      {
+        workQueue.submitOperation(newOperation("a4", OperationType.SEARCH, 1));
+        fail("The lane of the client should be full");
+      }
+      catch (DirectoryException e)
+      {
+        assertEquals(e.getResultCode(), ResultCode.BUSY);
+      }
+
+      // Other clients and other operation types have lanes of their own.
+      assertTrue(workQueue.trySubmitOperation(newOperation("a5", OperationType.BIND, 1)));
+      assertTrue(workQueue.trySubmitOperation(newOperation("b1", OperationType.SEARCH, 2)));
+      assertEquals(workQueue.getOpsRejectedDueToClientQueueFull(), 2);
+      assertEquals(workQueue.getOpsSubmitted(), 5);
+    }
+    finally
+    {
+      release.countDown();
+      workQueue.finalizeWorkQueue(INFO_CANCELED_BY_SHUTDOWN.get());
+    }
+  }
+
+  private void waitUntilSize(FairWorkQueue workQueue, int size) throws InterruptedException
+  {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (workQueue.size() != size && System.nanoTime() < deadline)
+    {
+      Thread.sleep(10);
+    }
+    assertEquals(workQueue.size(), size);
+  }
+}
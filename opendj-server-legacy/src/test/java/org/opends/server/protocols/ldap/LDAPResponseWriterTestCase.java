@@ -0,0 +1,248 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link LDAPResponseWriter} class.
+ */
+@SuppressWarnings("javadoc")
+public class LDAPResponseWriterTestCase extends LdapTestCase
+{
+  /** A channel recording the bytes written and the number of writes. */
+  private static final class RecordingChannel implements WritableByteChannel
+  {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private int writes;
+
+    @Override
+    public synchronized int write(ByteBuffer src)
+    {
+      // Simulate partial writes
+      final byte[] chunk = new byte[Math.min(src.remaining(), 7000)];
+      src.get(chunk);
+      bytes.write(chunk, 0, chunk.length);
+      writes++;
+      return chunk.length;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing to do.
+    }
+
+    synchronized ByteString getBytes()
+    {
+      return ByteString.wrap(bytes.toByteArray());
+    }
+  }
+
+  @Test
+  public void testLargeMessage() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel);
+
+    final byte[] message = new byte[3 * LDAPResponseWriter.WRITE_BUFFER_SIZE + 17];
+    new Random(0).nextBytes(message);
+    writer.write(new ByteStringBuilder().appendBytes(message), false);
+    writer.write(ByteString.valueOfUtf8("small"), true);
+
+    final ByteStringBuilder expected = new ByteStringBuilder().appendBytes(message).appendUtf8("small");
+    assertThat(channel.getBytes()).isEqualTo(expected.toByteString());
+  }
+
+  @Test
+  public void testDeferredMessagesAreBatched() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel);
+
+    writer.write(ByteString.valueOfUtf8("entry1"), false);
+    writer.write(ByteString.valueOfUtf8("entry2"), false);
+    writer.write(ByteString.valueOfUtf8("done"), true);
+
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry1entry2done"));
+  }
+
+  @Test
+  public void testDeferredMessageIsWrittenByNextMessageAfterDelay() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel);
+
+    writer.write(ByteString.valueOfUtf8("entry1"), false);
+    Thread.sleep(LDAPResponseWriter.MAX_BATCH_DELAY_MILLIS + 1);
+    writer.write(ByteString.valueOfUtf8("entry2"), false);
+
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry1entry2"));
+  }
+
+  @Test
+  public void testFlushDeferred() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel);
+
+    writer.write(ByteString.valueOfUtf8("entry"), false);
+    assertThat(channel.getBytes().length()).isEqualTo(0);
+
+    writer.flushDeferred();
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry"));
+
+    writer.flushDeferred();
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry"));
+  }
+
+  @Test
+  public void testDeferredFlushIsScheduledOncePerBatch() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final AtomicInteger schedules = new AtomicInteger();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        schedules.incrementAndGet();
+      }
+    });
+
+    writer.write(ByteString.valueOfUtf8("entry1"), false);
+    writer.write(ByteString.valueOfUtf8("entry2"), false);
+    assertThat(schedules.get()).isEqualTo(1);
+
+    Thread.sleep(LDAPResponseWriter.MAX_BATCH_DELAY_MILLIS + 1);
+    assertThat(writer.flushDeferredIfDue()).isFalse();
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry1entry2"));
+
+    writer.write(ByteString.valueOfUtf8("entry3"), false);
+    assertThat(schedules.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testDeferredFlushWaitsForTheBatchDelay() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        // The test calls flushDeferredIfDue() itself.
+      }
+    });
+
+    assertThat(writer.flushDeferredIfDue()).isFalse();
+    writer.write(ByteString.valueOfUtf8("entry"), false);
+    // The message stays deferred until the batch delay has elapsed
+    while (writer.flushDeferredIfDue())
+    {
+      assertThat(channel.getBytes().length()).isEqualTo(0);
+      Thread.sleep(1);
+    }
+    assertThat(channel.getBytes()).isEqualTo(ByteString.valueOfUtf8("entry"));
+  }
+
+  @Test
+  public void testConcurrentWritersKeepPerThreadOrder() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final LDAPResponseWriter writer = new LDAPResponseWriter(channel);
+    final int nbThreads = 8;
+    final int nbMessages = 5000;
+
+    final Thread[] threads = new Thread[nbThreads];
+    final Throwable[] errors = new Throwable[nbThreads];
+    for (int i = 0; i < nbThreads; i++)
+    {
+      final int threadID = i;
+      threads[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            final Random random = new Random(threadID);
+            for (int seq = 0; seq < nbMessages; seq++)
+            {
+              final int length = 12 + random.nextInt(300);
+              final ByteStringBuilder message = new ByteStringBuilder(length);
+              message.appendInt(length).appendInt(threadID).appendInt(seq);
+              message.appendBytes(new byte[length - 12]);
+              writer.write(message, seq % 100 == 99);
+            }
+          }
+          catch (Throwable t)
+          {
+            errors[threadID] = t;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    assertThat(errors).containsOnly((Throwable) null);
+    writer.flush();
+
+    // Every message must have been written once, in order for each thread
+    final ByteBuffer written = ByteBuffer.wrap(channel.getBytes().toByteArray());
+    final int[] nextSeq = new int[nbThreads];
+    int count = 0;
+    while (written.hasRemaining())
+    {
+      final int start = written.position();
+      final int length = written.getInt();
+      final int threadID = written.getInt();
+      assertThat(written.getInt()).isEqualTo(nextSeq[threadID]++);
+      written.position(start + length);
+      count++;
+    }
+    assertThat(count).isEqualTo(nbThreads * nbMessages);
+    assertThat(channel.writes).isLessThanOrEqualTo(count);
+  }
+}
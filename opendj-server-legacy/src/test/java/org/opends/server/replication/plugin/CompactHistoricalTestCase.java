@@ -0,0 +1,151 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.testng.annotations.Test;
+
+/** Test the compact encoding of the historical information. */
+@SuppressWarnings("javadoc")
+public class CompactHistoricalTestCase extends ReplicationTestCase
+{
+  private static final String ADD_CSN = "0000014f2d0c9f50000100000000";
+  private static final String NEWEST_CSN_1 = "0000014f2d0c9f57000100000003";
+  private static final String OLDEST_CSN_2 = "0000014f2d0c9f55000200000001";
+  private static final String NEWEST_CSN_2 = "0000014f2d0c9f56000200000002";
+
+  private Entry newEntryWithLegacyHistorical() throws Exception
+  {
+    return TestCaseUtils.makeEntry(
+        "dn: cn=test,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: test",
+        "sn: test",
+        "description: first",
+        "description: second",
+        "ds-sync-hist: dn:" + ADD_CSN + ":add",
+        "ds-sync-hist: description:0000014f2d0c9f53000100000001:add:first",
+        "ds-sync-hist: description:0000014f2d0c9f54000100000002:add:second",
+        "ds-sync-hist: description;lang-fr:" + OLDEST_CSN_2 + ":del:deleted",
+        "ds-sync-hist: sn:" + NEWEST_CSN_2 + ":repl:test",
+        "ds-sync-hist: telephonenumber:" + NEWEST_CSN_1 + ":attrDel");
+  }
+
+  @Test
+  public void testMigrationFromLegacyForm() throws Exception
+  {
+    final Entry entry = newEntryWithLegacyHistorical();
+    final Attribute legacy = EntryHistorical.newInstanceFromEntry(entry).encodeAndPurge();
+    final Attribute compact = EntryHistorical.newInstanceFromEntry(entry).encodeCompactAndPurge();
+
+    final Entry compactEntry = entry.duplicate(false);
+    compactEntry.replaceAttribute(compact);
+
+    // Re-encoding without decoding the attributes must not change anything
+    final EntryHistorical hist = EntryHistorical.newInstanceFromEntry(compactEntry);
+    assertThat(hist.getOldestCSN()).isEqualTo(new CSN(ADD_CSN));
+    assertThat(hist.encodeCompactAndPurge()).isEqualTo(compact);
+
+    // Decoding the compact form must give back the same historical information
+    assertThat(EntryHistorical.newInstanceFromEntry(compactEntry).encodeAndPurge()).isEqualTo(legacy);
+    assertThat(EntryHistorical.generateFakeOperations(compactEntry))
+        .hasSameSizeAs(EntryHistorical.generateFakeOperations(entry));
+  }
+
+  @Test
+  public void testOrderingIndexSeesOldestAndNewestCSNs() throws Exception
+  {
+    final Attribute compact = EntryHistorical.newInstanceFromEntry(newEntryWithLegacyHistorical())
+        .encodeCompactAndPurge();
+
+    final Set<CSN> csns = new HashSet<>();
+    for (ByteString value : compact)
+    {
+      assertThat(CompactHistorical.isCompact(value)).isTrue();
+      csns.add(CompactHistorical.getCSN(value));
+    }
+    assertThat(csns).containsOnly(new CSN(ADD_CSN), new CSN(NEWEST_CSN_1), new CSN(OLDEST_CSN_2),
+        new CSN(NEWEST_CSN_2));
+  }
+
+  @Test
+  public void testGetCSNOfMalformedValues() throws Exception
+  {
+    assertThat(CompactHistorical.getCSN(ByteString.valueOfUtf8("sn:" + NEWEST_CSN_2 + ":repl:test")))
+        .isEqualTo(new CSN(NEWEST_CSN_2));
+    assertThat(CompactHistorical.getCSN(ByteString.empty())).isNull();
+    assertThat(CompactHistorical.getCSN(ByteString.valueOfUtf8("no colon"))).isNull();
+    assertThat(CompactHistorical.getCSN(ByteString.valueOfUtf8("#csn:0000014f2d0c"))).isNull();
+    assertThat(CompactHistorical.getCSN(ByteString.valueOfUtf8("#csn:not an hexadecimal csn value!"))).isNull();
+  }
+
+  @Test
+  public void testModificationKeyCodesAreStable() throws Exception
+  {
+    // These codes are stored in the entries: they must never change
+    assertThat(HistAttrModificationKey.DEL.getCode()).isEqualTo((byte) 0);
+    assertThat(HistAttrModificationKey.ATTRDEL.getCode()).isEqualTo((byte) 1);
+    assertThat(HistAttrModificationKey.REPL.getCode()).isEqualTo((byte) 2);
+    assertThat(HistAttrModificationKey.ADD.getCode()).isEqualTo((byte) 3);
+    for (HistAttrModificationKey key : HistAttrModificationKey.values())
+    {
+      assertThat(HistAttrModificationKey.decodeCode(key.getCode())).isSameAs(key);
+    }
+    assertThat(HistAttrModificationKey.decodeCode((byte) 42)).isNull();
+  }
+
+  @Test
+  public void testLegacyFormIsWrittenByDefault() throws Exception
+  {
+    final EntryHistorical hist = EntryHistorical.newInstanceFromEntry(newEntryWithLegacyHistorical());
+    assertThat(hist.encodeStoredFormAndPurge()).isEqualTo(hist.encodeAndPurge());
+    hist.setCompactForm(true);
+    assertThat(hist.encodeStoredFormAndPurge()).isEqualTo(hist.encodeCompactAndPurge());
+  }
+
+  @Test
+  public void testEmptyHistorical() throws Exception
+  {
+    final Entry entry = TestCaseUtils.makeEntry(
+        "dn: cn=test,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: test",
+        "sn: test");
+    assertThat(EntryHistorical.newInstanceFromEntry(entry).encodeCompactAndPurge().isEmpty()).isTrue();
+  }
+}
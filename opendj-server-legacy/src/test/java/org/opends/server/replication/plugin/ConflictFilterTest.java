@@ -0,0 +1,104 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ModificationType;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Modification;
+import org.opends.server.util.TimeThread;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ConflictFilterTest extends ReplicationTestCase
+{
+  private static final long WINDOW = 60000;
+  private static final String UUID = "1ba3c5c8-7f58-4f5a-9a3b-7a6d3c3b3f10";
+  private static final String OTHER_UUID = "2ba3c5c8-7f58-4f5a-9a3b-7a6d3c3b3f10";
+
+  private static List<Modification> replace(String attrName)
+  {
+    return Arrays.asList(new Modification(ModificationType.REPLACE, Attributes.create(attrName, "value")));
+  }
+
+  private static CSN newCSN(int serverId)
+  {
+    return new CSN(TimeThread.getTime(), 0, serverId);
+  }
+
+  private static ConflictFilter newCompleteFilter()
+  {
+    final ConflictFilter filter = new ConflictFilter(1000, WINDOW);
+    filter.setRecordingSince(TimeThread.getTime() - 2 * WINDOW - 1);
+    return filter;
+  }
+
+  @Test
+  public void testNewFilterReportsConflicts() throws Exception
+  {
+    final ConflictFilter filter = new ConflictFilter(1000, WINDOW);
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("cn"))).isTrue();
+  }
+
+  @Test
+  public void testConcurrentChangesFromOtherServers() throws Exception
+  {
+    final ConflictFilter filter = newCompleteFilter();
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("cn"))).isFalse();
+
+    filter.recordModify(UUID, newCSN(1), replace("cn"));
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("cn"))).isTrue();
+    // changes from the same server are never concurrent
+    assertThat(filter.mayConflict(UUID, newCSN(1), replace("cn"))).isFalse();
+    // other attributes and other entries are not impacted
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("sn"))).isFalse();
+    assertThat(filter.mayConflict(OTHER_UUID, newCSN(2), replace("cn"))).isFalse();
+  }
+
+  @Test
+  public void testEntryChangeConflictsWithAllAttributes() throws Exception
+  {
+    final ConflictFilter filter = newCompleteFilter();
+    filter.recordEntryChange(UUID, newCSN(1));
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("cn"))).isTrue();
+    assertThat(filter.mayConflict(UUID, newCSN(2), replace("description"))).isTrue();
+    assertThat(filter.mayConflict(OTHER_UUID, newCSN(2), replace("cn"))).isFalse();
+  }
+
+  @Test
+  public void testLateChangesReportConflicts() throws Exception
+  {
+    final ConflictFilter filter = newCompleteFilter();
+    final CSN lateCSN = new CSN(TimeThread.getTime() - 2 * WINDOW, 0, 2);
+    assertThat(filter.mayConflict(UUID, lateCSN, replace("cn"))).isTrue();
+  }
+}
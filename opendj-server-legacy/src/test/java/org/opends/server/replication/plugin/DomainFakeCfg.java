@@ -295,6 +295,30 @@ public class DomainFakeCfg implements ReplicationDomainCfg
     return 100;
   }
 
+  @Override
+  public boolean isBinaryInitializationEnabled()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isCompactHistoricalEnabled()
+  {
+    return false;
+  }
+
+  @Override
+  public int getConflictFilterSize()
+  {
+    return 0;
+  }
+
+  @Override
+  public long getConflictFilterWindow()
+  {
+    return 3600;
+  }
+
   /**
    * Gets the ECL Domain if it is present.
    *
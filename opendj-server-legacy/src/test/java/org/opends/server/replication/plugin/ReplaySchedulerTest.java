@@ -0,0 +1,201 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSNGenerator;
+import org.opends.server.replication.protocol.AddMsg;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.opends.server.replication.protocol.ModifyMsg;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.DN;
+import org.opends.server.types.Modification;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ReplaySchedulerTest extends ReplicationTestCase
+{
+  private static final String SUFFIX = "dc=example,dc=com";
+
+  private CSNGenerator csnGen;
+  private ReplayScheduler scheduler;
+
+  @BeforeMethod
+  public void localSetUp()
+  {
+    csnGen = new CSNGenerator(1, 0);
+    scheduler = new ReplayScheduler();
+  }
+
+  private AddMsg add(String rdns) throws Exception
+  {
+    return new AddMsg(csnGen.newCSN(), dn(rdns), "uuid", "parentUUID",
+        Attributes.create("objectClass", "top"),
+        Collections.<Attribute> emptyList(), Collections.<Attribute> emptyList());
+  }
+
+  private ModifyMsg modify(String rdns) throws Exception
+  {
+    return new ModifyMsg(csnGen.newCSN(), dn(rdns), Collections.<Modification> emptyList(), "uuid");
+  }
+
+  private DeleteMsg delete(String rdns) throws Exception
+  {
+    return new DeleteMsg(dn(rdns), csnGen.newCSN(), "uuid");
+  }
+
+  private ModifyDNMsg rename(String rdns, String newRDN, String newSuperiorRDNs) throws Exception
+  {
+    return new ModifyDNMsg(dn(rdns), csnGen.newCSN(), "uuid", "newParentUUID", true,
+        dn(newSuperiorRDNs).toString(), newRDN);
+  }
+
+  private DN dn(String rdns) throws Exception
+  {
+    return DN.valueOf(rdns.isEmpty() ? SUFFIX : rdns + "," + SUFFIX);
+  }
+
+  private void assertReleased(LDAPUpdateMsg done, LDAPUpdateMsg... expected)
+  {
+    assertThat(scheduler.updateDone(done.getCSN())).containsExactly(expected);
+  }
+
+  @Test
+  public void testIndependentUpdatesAreReady() throws Exception
+  {
+    assertThat(scheduler.add(add("uid=user.1,ou=people"))).isTrue();
+    assertThat(scheduler.add(add("uid=user.2,ou=people"))).isTrue();
+    assertThat(scheduler.add(modify("uid=user.3,ou=people"))).isTrue();
+    assertThat(scheduler.add(delete("uid=user.4,ou=people"))).isTrue();
+    assertThat(scheduler.getNumberOfBlockedUpdates()).isEqualTo(0);
+  }
+
+  @Test
+  public void testChildWaitsForParent() throws Exception
+  {
+    AddMsg parent = add("ou=people");
+    AddMsg child = add("uid=user.1,ou=people");
+    AddMsg grandChild = add("cn=device,uid=user.1,ou=people");
+    assertThat(scheduler.add(parent)).isTrue();
+    assertThat(scheduler.add(child)).isFalse();
+    assertThat(scheduler.add(grandChild)).isFalse();
+    assertThat(scheduler.getNumberOfBlockedUpdates()).isEqualTo(2);
+
+    // The grand child depends on both its pending ancestors.
+    assertReleased(parent, child);
+    assertReleased(child, grandChild);
+    assertReleased(grandChild);
+    assertThat(scheduler.getNumberOfBlockedUpdates()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSameEntryUpdatesAreSerialized() throws Exception
+  {
+    ModifyMsg mod1 = modify("uid=user.1,ou=people");
+    ModifyMsg mod2 = modify("uid=user.1,ou=people");
+    DeleteMsg del = delete("uid=user.1,ou=people");
+    assertThat(scheduler.add(mod1)).isTrue();
+    assertThat(scheduler.add(mod2)).isFalse();
+    assertThat(scheduler.add(del)).isFalse();
+
+    assertReleased(mod1, mod2);
+    assertReleased(mod2, del);
+    assertReleased(del);
+  }
+
+  @Test
+  public void testModifyOfParentDoesNotBlockChildren() throws Exception
+  {
+    ModifyMsg parentMod = modify("ou=people");
+    assertThat(scheduler.add(parentMod)).isTrue();
+    assertThat(scheduler.add(add("uid=user.1,ou=people"))).isTrue();
+    assertReleased(parentMod);
+  }
+
+  @Test
+  public void testDeleteWaitsForDescendants() throws Exception
+  {
+    AddMsg child = add("uid=user.1,ou=people");
+    ModifyMsg grandChildMod = modify("cn=device,uid=user.2,ou=people");
+    ModifyMsg siblingMod = modify("uid=user.1,ou=peoplex");
+    DeleteMsg del = delete("ou=people");
+    assertThat(scheduler.add(child)).isTrue();
+    assertThat(scheduler.add(grandChildMod)).isTrue();
+    assertThat(scheduler.add(siblingMod)).isTrue();
+    assertThat(scheduler.add(del)).isFalse();
+
+    assertReleased(siblingMod);
+    assertReleased(child);
+    assertReleased(grandChildMod, del);
+  }
+
+  @Test
+  public void testModifyDNDependencies() throws Exception
+  {
+    DeleteMsg delTarget = delete("uid=new,ou=people");
+    AddMsg newParent = add("ou=people");
+    ModifyDNMsg modDN = rename("uid=old,ou=groups", "uid=new", "ou=people");
+    ModifyMsg modOld = modify("uid=old,ou=groups");
+    ModifyMsg modNew = modify("uid=new,ou=people");
+    AddMsg childOfNew = add("cn=child,uid=new,ou=people");
+    assertThat(scheduler.add(delTarget)).isTrue();
+    assertThat(scheduler.add(newParent)).isTrue();
+    assertThat(scheduler.add(modDN)).isFalse();
+    assertThat(scheduler.add(modOld)).isFalse();
+    assertThat(scheduler.add(modNew)).isFalse();
+    assertThat(scheduler.add(childOfNew)).isFalse();
+
+    assertReleased(delTarget);
+    assertReleased(newParent, modDN);
+    assertReleased(modDN, modOld, modNew, childOfNew);
+    assertReleased(modOld);
+    assertReleased(modNew);
+  }
+
+  @Test
+  public void testAwaitBlockedUpdates() throws Exception
+  {
+    AddMsg parent = add("ou=people");
+    ModifyMsg mod1 = modify("ou=people");
+    ModifyMsg mod2 = modify("ou=people");
+    assertThat(scheduler.add(parent)).isTrue();
+    assertThat(scheduler.add(mod1)).isFalse();
+    assertThat(scheduler.add(mod2)).isFalse();
+    assertThat(scheduler.awaitBlockedUpdates(2, 0, TimeUnit.SECONDS)).isTrue();
+    assertThat(scheduler.awaitBlockedUpdates(1, 10, TimeUnit.MILLISECONDS)).isFalse();
+
+    assertReleased(parent, mod1);
+    assertThat(scheduler.awaitBlockedUpdates(1, 0, TimeUnit.SECONDS)).isTrue();
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Test for the {@link MessageFrames} encoding.
+ */
+@SuppressWarnings("javadoc")
+public class MessageFramesTest extends DirectoryServerTestCase
+{
+  @Test
+  public void testHeader()
+  {
+    final byte[] header = MessageFrames.header(0x1234);
+    assertThat(header).hasSize(8);
+    assertThat(header[0]).isEqualTo(MessageFrames.FRAME_MARKER);
+    assertThat(MessageFrames.bodyLength(header)).isEqualTo(0x1234);
+  }
+
+  @Test
+  public void testEncodeDecodeUncompressed() throws Exception
+  {
+    final List<byte[]> messages = newMessages(new Random(0), 10, 100);
+    final FrameStatistics statistics = new FrameStatistics();
+
+    final byte[] body = MessageFrames.encode(messages, null, statistics);
+    assertThat(decode(body, statistics)).containsExactly(messages.toArray());
+
+    assertThat(statistics.getFramesSent()).isEqualTo(1);
+    assertThat(statistics.getMessagesSentInFrames()).isEqualTo(10);
+    assertThat(statistics.getAverageSentFrameSize()).isEqualTo(body.length);
+    assertThat(statistics.getFramesReceived()).isEqualTo(1);
+    assertThat(statistics.getMessagesReceivedInFrames()).isEqualTo(10);
+    // Each message has a 4 bytes length instead of a 8 bytes header, the frame adds a header and a flags byte
+    assertThat(statistics.getBytesSavedOnSend()).isEqualTo(10 * 4 - 8 - 1);
+    assertThat(statistics.getBytesSavedOnReceive()).isEqualTo(statistics.getBytesSavedOnSend());
+  }
+
+  @Test
+  public void testEncodeDecodeCompressed() throws Exception
+  {
+    final List<byte[]> messages = new ArrayList<>();
+    for (int i = 0; i < 50; i++)
+    {
+      final byte[] message = new byte[200];
+      Arrays.fill(message, (byte) i);
+      messages.add(message);
+    }
+    final FrameStatistics statistics = new FrameStatistics();
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try
+    {
+      final byte[] body = MessageFrames.encode(messages, deflater, statistics);
+      assertThat(body.length).isLessThan(50 * 200);
+      assertThat(decode(body, statistics)).containsExactly(messages.toArray());
+      assertThat(statistics.getBytesSavedOnSend()).isGreaterThan(50 * 200 / 2);
+    }
+    finally
+    {
+      deflater.end();
+    }
+  }
+
+  @Test
+  public void testIncompressibleMessagesAreSentUncompressed() throws Exception
+  {
+    final List<byte[]> messages = newMessages(new Random(0), 20, 1000);
+    final FrameStatistics statistics = new FrameStatistics();
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try
+    {
+      final byte[] body = MessageFrames.encode(messages, deflater, statistics);
+      assertThat(body[0]).isEqualTo((byte) 0);
+      assertThat(decode(body, statistics)).containsExactly(messages.toArray());
+    }
+    finally
+    {
+      deflater.end();
+    }
+  }
+
+  @Test(expectedExceptions = DataFormatException.class)
+  public void testDecodeTruncatedFrame() throws Exception
+  {
+    final FrameStatistics statistics = new FrameStatistics();
+    final byte[] body = MessageFrames.encode(newMessages(new Random(0), 3, 10), null, statistics);
+    decode(Arrays.copyOf(body, body.length - 1), statistics);
+  }
+
+  @Test(expectedExceptions = DataFormatException.class)
+  public void testDecodeEmptyFrame() throws Exception
+  {
+    decode(new byte[0], new FrameStatistics());
+  }
+
+  private static List<byte[]> newMessages(Random random, int count, int size)
+  {
+    final List<byte[]> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+    {
+      final byte[] message = new byte[size];
+      random.nextBytes(message);
+      messages.add(message);
+    }
+    return messages;
+  }
+
+  private static List<byte[]> decode(byte[] body, FrameStatistics statistics) throws DataFormatException
+  {
+    final ArrayDeque<byte[]> messages = new ArrayDeque<>();
+    final Inflater inflater = new Inflater();
+    try
+    {
+      MessageFrames.decode(body, inflater, messages, statistics);
+    }
+    finally
+    {
+      inflater.end();
+    }
+    return new ArrayList<>(messages);
+  }
+}
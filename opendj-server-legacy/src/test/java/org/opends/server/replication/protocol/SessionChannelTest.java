@@ -0,0 +1,195 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+package org.opends.server.replication.protocol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.util.StaticUtils.*;
+
+/**
+ * Test for the sessions based on a {@link SessionChannel}.
+ */
+@SuppressWarnings("javadoc")
+public class SessionChannelTest extends ReplicationTestCase
+{
+  private static final int TIMEOUT_MS = 10000;
+
+  private ServerSocketChannel listenChannel;
+  private ExecutorService executor;
+
+  @BeforeClass
+  public void openListenChannel() throws Exception
+  {
+    listenChannel = ServerSocketChannel.open();
+    listenChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterClass
+  public void closeListenChannel() throws Exception
+  {
+    executor.shutdownNow();
+    close(listenChannel);
+  }
+
+  @Test
+  public void testEncryptedThenPlainSession() throws Exception
+  {
+    final Session[] sessions = openSessions(false);
+    final Session client = sessions[0];
+    final Session server = sessions[1];
+    try
+    {
+      assertThat(client.isEncrypted()).isTrue();
+      client.publish(new WindowMsg(1));
+      assertThat(((WindowMsg) server.receive()).getNumAck()).isEqualTo(1);
+      server.publish(new WindowMsg(2));
+      assertThat(((WindowMsg) client.receive()).getNumAck()).isEqualTo(2);
+
+      // As during the replication handshake, once the start messages have been exchanged
+      client.stopEncryption();
+      server.stopEncryption();
+      assertThat(client.isEncrypted()).isFalse();
+
+      client.publish(new WindowMsg(3));
+      assertThat(((WindowMsg) server.receive()).getNumAck()).isEqualTo(3);
+      server.publish(new WindowMsg(4));
+      assertThat(((WindowMsg) client.receive()).getNumAck()).isEqualTo(4);
+    }
+    finally
+    {
+      close(client, server);
+    }
+  }
+
+  @Test
+  public void testStartedSessionSendsAllMessagesInOrder() throws Exception
+  {
+    final Session[] sessions = openSessions(false);
+    final Session client = sessions[0];
+    final Session server = sessions[1];
+    try
+    {
+      client.setProtocolVersion(ProtocolVersion.getCurrentVersion());
+      client.setFrameCompression(true);
+      client.start();
+      client.waitForStartup();
+
+      final int nbMessages = 10000;
+      for (int i = 0; i < nbMessages; i++)
+      {
+        client.publish(new WindowMsg(i));
+      }
+      for (int i = 0; i < nbMessages; i++)
+      {
+        assertThat(((WindowMsg) server.receive()).getNumAck()).isEqualTo(i);
+      }
+    }
+    finally
+    {
+      close(client, server);
+    }
+  }
+
+  @Test
+  public void testBlockingSocketClient() throws Exception
+  {
+    final Session[] sessions = openSessions(true);
+    final Session client = sessions[0];
+    final Session server = sessions[1];
+    try
+    {
+      client.publish(new WindowMsg(1));
+      assertThat(((WindowMsg) server.receive()).getNumAck()).isEqualTo(1);
+      server.publish(new WindowMsg(2));
+      assertThat(((WindowMsg) client.receive()).getNumAck()).isEqualTo(2);
+
+      client.close();
+      assertThat(server.receive()).isInstanceOf(StopMsg.class);
+    }
+    finally
+    {
+      close(client, server);
+    }
+  }
+
+  @Test(expectedExceptions = SocketTimeoutException.class)
+  public void testReceiveTimeout() throws Exception
+  {
+    final Session[] sessions = openSessions(false);
+    try
+    {
+      sessions[1].setSoTimeout(100);
+      sessions[1].receive();
+    }
+    finally
+    {
+      close(sessions);
+    }
+  }
+
+  /** Returns a client session and the server session it is connected to. */
+  private Session[] openSessions(final boolean blockingClient) throws Exception
+  {
+    final ReplSessionSecurity security = getReplSessionSecurity();
+    final Future<Session> serverSession = executor.submit(new Callable<Session>()
+    {
+      @Override
+      public Session call() throws Exception
+      {
+        return security.createServerSession(listenChannel.accept(), TIMEOUT_MS);
+      }
+    });
+
+    final InetSocketAddress address = (InetSocketAddress) listenChannel.socket().getLocalSocketAddress();
+    final Session client;
+    if (blockingClient)
+    {
+      final Socket socket = new Socket();
+      socket.connect(address, TIMEOUT_MS);
+      client = security.createClientSession(socket, TIMEOUT_MS);
+    }
+    else
+    {
+      client = security.createClientSession(SocketChannel.open(address), TIMEOUT_MS);
+    }
+    return new Session[] { client, serverSession.get() };
+  }
+}
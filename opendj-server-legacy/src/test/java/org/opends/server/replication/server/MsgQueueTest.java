@@ -0,0 +1,305 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.common.CSNGenerator;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.UpdateMsg;
+import org.opends.server.types.DN;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MsgQueueTest extends ReplicationTestCase
+{
+  private static final String SUFFIX = "dc=example,dc=com";
+
+  private static UpdateMsg newMsg(CSNGenerator csnGen) throws Exception
+  {
+    return new DeleteMsg(DN.valueOf(SUFFIX), csnGen.newCSN(), "uuid");
+  }
+
+  @Test
+  public void testAddAndPollInOrder() throws Exception
+  {
+    final CSNGenerator csnGen = new CSNGenerator(1, 0);
+    final MsgQueue queue = new MsgQueue(10, 100000);
+    final List<UpdateMsg> added = new ArrayList<>();
+    int bytes = 0;
+    for (int i = 0; i < 5; i++)
+    {
+      final UpdateMsg msg = newMsg(csnGen);
+      assertThat(queue.add(msg)).isTrue();
+      added.add(msg);
+      bytes += msg.size();
+    }
+    assertThat(queue.count()).isEqualTo(5);
+    assertThat(queue.bytesCount()).isEqualTo(bytes);
+    assertThat(queue.peek()).isSameAs(added.get(0));
+
+    for (UpdateMsg msg : added)
+    {
+      assertThat(queue.poll()).isSameAs(msg);
+    }
+    assertThat(queue.poll()).isNull();
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.bytesCount()).isEqualTo(0);
+    assertThat(queue.hasOverflowed()).isFalse();
+  }
+
+  @Test
+  public void testOverflowOnCount() throws Exception
+  {
+    final CSNGenerator csnGen = new CSNGenerator(1, 0);
+    final MsgQueue queue = new MsgQueue(3, 100000);
+    // wrap around the ring several times
+    for (int lap = 0; lap < 10; lap++)
+    {
+      assertThat(queue.add(newMsg(csnGen))).isTrue();
+      assertThat(queue.add(newMsg(csnGen))).isTrue();
+      assertThat(queue.add(newMsg(csnGen))).isTrue();
+      assertThat(queue.add(newMsg(csnGen))).isFalse();
+      assertThat(queue.hasOverflowed()).isTrue();
+      assertThat(queue.count()).isEqualTo(3);
+
+      queue.clear();
+      assertThat(queue.hasOverflowed()).isFalse();
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  public void testOverflowOnBytesAfterMinimumCount() throws Exception
+  {
+    final CSNGenerator csnGen = new CSNGenerator(1, 0);
+    // every message is bigger than the bytes limit
+    final MsgQueue queue = new MsgQueue(100, 1);
+    for (int i = 0; i < 5; i++)
+    {
+      assertThat(queue.add(newMsg(csnGen))).isTrue();
+    }
+    assertThat(queue.add(newMsg(csnGen))).isFalse();
+    assertThat(queue.hasOverflowed()).isTrue();
+
+    queue.poll();
+    assertThat(queue.add(newMsg(csnGen))).isTrue();
+  }
+
+  @Test
+  public void testPollWaitsForProducer() throws Exception
+  {
+    final CSNGenerator csnGen = new CSNGenerator(1, 0);
+    final MsgQueue queue = new MsgQueue(10, 100000);
+    assertThat(queue.poll(10, TimeUnit.MILLISECONDS)).isNull();
+
+    final UpdateMsg msg = newMsg(csnGen);
+    final Thread producer = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        queue.add(msg);
+      }
+    };
+    producer.start();
+    final long start = System.nanoTime();
+    assertThat(queue.poll(1, TimeUnit.MINUTES)).isSameAs(msg);
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(30));
+    producer.join();
+  }
+
+  /** Each producer adds its own changes, the consumer must receive them in the order of each producer. */
+  @Test
+  public void testConcurrentProducers() throws Exception
+  {
+    final int nbProducers = 4;
+    final int nbMsgsPerProducer = 5000;
+    final MsgQueue queue = new MsgQueue(64, Integer.MAX_VALUE);
+    final List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < nbProducers; i++)
+    {
+      final List<UpdateMsg> msgs = new ArrayList<>();
+      final CSNGenerator csnGen = new CSNGenerator(i + 1, 0);
+      for (int j = 0; j < nbMsgsPerProducer; j++)
+      {
+        msgs.add(newMsg(csnGen));
+      }
+      producers.add(new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (UpdateMsg msg : msgs)
+          {
+            while (!queue.add(msg))
+            {
+              Thread.yield();
+            }
+          }
+        }
+      });
+    }
+    for (Thread producer : producers)
+    {
+      producer.start();
+    }
+
+    final CSN[] lastCSNs = new CSN[nbProducers + 1];
+    for (int received = 0; received < nbProducers * nbMsgsPerProducer; received++)
+    {
+      final UpdateMsg msg = queue.poll(1, TimeUnit.MINUTES);
+      assertThat(msg).isNotNull();
+      final CSN csn = msg.getCSN();
+      final CSN last = lastCSNs[csn.getServerId()];
+      assertThat(last == null || last.isOlderThan(csn)).isTrue();
+      lastCSNs[csn.getServerId()] = csn;
+    }
+    for (Thread producer : producers)
+    {
+      producer.join();
+    }
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.bytesCount()).isEqualTo(0);
+  }
+
+  /**
+   * Measures the throughput of the fan-out of the replication server domain:
+   * a few producers add every change to the queue of every handler while one
+   * consumer per handler drains its queue.
+   */
+  @Test(groups = { "slow" })
+  public void testFanOutBenchmark() throws Exception
+  {
+    final int nbProducers = 4;
+    final int nbHandlers = 32;
+    final int nbMsgsPerProducer = 100000;
+
+    final MsgQueue[] queues = new MsgQueue[nbHandlers];
+    for (int i = 0; i < nbHandlers; i++)
+    {
+      queues[i] = new MsgQueue(10000, 10000 * 100);
+    }
+    final UpdateMsg[][] msgs = new UpdateMsg[nbProducers][nbMsgsPerProducer];
+    for (int i = 0; i < nbProducers; i++)
+    {
+      final CSNGenerator csnGen = new CSNGenerator(i + 1, 0);
+      for (int j = 0; j < nbMsgsPerProducer; j++)
+      {
+        msgs[i][j] = newMsg(csnGen);
+      }
+    }
+
+    final AtomicLong consumed = new AtomicLong();
+    final AtomicLong overflows = new AtomicLong();
+    final CountDownLatch producersDone = new CountDownLatch(nbProducers);
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < nbProducers; i++)
+    {
+      final UpdateMsg[] producerMsgs = msgs[i];
+      threads.add(new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (UpdateMsg msg : producerMsgs)
+          {
+            for (MsgQueue queue : queues)
+            {
+              if (!queue.add(msg))
+              {
+                overflows.incrementAndGet();
+              }
+            }
+          }
+          producersDone.countDown();
+        }
+      });
+    }
+    for (final MsgQueue queue : queues)
+    {
+      threads.add(new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            while (producersDone.getCount() > 0 || !queue.isEmpty())
+            {
+              if (queue.poll(10, TimeUnit.MILLISECONDS) != null)
+              {
+                consumed.incrementAndGet();
+              }
+              if (queue.hasOverflowed())
+              {
+                // the handler would now read the changelog
+                queue.clear();
+              }
+            }
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    final long start = System.nanoTime();
+    for (Thread thread : threads)
+    {
+      thread.start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    final long nbAdds = (long) nbProducers * nbMsgsPerProducer * nbHandlers;
+    Reporter.log(String.format("fan-out to %d handlers: %d adds/s, %d consumed, %d overflows",
+        nbHandlers, nbAdds * 1000L / Math.max(1, elapsedMillis), consumed.get(), overflows.get()), true);
+    assertThat(consumed.get() + overflows.get()).isLessThanOrEqualTo(nbAdds);
+  }
+}
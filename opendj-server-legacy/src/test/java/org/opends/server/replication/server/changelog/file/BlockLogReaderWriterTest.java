@@ -32,7 +32,10 @@ import static org.opends.server.replication.server.changelog.file.BlockLogReader
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -122,6 +125,28 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  /**
+   * Tests that records written can be read correctly through a memory-mapped region,
+   * for different block sizes.
+   */
+  @Test(dataProvider="recordsData")
+  public void testWriteThenReadMapped(int blockSize, int expectedSizeOfFile,
+      List<Record<Integer, Integer>> records) throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize))
+    {
+      for (int i = 0; i < records.size(); i++)
+      {
+         Record<Integer, Integer> record = reader.readRecord();
+         assertThat(record).isEqualTo(records.get(i));
+      }
+      assertThat(reader.readRecord()).isNull();
+      assertThat(reader.getFilePosition()).isEqualTo(expectedSizeOfFile);
+    }
+  }
+
   @DataProvider(name = "recordsForSeek")
   Object[][] recordsForSeek()
   {
@@ -259,6 +284,60 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  @Test(dataProvider = "recordsForSeek")
+  public void testSeekToRecordMapped(int blockSize, List<Record<Integer, Integer>> records, int key,
+      KeyMatchingStrategy matchingStrategy, PositionStrategy positionStrategy, Record<Integer, Integer> expectedRecord,
+      boolean shouldBeFound) throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize))
+    {
+      Pair<Boolean, Record<Integer, Integer>> result = reader.seekToRecord(key, matchingStrategy, positionStrategy);
+
+      final SoftAssertions softly = new SoftAssertions();
+      softly.assertThat(result.getFirst()).isEqualTo(shouldBeFound);
+      softly.assertThat(result.getSecond()).isEqualTo(expectedRecord);
+      softly.assertAll();
+    }
+  }
+
+  @Test
+  public void testSeekToRecordWithSparseIndex() throws Exception
+  {
+    final int blockSize = 16;
+    final long fileSize = 8 * LogFileSparseIndex.INTERVAL_IN_BLOCKS * blockSize;
+    writeRecordsToReachFileSize(blockSize, fileSize);
+    final int maxKey = (int) fileSize / INT_RECORD_SIZE;
+
+    try (BlockLogReader<Integer, Integer> reader = newReader(blockSize))
+    {
+      final LogFileSparseIndex<Integer> builtIndex = reader.buildSparseIndex();
+      assertThat(builtIndex.size()).isGreaterThan(1);
+
+      final File indexFile = LogFileSparseIndex.getIndexFile(TEST_FILE);
+      builtIndex.write(indexFile, TEST_FILE.length(), RECORD_PARSER);
+      final LogFileSparseIndex<Integer> index = LogFileSparseIndex.read(indexFile, TEST_FILE.length(), RECORD_PARSER);
+      assertThat(index.size()).isEqualTo(builtIndex.size());
+      // a stale index must be ignored
+      assertThat(LogFileSparseIndex.read(indexFile, TEST_FILE.length() + 1, RECORD_PARSER)).isNull();
+
+      for (int key = 0; key <= maxKey + 1; key += 7)
+      {
+        final Pair<Boolean, Record<Integer, Integer>> expected =
+            reader.seekToRecord(key, GREATER_THAN_OR_EQUAL_TO_KEY, ON_MATCHING_KEY);
+        final Pair<Boolean, Record<Integer, Integer>> actual =
+            reader.seekToRecord(key, GREATER_THAN_OR_EQUAL_TO_KEY, ON_MATCHING_KEY, index);
+        assertThat(actual.getFirst()).isEqualTo(expected.getFirst());
+        assertThat(actual.getSecond()).isEqualTo(expected.getSecond());
+      }
+      assertThat(reader.seekToRecord(maxKey, EQUAL_TO_KEY, ON_MATCHING_KEY, index).getSecond())
+          .isEqualTo(record(maxKey));
+      assertThat(reader.seekToRecord(maxKey + 1, LESS_THAN_OR_EQUAL_TO_KEY, ON_MATCHING_KEY, index).getSecond())
+          .isEqualTo(record(maxKey));
+    }
+  }
+
   @Test
   public void testGetClosestMarkerBeforeOrAtPosition() throws Exception
   {
@@ -465,6 +544,16 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
         RECORD_PARSER, blockSize);
   }
 
+  private BlockLogReader<Integer, Integer> newMappedReader(int blockSize) throws IOException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(TEST_FILE, "r");
+         FileChannel channel = file.getChannel())
+    {
+      return BlockLogReader.newMappedReaderForTests(TEST_FILE, channel.map(MapMode.READ_ONLY, 0, channel.size()),
+          RECORD_PARSER, blockSize);
+    }
+  }
+
   private BlockLogReader<Integer, Integer> newReaderWithNullFile(int blockSize) throws FileNotFoundException
   {
     return BlockLogReader.newReaderForTests(null, null, RECORD_PARSER, blockSize);
@@ -0,0 +1,165 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.server.changelog.file.Log.LogRotationParameters;
+import org.opends.server.util.StaticUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(sequential=true)
+public class GroupCommitSyncerTest extends DirectoryServerTestCase
+{
+  private static final File LOG_DIRECTORY = new File(TestCaseUtils.getUnitTestRootPath(), "changelog-group-commit");
+  private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private Log<String, String> log;
+  private GroupCommitSyncer syncer;
+
+  @BeforeMethod
+  public void openLog() throws Exception
+  {
+    StaticUtils.recursiveDelete(LOG_DIRECTORY);
+    final LogRotationParameters rotationParams = new LogRotationParameters(1024 * 1024, 0, 0);
+    log = Log.openLog(mock(ReplicationEnvironment.class), LOG_DIRECTORY, LogFileTest.RECORD_PARSER, rotationParams);
+  }
+
+  @AfterMethod
+  public void closeLog() throws Exception
+  {
+    if (syncer != null)
+    {
+      syncer.initiateShutdown();
+      syncer.join();
+      syncer = null;
+    }
+    log.close();
+    StaticUtils.recursiveDelete(LOG_DIRECTORY);
+  }
+
+  @Test
+  public void testTaskRunsImmediatelyWhenNothingToSync() throws Exception
+  {
+    syncer = newStartedSyncer(ONE_HOUR, Long.MAX_VALUE);
+    final RecordingTask task = new RecordingTask();
+
+    syncer.runWhenSynced(task);
+
+    assertThat(task.latch.getCount()).isEqualTo(0);
+    assertThat(task.thread.get()).isSameAs(Thread.currentThread());
+  }
+
+  @Test
+  public void testTaskRunsOnceIntervalElapsed() throws Exception
+  {
+    syncer = newStartedSyncer(50, Long.MAX_VALUE);
+    final RecordingTask task = new RecordingTask();
+
+    append("key001");
+    syncer.runWhenSynced(task);
+
+    assertThat(task.latch.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(task.thread.get()).isSameAs(syncer);
+  }
+
+  @Test
+  public void testTaskRunsOnceSizeReached() throws Exception
+  {
+    syncer = newStartedSyncer(ONE_HOUR, 100);
+    final RecordingTask task1 = new RecordingTask();
+    final RecordingTask task2 = new RecordingTask();
+
+    append("key001");
+    syncer.runWhenSynced(task1);
+    Thread.sleep(50);
+    assertThat(task1.latch.getCount()).as("window must still be open").isEqualTo(1);
+
+    append("key002");
+    syncer.runWhenSynced(task2);
+
+    assertThat(task1.latch.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(task2.latch.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testShutdownRunsWaitingTasks() throws Exception
+  {
+    syncer = newStartedSyncer(ONE_HOUR, Long.MAX_VALUE);
+    final RecordingTask task = new RecordingTask();
+
+    append("key001");
+    syncer.runWhenSynced(task);
+    syncer.initiateShutdown();
+    syncer.join(10000);
+
+    assertThat(syncer.isAlive()).isFalse();
+    assertThat(task.latch.getCount()).isEqualTo(0);
+
+    // once stopped, nothing is left to sync by this syncer
+    final RecordingTask lateTask = new RecordingTask();
+    append("key002");
+    syncer.runWhenSynced(lateTask);
+    assertThat(lateTask.latch.getCount()).isEqualTo(0);
+  }
+
+  private GroupCommitSyncer newStartedSyncer(long intervalInMillis, long sizeInBytes)
+  {
+    final GroupCommitSyncer newSyncer = new GroupCommitSyncer(intervalInMillis, sizeInBytes);
+    newSyncer.start();
+    return newSyncer;
+  }
+
+  private void append(String key) throws Exception
+  {
+    log.append(Record.from(key, "value"));
+    syncer.appended(log, 60);
+  }
+
+  /** Task recording the thread running it. */
+  private static final class RecordingTask implements Runnable
+  {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicReference<Thread> thread = new AtomicReference<>();
+
+    @Override
+    public void run()
+    {
+      thread.set(Thread.currentThread());
+      latch.countDown();
+    }
+  }
+}
@@ -32,6 +32,9 @@ import static org.opends.server.replication.server.changelog.api.DBCursor.Positi
 import static org.opends.server.replication.server.changelog.file.LogFileTest.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.opends.server.DirectoryServerTestCase;
@@ -79,6 +82,12 @@ public class LogTest extends DirectoryServerTestCase
   }
 
   private Log<String, String> openLog(RecordParser<String, String> parser) throws ChangelogException
+  {
+    return openLog(parser, false);
+  }
+
+  private Log<String, String> openLog(RecordParser<String, String> parser, boolean isMemoryMapped)
+      throws ChangelogException
   {
     // Each string record has a length of approximately 18 bytes
     // This size is set in order to have 2 records per log file before the rotation happens
@@ -89,6 +98,7 @@ public class LogTest extends DirectoryServerTestCase
     final LogRotationParameters rotationParams = new LogRotationParameters(sizeLimitPerFileInBytes,
         NO_TIME_BASED_LOG_ROTATION, NO_TIME_BASED_LOG_ROTATION);
     final ReplicationEnvironment replicationEnv = mock(ReplicationEnvironment.class);
+    when(replicationEnv.isMemoryMappedReadsEnabled()).thenReturn(isMemoryMapped);
 
     return Log.openLog(replicationEnv, LOG_DIRECTORY, parser, rotationParams);
   }
@@ -103,6 +113,19 @@ public class LogTest extends DirectoryServerTestCase
     }
   }
 
+  @Test
+  public void testCursorWithMemoryMappedReads() throws Exception
+  {
+    try (Log<String, String> log = openLog(LogFileTest.RECORD_PARSER, true);
+        DBCursor<Record<String, String>> cursor1 = log.getCursor();
+        DBCursor<Record<String, String>> cursor2 = log.getCursor("key005"))
+    {
+      advanceCursorUpTo(cursor1, 1, 3);
+      assertThatCursorCanBeFullyReadFromStart(cursor2, 5, 10);
+      assertThatCursorCanBeFullyRead(cursor1, 4, 10);
+    }
+  }
+
   @Test
   public void testCursorWhenGivenAnExistingKey() throws Exception
   {
@@ -299,6 +322,90 @@ public class LogTest extends DirectoryServerTestCase
     }
   }
 
+  /**
+   *  This test should be disabled.
+   *  Enable it locally when you need to compare the performance of concurrent cursors
+   *  replaying a large log, reading sealed log files with and without memory mapping.
+   *  Run it several times to compare with a warm file system cache.
+   */
+  @Test(enabled=false)
+  public void concurrentCursorsReplaySpeed() throws Exception
+  {
+    // You may change these values
+    final long logSizeInBytes = 10L * 1024 * 1024 * 1024;
+    final int numberOfCursors = 8;
+
+    final long sizeOf10MB = 10 * 1024 * 1024;
+    final LogRotationParameters rotationParams = new LogRotationParameters(
+        sizeOf10MB, NO_TIME_BASED_LOG_ROTATION, NO_TIME_BASED_LOG_ROTATION);
+    final ReplicationEnvironment replicationEnv = mock(ReplicationEnvironment.class);
+    StaticUtils.recursiveDelete(LOG_DIRECTORY);
+
+    final String padding = String.format("%0200d", 0);
+    long numberOfRecords = 0;
+    try (Log<String, String> writeLog =
+        Log.openLog(replicationEnv, LOG_DIRECTORY, LogFileTest.RECORD_PARSER, rotationParams))
+    {
+      // each record takes approximately 230 bytes in the log
+      for (long size = 0; size < logSizeInBytes; size += 230)
+      {
+        numberOfRecords++;
+        writeLog.append(Record.from(String.format("key%010d", numberOfRecords), padding));
+      }
+    }
+    System.out.println("Log of " + numberOfRecords + " records, " + numberOfCursors + " cursors");
+
+    for (boolean isMemoryMapped : new boolean[] { false, true, false, true })
+    {
+      when(replicationEnv.isMemoryMappedReadsEnabled()).thenReturn(isMemoryMapped);
+      try (final Log<String, String> log =
+          Log.openLog(replicationEnv, LOG_DIRECTORY, LogFileTest.RECORD_PARSER, rotationParams))
+      {
+        final AtomicLong recordsRead = new AtomicLong();
+        final AtomicReference<Exception> exceptionRef = new AtomicReference<>();
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < numberOfCursors; i++)
+        {
+          readers.add(new Thread()
+          {
+            @Override
+            public void run()
+            {
+              try (DBCursor<Record<String, String>> cursor = log.getCursor())
+              {
+                long count = 0;
+                while (cursor.next())
+                {
+                  count++;
+                }
+                recordsRead.addAndGet(count);
+              }
+              catch (Exception e)
+              {
+                exceptionRef.compareAndSet(null, e);
+              }
+            }
+          });
+        }
+
+        final long t0 = System.nanoTime();
+        for (Thread reader : readers)
+        {
+          reader.start();
+        }
+        for (Thread reader : readers)
+        {
+          reader.join();
+        }
+        final long timeInMillis = Math.max(1, (System.nanoTime() - t0) / 1000000);
+        assertThat(exceptionRef.get()).isNull();
+        assertThat(recordsRead.get()).isEqualTo(numberOfRecords * numberOfCursors);
+        System.out.println((isMemoryMapped ? "Memory-mapped" : "File") + " reads: " + timeInMillis + " ms, "
+            + (recordsRead.get() * 1000 / timeInMillis) + " records/s");
+      }
+    }
+  }
+
   @Test
   public void testWriteWhenCursorIsOpenedAndAheadLogFileIsRotated() throws Exception
   {
@@ -33,11 +33,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Random;
 
 import org.opends.server.DirectoryServerTestCase;
 import org.opends.server.TestCaseUtils;
@@ -228,6 +231,75 @@ public class BackupManagerTestCase extends DirectoryServerTestCase
     cleanDirectories(sourceDirectory, backupPath);
   }
 
+  /**
+   * Ensures that an incremental backup only archives the changed blocks of the
+   * files, and that restoring it applies these blocks over the content of the
+   * base backup.
+   */
+  @Test
+  public void testBlockLevelIncrementalBackupThenRestore() throws Exception
+  {
+    Path sourceDirectory = createSourceDirectory("blocks");
+    BackupDirectory backupDir = buildBackupDir("blocks");
+    String backupPath = backupDir.getPath();
+    BackupManager backupManager = new BackupManager(BACKEND_ID);
+
+    // random content cannot be compressed
+    byte[] content = new byte[3 * BlockManifest.BLOCK_SIZE + 100];
+    new Random(0).nextBytes(content);
+    Path bigFile = sourceDirectory.resolve(FILE_NAME_PREFIX + "big");
+    createFile(bigFile, content);
+    Path smallFile = sourceDirectory.resolve(FILE_NAME_PREFIX + 0);
+    createFile(smallFile, StaticUtils.getBytes(smallFile.getFileName().toString()));
+    List<Path> files = Arrays.asList(bigFile, smallFile);
+
+    String baseBackupId = BACKUP_ID + "_blocks0";
+    BackupConfig baseBackupConfig = new BackupConfig(backupDir, baseBackupId, true);
+    baseBackupConfig.setHashData(true);
+    baseBackupConfig.setCompressData(true);
+    backupManager.createBackup(mockBackupable(sourceDirectory, files), baseBackupConfig);
+
+    File baseArchive = new File(backupPath, getArchiveFileName(baseBackupId));
+    assertThat(baseArchive.length()).isGreaterThan(3 * BlockManifest.BLOCK_SIZE);
+    assertThat(new File(backupPath, getArchiveFileName(baseBackupId) + ".blocks")).exists();
+
+    // change the second block and the size of the big file, rewrite the small file with the same content
+    byte[] changedContent = Arrays.copyOf(content, content.length + 50);
+    Arrays.fill(changedContent, BlockManifest.BLOCK_SIZE + 10, BlockManifest.BLOCK_SIZE + 20, (byte) 0);
+    try (RandomAccessFile file = new RandomAccessFile(bigFile.toFile(), "rw"))
+    {
+      file.write(changedContent);
+    }
+    createFile(smallFile, StaticUtils.getBytes(smallFile.getFileName().toString()));
+
+    BackupConfig backupConfig = new BackupConfig(backupDir, BACKUP_ID, true);
+    backupConfig.setHashData(true);
+    backupConfig.setCompressData(true);
+    backupManager.createBackup(mockBackupable(sourceDirectory, files), backupConfig);
+
+    // only the second and the last blocks of the big file are archived
+    File archive = new File(backupPath, getArchiveFileName(BACKUP_ID));
+    assertThat(archive.length()).isLessThan(2 * BlockManifest.BLOCK_SIZE);
+    assertThat(backupDir.getBackupInfo(BACKUP_ID).getDependencies()).containsOnly(baseBackupId);
+
+    Files.delete(bigFile);
+    Files.delete(smallFile);
+    backupManager.restoreBackup(mockBackupable(sourceDirectory, files), new RestoreConfig(backupDir, BACKUP_ID, false));
+
+    assertThat(Files.readAllBytes(bigFile)).isEqualTo(changedContent);
+    assertThat(smallFile.toFile()).hasContent(smallFile.getFileName().toString());
+
+    // verifying the backup checks the hash of its archive and of its block manifest
+    backupManager.restoreBackup(mockBackupable(sourceDirectory, files), new RestoreConfig(backupDir, BACKUP_ID, true));
+
+    backupManager.removeBackup(backupDir, BACKUP_ID);
+    assertThat(archive).doesNotExist();
+    assertThat(new File(backupPath, getArchiveFileName(BACKUP_ID) + ".blocks")).doesNotExist();
+    backupManager.removeBackup(backupDir, baseBackupId);
+
+    cleanDirectories(sourceDirectory, backupPath);
+  }
+
   @Test
   public void testCreateDirectoryWithNumericSuffix() throws Exception
   {
@@ -320,6 +392,15 @@ public class BackupManagerTestCase extends DirectoryServerTestCase
     return backupable;
   }
 
+  private Backupable mockBackupable(Path sourceDirectory, List<Path> files) throws Exception
+  {
+    Backupable backupable = mock(Backupable.class);
+    when(backupable.getDirectory()).thenReturn(sourceDirectory.toFile());
+    when(backupable.getFilesToBackup()).thenReturn(files.listIterator());
+    when(backupable.isDirectRestore()).thenReturn(true);
+    return backupable;
+  }
+
   /**
    * Create files in source directory + additional files under a subdirectory of source directory
    */
@@ -0,0 +1,168 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *      Copyright 2015 ForgeRock AS
+ */
+package org.opends.server.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.types.LDIFImportConfig;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * This class defines a set of tests for the {@link BinaryEntryFormat} class.
+ */
+@SuppressWarnings("javadoc")
+public final class BinaryEntryFormatTestCase extends UtilTestCase
+{
+  private List<Entry> entries;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    entries = TestCaseUtils.makeEntries(
+        "dn: dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: domain",
+        "dc: example",
+        "",
+        "dn: ou=People,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: People",
+        "",
+        "dn: uid=user.0,ou=People,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user.0",
+        "cn: User 0",
+        "sn: 0",
+        "description: first line",
+        "description: second line");
+  }
+
+  @Test
+  public void testEncodeDecode() throws Exception
+  {
+    for (Entry entry : entries)
+    {
+      final ByteString encoded = BinaryEntryFormat.encode(entry);
+      assertThat(BinaryEntryFormat.decodeDN(encoded)).isEqualTo(entry.getName());
+      final Entry decoded = BinaryEntryFormat.decode(encoded);
+      assertThat(decoded.getName()).isEqualTo(entry.getName());
+      assertThat(decoded.toLDIFString()).isEqualTo(entry.toLDIFString());
+    }
+  }
+
+  @Test
+  public void testReadTruncatedEntry() throws Exception
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BinaryEntryFormat.writeEncodedEntry(output, BinaryEntryFormat.encode(entries.get(0)));
+    final byte[] bytes = output.toByteArray();
+
+    final ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+    assertThat(BinaryEntryFormat.readEncodedEntry(input)).isNotNull();
+    assertThat(BinaryEntryFormat.readEncodedEntry(input)).isNull();
+
+    try
+    {
+      BinaryEntryFormat.readEncodedEntry(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+      failBecauseExceptionWasNotThrown(EOFException.class);
+    }
+    catch (EOFException expected)
+    {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testExportImportBinaryEntries() throws Exception
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final LDIFExportConfig exportConfig = new LDIFExportConfig(output);
+    exportConfig.setBinaryEntries(true);
+    final LDIFWriter writer = new LDIFWriter(exportConfig);
+    for (Entry entry : entries)
+    {
+      assertThat(writer.writeEntry(entry)).isTrue();
+    }
+    writer.close();
+
+    final LDIFImportConfig importConfig = new LDIFImportConfig(new ByteArrayInputStream(output.toByteArray()));
+    importConfig.setBinaryEntries(true);
+    importConfig.setValidateSchema(false);
+    final LDIFReader reader = new LDIFReader(importConfig);
+    try
+    {
+      for (Entry entry : entries)
+      {
+        final Entry read = reader.readEntry();
+        assertThat(read).isNotNull();
+        assertThat(read.toLDIFString()).isEqualTo(entry.toLDIFString());
+      }
+      assertThat(reader.readEntry()).isNull();
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testEntryCounterAcrossChunks() throws Exception
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (Entry entry : entries)
+    {
+      BinaryEntryFormat.writeEncodedEntry(output, BinaryEntryFormat.encode(entry));
+    }
+    final byte[] bytes = output.toByteArray();
+
+    for (int chunkSize : new int[] { 1, 3, 7, 64, bytes.length })
+    {
+      final BinaryEntryFormat.EntryCounter counter = new BinaryEntryFormat.EntryCounter();
+      int count = 0;
+      for (int offset = 0; offset < bytes.length; offset += chunkSize)
+      {
+        count += counter.count(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+      }
+      assertThat(count).as("chunk size " + chunkSize).isEqualTo(entries.size());
+    }
+  }
+}